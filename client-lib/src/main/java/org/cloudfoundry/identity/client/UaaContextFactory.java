@@ -20,13 +20,20 @@ import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolException;
 import org.apache.http.client.RedirectStrategy;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
+import org.cloudfoundry.identity.client.token.TokenKeyCache;
 import org.cloudfoundry.identity.client.token.TokenRequest;
+import org.cloudfoundry.identity.client.token.TokenValidator;
 import org.cloudfoundry.identity.uaa.oauth.token.CompositeAccessToken;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -83,6 +90,16 @@ import static org.springframework.security.oauth2.common.AuthenticationScheme.he
 
 public class UaaContextFactory {
 
+    /**
+     * Maximum number of pooled connections of the shared transport
+     */
+    public static final int MAX_CONNECTIONS = 200;
+
+    /**
+     * Maximum number of pooled connections per host of the shared transport
+     */
+    public static final int MAX_CONNECTIONS_PER_ROUTE = 50;
+
     /**
      * UAA Base URI
      */
@@ -98,6 +115,10 @@ public class UaaContextFactory {
 
     private String tokenPath = "/oauth/token";
     private String authorizePath = "/oauth/authorize";
+    private String tokenKeysPath = "/token_keys";
+    private String checkTokenPath = "/check_token";
+    private ClientHttpRequestFactory requestFactory;
+    private UaaTokenCache tokenCache;
 
     /**
      * Instantiates a context factory to authenticate against the UAA
@@ -128,6 +149,55 @@ public class UaaContextFactory {
         return this;
     }
 
+    /**
+     * Sets the token keys endpoint path. If not invoked, the default is /token_keys
+     * @param path the path for the token keys endpoint.
+     * @return this mutable object
+     */
+    public UaaContextFactory tokenKeysPath(String path) {
+        this.tokenKeysPath = path;
+        return this;
+    }
+
+    /**
+     * Sets the check token endpoint path. If not invoked, the default is /check_token
+     * @param path the path for the check token endpoint.
+     * @return this mutable object
+     */
+    public UaaContextFactory checkTokenPath(String path) {
+        this.checkTokenPath = path;
+        return this;
+    }
+
+    /**
+     * Sets the request factory used for the token requests and by the rest templates of the
+     * contexts created by this factory. If not invoked, a pooled transport shared by all
+     * factories is used, see {@link #getPooledClientHttpRequestFactory(boolean)}
+     * @param requestFactory the request factory
+     * @return this mutable object
+     */
+    public UaaContextFactory requestFactory(ClientHttpRequestFactory requestFactory) {
+        this.requestFactory = requestFactory;
+        return this;
+    }
+
+    /**
+     * Sets a cache for the contexts of client_credentials and password grants.
+     * Cached contexts, including their rest templates, are shared by all callers
+     * that make an equivalent token request. If not invoked, every call to
+     * {@link #authenticate(TokenRequest)} fetches a new token.
+     * @param tokenCache the cache, may be shared between factories
+     * @return this mutable object
+     */
+    public UaaContextFactory tokenCache(UaaTokenCache tokenCache) {
+        this.tokenCache = tokenCache;
+        return this;
+    }
+
+    public UaaTokenCache getTokenCache() {
+        return tokenCache;
+    }
+
     /**
      * Returns the authorize URI
      * @return the UAA authorization URI
@@ -150,6 +220,38 @@ public class UaaContextFactory {
         return tokenURI.build().toUri();
     }
 
+    /**
+     * Returns the token keys URI
+     * @return the UAA token keys URI
+     */
+    public URI getTokenKeysUri() {
+        return UriComponentsBuilder.newInstance().uri(uaaURI).path(tokenKeysPath).build().toUri();
+    }
+
+    /**
+     * Returns the check token URI
+     * @return the UAA check token URI
+     */
+    public URI getCheckTokenUri() {
+        return UriComponentsBuilder.newInstance().uri(uaaURI).path(checkTokenPath).build().toUri();
+    }
+
+    /**
+     * Creates a new {@link TokenValidator} that validates tokens issued by this UAA locally,
+     * with the keys of the token keys endpoint. The expected issuer is the token endpoint.
+     * Use {@link TokenValidator#setCheckTokenFallback(URI, String, String)} with {@link #getCheckTokenUri()}
+     * to also accept opaque tokens.
+     * @param skipSslValidation true to skip SSL validation when fetching keys or checking tokens
+     * @return a new token validator with its own key cache
+     */
+    public TokenValidator tokenValidator(boolean skipSslValidation) {
+        ClientHttpRequestFactory factory = requestFactory != null ? requestFactory : getPooledClientHttpRequestFactory(skipSslValidation);
+        TokenKeyCache keys = new TokenKeyCache(getTokenKeysUri()).setRequestFactory(factory);
+        return new TokenValidator(keys)
+            .setIssuer(getTokenUri().toString())
+            .setRequestFactory(factory);
+    }
+
     /**
      * Creates a new {@link TokenRequest} object.
      * The object will have the token an authorize endpoints already configured.
@@ -175,6 +277,13 @@ public class UaaContextFactory {
         if (!request.isValid()) {
             throw new IllegalArgumentException("Invalid token request.");
         }
+        if (tokenCache != null && tokenCache.isCacheable(request)) {
+            return tokenCache.get(request, () -> fetchContext(request));
+        }
+        return fetchContext(request);
+    }
+
+    protected UaaContext fetchContext(TokenRequest request) {
         switch (request.getGrantType()) {
             case CLIENT_CREDENTIALS: return authenticateClientCredentials(request);
             case PASSWORD:
@@ -196,10 +305,7 @@ public class UaaContextFactory {
             throw new IllegalArgumentException(e);
         }
 
-        RestTemplate template = new RestTemplate();
-        if (request.isSkipSslValidation()) {
-            template.setRequestFactory(getNoValidatingClientHttpRequestFactory());
-        }
+        RestTemplate template = new RestTemplate(getRequestFactory(request));
         HttpHeaders headers = new HttpHeaders();
         headers.add(HttpHeaders.AUTHORIZATION, clientBasicAuth);
         headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
@@ -394,16 +500,28 @@ public class UaaContextFactory {
     }
 
     /**
-     * If the {@link TokenRequest#isSkipSslValidation()} returns true, the rest template
-     * will be configured
+     * Returns the request factory configured on this factory or, if there is none,
+     * the shared pooled transport matching {@link TokenRequest#isSkipSslValidation()}
+     * @param tokenRequest the token request
+     * @return the request factory to use for the request
+     */
+    protected ClientHttpRequestFactory getRequestFactory(TokenRequest tokenRequest) {
+        if (requestFactory != null) {
+            return requestFactory;
+        }
+        return getPooledClientHttpRequestFactory(tokenRequest.isSkipSslValidation());
+    }
+
+    /**
+     * Configures the rest template and the access token providers with the request factory
+     * for the token request. If the {@link TokenRequest#isSkipSslValidation()} returns true,
+     * that request factory does not validate certificates.
      * @param tokenRequest
      * @param template
      */
     protected void skipSslValidation(TokenRequest tokenRequest, OAuth2RestTemplate template, List<OAuth2AccessTokenSupport> existingProviders)  {
-        ClientHttpRequestFactory requestFactory = null;
-        if (tokenRequest.isSkipSslValidation()) {
-            requestFactory = getNoValidatingClientHttpRequestFactory();
-        }
+        ClientHttpRequestFactory requestFactory = getRequestFactory(tokenRequest);
+        template.setRequestFactory(requestFactory);
         List<OAuth2AccessTokenSupport> accessTokenProviders =
             existingProviders!=null ? existingProviders :
             Arrays.<OAuth2AccessTokenSupport>asList(
@@ -414,34 +532,33 @@ public class UaaContextFactory {
             );
         List<AccessTokenProvider> providers = new ArrayList<>();
         for (OAuth2AccessTokenSupport provider : accessTokenProviders) {
-            if (requestFactory!=null) {
-                provider.setRequestFactory(requestFactory);
-            }
+            provider.setRequestFactory(requestFactory);
             providers.add((AccessTokenProvider) provider);
         }
         AccessTokenProviderChain chain = new AccessTokenProviderChain(providers);
         template.setAccessTokenProvider(chain);
     }
 
+    /**
+     * Returns a request factory backed by a connection pool that is shared by all
+     * factories in this class loader, so that connections to the UAA are reused
+     * across token requests and API calls.
+     * @param skipSslValidation true for the transport that does not validate certificates
+     * @return the shared request factory
+     */
+    public static ClientHttpRequestFactory getPooledClientHttpRequestFactory(boolean skipSslValidation) {
+        return skipSslValidation ? PooledTransport.NON_VALIDATING : PooledTransport.VALIDATING;
+    }
+
     public static ClientHttpRequestFactory getNoValidatingClientHttpRequestFactory() {
         return getNoValidatingClientHttpRequestFactory(true);
     }
     public static ClientHttpRequestFactory getNoValidatingClientHttpRequestFactory(boolean followRedirects) {
         ClientHttpRequestFactory requestFactory;
-        SSLContext sslContext;
-        try {
-            sslContext = new SSLContextBuilder().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        } catch (KeyManagementException e) {
-            throw new RuntimeException(e);
-        } catch (KeyStoreException e) {
-            throw new RuntimeException(e);
-        }
         //
         CloseableHttpClient httpClient =
             HttpClients.custom()
-                .setSslcontext(sslContext)
+                .setSslcontext(getNoValidatingSslContext())
                 .setRedirectStrategy(
                     followRedirects ? new DefaultRedirectStrategy() : new RedirectStrategy() {
                         @Override
@@ -460,4 +577,38 @@ public class UaaContextFactory {
         return requestFactory;
     }
 
+    private static SSLContext getNoValidatingSslContext() {
+        try {
+            return new SSLContextBuilder().loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (KeyManagementException e) {
+            throw new RuntimeException(e);
+        } catch (KeyStoreException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class PooledTransport {
+        private static final ClientHttpRequestFactory VALIDATING = create(false);
+        private static final ClientHttpRequestFactory NON_VALIDATING = create(true);
+
+        private static ClientHttpRequestFactory create(boolean skipSslValidation) {
+            RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory());
+            if (skipSslValidation) {
+                registry.register("https", new SSLConnectionSocketFactory(getNoValidatingSslContext()));
+            } else {
+                registry.register("https", SSLConnectionSocketFactory.getSocketFactory());
+            }
+            PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry.build());
+            connectionManager.setMaxTotal(MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+            CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .useSystemProperties()
+                .build();
+            return new HttpComponentsClientHttpRequestFactory(httpClient);
+        }
+    }
 }
@@ -0,0 +1,357 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.client.token.GrantType;
+import org.cloudfoundry.identity.client.token.TokenRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Thread safe cache of authenticated {@link UaaContext} objects for the
+ * {@link GrantType#CLIENT_CREDENTIALS} and {@link GrantType#PASSWORD} grants.
+ * <p>
+ * Entries are keyed by grant type, token endpoint, client, user and requested scopes,
+ * together with a digest of the credentials so that a context is only ever handed
+ * to callers presenting the same secret or password.
+ * <p>
+ * A token is refreshed {@link #setRefreshBeforeMillis(long) ahead of its expiry},
+ * less a random {@link #setJitterMillis(long) jitter} so that many clients started
+ * together do not all refresh at the same moment. Fetches are single flight: while a
+ * token is still valid one caller refreshes it and everybody else keeps using the
+ * current one, and once a token has expired all callers wait for the same fetch.
+ * <p>
+ * The cache holds at most {@link #setMaxEntries(int) maxEntries} contexts. When a new
+ * entry would exceed it, expired entries are removed first, then the least recently
+ * used ones.
+ */
+public class UaaTokenCache {
+
+    public static final long DEFAULT_REFRESH_BEFORE_MILLIS = 30000;
+    public static final long DEFAULT_JITTER_MILLIS = 10000;
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private long refreshBeforeMillis = DEFAULT_REFRESH_BEFORE_MILLIS;
+    private long jitterMillis = DEFAULT_JITTER_MILLIS;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    public long getRefreshBeforeMillis() {
+        return refreshBeforeMillis;
+    }
+
+    /**
+     * Sets how long before its expiry a token is refreshed. Defaults to 30 seconds.
+     * @param refreshBeforeMillis the refresh margin in milliseconds
+     * @return this mutable object
+     */
+    public UaaTokenCache setRefreshBeforeMillis(long refreshBeforeMillis) {
+        this.refreshBeforeMillis = refreshBeforeMillis;
+        return this;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /**
+     * Sets the upper bound of the random time subtracted from each refresh time. Defaults to 10 seconds.
+     * @param jitterMillis the maximum jitter in milliseconds
+     * @return this mutable object
+     */
+    public UaaTokenCache setJitterMillis(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+        return this;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of cached contexts. Defaults to 1000.
+     * @param maxEntries the maximum number of entries, at least 1
+     * @return this mutable object
+     */
+    public UaaTokenCache setMaxEntries(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+        return this;
+    }
+
+    /**
+     * Returns true if tokens for this request may be cached
+     * @param request the token request
+     * @return true for client_credentials and password grants
+     */
+    public boolean isCacheable(TokenRequest request) {
+        return request.getGrantType() == GrantType.CLIENT_CREDENTIALS || request.getGrantType() == GrantType.PASSWORD;
+    }
+
+    /**
+     * Returns the cached context for the request, fetching one with the loader if there is none
+     * or if it is due for a refresh.
+     * @param request a cacheable token request
+     * @param loader performs the token request
+     * @return an authenticated context
+     */
+    public UaaContext get(TokenRequest request, Supplier<UaaContext> loader) {
+        long now = currentTimeMillis();
+        Key key = new Key(request);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry created = new Entry();
+            entry = entries.computeIfAbsent(key, k -> created);
+            if (entry == created && entries.size() > maxEntries) {
+                evict(key, now);
+            }
+        }
+        entry.lastUsed = now;
+        Cached cached = entry.cached;
+        if (cached != null && now < cached.refreshAt) {
+            hits.incrementAndGet();
+            return cached.context;
+        }
+        if (cached != null && now < cached.expiresAt) {
+            CompletableFuture<UaaContext> refresh = new CompletableFuture<>();
+            if (!entry.inflight.compareAndSet(null, refresh)) {
+                hits.incrementAndGet();
+                return cached.context;
+            }
+            try {
+                return load(entry, loader, refresh);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to refresh token for client " + request.getClientId() + ", using the current token until it expires.", e);
+                return cached.context;
+            }
+        }
+        while (true) {
+            CompletableFuture<UaaContext> pending = entry.inflight.get();
+            if (pending != null) {
+                return await(pending);
+            }
+            CompletableFuture<UaaContext> fetch = new CompletableFuture<>();
+            if (entry.inflight.compareAndSet(null, fetch)) {
+                return load(entry, loader, fetch);
+            }
+        }
+    }
+
+    /**
+     * Removes the cached context for the request, if any
+     * @param request the token request
+     */
+    public void invalidate(TokenRequest request) {
+        entries.remove(new Key(request));
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of tokens fetched from the token endpoint
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * @return the number of failed token fetches
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private UaaContext load(Entry entry, Supplier<UaaContext> loader, CompletableFuture<UaaContext> future) {
+        try {
+            Cached cached = entry.cached;
+            if (cached != null && currentTimeMillis() < cached.refreshAt) {
+                //another caller finished a fetch while we were looking
+                hits.incrementAndGet();
+                future.complete(cached.context);
+                return cached.context;
+            }
+            UaaContext context;
+            try {
+                context = loader.get();
+                fetches.incrementAndGet();
+            } catch (RuntimeException e) {
+                failures.incrementAndGet();
+                throw e;
+            }
+            entry.cached = cache(context);
+            future.complete(context);
+            return context;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            entry.inflight.set(null);
+        }
+    }
+
+    private synchronized void evict(Key added, long now) {
+        entries.entrySet().removeIf(e -> !e.getKey().equals(added) && e.getValue().isExpired(now));
+        while (entries.size() > maxEntries) {
+            Key eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+                if (!e.getKey().equals(added) && e.getValue().lastUsed < eldestUse) {
+                    eldest = e.getKey();
+                    eldestUse = e.getValue().lastUsed;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            entries.remove(eldest);
+        }
+    }
+
+    private Cached cache(UaaContext context) {
+        Date expiration = context.getToken() == null ? null : context.getToken().getExpiration();
+        if (expiration == null) {
+            return new Cached(context, Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+        long now = currentTimeMillis();
+        long expiresAt = expiration.getTime();
+        long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0;
+        long refreshAt = Math.max(now, expiresAt - refreshBeforeMillis - jitter);
+        return new Cached(context, refreshAt, expiresAt);
+    }
+
+    private UaaContext await(CompletableFuture<UaaContext> pending) {
+        try {
+            UaaContext context = pending.join();
+            hits.incrementAndGet();
+            return context;
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        private volatile Cached cached;
+        private volatile long lastUsed;
+        private final AtomicReference<CompletableFuture<UaaContext>> inflight = new AtomicReference<>();
+
+        private boolean isExpired(long now) {
+            Cached current = cached;
+            return current != null && now >= current.expiresAt && inflight.get() == null;
+        }
+    }
+
+    private static class Cached {
+        private final UaaContext context;
+        private final long refreshAt;
+        private final long expiresAt;
+
+        private Cached(UaaContext context, long refreshAt, long expiresAt) {
+            this.context = context;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Key {
+        private final GrantType grantType;
+        private final String tokenEndpoint;
+        private final String clientId;
+        private final String username;
+        private final TreeSet<String> scopes;
+        private final boolean idToken;
+        private final boolean skipSslValidation;
+        private final byte[] credentials;
+
+        private Key(TokenRequest request) {
+            this.grantType = request.getGrantType();
+            this.tokenEndpoint = String.valueOf(request.getTokenEndpoint());
+            this.clientId = request.getClientId();
+            this.username = request.getUsername();
+            this.scopes = request.getScopes() == null ? null : new TreeSet<>(request.getScopes());
+            this.idToken = request.wantsIdToken();
+            this.skipSslValidation = request.isSkipSslValidation();
+            this.credentials = digest(request.getClientSecret() + ":" + request.getPassword());
+        }
+
+        private static byte[] digest(String value) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return idToken == key.idToken &&
+                skipSslValidation == key.skipSslValidation &&
+                grantType == key.grantType &&
+                Objects.equals(tokenEndpoint, key.tokenEndpoint) &&
+                Objects.equals(clientId, key.clientId) &&
+                Objects.equals(username, key.username) &&
+                Objects.equals(scopes, key.scopes) &&
+                MessageDigest.isEqual(credentials, key.credentials);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(grantType, tokenEndpoint, clientId, username, scopes, idToken, skipSslValidation) * 31 + Arrays.hashCode(credentials);
+        }
+    }
+}
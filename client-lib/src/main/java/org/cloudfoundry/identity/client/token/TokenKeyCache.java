@@ -0,0 +1,201 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.client.token;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.oauth.token.VerificationKeyResponse;
+import org.cloudfoundry.identity.uaa.oauth.token.VerificationKeysListResponse;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the verification keys published by the UAA <code>/token_keys</code> endpoint by key id.
+ * <p>
+ * Keys are fetched on first use and again once the {@link #setRefreshIntervalMillis(long) refresh interval}
+ * has passed, or when a token is signed with a key id that is not known yet, for example after the
+ * UAA rotated its signing key. Refreshes for unknown key ids are throttled by
+ * {@link #setMinRefreshIntervalMillis(long)} so that tokens with bogus key ids can not be used to
+ * flood the UAA. If a refresh fails the keys that are already known keep being used.
+ */
+public class TokenKeyCache {
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final URI tokenKeysUri;
+    private final AtomicLong fetches = new AtomicLong();
+    private RestTemplate restTemplate = new RestTemplate();
+    private String clientId;
+    private String clientSecret;
+    private long refreshIntervalMillis = TimeUnit.MINUTES.toMillis(15);
+    private long minRefreshIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+
+    private volatile Map<String, SignatureVerifier> verifiers = Collections.emptyMap();
+    private volatile String defaultKeyId;
+    private volatile long lastAttempt = 0;
+    private volatile long lastRefresh = 0;
+
+    /**
+     * @param tokenKeysUri the URI of the UAA <code>/token_keys</code> endpoint
+     */
+    public TokenKeyCache(URI tokenKeysUri) {
+        this.tokenKeysUri = tokenKeysUri;
+    }
+
+    public URI getTokenKeysUri() {
+        return tokenKeysUri;
+    }
+
+    /**
+     * Sets the request factory used to fetch the keys
+     * @param requestFactory the request factory
+     * @return this mutable object
+     */
+    public TokenKeyCache setRequestFactory(ClientHttpRequestFactory requestFactory) {
+        this.restTemplate = new RestTemplate(requestFactory);
+        return this;
+    }
+
+    /**
+     * Sets the credentials used to fetch the keys. The UAA only returns symmetric (MAC)
+     * keys to clients with the <code>uaa.resource</code> authority.
+     * @param clientId the client id
+     * @param clientSecret the client secret
+     * @return this mutable object
+     */
+    public TokenKeyCache setClientCredentials(String clientId, String clientSecret) {
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        return this;
+    }
+
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    /**
+     * Sets how long fetched keys are used before they are fetched again. Defaults to 15 minutes.
+     * @param refreshIntervalMillis the interval in milliseconds
+     * @return this mutable object
+     */
+    public TokenKeyCache setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        return this;
+    }
+
+    public long getMinRefreshIntervalMillis() {
+        return minRefreshIntervalMillis;
+    }
+
+    /**
+     * Sets the minimum time between two fetches triggered by unknown key ids. Defaults to 5 seconds.
+     * @param minRefreshIntervalMillis the interval in milliseconds
+     * @return this mutable object
+     */
+    public TokenKeyCache setMinRefreshIntervalMillis(long minRefreshIntervalMillis) {
+        this.minRefreshIntervalMillis = minRefreshIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Returns the verifier for a key id, fetching the keys if needed.
+     * @param keyId the <code>kid</code> header of the token, if null the key is only
+     *              resolved when the UAA publishes exactly one key
+     * @return the verifier or null if there is no such key
+     */
+    public SignatureVerifier getVerifier(String keyId) {
+        long now = System.currentTimeMillis();
+        long attempt = lastAttempt;
+        boolean throttled = now - attempt < minRefreshIntervalMillis;
+        if (now - lastRefresh >= refreshIntervalMillis && !throttled) {
+            refresh(attempt);
+            return lookup(keyId);
+        }
+        SignatureVerifier verifier = lookup(keyId);
+        if (verifier == null && !throttled) {
+            refresh(attempt);
+            verifier = lookup(keyId);
+        }
+        return verifier;
+    }
+
+    /**
+     * @return the number of times the keys were fetched
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    private SignatureVerifier lookup(String keyId) {
+        String id = keyId != null ? keyId : defaultKeyId;
+        return id == null ? null : verifiers.get(id);
+    }
+
+    private synchronized void refresh(long seen) {
+        if (lastAttempt > seen) {
+            //another thread refreshed while we were waiting
+            return;
+        }
+        lastAttempt = System.currentTimeMillis();
+        try {
+            HttpHeaders headers = new HttpHeaders();
+            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+            if (clientId != null) {
+                String credentials = clientId + ":" + clientSecret;
+                headers.add(HttpHeaders.AUTHORIZATION, "Basic " + new String(Base64.encode(credentials.getBytes(StandardCharsets.UTF_8))));
+            }
+            VerificationKeysListResponse response = restTemplate.exchange(tokenKeysUri, HttpMethod.GET, new HttpEntity<Void>(headers), VerificationKeysListResponse.class).getBody();
+            fetches.incrementAndGet();
+            Map<String, SignatureVerifier> result = new HashMap<>();
+            if (response != null && response.getKeys() != null) {
+                for (VerificationKeyResponse key : response.getKeys()) {
+                    if (key.getKey() != null) {
+                        result.put(key.getId(), getVerifier(key));
+                    }
+                }
+            }
+            verifiers = Collections.unmodifiableMap(result);
+            defaultKeyId = result.size() == 1 ? result.keySet().iterator().next() : null;
+            lastRefresh = lastAttempt;
+        } catch (RestClientException | IllegalArgumentException e) {
+            logger.warn("Unable to fetch token keys from " + tokenKeysUri, e);
+        }
+    }
+
+    protected SignatureVerifier getVerifier(VerificationKeyResponse key) {
+        String value = key.getKey().trim();
+        if (value.startsWith("-----BEGIN")) {
+            return new RsaVerifier(value);
+        }
+        return new MacSigner(value);
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.client.token;
+
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.codec.Codecs;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.AUD;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.ISS;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.REVOCABLE;
+
+/**
+ * Validates UAA access tokens without calling the UAA for every token.
+ * <p>
+ * JWT tokens are checked locally: the signature against the key named by the <code>kid</code>
+ * header, see {@link TokenKeyCache}, then the expiry, the issuer and, if configured, the audience.
+ * <p>
+ * Opaque tokens, and JWT tokens marked as revocable, can only be checked by the UAA. They are
+ * rejected unless a <code>/check_token</code> fallback is {@link #setCheckTokenFallback(URI, String, String) configured},
+ * in which case the claims returned by that endpoint are used.
+ */
+public class TokenValidator {
+
+    private final TokenKeyCache tokenKeys;
+    private final AtomicLong localValidations = new AtomicLong();
+    private final AtomicLong remoteValidations = new AtomicLong();
+    private String issuer;
+    private List<String> audience = Collections.emptyList();
+    private long clockSkewSeconds = 0;
+    private URI checkTokenUri;
+    private String clientId;
+    private String clientSecret;
+    private RestTemplate restTemplate;
+
+    public TokenValidator(TokenKeyCache tokenKeys) {
+        this.tokenKeys = tokenKeys;
+        setRequestFactory(null);
+    }
+
+    public TokenKeyCache getTokenKeys() {
+        return tokenKeys;
+    }
+
+    /**
+     * Sets the expected <code>iss</code> claim, the token endpoint of the UAA zone. If null the issuer is not checked.
+     * @param issuer the expected issuer
+     * @return this mutable object
+     */
+    public TokenValidator setIssuer(String issuer) {
+        this.issuer = issuer;
+        return this;
+    }
+
+    /**
+     * Sets the parties that must all be in the <code>aud</code> claim of a token
+     * @param audience the required audience, typically the resource id of the resource server
+     * @return this mutable object
+     */
+    public TokenValidator setAudience(String... audience) {
+        this.audience = Arrays.asList(audience);
+        return this;
+    }
+
+    /**
+     * Sets the tolerated difference between the clocks of the UAA and this host. Defaults to 0.
+     * @param clockSkewSeconds the tolerance in seconds
+     * @return this mutable object
+     */
+    public TokenValidator setClockSkewSeconds(long clockSkewSeconds) {
+        this.clockSkewSeconds = clockSkewSeconds;
+        return this;
+    }
+
+    /**
+     * Enables validation of opaque and revocable tokens through the UAA <code>/check_token</code> endpoint
+     * @param checkTokenUri the URI of the endpoint
+     * @param clientId a client with the <code>uaa.resource</code> authority
+     * @param clientSecret the secret of that client
+     * @return this mutable object
+     */
+    public TokenValidator setCheckTokenFallback(URI checkTokenUri, String clientId, String clientSecret) {
+        this.checkTokenUri = checkTokenUri;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        return this;
+    }
+
+    /**
+     * Sets the request factory used for the <code>/check_token</code> fallback
+     * @param requestFactory the request factory, null for the default
+     * @return this mutable object
+     */
+    public TokenValidator setRequestFactory(ClientHttpRequestFactory requestFactory) {
+        restTemplate = requestFactory == null ? new RestTemplate() : new RestTemplate(requestFactory);
+        restTemplate.setErrorHandler(new DefaultResponseErrorHandler() {
+            @Override
+            // Ignore 400, the body describes the invalid token
+            public void handleError(ClientHttpResponse response) throws IOException {
+                if (response.getRawStatusCode() != 400) {
+                    super.handleError(response);
+                }
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return the number of tokens validated locally
+     */
+    public long getLocalValidationCount() {
+        return localValidations.get();
+    }
+
+    /**
+     * @return the number of tokens validated by the <code>/check_token</code> endpoint
+     */
+    public long getRemoteValidationCount() {
+        return remoteValidations.get();
+    }
+
+    /**
+     * Validates an access token
+     * @param token the token value
+     * @return the claims of the token
+     * @throws InvalidTokenException if the token is not valid
+     */
+    public Map<String, Object> validate(String token) throws InvalidTokenException {
+        if (token == null) {
+            throw new InvalidTokenException("Token is missing.");
+        }
+        if (!isJwt(token)) {
+            return checkToken(token, "Token is not a JWT.");
+        }
+        Jwt jwt;
+        Map<String, Object> header;
+        Map<String, Object> claims;
+        try {
+            jwt = JwtHelper.decode(token);
+            header = readJson(Codecs.b64UrlDecode(token.substring(0, token.indexOf('.'))));
+            claims = readJson(jwt.getClaims().getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            throw new InvalidTokenException("Invalid token (could not decode).", e);
+        }
+
+        String keyId = (String) header.get("kid");
+        SignatureVerifier verifier = tokenKeys.getVerifier(keyId);
+        if (verifier == null) {
+            throw new InvalidTokenException("Invalid key ID: " + keyId);
+        }
+        try {
+            jwt.verifySignature(verifier);
+        } catch (RuntimeException e) {
+            throw new InvalidTokenException("Could not verify token signature.", e);
+        }
+        checkExpiry(claims);
+        checkIssuer(claims);
+        checkAudience(claims);
+        if (Boolean.TRUE.equals(claims.get(REVOCABLE))) {
+            return checkToken(token, "Revocable tokens can only be checked by the UAA.");
+        }
+        localValidations.incrementAndGet();
+        return claims;
+    }
+
+    protected void checkExpiry(Map<String, Object> claims) {
+        Object exp = claims.get(EXP);
+        if (!(exp instanceof Number)) {
+            throw new InvalidTokenException("Token does not bear a valid EXP claim.");
+        }
+        long now = System.currentTimeMillis() / 1000;
+        if (now - clockSkewSeconds > ((Number) exp).longValue()) {
+            throw new InvalidTokenException("Token expired at " + exp);
+        }
+    }
+
+    protected void checkIssuer(Map<String, Object> claims) {
+        if (issuer != null && !issuer.equals(claims.get(ISS))) {
+            throw new InvalidTokenException("Invalid issuer (" + claims.get(ISS) + ") for token did not match expected: " + issuer);
+        }
+    }
+
+    protected void checkAudience(Map<String, Object> claims) {
+        if (audience.isEmpty()) {
+            return;
+        }
+        Object aud = claims.get(AUD);
+        Collection<?> tokenAudience = aud instanceof Collection ? (Collection<?>) aud : Collections.singletonList(aud);
+        for (String party : audience) {
+            if (!tokenAudience.contains(party)) {
+                throw new InvalidTokenException("Some parties were not in the token audience: " + party);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String, Object> checkToken(String token, String reason) {
+        if (checkTokenUri == null) {
+            throw new InvalidTokenException(reason);
+        }
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("token", token);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        String credentials = clientId + ":" + clientSecret;
+        headers.add(HttpHeaders.AUTHORIZATION, "Basic " + new String(Base64.encode(credentials.getBytes(StandardCharsets.UTF_8))));
+        Map<String, Object> result;
+        try {
+            result = restTemplate.exchange(checkTokenUri, HttpMethod.POST, new HttpEntity<>(form, headers), Map.class).getBody();
+        } catch (RestClientException e) {
+            throw new InvalidTokenException("Unable to check token.", e);
+        }
+        if (result == null || result.containsKey("error")) {
+            throw new InvalidTokenException(result == null ? "Invalid token." : String.valueOf(result.get("error_description")));
+        }
+        remoteValidations.incrementAndGet();
+        return result;
+    }
+
+    private static boolean isJwt(String token) {
+        int first = token.indexOf('.');
+        return first > 0 && token.indexOf('.', first + 1) > first;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readJson(byte[] json) {
+        return JsonUtils.readValue(json, Map.class);
+    }
+}
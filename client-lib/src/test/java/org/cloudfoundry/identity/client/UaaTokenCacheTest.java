@@ -0,0 +1,250 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.cloudfoundry.identity.client.token.TokenRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.cloudfoundry.identity.client.token.GrantType.CLIENT_CREDENTIALS;
+import static org.cloudfoundry.identity.client.token.GrantType.PASSWORD;
+import static org.cloudfoundry.identity.client.token.GrantType.PASSWORD_WITH_PASSCODE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class UaaTokenCacheTest {
+
+    private HttpServer server;
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+    private volatile int expiresIn = 3600;
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+    private UaaTokenCache cache;
+    private UaaContextFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/oauth/token", this::token);
+        server.start();
+        cache = new UaaTokenCache().setJitterMillis(0);
+        factory = UaaContextFactory.factory(new URI("http://localhost:" + server.getAddress().getPort())).tokenCache(cache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            while (in.read() >= 0) {
+            }
+        }
+        remotePorts.add(exchange.getRemoteAddress().getPort());
+        int count = tokenRequests.incrementAndGet();
+        if (delayMillis > 0) {
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String body = status == 200 ?
+            "{\"access_token\":\"token-" + count + "\",\"token_type\":\"bearer\",\"expires_in\":" + expiresIn + ",\"scope\":\"uaa.resource\",\"jti\":\"" + count + "\"}" :
+            "{\"error\":\"server_error\"}";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private TokenRequest clientCredentials(String secret, String... scopes) {
+        TokenRequest request = factory.tokenRequest()
+            .setGrantType(CLIENT_CREDENTIALS)
+            .setClientId("client")
+            .setClientSecret(secret);
+        if (scopes.length > 0) {
+            request.setScopes(Arrays.asList(scopes));
+        }
+        return request;
+    }
+
+    @Test
+    public void token_is_served_from_cache() throws Exception {
+        UaaContext first = factory.authenticate(clientCredentials("secret"));
+        UaaContext second = factory.authenticate(clientCredentials("secret"));
+        assertSame(first, second);
+        assertEquals("token-1", second.getToken().getValue());
+        assertEquals(1, tokenRequests.get());
+        assertEquals(1, cache.getFetchCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void entries_are_keyed_by_scopes_and_credentials() throws Exception {
+        factory.authenticate(clientCredentials("secret", "a", "b"));
+        factory.authenticate(clientCredentials("secret", "b", "a"));
+        assertEquals(1, tokenRequests.get());
+
+        factory.authenticate(clientCredentials("secret", "a"));
+        assertEquals(2, tokenRequests.get());
+
+        factory.authenticate(clientCredentials("other-secret", "a"));
+        assertEquals(3, tokenRequests.get());
+
+        TokenRequest password = factory.tokenRequest()
+            .setGrantType(PASSWORD)
+            .setClientId("client")
+            .setClientSecret("secret")
+            .setUsername("marissa")
+            .setPassword("koala");
+        factory.authenticate(password);
+        factory.authenticate(password);
+        assertEquals(4, tokenRequests.get());
+        factory.authenticate(password.setPassword("wrong"));
+        assertEquals(5, tokenRequests.get());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    public void least_recently_used_entries_are_evicted() throws Exception {
+        cache.setMaxEntries(2);
+        factory.authenticate(clientCredentials("secret", "a"));
+        Thread.sleep(2);
+        factory.authenticate(clientCredentials("secret", "b"));
+        Thread.sleep(2);
+        factory.authenticate(clientCredentials("secret", "a"));
+        Thread.sleep(2);
+        factory.authenticate(clientCredentials("secret", "c"));
+        assertEquals(2, cache.size());
+        assertEquals(3, tokenRequests.get());
+
+        factory.authenticate(clientCredentials("secret", "a"));
+        assertEquals(3, tokenRequests.get());
+        factory.authenticate(clientCredentials("secret", "b"));
+        assertEquals(4, tokenRequests.get());
+    }
+
+    @Test
+    public void expired_entries_are_evicted_first() throws Exception {
+        cache.setMaxEntries(2);
+        factory.authenticate(clientCredentials("secret", "a"));
+        expiresIn = 0;
+        factory.authenticate(clientCredentials("secret", "b"));
+        Thread.sleep(2);
+        expiresIn = 3600;
+        factory.authenticate(clientCredentials("secret", "c"));
+        assertEquals(2, cache.size());
+
+        factory.authenticate(clientCredentials("secret", "a"));
+        factory.authenticate(clientCredentials("secret", "c"));
+        assertEquals(3, tokenRequests.get());
+    }
+
+    @Test
+    public void passcode_grants_are_not_cached() throws Exception {
+        TokenRequest request = factory.tokenRequest()
+            .setGrantType(PASSWORD_WITH_PASSCODE)
+            .setClientId("client")
+            .setClientSecret("secret")
+            .setUsername("marissa")
+            .setPasscode("passcode");
+        assertFalse(cache.isCacheable(request));
+        assertTrue(cache.isCacheable(clientCredentials("secret")));
+    }
+
+    @Test
+    public void token_is_refreshed_before_expiry() throws Exception {
+        expiresIn = 60;
+        cache.setRefreshBeforeMillis(TimeUnit.SECONDS.toMillis(120));
+        assertEquals("token-1", factory.authenticate(clientCredentials("secret")).getToken().getValue());
+        assertEquals("token-2", factory.authenticate(clientCredentials("secret")).getToken().getValue());
+        assertEquals(2, cache.getFetchCount());
+    }
+
+    @Test
+    public void failed_refresh_keeps_the_valid_token() throws Exception {
+        expiresIn = 60;
+        cache.setRefreshBeforeMillis(TimeUnit.SECONDS.toMillis(120));
+        factory.authenticate(clientCredentials("secret"));
+        status = 500;
+        assertEquals("token-1", factory.authenticate(clientCredentials("secret")).getToken().getValue());
+        assertEquals(1, cache.getFailureCount());
+    }
+
+    @Test
+    public void concurrent_requests_share_a_single_fetch() throws Exception {
+        delayMillis = 300;
+        int threads = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<UaaContext>> results = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return factory.authenticate(clientCredentials("secret"));
+            }));
+        }
+        start.countDown();
+        for (Future<UaaContext> result : results) {
+            assertEquals("token-1", result.get(10, TimeUnit.SECONDS).getToken().getValue());
+        }
+        executor.shutdown();
+        assertEquals(1, tokenRequests.get());
+        assertEquals(1, cache.getFetchCount());
+        assertEquals(threads - 1, cache.getHitCount());
+    }
+
+    @Test
+    public void uncached_requests_reuse_pooled_connections() throws Exception {
+        factory.tokenCache(null);
+        UaaContext first = factory.authenticate(clientCredentials("secret"));
+        UaaContext second = factory.authenticate(clientCredentials("secret"));
+        factory.authenticate(clientCredentials("secret"));
+        assertNotEquals(first.getToken().getValue(), second.getToken().getValue());
+        assertEquals(3, tokenRequests.get());
+        assertEquals(1, remotePorts.size());
+        assertSame(UaaContextFactory.getPooledClientHttpRequestFactory(false), UaaContextFactory.getPooledClientHttpRequestFactory(false));
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * *****************************************************************************
+ *      Cloud Foundry
+ *      Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *      This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *      You may not use this product except in compliance with the License.
+ *
+ *      This product includes a number of subcomponents with
+ *      separate copyright notices and license terms. Your use of these
+ *      subcomponents is subject to the terms and conditions of the
+ *      subcomponent's license, as noted in the LICENSE file.
+ * *****************************************************************************
+ */
+
+package org.cloudfoundry.identity.client.token;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.cloudfoundry.identity.client.UaaContextFactory;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.jwt.codec.Codecs;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.AUD;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.CLIENT_ID;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.ISS;
+import static org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants.REVOCABLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TokenValidatorTest {
+
+    private HttpServer server;
+    private final AtomicInteger keyRequests = new AtomicInteger();
+    private final AtomicInteger checkTokenRequests = new AtomicInteger();
+    private final List<Map<String, Object>> publishedKeys = new ArrayList<>();
+    private KeyPair key1;
+    private KeyPair key2;
+    private UaaContextFactory factory;
+    private TokenValidator validator;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        key1 = generator.generateKeyPair();
+        key2 = generator.generateKeyPair();
+        publish("key-1", key1);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/token_keys", exchange -> {
+            keyRequests.incrementAndGet();
+            Map<String, Object> body = new HashMap<>();
+            body.put("keys", publishedKeys);
+            respond(exchange, 200, JsonUtils.writeValueAsString(body));
+        });
+        server.createContext("/check_token", exchange -> {
+            checkTokenRequests.incrementAndGet();
+            String form = read(exchange);
+            if (form.contains("token=opaque")) {
+                respond(exchange, 200, "{\"client_id\":\"app\",\"jti\":\"opaque\"}");
+            } else {
+                respond(exchange, 400, "{\"error\":\"invalid_token\",\"error_description\":\"Token has been revoked\"}");
+            }
+        });
+        server.start();
+
+        factory = UaaContextFactory.factory(new URI("http://localhost:" + server.getAddress().getPort()));
+        validator = factory.tokenValidator(false);
+        validator.getTokenKeys().setMinRefreshIntervalMillis(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    private void publish(String kid, KeyPair pair) {
+        Map<String, Object> key = new LinkedHashMap<>();
+        key.put("kid", kid);
+        key.put("alg", "SHA256withRSA");
+        key.put("kty", "RSA");
+        key.put("use", "sig");
+        key.put("value", "-----BEGIN PUBLIC KEY-----\n" + new String(Base64.encode(pair.getPublic().getEncoded())) + "\n-----END PUBLIC KEY-----");
+        publishedKeys.add(key);
+    }
+
+    private static String read(HttpExchange exchange) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        try (InputStream in = exchange.getRequestBody()) {
+            int c;
+            while ((c = in.read()) >= 0) {
+                builder.append((char) c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Map<String, Object> claims() {
+        Map<String, Object> claims = new HashMap<>();
+        claims.put(CLIENT_ID, "app");
+        claims.put(ISS, factory.getTokenUri().toString());
+        claims.put(AUD, Arrays.asList("app", "cloud_controller"));
+        claims.put(EXP, System.currentTimeMillis() / 1000 + 600);
+        return claims;
+    }
+
+    private static String sign(String kid, KeyPair pair, Map<String, Object> claims) {
+        String header = "{\"alg\":\"RS256\",\"kid\":\"" + kid + "\"}";
+        byte[] content = Codecs.concat(Codecs.b64UrlEncode(header), ".".getBytes(StandardCharsets.UTF_8), Codecs.b64UrlEncode(JsonUtils.writeValueAsString(claims)));
+        byte[] signature = new RsaSigner((RSAPrivateKey) pair.getPrivate()).sign(content);
+        return new String(content, StandardCharsets.UTF_8) + "." + new String(Codecs.b64UrlEncode(signature), StandardCharsets.UTF_8);
+    }
+
+    private void assertInvalid(String token) {
+        try {
+            validator.validate(token);
+            fail("Expected token to be rejected");
+        } catch (InvalidTokenException expected) {
+        }
+    }
+
+    @Test
+    public void valid_tokens_are_validated_locally_with_cached_keys() throws Exception {
+        validator.setAudience("cloud_controller");
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> claims = validator.validate(sign("key-1", key1, claims()));
+            assertEquals("app", claims.get(CLIENT_ID));
+        }
+        assertEquals(1, keyRequests.get());
+        assertEquals(5, validator.getLocalValidationCount());
+        assertEquals(0, checkTokenRequests.get());
+    }
+
+    @Test
+    public void unknown_key_id_refreshes_keys() throws Exception {
+        validator.validate(sign("key-1", key1, claims()));
+        publish("key-2", key2);
+        validator.validate(sign("key-2", key2, claims()));
+        assertEquals(2, keyRequests.get());
+
+        assertInvalid(sign("key-3", key2, claims()));
+        assertEquals(3, keyRequests.get());
+    }
+
+    @Test
+    public void unknown_key_id_refreshes_are_throttled() throws Exception {
+        validator.getTokenKeys().setMinRefreshIntervalMillis(60000);
+        validator.validate(sign("key-1", key1, claims()));
+        assertInvalid(sign("key-3", key2, claims()));
+        assertInvalid(sign("key-3", key2, claims()));
+        assertEquals(1, keyRequests.get());
+    }
+
+    @Test
+    public void keys_are_refreshed_after_the_interval() throws Exception {
+        validator.getTokenKeys().setRefreshIntervalMillis(0);
+        validator.validate(sign("key-1", key1, claims()));
+        validator.validate(sign("key-1", key1, claims()));
+        assertEquals(2, keyRequests.get());
+    }
+
+    @Test
+    public void invalid_signature_is_rejected() throws Exception {
+        assertInvalid(sign("key-1", key2, claims()));
+    }
+
+    @Test
+    public void expired_token_is_rejected() throws Exception {
+        Map<String, Object> claims = claims();
+        claims.put(EXP, System.currentTimeMillis() / 1000 - 60);
+        assertInvalid(sign("key-1", key1, claims));
+        validator.setClockSkewSeconds(120);
+        validator.validate(sign("key-1", key1, claims));
+    }
+
+    @Test
+    public void issuer_and_audience_are_checked() throws Exception {
+        Map<String, Object> claims = claims();
+        claims.put(ISS, "http://other.example.com/oauth/token");
+        assertInvalid(sign("key-1", key1, claims));
+
+        validator.setAudience("scim");
+        assertInvalid(sign("key-1", key1, claims()));
+    }
+
+    @Test
+    public void opaque_tokens_require_check_token_fallback() throws Exception {
+        assertInvalid("opaque");
+        assertEquals(0, checkTokenRequests.get());
+
+        validator.setCheckTokenFallback(factory.getCheckTokenUri(), "resource", "secret");
+        assertEquals("opaque", validator.validate("opaque").get("jti"));
+        assertInvalid("revoked");
+        assertEquals(2, checkTokenRequests.get());
+        assertEquals(1, validator.getRemoteValidationCount());
+    }
+
+    @Test
+    public void revocable_jwt_tokens_use_check_token_fallback_when_configured() throws Exception {
+        Map<String, Object> claims = claims();
+        claims.put(REVOCABLE, true);
+        String token = sign("key-1", key1, claims);
+        validator.setCheckTokenFallback(factory.getCheckTokenUri(), "resource", "secret");
+        assertInvalid(token);
+        assertEquals(1, checkTokenRequests.get());
+    }
+
+    @Test
+    public void revocable_jwt_tokens_are_rejected_without_check_token_fallback() throws Exception {
+        Map<String, Object> claims = claims();
+        claims.put(REVOCABLE, true);
+        assertInvalid(sign("key-1", key1, claims));
+        assertEquals(0, checkTokenRequests.get());
+        assertEquals(0, validator.getLocalValidationCount());
+    }
+}
@@ -35,7 +35,6 @@ import org.thymeleaf.context.Context;
 import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -64,10 +63,8 @@ public class EmailChangeEmailService implements ChangeEmailService {
     @Override
     public void beginEmailChange(String userId, String email, String newEmail, String clientId, String redirectUri) {
         ScimUser user = scimUserProvisioning.retrieve(userId);
-        List<ScimUser> results = scimUserProvisioning.query("userName eq \"" + newEmail + "\" and origin eq \"" + OriginKeys.UAA + "\"");
-
         if (user.getUserName().equals(user.getPrimaryEmail())) {
-            if (!results.isEmpty()) {
+            if (scimUserProvisioning.retrieveByUsernameAndOrigin(newEmail, OriginKeys.UAA) != null) {
                 throw new UaaException("Conflict", 409);
             }
         }
@@ -102,7 +99,6 @@ public class EmailChangeEmailService implements ChangeEmailService {
         String userId = codeData.get("user_id");
         String email = codeData.get("email");
         ScimUser user = scimUserProvisioning.retrieve(userId);
-
         if (user.getUserName().equals(user.getPrimaryEmail())) {
             user.setUserName(email);
         }
@@ -18,6 +18,7 @@ import org.cloudfoundry.identity.uaa.approval.DescribedApproval;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.approval.Approval;
+import org.cloudfoundry.identity.uaa.zone.MultitenantClientDetailsService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.provider.ClientDetails;
@@ -62,10 +63,11 @@ public class ProfileController {
 
     protected Map<String, String> getClientNames(Map<String, List<DescribedApproval>> approvals) {
         Map<String, String> clientNames = new LinkedHashMap<>();
+        Map<String, ClientDetails> clients = MultitenantClientDetailsService.loadClients(clientDetailsService, approvals.keySet());
         for (String clientId : approvals.keySet()) {
-            ClientDetails details = clientDetailsService.loadClientByClientId(clientId);
-            String name = details.getClientId();
-            if (details.getAdditionalInformation()!=null && details.getAdditionalInformation().get(ClientConstants.CLIENT_NAME)!=null) {
+            ClientDetails details = clients.get(clientId);
+            String name = clientId;
+            if (details != null && details.getAdditionalInformation()!=null && details.getAdditionalInformation().get(ClientConstants.CLIENT_NAME)!=null) {
                 name = (String)details.getAdditionalInformation().get(ClientConstants.CLIENT_NAME);
             }
             clientNames.put(clientId, name);
@@ -40,7 +40,6 @@ import org.springframework.web.client.RestClientException;
 import java.sql.Timestamp;
 import java.util.Collections;
 import java.util.Date;
-import java.util.List;
 import java.util.Set;
 
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
@@ -128,17 +127,15 @@ public class UaaResetPasswordService implements ResetPasswordService, Applicatio
 
     @Override
     public ForgotPasswordInfo forgotPassword(String email, String clientId, String redirectUri) {
-        String jsonEmail = JsonUtils.writeValueAsString(email);
-        List<ScimUser> results = scimUserProvisioning.query("userName eq " + jsonEmail + " and origin eq \"" + OriginKeys.UAA + "\"");
-        if (results.isEmpty()) {
-            results = scimUserProvisioning.query("userName eq " + jsonEmail);
-            if (results.isEmpty()) {
+        ScimUser scimUser = scimUserProvisioning.retrieveByUsernameAndOrigin(email, OriginKeys.UAA);
+        if (scimUser == null) {
+            String userId = scimUserProvisioning.retrieveIdByUsername(email);
+            if (userId == null) {
                 throw new NotFoundException();
             } else {
-                throw new ConflictException(results.get(0).getId());
+                throw new ConflictException(userId);
             }
         }
-        ScimUser scimUser = results.get(0);
 
         PasswordChange change = new PasswordChange(scimUser.getId(), scimUser.getUserName(), scimUser.getPasswordLastModified(), clientId, redirectUri);
         ExpiringCode code = expiringCodeStore.generateCode(JsonUtils.writeValueAsString(change), new Timestamp(System.currentTimeMillis() + PASSWORD_RESET_LIFETIME), null);
@@ -12,28 +12,60 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.account;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.WebRequest;
 
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller that sends user info to clients wishing to authenticate.
- * 
+ * <p>
+ * Responses are cached per user for a short time and carry an ETag, so that a
+ * client sending the ETag back in <code>If-None-Match</code> gets a 304. A
+ * user's response is dropped from the cache when the user is modified.
+ *
  * @author Dave Syer
  */
 @Controller
-public class UserInfoEndpoint implements InitializingBean {
+public class UserInfoEndpoint implements InitializingBean, ApplicationListener<CacheInvalidationEvent>, MeteredCache {
 
     private UaaUserDatabase userDatabase;
 
+    private final Cache<List<String>, CachedResponse> cache;
+
+    public UserInfoEndpoint() {
+        this(10000, 30);
+    }
+
+    public UserInfoEndpoint(int maxUsers, int expireSeconds) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(expireSeconds > 0 ? maxUsers : 0)
+            .expireAfterWrite(Math.max(1, expireSeconds), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
     public void setUserDatabase(UaaUserDatabase userDatabase) {
         this.userDatabase = userDatabase;
     }
@@ -45,10 +77,20 @@ public class UserInfoEndpoint implements InitializingBean {
 
     @RequestMapping(value = "/userinfo")
     @ResponseBody
-    public UserInfoResponse loginInfo(Principal principal) {
+    public UserInfoResponse loginInfo(Principal principal, WebRequest request) {
         OAuth2Authentication authentication = (OAuth2Authentication) principal;
         UaaPrincipal uaaPrincipal = extractUaaPrincipal(authentication);
-        return getResponse(uaaPrincipal);
+        List<String> key = Arrays.asList(IdentityZoneHolder.get().getId(), uaaPrincipal.getId());
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached == null) {
+            UserInfoResponse response = getResponse(uaaPrincipal);
+            cached = new CachedResponse(response, "\"" + DigestUtils.md5DigestAsHex(JsonUtils.writeValueAsBytes(response)) + "\"");
+            cache.put(key, cached);
+        }
+        if (request != null && request.checkNotModified(cached.etag)) {
+            return null;
+        }
+        return cached.response;
     }
 
     protected UaaPrincipal extractUaaPrincipal(OAuth2Authentication authentication) {
@@ -60,7 +102,7 @@ public class UserInfoEndpoint implements InitializingBean {
     }
 
     protected UserInfoResponse getResponse(UaaPrincipal principal) {
-        UaaUser user = userDatabase.retrieveUserById(principal.getId());
+        UaaUser user = userDatabase.retrieveUserProfileById(principal.getId());
         UserInfoResponse response = new UserInfoResponse();
         response.setUserId(user.getId());
         response.setUsername(user.getUsername());
@@ -70,5 +112,33 @@ public class UserInfoEndpoint implements InitializingBean {
         // TODO: other attributes
         return response;
     }
-}
 
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.USER)) {
+            cache.invalidate(Arrays.asList(event.getZoneId(), event.getKey()));
+        } else if (event.isType(CacheInvalidation.ZONE)) {
+            cache.asMap().keySet().removeIf(key -> key.get(0).equals(event.getZoneId()));
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    private static class CachedResponse {
+        private final UserInfoResponse response;
+        private final String etag;
+
+        CachedResponse(UserInfoResponse response, String etag) {
+            this.response = response;
+            this.etag = etag;
+        }
+    }
+}
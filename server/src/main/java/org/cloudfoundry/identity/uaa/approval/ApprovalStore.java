@@ -14,6 +14,7 @@ package org.cloudfoundry.identity.uaa.approval;
 
 import org.cloudfoundry.identity.uaa.approval.Approval;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ApprovalStore {
@@ -27,4 +28,23 @@ public interface ApprovalStore {
     public List<Approval> getApprovals(String filter);
 
     public List<Approval> getApprovals(String userId, String clientId);
+
+    /**
+     * Replaces the approvals of a user, or of a user for one client, with the
+     * given approvals. Existing approvals that are not in the list are revoked.
+     * @param userId the user, approvals are stored for this user whatever their user_id
+     * @param clientId the client, or null to replace the approvals of the user for all clients
+     * @return the approvals of the user, or of the user for the client, once updated
+     */
+    default List<Approval> updateApprovals(String userId, String clientId, Collection<Approval> approvals) {
+        String filter = String.format("user_id eq \"%s\"", userId);
+        if (clientId != null) {
+            filter += String.format(" and client_id eq \"%s\"", clientId);
+        }
+        revokeApprovals(filter);
+        for (Approval approval : approvals) {
+            addApproval(approval.setUserId(userId));
+        }
+        return getApprovals(filter);
+    }
 }
@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.uaa.approval;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +32,7 @@ import org.cloudfoundry.identity.uaa.security.DefaultSecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
 import org.cloudfoundry.identity.uaa.util.UaaPagingUtils;
+import org.cloudfoundry.identity.uaa.zone.MultitenantClientDetailsService;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -108,9 +110,8 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
 
         // Find the auto approved scopes for these clients
         Map<String, Set<String>> clientAutoApprovedScopes = new HashMap<String, Set<String>>();
-        for (String clientId : clientIds) {
-            ClientDetails client = clientDetailsService.loadClientByClientId(clientId);
-
+        for (ClientDetails client : MultitenantClientDetailsService.loadClients(clientDetailsService, clientIds).values()) {
+            String clientId = client.getClientId();
             Map<String, Object> additionalInfo = client.getAdditionalInformation();
             Object autoApproved = additionalInfo.get(ClientConstants.AUTO_APPROVE);
             Set<String> autoApprovedScopes = new HashSet<String>();
@@ -151,7 +152,6 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
     public List<Approval> updateApprovals(@RequestBody Approval[] approvals) {
         String currentUserId = getCurrentUserId();
         logger.debug("Updating approvals for user: " + currentUserId);
-        approvalStore.revokeApprovals(String.format(USER_FILTER_TEMPLATE, currentUserId));
         for (Approval approval : approvals) {
             if (StringUtils.hasText(approval.getUserId()) &&  !isValidUser(approval.getUserId())) {
                 logger.warn(String.format("Error[2] %s attempting to update approvals for %s", currentUserId, approval.getUserId()));
@@ -160,9 +160,8 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
             } else {
                 approval.setUserId(currentUserId);
             }
-            approvalStore.addApproval(approval);
         }
-        return approvalStore.getApprovals(String.format(USER_FILTER_TEMPLATE, currentUserId));
+        return approvalStore.updateApprovals(currentUserId, null, Arrays.asList(approvals));
     }
 
     @RequestMapping(value = "/approvals/{clientId}", method = RequestMethod.PUT)
@@ -171,7 +170,6 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
     public List<Approval> updateClientApprovals(@PathVariable String clientId, @RequestBody Approval[] approvals) {
         String currentUserId = getCurrentUserId();
         logger.debug("Updating approvals for user: " + currentUserId);
-        approvalStore.revokeApprovals(String.format(USER_AND_CLIENT_FILTER_TEMPLATE, currentUserId, clientId));
         for (Approval approval : approvals) {
             if (StringUtils.hasText(approval.getUserId()) && !isValidUser(approval.getUserId())) {
                 logger.warn(String.format("Error[1] %s attemting to update approvals for %s.", currentUserId, approval.getUserId()));
@@ -180,9 +178,8 @@ public class ApprovalsAdminEndpoints implements InitializingBean, ApprovalsContr
             } else {
                 approval.setUserId(currentUserId);
             }
-            approvalStore.addApproval(approval);
         }
-        return approvalStore.getApprovals(String.format(USER_AND_CLIENT_FILTER_TEMPLATE, currentUserId, clientId));
+        return approvalStore.updateApprovals(currentUserId, clientId, Arrays.asList(approvals));
     }
 
     private boolean isValidUser(String userId) {
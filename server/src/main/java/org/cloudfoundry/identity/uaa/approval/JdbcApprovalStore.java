@@ -18,13 +18,20 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.ApprovalModifiedEvent;
+import org.cloudfoundry.identity.uaa.audit.event.ApprovalsUpdatedEvent;
 import org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.resources.jdbc.SearchQueryConverter;
@@ -41,6 +48,7 @@ import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
 public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublisherAware {
@@ -72,7 +80,31 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
 
     private static final String EXPIRE_AUTHZ_SQL = String.format("update %s set expiresAt = :expiry", TABLE_NAME);
 
+    private static final String GET_USER_AUTHZ_SQL = String.format("select %s from %s where user_id=?", FIELDS, TABLE_NAME);
+
+    private static final String GET_USER_CLIENT_AUTHZ_SQL = GET_USER_AUTHZ_SQL + " and client_id=?";
+
+    private static final String DELETE_ONE_AUTHZ_SQL = String.format("delete from %s where user_id=? and client_id=? and scope=?", TABLE_NAME);
+
+    private static final String EXPIRE_ONE_AUTHZ_SQL = String.format("update %s set expiresAt=? where user_id=? and client_id=? and scope=?", TABLE_NAME);
+
+    private static final Map<String, String> UPSERT_AUTHZ_SQL;
+
+    static {
+        Map<String, String> upserts = new HashMap<>();
+        upserts.put("hsqldb", String.format("merge into %s a using (values(cast(? as varchar(36)),cast(? as varchar(255)),cast(? as varchar(255))," +
+                                                "cast(? as timestamp),cast(? as varchar(50)),cast(? as timestamp))) as v(%s) " +
+                                                "on a.user_id=v.user_id and a.client_id=v.client_id and a.scope=v.scope " +
+                                                "when matched then update set a.expiresAt=v.expiresAt, a.status=v.status, a.lastModifiedAt=v.lastModifiedAt " +
+                                                "when not matched then insert (%s) values (v.user_id,v.client_id,v.scope,v.expiresAt,v.status,v.lastModifiedAt)",
+                                            TABLE_NAME, FIELDS, FIELDS));
+        upserts.put("mysql", ADD_AUTHZ_SQL + " on duplicate key update expiresAt=values(expiresAt), status=values(status), lastModifiedAt=values(lastModifiedAt)");
+        upserts.put("postgresql", ADD_AUTHZ_SQL + " on conflict (user_id, client_id, scope) do update set expiresAt=excluded.expiresAt, status=excluded.status, lastModifiedAt=excluded.lastModifiedAt");
+        UPSERT_AUTHZ_SQL = Collections.unmodifiableMap(upserts);
+    }
+
     private boolean handleRevocationsAsExpiry = false;
+    private String upsertSql;
     private ApplicationEventPublisher applicationEventPublisher;
 
     public JdbcApprovalStore(JdbcTemplate jdbcTemplate, JdbcPagingListFactory pagingListFactory,
@@ -88,6 +120,14 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
         this.handleRevocationsAsExpiry = handleRevocationsAsExpiry;
     }
 
+    /**
+     * @param platform the database platform, as in the <code>platform</code> bean,
+     *                 used to pick the upsert statement for bulk updates
+     */
+    public void setPlatform(String platform) {
+        this.upsertSql = platform == null ? null : UPSERT_AUTHZ_SQL.get(platform);
+    }
+
     public boolean refreshApproval(final Approval approval) {
         logger.debug(String.format("refreshing approval: [%s]", approval));
         int refreshed = jdbcTemplate.update(REFRESH_AUTHZ_SQL, new PreparedStatementSetter() {
@@ -132,6 +172,100 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
         return true;
     }
 
+    /**
+     * Reads the existing approvals once and applies the difference with JDBC
+     * batches: the approvals that are no longer wanted are revoked, the others
+     * are upserted where the platform supports it, and otherwise updated or
+     * inserted depending on whether they already exist.
+     */
+    @Override
+    @Transactional
+    public List<Approval> updateApprovals(String userId, String clientId, Collection<Approval> approvals) {
+        logger.debug(String.format("updating approvals of user: [%s] and client: [%s]", userId, clientId));
+        Object[] args = clientId == null ? new Object[] {userId} : new Object[] {userId, clientId};
+        String sql = clientId == null ? GET_USER_AUTHZ_SQL : GET_USER_CLIENT_AUTHZ_SQL;
+
+        Map<List<String>, Approval> existing = new HashMap<>();
+        for (Approval approval : jdbcTemplate.query(sql, rowMapper, args)) {
+            existing.put(key(approval), approval);
+        }
+        Map<List<String>, Approval> wanted = new LinkedHashMap<>();
+        for (Approval approval : approvals) {
+            approval.setUserId(userId);
+            wanted.put(key(approval), approval);
+        }
+        List<Approval> revoked = new ArrayList<>();
+        for (Map.Entry<List<String>, Approval> entry : existing.entrySet()) {
+            if (!wanted.containsKey(entry.getKey())) {
+                revoked.add(entry.getValue());
+            }
+        }
+
+        if (!revoked.isEmpty()) {
+            if (handleRevocationsAsExpiry) {
+                Timestamp expiry = new Timestamp(new Date().getTime() - 1);
+                jdbcTemplate.batchUpdate(EXPIRE_ONE_AUTHZ_SQL, revoked, revoked.size(), (ps, approval) -> {
+                    ps.setTimestamp(1, expiry);
+                    ps.setString(2, approval.getUserId());
+                    ps.setString(3, approval.getClientId());
+                    ps.setString(4, approval.getScope());
+                });
+            } else {
+                jdbcTemplate.batchUpdate(DELETE_ONE_AUTHZ_SQL, revoked, revoked.size(), (ps, approval) -> {
+                    ps.setString(1, approval.getUserId());
+                    ps.setString(2, approval.getClientId());
+                    ps.setString(3, approval.getScope());
+                });
+            }
+        }
+
+        Map<List<String>, Approval> stored = existing;
+        if (upsertSql == null && clientId != null && wanted.keySet().stream().anyMatch(k -> !clientId.equals(k.get(0)))) {
+            //approvals for other clients may exist too, and must be updated rather than inserted
+            stored = new HashMap<>();
+            for (Approval approval : jdbcTemplate.query(GET_USER_AUTHZ_SQL, rowMapper, userId)) {
+                stored.put(key(approval), approval);
+            }
+        }
+        List<Approval> updates = new ArrayList<>();
+        List<Approval> inserts = new ArrayList<>();
+        for (Map.Entry<List<String>, Approval> entry : wanted.entrySet()) {
+            if (upsertSql == null && stored.containsKey(entry.getKey())) {
+                updates.add(entry.getValue());
+            } else {
+                inserts.add(entry.getValue());
+            }
+        }
+        if (!updates.isEmpty()) {
+            jdbcTemplate.batchUpdate(REFRESH_AUTHZ_SQL, updates, updates.size(), (ps, approval) -> {
+                ps.setTimestamp(1, new Timestamp(approval.getLastUpdatedAt().getTime()));
+                ps.setTimestamp(2, new Timestamp(approval.getExpiresAt().getTime()));
+                ps.setString(3, (approval.getStatus() == null ? APPROVED : approval.getStatus()).toString());
+                ps.setString(4, approval.getUserId());
+                ps.setString(5, approval.getClientId());
+                ps.setString(6, approval.getScope());
+            });
+        }
+        if (!inserts.isEmpty()) {
+            jdbcTemplate.batchUpdate(upsertSql == null ? ADD_AUTHZ_SQL : upsertSql, inserts, inserts.size(), (ps, approval) -> {
+                ps.setString(1, approval.getUserId());
+                ps.setString(2, approval.getClientId());
+                ps.setString(3, approval.getScope());
+                ps.setTimestamp(4, new Timestamp(approval.getExpiresAt().getTime()));
+                ps.setString(5, (approval.getStatus() == null ? APPROVED : approval.getStatus()).toString());
+                ps.setTimestamp(6, new Timestamp(approval.getLastUpdatedAt().getTime()));
+            });
+        }
+
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        publish(new ApprovalsUpdatedEvent(userId, clientId, wanted.values(), revoked, authentication));
+        return jdbcTemplate.query(sql, rowMapper, args);
+    }
+
+    private static List<String> key(Approval approval) {
+        return Arrays.asList(approval.getClientId(), approval.getScope());
+    }
+
     @Override
     public boolean revokeApproval(Approval approval) {
         return revokeApprovals(String.format("user_id eq \"%s\" and client_id eq \"%s\" and scope eq \"%s\"", approval.getUserId(), approval.getClientId(), approval.getScope()));
@@ -195,7 +329,8 @@ public class JdbcApprovalStore implements ApprovalStore, ApplicationEventPublish
 
     @Override
     public List<Approval> getApprovals(String userId, String clientId) {
-        return getApprovals(String.format("user_id eq \"%s\" and client_id eq \"%s\"", userId, clientId));
+        logger.debug(String.format("retrieving approvals of user: [%s] and client: [%s]", userId, clientId));
+        return jdbcTemplate.query(GET_USER_CLIENT_AUTHZ_SQL, rowMapper, userId, clientId);
     }
 
     @Override
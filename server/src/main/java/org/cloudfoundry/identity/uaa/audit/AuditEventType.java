@@ -55,7 +55,8 @@ public enum AuditEventType {
     IdentityZoneModifiedEvent(31),
     EntityDeletedEvent(32),
     ServiceProviderCreatedEvent(33),
-    ServiceProviderModifiedEvent(34);
+    ServiceProviderModifiedEvent(34),
+    ApprovalsUpdatedEvent(35);
 
     private final int code;
 
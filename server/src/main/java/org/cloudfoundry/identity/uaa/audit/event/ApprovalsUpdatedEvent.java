@@ -0,0 +1,133 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.audit.event;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.approval.Approval;
+import org.cloudfoundry.identity.uaa.audit.AuditEvent;
+import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Published once when the approvals of a user, or of a user for one client,
+ * are replaced in bulk. It records the approvals that were stored and the
+ * ones that were revoked.
+ */
+public class ApprovalsUpdatedEvent extends AbstractUaaEvent {
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final String clientId;
+    private final List<Approval> approvals;
+    private final List<Approval> revoked;
+
+    public ApprovalsUpdatedEvent(String userId, String clientId, Collection<Approval> approvals, Collection<Approval> revoked, Authentication authentication) {
+        super(userId, authentication);
+        this.clientId = clientId;
+        this.approvals = Collections.unmodifiableList(new ArrayList<>(approvals));
+        this.revoked = Collections.unmodifiableList(new ArrayList<>(revoked));
+    }
+
+    public String getUserId() {
+        return (String) getSource();
+    }
+
+    /**
+     * @return the client whose approvals were replaced, or null if all the approvals of the user were
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public List<Approval> getApprovals() {
+        return approvals;
+    }
+
+    public List<Approval> getRevoked() {
+        return revoked;
+    }
+
+    @Override
+    public AuditEvent getAuditEvent() {
+        return createAuditRecord(getUserId(), AuditEventType.ApprovalsUpdatedEvent, getOrigin(getAuthentication()), getData());
+    }
+
+    private String getData() {
+        try {
+            return JsonUtils.writeValueAsString(new ApprovalsUpdatedEventData(this));
+        } catch (JsonUtils.JsonUtilException e) {
+            logger.error("error writing approvals event data", e);
+        }
+        return null;
+    }
+
+    private static class ApprovalsUpdatedEventData {
+        private String clientId;
+        private List<ApprovalData> approvals = new ArrayList<>();
+        private List<ApprovalData> revoked = new ArrayList<>();
+
+        public ApprovalsUpdatedEventData(ApprovalsUpdatedEvent event) {
+            clientId = event.getClientId();
+            for (Approval approval : event.getApprovals()) {
+                approvals.add(new ApprovalData(approval.getClientId(), approval.getScope(), approval.getStatus()));
+            }
+            for (Approval approval : event.getRevoked()) {
+                revoked.add(new ApprovalData(approval.getClientId(), approval.getScope(), null));
+            }
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public List<ApprovalData> getApprovals() {
+            return approvals;
+        }
+
+        public List<ApprovalData> getRevoked() {
+            return revoked;
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private static class ApprovalData {
+        private String clientId;
+        private String scope;
+        private Approval.ApprovalStatus status;
+
+        public ApprovalData(String clientId, String scope, Approval.ApprovalStatus status) {
+            this.clientId = clientId;
+            this.scope = scope;
+            this.status = status;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public String getScope() {
+            return scope;
+        }
+
+        public Approval.ApprovalStatus getStatus() {
+            return status;
+        }
+    }
+}
@@ -22,8 +22,24 @@ import org.springframework.security.core.Authentication;
 
 public class EntityDeletedEvent<T> extends AbstractUaaEvent {
 
+    private final boolean deferred;
+
     public EntityDeletedEvent(T deleted, Authentication authentication) {
+        this(deleted, authentication, false);
+    }
+
+    /**
+     * @param deferred true if the data that belongs to the deleted entity is
+     *                 removed later by a deletion job rather than by the
+     *                 listeners of this event
+     */
+    public EntityDeletedEvent(T deleted, Authentication authentication, boolean deferred) {
         super(deleted, authentication);
+        this.deferred = deferred;
+    }
+
+    public boolean isDeferred() {
+        return deferred;
     }
 
     public T getDeleted() {
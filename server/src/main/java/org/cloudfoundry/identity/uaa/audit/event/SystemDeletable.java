@@ -25,6 +25,9 @@ public interface SystemDeletable extends ApplicationListener<EntityDeletedEvent<
     default void onApplicationEvent(EntityDeletedEvent<?> event) {
         if (event==null || event.getDeleted()==null) {
             return;
+        } else if (event.isDeferred() && isChunkedDeletionSupported()) {
+            getLogger().debug("Deletion deferred to deletion job:"+event.getDeleted());
+            return;
         } else if (event.getDeleted() instanceof IdentityZone) {
             String zoneId = ((IdentityZone)event.getDeleted()).getId();
             if (isUaaZone(zoneId)) {
@@ -53,5 +56,29 @@ public interface SystemDeletable extends ApplicationListener<EntityDeletedEvent<
 
     int deleteByOrigin(String origin, String zoneId);
 
+    /**
+     * @return true if this deletable can remove its data in chunks, and therefore
+     * leaves deferred deletions to the deletion job
+     */
+    default boolean isChunkedDeletionSupported() {
+        return false;
+    }
+
+    /**
+     * Deletes up to {@code chunkSize} of the entities that belong to the zone.
+     * @return the number of entities deleted, less than {@code chunkSize} once none are left
+     */
+    default int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+        return deleteByIdentityZone(zoneId);
+    }
+
+    /**
+     * Deletes up to {@code chunkSize} of the entities that belong to the identity provider.
+     * @return the number of entities deleted, less than {@code chunkSize} once none are left
+     */
+    default int deleteChunkByOrigin(String origin, String zoneId, int chunkSize) {
+        return deleteByOrigin(origin, zoneId);
+    }
+
     Log getLogger();
 }
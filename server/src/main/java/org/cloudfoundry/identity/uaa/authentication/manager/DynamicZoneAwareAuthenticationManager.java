@@ -16,6 +16,8 @@ import org.cloudfoundry.identity.uaa.authentication.AccountNotVerifiedException;
 import org.cloudfoundry.identity.uaa.authentication.AuthenticationPolicyRejectionException;
 import org.cloudfoundry.identity.uaa.authentication.manager.ChainedAuthenticationManager.AuthenticationManagerConfiguration;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
+import org.cloudfoundry.identity.uaa.metrics.TimedAuthenticationManager;
 import org.cloudfoundry.identity.uaa.provider.LdapIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
@@ -40,9 +42,11 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
     private final IdentityProviderProvisioning provisioning;
     private final AuthenticationManager internalUaaAuthenticationManager;
     private final ConcurrentMap<IdentityZone, DynamicLdapAuthenticationManager> ldapAuthManagers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<DynamicLdapAuthenticationManager, AuthenticationManager> timedLdapAuthManagers = new ConcurrentHashMap<>();
     private final ScimGroupExternalMembershipManager scimGroupExternalMembershipManager;
     private final ScimGroupProvisioning scimGroupProvisioning;
     private final LdapLoginAuthenticationManager ldapLoginAuthenticationManager;
+    private MetricsRegistry metricsRegistry;
 
     public DynamicZoneAwareAuthenticationManager(IdentityProviderProvisioning provisioning,
                                                  AuthenticationManager internalUaaAuthenticationManager,
@@ -56,11 +60,16 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
         this.ldapLoginAuthenticationManager = ldapLoginAuthenticationManager;
     }
 
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
     @Override
     public Authentication authenticate(Authentication authentication) throws AuthenticationException {
         IdentityZone zone = IdentityZoneHolder.get();
-        //chain it exactly like the UAA
-        return getChainedAuthenticationManager(zone).authenticate(authentication);
+        //chain it exactly like the UAA, the latency is recorded by each delegate
+        AuthenticationManager manager = getChainedAuthenticationManager(zone);
+        return manager.authenticate(authentication);
     }
 
     protected ChainedAuthenticationManager getChainedAuthenticationManager(IdentityZone zone) {
@@ -80,9 +89,10 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
             DynamicLdapAuthenticationManager existing = getLdapAuthenticationManager(zone, ldapProvider);
             if (!existing.getDefinition().equals(ldapProvider.getConfig())) {
                 ldapAuthManagers.remove(zone);
+                timedLdapAuthManagers.remove(existing);
                 existing.destroy();
             }
-            DynamicLdapAuthenticationManager ldapAuthenticationManager = getLdapAuthenticationManager(zone, ldapProvider);
+            AuthenticationManager ldapAuthenticationManager = getTimedLdapAuthenticationManager(zone, ldapProvider);
             AuthenticationManagerConfiguration ldapConfig =
                 new AuthenticationManagerConfiguration(ldapAuthenticationManager,
                                                        delegates.size()>0 ? ChainedAuthenticationManager.IF_PREVIOUS_FALSE : null);
@@ -108,6 +118,20 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
         return provider;
     }
 
+    /**
+     * @return the LDAP manager of the zone, wrapped once so that its latency is recorded
+     */
+    protected AuthenticationManager getTimedLdapAuthenticationManager(IdentityZone zone, IdentityProvider provider) {
+        DynamicLdapAuthenticationManager ldapMgr = getLdapAuthenticationManager(zone, provider);
+        if (metricsRegistry==null) {
+            return ldapMgr;
+        }
+        return timedLdapAuthManagers.computeIfAbsent(ldapMgr, mgr -> new TimedAuthenticationManager(mgr,
+                                                                                                   metricsRegistry,
+                                                                                                   MetricsRegistry.AUTHENTICATION_LATENCY,
+                                                                                                   DynamicLdapAuthenticationManager.class.getSimpleName()));
+    }
+
     public DynamicLdapAuthenticationManager getLdapAuthenticationManager(IdentityZone zone, IdentityProvider provider) {
         DynamicLdapAuthenticationManager ldapMgr = ldapAuthManagers.get(zone);
         if (ldapMgr!=null) {
@@ -129,5 +153,6 @@ public class DynamicZoneAwareAuthenticationManager implements AuthenticationMana
         for (Map.Entry<IdentityZone, DynamicLdapAuthenticationManager> entry : ldapAuthManagers.entrySet()) {
             entry.getValue().destroy();
         }
+        timedLdapAuthManagers.clear();
     }
 }
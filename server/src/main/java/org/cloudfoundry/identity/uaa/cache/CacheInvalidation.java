@@ -0,0 +1,79 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.cache;
+
+/**
+ * A single entry on the cache invalidation bus, identifying the type of
+ * entity that changed, the zone it belongs to and, where there is one,
+ * its key within that zone.
+ */
+public class CacheInvalidation {
+
+    public static final String ZONE = "zone";
+    public static final String IDENTITY_PROVIDER = "idp";
+    public static final String SERVICE_PROVIDER = "sp";
+    public static final String CLIENT = "client";
+    public static final String GROUP = "group";
+    public static final String USER = "user";
+    public static final String SESSION = "session";
+
+    private final String id;
+    private final String type;
+    private final String zoneId;
+    private final String key;
+    private final String nodeId;
+    private final long created;
+
+    public CacheInvalidation(String id, String type, String zoneId, String key, String nodeId, long created) {
+        this.id = id;
+        this.type = type;
+        this.zoneId = zoneId;
+        this.key = key;
+        this.nodeId = nodeId;
+        this.created = created;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getZoneId() {
+        return zoneId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheInvalidation{" +
+            "type='" + type + '\'' +
+            ", zoneId='" + zoneId + '\'' +
+            ", key='" + key + '\'' +
+            ", nodeId='" + nodeId + '\'' +
+            '}';
+    }
+}
@@ -0,0 +1,46 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.cache;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published locally on every node, including the one that made the change,
+ * when an entity that may be cached has been modified or deleted.
+ */
+public class CacheInvalidationEvent extends ApplicationEvent {
+
+    public CacheInvalidationEvent(CacheInvalidation invalidation) {
+        super(invalidation);
+    }
+
+    public CacheInvalidation getInvalidation() {
+        return (CacheInvalidation) getSource();
+    }
+
+    public String getType() {
+        return getInvalidation().getType();
+    }
+
+    public String getZoneId() {
+        return getInvalidation().getZoneId();
+    }
+
+    public String getKey() {
+        return getInvalidation().getKey();
+    }
+
+    public boolean isType(String type) {
+        return type.equals(getType());
+    }
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.client.event.ClientCreateEvent;
+import org.cloudfoundry.identity.uaa.client.event.ClientDeleteEvent;
+import org.cloudfoundry.identity.uaa.client.event.ClientUpdateEvent;
+import org.cloudfoundry.identity.uaa.client.event.SecretChangeEvent;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.saml.idp.SamlServiceProvider;
+import org.cloudfoundry.identity.uaa.scim.event.GroupModifiedEvent;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.event.ServiceProviderModifiedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.security.oauth2.provider.ClientDetails;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Propagates changes to cacheable entities between UAA nodes through the
+ * {@code cache_invalidation} table.
+ * <p>
+ * Modification events raised on this node are written to the table and
+ * republished locally as a {@link CacheInvalidationEvent}. Every node
+ * periodically {@link #poll() polls} the table for entries written by other
+ * nodes and republishes them the same way, so caches only need to listen for
+ * {@link CacheInvalidationEvent}. Each poll reads the entries created since
+ * the previous poll, less an overlap that tolerates clock skew between nodes
+ * and entries that commit late. Entries older than the retention period are
+ * removed by {@link #compact()}.
+ */
+public class JdbcCacheInvalidationBus implements ApplicationListener<AbstractUaaEvent>, ApplicationEventPublisherAware {
+
+    public static final String INSERT_SQL = "insert into cache_invalidation (id, entry_type, identity_zone_id, entry_key, node_id, created) values (?,?,?,?,?,?)";
+    public static final String POLL_SQL = "select id, entry_type, identity_zone_id, entry_key, node_id, created from cache_invalidation where created >= ? order by created";
+    public static final String COMPACT_SQL = "delete from cache_invalidation where created < ?";
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RowMapper<CacheInvalidation> mapper = new CacheInvalidationRowMapper();
+    private final Map<String, Long> seen = new HashMap<>();
+    private ApplicationEventPublisher publisher;
+    private MetricsRegistry metricsRegistry;
+    private String nodeId = UUID.randomUUID().toString();
+    private long overlapMillis = 5000;
+    private int retentionSeconds = 3600;
+    private long lastPoll = System.currentTimeMillis();
+
+    public JdbcCacheInvalidationBus(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public long getOverlapMillis() {
+        return overlapMillis;
+    }
+
+    public void setOverlapMillis(long overlapMillis) {
+        this.overlapMillis = overlapMillis;
+    }
+
+    public int getRetentionSeconds() {
+        return retentionSeconds;
+    }
+
+    public void setRetentionSeconds(int retentionSeconds) {
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    @Override
+    public void onApplicationEvent(AbstractUaaEvent event) {
+        CacheInvalidation invalidation = toInvalidation(event);
+        if (invalidation != null) {
+            publish(invalidation.getType(), invalidation.getZoneId(), invalidation.getKey());
+        }
+    }
+
+    public void publish(String type, String zoneId, String key) {
+        CacheInvalidation invalidation = new CacheInvalidation(UUID.randomUUID().toString(), type, zoneId, key, nodeId, System.currentTimeMillis());
+        try {
+            jdbcTemplate.update(INSERT_SQL,
+                                invalidation.getId(),
+                                invalidation.getType(),
+                                invalidation.getZoneId(),
+                                invalidation.getKey(),
+                                invalidation.getNodeId(),
+                                invalidation.getCreated());
+        } catch (DataAccessException e) {
+            //the change itself has been made, other nodes will only see it once their caches expire
+            logger.warn("Unable to store cache invalidation " + invalidation, e);
+        }
+        publishLocally(invalidation);
+    }
+
+    /**
+     * Republishes the entries written by other nodes since the last poll.
+     * @return the number of entries republished
+     */
+    public synchronized int poll() {
+        long now = System.currentTimeMillis();
+        long since = lastPoll - overlapMillis;
+        int count = 0;
+        List<CacheInvalidation> invalidations = jdbcTemplate.query(POLL_SQL, mapper, since);
+        for (CacheInvalidation invalidation : invalidations) {
+            if (seen.put(invalidation.getId(), invalidation.getCreated()) != null || nodeId.equals(invalidation.getNodeId())) {
+                continue;
+            }
+            if (metricsRegistry != null) {
+                metricsRegistry.histogram(MetricsRegistry.CACHE_INVALIDATION_LATENCY, "type", invalidation.getType())
+                    .record(Math.max(0, now - invalidation.getCreated()), TimeUnit.MILLISECONDS);
+            }
+            publishLocally(invalidation);
+            count++;
+        }
+        seen.values().removeIf(created -> created < since);
+        lastPoll = now;
+        return count;
+    }
+
+    /**
+     * Removes entries older than the retention period.
+     * @return the number of entries removed
+     */
+    public int compact() {
+        int deleted = jdbcTemplate.update(COMPACT_SQL, System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(retentionSeconds));
+        if (deleted > 0) {
+            logger.debug("Removed " + deleted + " cache invalidation entries.");
+        }
+        return deleted;
+    }
+
+    protected void publishLocally(CacheInvalidation invalidation) {
+        if (publisher != null) {
+            publisher.publishEvent(new CacheInvalidationEvent(invalidation));
+        }
+    }
+
+    protected CacheInvalidation toInvalidation(AbstractUaaEvent event) {
+        if (event instanceof IdentityZoneModifiedEvent) {
+            return forSource(event.getSource());
+        } else if (event instanceof IdentityProviderModifiedEvent) {
+            return forSource(event.getSource());
+        } else if (event instanceof ServiceProviderModifiedEvent) {
+            return forSource(event.getSource());
+        } else if (event instanceof EntityDeletedEvent) {
+            return forSource(((EntityDeletedEvent<?>) event).getDeleted());
+        } else if (event instanceof ClientCreateEvent) {
+            return forClient(((ClientCreateEvent) event).getClient());
+        } else if (event instanceof ClientUpdateEvent) {
+            return forClient(((ClientUpdateEvent) event).getClient());
+        } else if (event instanceof ClientDeleteEvent) {
+            return forClient(((ClientDeleteEvent) event).getClient());
+        } else if (event instanceof SecretChangeEvent) {
+            return forClient(((SecretChangeEvent) event).getClient());
+        } else if (event instanceof GroupModifiedEvent) {
+            return invalidation(CacheInvalidation.GROUP, currentZoneId(), ((GroupModifiedEvent) event).getGroupId());
+        } else if (event instanceof UserModifiedEvent) {
+            return invalidation(CacheInvalidation.USER, currentZoneId(), ((UserModifiedEvent) event).getUserId());
+        }
+        return null;
+    }
+
+    private CacheInvalidation forSource(Object source) {
+        if (source instanceof IdentityZone) {
+            IdentityZone zone = (IdentityZone) source;
+            return invalidation(CacheInvalidation.ZONE, zone.getId(), zone.getId());
+        } else if (source instanceof IdentityProvider) {
+            IdentityProvider provider = (IdentityProvider) source;
+            return invalidation(CacheInvalidation.IDENTITY_PROVIDER, provider.getIdentityZoneId(), provider.getOriginKey());
+        } else if (source instanceof SamlServiceProvider) {
+            SamlServiceProvider provider = (SamlServiceProvider) source;
+            return invalidation(CacheInvalidation.SERVICE_PROVIDER, provider.getIdentityZoneId(), provider.getEntityId());
+        }
+        return null;
+    }
+
+    private CacheInvalidation forClient(ClientDetails client) {
+        return client == null ? null : invalidation(CacheInvalidation.CLIENT, currentZoneId(), client.getClientId());
+    }
+
+    private CacheInvalidation invalidation(String type, String zoneId, String key) {
+        return new CacheInvalidation(null, type, zoneId, key, nodeId, 0);
+    }
+
+    private String currentZoneId() {
+        return IdentityZoneHolder.get().getId();
+    }
+
+    private static class CacheInvalidationRowMapper implements RowMapper<CacheInvalidation> {
+        @Override
+        public CacheInvalidation mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new CacheInvalidation(rs.getString(1),
+                                         rs.getString(2),
+                                         rs.getString(3),
+                                         rs.getString(4),
+                                         rs.getString(5),
+                                         rs.getLong(6));
+        }
+    }
+}
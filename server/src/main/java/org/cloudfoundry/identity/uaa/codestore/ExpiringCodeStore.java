@@ -15,6 +15,8 @@ package org.cloudfoundry.identity.uaa.codestore;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 public interface ExpiringCodeStore {
 
@@ -29,6 +31,22 @@ public interface ExpiringCodeStore {
      */
     ExpiringCode generateCode(String data, Timestamp expiresAt, String intent);
 
+    /**
+     * Generate and persist one code for each of the given data, all with the same expiry date and intent.
+     *
+     * @param data JSON objects to be associated with the codes
+     * @return the codes, in the order of the data
+     * @throws java.lang.NullPointerException if any data or expiresAt is null
+     * @throws java.lang.IllegalArgumentException if expiresAt is in the past
+     */
+    default List<ExpiringCode> generateCodes(List<String> data, Timestamp expiresAt, String intent) {
+        List<ExpiringCode> codes = new ArrayList<>(data.size());
+        for (String d : data) {
+            codes.add(generateCode(d, expiresAt, intent));
+        }
+        return codes;
+    }
+
     /**
      * Retrieve a code and delete it if it exists.
      * 
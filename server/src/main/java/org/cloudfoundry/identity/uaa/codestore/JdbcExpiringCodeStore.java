@@ -15,6 +15,10 @@ package org.cloudfoundry.identity.uaa.codestore;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.sql.DataSource;
@@ -104,6 +108,50 @@ public class JdbcExpiringCodeStore implements ExpiringCodeStore {
         return null;
     }
 
+    /**
+     * Inserts all the codes in one batch, running the expiry sweep at most once.
+     * Should the batch hit an existing code, the codes are generated one by one.
+     */
+    @Override
+    public List<ExpiringCode> generateCodes(List<String> data, Timestamp expiresAt, String intent) {
+        cleanExpiredEntries();
+
+        if (data == null || expiresAt == null || data.contains(null)) {
+            throw new NullPointerException();
+        }
+
+        if (expiresAt.getTime() < System.currentTimeMillis()) {
+            throw new IllegalArgumentException();
+        }
+
+        if (data.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Set<String> generated = new HashSet<>();
+        List<ExpiringCode> codes = new ArrayList<>(data.size());
+        List<Object[]> args = new ArrayList<>(data.size());
+        for (String d : data) {
+            String code;
+            do {
+                code = generator.generate();
+            } while (!generated.add(code));
+            codes.add(new ExpiringCode(code, expiresAt, d, intent));
+            args.add(new Object[] {code, expiresAt.getTime(), d, intent});
+        }
+        try {
+            jdbcTemplate.batchUpdate(insert, args);
+            return codes;
+        } catch (DataIntegrityViolationException x) {
+            logger.debug("Batch insert of expiring codes failed, generating them one by one.");
+            codes.clear();
+            for (String d : data) {
+                codes.add(generateCode(d, expiresAt, intent));
+            }
+            return codes;
+        }
+    }
+
     @Override
     public ExpiringCode retrieveCode(String code) {
         cleanExpiredEntries();
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.db;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Marks DAO methods as read-only so that {@link ReplicaRoutingDataSource}
+ * may serve them from the replica, and marks DAO methods as writes so that
+ * reads made while writing, and subsequent reads by the same caller, stay
+ * on the primary.
+ */
+public class ReplicaRoutingAspect {
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final ReplicaRoutingDataSource dataSource;
+
+    public ReplicaRoutingAspect(ReplicaRoutingDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public Object readOnly(ProceedingJoinPoint jp) throws Throwable {
+        if (!dataSource.isReplicaEnabled() || ReplicaRoutingDataSource.isReadOnly() || ReplicaRoutingDataSource.isWriting()) {
+            return jp.proceed();
+        }
+        ReplicaRoutingDataSource.setReadOnly(true);
+        ReplicaRoutingDataSource.clearReplicaUsed();
+        try {
+            return jp.proceed();
+        } catch (DataAccessResourceFailureException | TransientDataAccessResourceException | RecoverableDataAccessException e) {
+            if (!ReplicaRoutingDataSource.isReplicaUsed()) {
+                throw e;
+            }
+            //reads are safe to repeat, so a replica that fails mid query is retried on the primary
+            ReplicaRoutingDataSource.clearReplicaUsed();
+            logger.debug("Read-only call to " + jp.getSignature().getName() + " failed, retrying on the primary.", e);
+            dataSource.replicaFailed(e);
+            ReplicaRoutingDataSource.setReadOnly(false);
+            return jp.proceed();
+        } finally {
+            ReplicaRoutingDataSource.setReadOnly(false);
+            ReplicaRoutingDataSource.clearReplicaUsed();
+        }
+    }
+
+    public Object write(ProceedingJoinPoint jp) throws Throwable {
+        if (!dataSource.isReplicaEnabled() || ReplicaRoutingDataSource.isWriting()) {
+            return jp.proceed();
+        }
+        boolean readOnly = ReplicaRoutingDataSource.isReadOnly();
+        ReplicaRoutingDataSource.setReadOnly(false);
+        ReplicaRoutingDataSource.setWriting(true);
+        try {
+            return jp.proceed();
+        } finally {
+            ReplicaRoutingDataSource.setWriting(false);
+            ReplicaRoutingDataSource.setReadOnly(readOnly);
+            dataSource.recordWrite();
+        }
+    }
+}
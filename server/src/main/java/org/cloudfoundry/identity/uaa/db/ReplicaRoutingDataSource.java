@@ -0,0 +1,245 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpSession;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out connections from a read replica for work that has been marked
+ * read-only, either by {@link ReplicaRoutingAspect} or by a read-only
+ * transaction, and from the primary for everything else.
+ * <p>
+ * A read-write transaction always uses the primary. After a write, reads
+ * from the same request and, for the sticky window, from the same session
+ * (or principal when there is no session) also go to the primary so that
+ * callers see their own writes. Writes are recorded by {@link ReplicaRoutingAspect}
+ * and at most {@link #setMaxStickyEntries(int) maxStickyEntries} sessions or
+ * principals are remembered. If a replica connection cannot be obtained
+ * the primary is used instead and the replica is skipped for the retry
+ * interval.
+ * <p>
+ * Transactions only become read-only once they have started, so this data
+ * source should be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    static final String WRITE_ATTRIBUTE = ReplicaRoutingDataSource.class.getName() + ".WRITE";
+
+    private static final ThreadLocal<Boolean> readOnly = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> writing = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> replicaUsed = new ThreadLocal<>();
+
+    private final DataSource primary;
+    private final DataSource replica;
+    private boolean replicaEnabled = false;
+    private int stickyWindowSeconds = 5;
+    private int replicaRetrySeconds = 30;
+    private int maxStickyEntries = 10000;
+    private volatile long replicaDownUntil = 0;
+    private volatile Cache<String, Long> recentWrites = buildCache();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    public DataSource getReplica() {
+        return replica;
+    }
+
+    public boolean isReplicaEnabled() {
+        return replicaEnabled;
+    }
+
+    public void setReplicaEnabled(boolean replicaEnabled) {
+        this.replicaEnabled = replicaEnabled;
+    }
+
+    public int getStickyWindowSeconds() {
+        return stickyWindowSeconds;
+    }
+
+    public void setStickyWindowSeconds(int stickyWindowSeconds) {
+        this.stickyWindowSeconds = stickyWindowSeconds;
+        recentWrites = buildCache();
+    }
+
+    public int getReplicaRetrySeconds() {
+        return replicaRetrySeconds;
+    }
+
+    public void setReplicaRetrySeconds(int replicaRetrySeconds) {
+        this.replicaRetrySeconds = replicaRetrySeconds;
+    }
+
+    public int getMaxStickyEntries() {
+        return maxStickyEntries;
+    }
+
+    public void setMaxStickyEntries(int maxStickyEntries) {
+        this.maxStickyEntries = maxStickyEntries;
+        recentWrites = buildCache();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (useReplica()) {
+            try {
+                Connection connection = replica.getConnection();
+                set(replicaUsed, true);
+                return connection;
+            } catch (SQLException e) {
+                replicaFailed(e);
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (useReplica()) {
+            try {
+                Connection connection = replica.getConnection(username, password);
+                set(replicaUsed, true);
+                return connection;
+            } catch (SQLException e) {
+                replicaFailed(e);
+            }
+        }
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Marks the current request, and the current session or principal for
+     * the sticky window, as having written to the primary. Called by
+     * {@link ReplicaRoutingAspect} after each write.
+     */
+    public void recordWrite() {
+        if (!isReplicaEnabled()) {
+            return;
+        }
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            attributes.setAttribute(WRITE_ATTRIBUTE, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+        }
+        String key = getSessionKey();
+        if (key != null) {
+            recentWrites.put(key, System.currentTimeMillis());
+        }
+    }
+
+    public void replicaFailed(Exception e) {
+        replicaDownUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getReplicaRetrySeconds());
+        logger.warn("Read replica unavailable, using the primary for the next " + getReplicaRetrySeconds() + " seconds.", e);
+    }
+
+    protected boolean useReplica() {
+        if (!isReplicaEnabled() || replica == null || System.currentTimeMillis() < replicaDownUntil) {
+            return false;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                return false;
+            }
+        } else if (!isReadOnly()) {
+            return false;
+        }
+        return !hasRecentWrite();
+    }
+
+    protected boolean hasRecentWrite() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null && attributes.getAttribute(WRITE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null) {
+            return true;
+        }
+        String key = getSessionKey();
+        return key != null && recentWrites.getIfPresent(key) != null;
+    }
+
+    protected String getSessionKey() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes) {
+            HttpSession session = ((ServletRequestAttributes) attributes).getRequest().getSession(false);
+            if (session != null) {
+                return "session:" + session.getId();
+            }
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getName() != null) {
+            return "principal:" + authentication.getName();
+        }
+        return null;
+    }
+
+    private Cache<String, Long> buildCache() {
+        return CacheBuilder.newBuilder()
+            .expireAfterWrite(stickyWindowSeconds, TimeUnit.SECONDS)
+            .maximumSize(maxStickyEntries)
+            .build();
+    }
+
+    public static boolean isReadOnly() {
+        return Boolean.TRUE.equals(readOnly.get());
+    }
+
+    static void setReadOnly(boolean value) {
+        set(readOnly, value);
+    }
+
+    public static boolean isWriting() {
+        return Boolean.TRUE.equals(writing.get());
+    }
+
+    static void setWriting(boolean value) {
+        set(writing, value);
+    }
+
+    /**
+     * @return true if a replica connection was handed out on this thread
+     * since {@link #clearReplicaUsed()}
+     */
+    static boolean isReplicaUsed() {
+        return Boolean.TRUE.equals(replicaUsed.get());
+    }
+
+    static void clearReplicaUsed() {
+        set(replicaUsed, false);
+    }
+
+    private static void set(ThreadLocal<Boolean> flag, boolean value) {
+        if (value) {
+            flag.set(Boolean.TRUE);
+        } else {
+            flag.remove();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.deletion;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The progress of the background removal of the data that belongs to a
+ * deleted identity zone or identity provider.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeletionJob {
+
+    public static final String IDENTITY_ZONE = "identity_zone";
+    public static final String IDENTITY_PROVIDER = "identity_provider";
+
+    public enum Status {
+        PENDING,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private String id;
+    private String entityType;
+    private String entityId;
+    private String identityZoneId;
+    private String originKey;
+    private Status status = Status.PENDING;
+    private String step;
+    private long deletedCount;
+    private String nodeId;
+    private String errorMessage;
+    private long created;
+    private long lastModified;
+    private int attempts;
+    private long retryAt;
+
+    public DeletionJob() {
+    }
+
+    public DeletionJob(String entityType, String entityId, String identityZoneId, String originKey) {
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.identityZoneId = identityZoneId;
+        this.originKey = originKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(String entityId) {
+        this.entityId = entityId;
+    }
+
+    public String getIdentityZoneId() {
+        return identityZoneId;
+    }
+
+    public void setIdentityZoneId(String identityZoneId) {
+        this.identityZoneId = identityZoneId;
+    }
+
+    public String getOriginKey() {
+        return originKey;
+    }
+
+    public void setOriginKey(String originKey) {
+        this.originKey = originKey;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getStep() {
+        return step;
+    }
+
+    public void setStep(String step) {
+        this.step = step;
+    }
+
+    public long getDeletedCount() {
+        return deletedCount;
+    }
+
+    public void setDeletedCount(long deletedCount) {
+        this.deletedCount = deletedCount;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+    public void setRetryAt(long retryAt) {
+        this.retryAt = retryAt;
+    }
+
+    @JsonIgnore
+    public boolean isZoneDeletion() {
+        return IDENTITY_ZONE.equals(entityType);
+    }
+
+    @Override
+    public String toString() {
+        return "DeletionJob{" +
+            "id='" + id + '\'' +
+            ", entityType='" + entityType + '\'' +
+            ", entityId='" + entityId + '\'' +
+            ", identityZoneId='" + identityZoneId + '\'' +
+            ", status=" + status +
+            '}';
+    }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.deletion;
+
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.net.URI;
+
+import static org.springframework.http.HttpStatus.ACCEPTED;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * Reports the progress of the deletion jobs started when an identity zone
+ * or identity provider is deleted. Jobs are only visible from the default
+ * zone and from the zone they belong to.
+ */
+@RequestMapping("/deletion-jobs")
+@RestController
+public class DeletionJobEndpoints {
+
+    public static final String LOCATION = "/deletion-jobs/";
+
+    private final DeletionJobService deletionJobService;
+
+    public DeletionJobEndpoints(DeletionJobService deletionJobService) {
+        this.deletionJobService = deletionJobService;
+    }
+
+    @RequestMapping(value = "{id}", method = GET)
+    public ResponseEntity<DeletionJob> retrieveDeletionJob(@PathVariable String id) {
+        DeletionJob job = deletionJobService.retrieve(id);
+        if (!IdentityZoneHolder.isUaa() && !IdentityZoneHolder.get().getId().equals(job.getIdentityZoneId())) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        return new ResponseEntity<>(job, OK);
+    }
+
+    /**
+     * @return a 202 response pointing to the job that completes the deletion
+     */
+    public static <T> ResponseEntity<T> accepted(T deleted, DeletionJob job) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(URI.create(LOCATION + job.getId()));
+        return new ResponseEntity<>(deleted, headers, ACCEPTED);
+    }
+
+    @ExceptionHandler(EmptyResultDataAccessException.class)
+    public ResponseEntity<String> handleJobNotFoundException() {
+        return new ResponseEntity<>("Deletion job not found.", HttpStatus.NOT_FOUND);
+    }
+}
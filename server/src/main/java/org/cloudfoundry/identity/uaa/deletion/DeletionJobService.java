@@ -0,0 +1,289 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.deletion;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob.Status;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.security.core.Authentication;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ClassUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the data that belongs to deleted identity zones and identity
+ * providers in the background.
+ * <p>
+ * Deleting a zone or provider publishes a deferred {@link EntityDeletedEvent},
+ * so the zone or provider itself is removed right away, while the deletables
+ * that support chunked deletion leave their data to a {@link DeletionJob}.
+ * The job runs on the task executor and removes that data one chunk at a time,
+ * recording its progress after every chunk. Jobs that are pending or have
+ * stopped making progress, for instance because the node running them was
+ * restarted, are picked up again by {@link #resume()}. Failed jobs are retried
+ * by {@link #resume()} as well, with a delay that doubles after every attempt.
+ * Every chunk only deletes rows that are still present, so a resumed job
+ * simply starts over.
+ * <p>
+ * Until its job has completed, a zone or provider must not be created again
+ * with the same id or origin, since the job would remove the new data as well.
+ * See {@link #isZoneBeingDeleted(String)} and
+ * {@link #isProviderBeingDeleted(String, String)}.
+ */
+public class DeletionJobService implements ApplicationEventPublisherAware {
+
+    private final Log logger = LogFactory.getLog(getClass());
+
+    private final JdbcDeletionJobProvisioning provisioning;
+    private final TaskExecutor executor;
+    private ApplicationEventPublisher publisher;
+    private List<SystemDeletable> deletables = Collections.emptyList();
+    private String nodeId = UUID.randomUUID().toString();
+    private int chunkSize = 500;
+    private long staleMillis = TimeUnit.MINUTES.toMillis(5);
+    private int retentionSeconds = (int) TimeUnit.DAYS.toSeconds(7);
+    private long retryMillis = TimeUnit.MINUTES.toMillis(1);
+    private long maxRetryMillis = TimeUnit.HOURS.toMillis(1);
+
+    public DeletionJobService(JdbcDeletionJobProvisioning provisioning, TaskExecutor executor) {
+        this.provisioning = provisioning;
+        this.executor = executor;
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * @param deletables the deletables that are run by the deletion jobs, in order
+     */
+    public void setDeletables(List<SystemDeletable> deletables) {
+        this.deletables = deletables;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public long getStaleMillis() {
+        return staleMillis;
+    }
+
+    public void setStaleMillis(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    public int getRetentionSeconds() {
+        return retentionSeconds;
+    }
+
+    public void setRetentionSeconds(int retentionSeconds) {
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    public long getRetryMillis() {
+        return retryMillis;
+    }
+
+    /**
+     * @param retryMillis the delay before a failed job is first retried
+     */
+    public void setRetryMillis(long retryMillis) {
+        this.retryMillis = retryMillis;
+    }
+
+    public long getMaxRetryMillis() {
+        return maxRetryMillis;
+    }
+
+    public void setMaxRetryMillis(long maxRetryMillis) {
+        this.maxRetryMillis = maxRetryMillis;
+    }
+
+    /**
+     * @return true if the data of a deleted zone with this id is still being removed
+     */
+    public boolean isZoneBeingDeleted(String zoneId) {
+        return provisioning.isZoneBeingDeleted(zoneId);
+    }
+
+    /**
+     * @return true if the users of a deleted provider with this origin are still being removed
+     */
+    public boolean isProviderBeingDeleted(String zoneId, String originKey) {
+        return provisioning.isProviderBeingDeleted(zoneId, originKey) || provisioning.isZoneBeingDeleted(zoneId);
+    }
+
+    /**
+     * Deletes the zone and starts a job that removes its data.
+     * @return the job, or null if the zone is the default zone and nothing was deleted
+     */
+    public DeletionJob deleteIdentityZone(IdentityZone zone, Authentication authentication) {
+        if (IdentityZone.getUaa().getId().equals(zone.getId())) {
+            publisher.publishEvent(new EntityDeletedEvent<>(zone, authentication));
+            return null;
+        }
+        DeletionJob job = provisioning.create(new DeletionJob(DeletionJob.IDENTITY_ZONE, zone.getId(), zone.getId(), null));
+        publisher.publishEvent(new EntityDeletedEvent<>(zone, authentication, true));
+        start(job.getId());
+        return job;
+    }
+
+    /**
+     * Deletes the identity provider and starts a job that removes its users.
+     * @return the job, or null if the provider is the default provider and nothing was deleted
+     */
+    public DeletionJob deleteIdentityProvider(IdentityProvider provider, Authentication authentication) {
+        if (OriginKeys.UAA.equals(provider.getOriginKey())) {
+            publisher.publishEvent(new EntityDeletedEvent<>(provider, authentication));
+            return null;
+        }
+        DeletionJob job = provisioning.create(new DeletionJob(DeletionJob.IDENTITY_PROVIDER, provider.getId(), provider.getIdentityZoneId(), provider.getOriginKey()));
+        publisher.publishEvent(new EntityDeletedEvent<>(provider, authentication, true));
+        start(job.getId());
+        return job;
+    }
+
+    public DeletionJob retrieve(String id) {
+        return provisioning.retrieve(id);
+    }
+
+    /**
+     * Starts the pending jobs, the jobs that have stopped making progress and
+     * the failed jobs that are due for a retry.
+     * @return the number of jobs started
+     */
+    public int resume() {
+        List<String> ids = provisioning.retrieveResumableIds(staleBefore());
+        for (String id : ids) {
+            execute(id);
+        }
+        return ids.size();
+    }
+
+    /**
+     * Removes the completed jobs that are older than the retention period.
+     * @return the number of jobs removed
+     */
+    public int compact() {
+        return provisioning.deleteFinishedBefore(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(retentionSeconds));
+    }
+
+    /**
+     * Runs the job on the calling thread, unless it is already running elsewhere.
+     * @return true if the job was run
+     */
+    public boolean run(String id) {
+        if (!provisioning.claim(id, nodeId, staleBefore())) {
+            return false;
+        }
+        DeletionJob job = provisioning.retrieve(id);
+        logger.debug("Running deletion job " + job);
+        long deleted = job.getDeletedCount();
+        try {
+            if (isDefault(job)) {
+                //never remove the data of the default zone or provider
+                provisioning.finish(id, nodeId, Status.COMPLETED, null);
+                return true;
+            }
+            for (SystemDeletable deletable : deletables) {
+                String step = ClassUtils.getUserClass(deletable).getSimpleName();
+                int count;
+                do {
+                    if (job.isZoneDeletion()) {
+                        count = deletable.deleteChunkByIdentityZone(job.getIdentityZoneId(), chunkSize);
+                    } else {
+                        count = deletable.deleteChunkByOrigin(job.getOriginKey(), job.getIdentityZoneId(), chunkSize);
+                    }
+                    deleted += count;
+                    if (!provisioning.updateProgress(id, nodeId, step, deleted)) {
+                        logger.info("Deletion job " + id + " was taken over by another node.");
+                        return true;
+                    }
+                } while (count >= chunkSize);
+            }
+            provisioning.finish(id, nodeId, Status.COMPLETED, null);
+            logger.debug("Deletion job " + id + " completed, " + deleted + " entities deleted.");
+        } catch (RuntimeException e) {
+            long retryAt = System.currentTimeMillis() + retryDelay(job.getAttempts());
+            logger.error("Deletion job " + id + " failed on attempt " + job.getAttempts() + ", it will be retried.", e);
+            provisioning.finish(id, nodeId, Status.FAILED, e.getMessage(), retryAt);
+        }
+        return true;
+    }
+
+    protected void start(String id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            //the job is only visible to the executor once the deletion is committed
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    execute(id);
+                }
+            });
+        } else {
+            execute(id);
+        }
+    }
+
+    protected void execute(String id) {
+        try {
+            executor.execute(() -> run(id));
+        } catch (TaskRejectedException e) {
+            logger.debug("Deletion job " + id + " rejected, it will be resumed later.");
+        }
+    }
+
+    private boolean isDefault(DeletionJob job) {
+        if (job.isZoneDeletion()) {
+            return IdentityZone.getUaa().getId().equals(job.getIdentityZoneId());
+        }
+        return OriginKeys.UAA.equals(job.getOriginKey());
+    }
+
+    private long retryDelay(int attempts) {
+        long delay = retryMillis * (1L << Math.min(Math.max(attempts - 1, 0), 20));
+        return Math.min(delay, maxRetryMillis);
+    }
+
+    private long staleBefore() {
+        return System.currentTimeMillis() - staleMillis;
+    }
+}
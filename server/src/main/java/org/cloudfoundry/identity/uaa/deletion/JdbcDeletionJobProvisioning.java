@@ -0,0 +1,178 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.deletion;
+
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob.Status;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stores {@link DeletionJob}s in the {@code deletion_job} table. A job is
+ * run by the node that {@link #claim claimed} it, and may be claimed by
+ * another node once it has not made progress for a while. Failed jobs may be
+ * claimed again once their {@code retry_at} time has passed.
+ */
+public class JdbcDeletionJobProvisioning {
+
+    public static final String FIELDS = "id,entity_type,entity_id,identity_zone_id,origin_key,status,step,deleted_count,node_id,error_message,created,last_modified,attempts,retry_at";
+    public static final String INSERT_SQL = "insert into deletion_job (" + FIELDS + ") values (?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    public static final String RETRIEVE_SQL = "select " + FIELDS + " from deletion_job where id=?";
+    public static final String RESUMABLE_CONDITION = "(status=? or (status=? and last_modified < ?) or (status=? and retry_at < ?))";
+    public static final String RESUMABLE_SQL = "select id from deletion_job where " + RESUMABLE_CONDITION + " order by created";
+    public static final String CLAIM_SQL = "update deletion_job set status=?, node_id=?, last_modified=?, attempts=attempts+1 where id=? and " + RESUMABLE_CONDITION;
+    public static final String PROGRESS_SQL = "update deletion_job set step=?, deleted_count=?, last_modified=? where id=? and node_id=? and status=?";
+    public static final String FINISH_SQL = "update deletion_job set status=?, error_message=?, retry_at=?, last_modified=? where id=? and node_id=? and status=?";
+    public static final String COMPACT_SQL = "delete from deletion_job where status=? and last_modified < ?";
+    public static final String UNFINISHED_ZONE_JOBS_SQL = "select count(*) from deletion_job where identity_zone_id=? and entity_type=? and status<>?";
+    public static final String UNFINISHED_PROVIDER_JOBS_SQL = "select count(*) from deletion_job where identity_zone_id=? and entity_type=? and origin_key=? and status<>?";
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RowMapper<DeletionJob> mapper = new DeletionJobRowMapper();
+
+    public JdbcDeletionJobProvisioning(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public DeletionJob create(DeletionJob job) {
+        long now = System.currentTimeMillis();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(Status.PENDING);
+        job.setCreated(now);
+        job.setLastModified(now);
+        jdbcTemplate.update(INSERT_SQL,
+                            job.getId(),
+                            job.getEntityType(),
+                            job.getEntityId(),
+                            job.getIdentityZoneId(),
+                            job.getOriginKey(),
+                            job.getStatus().name(),
+                            job.getStep(),
+                            job.getDeletedCount(),
+                            job.getNodeId(),
+                            job.getErrorMessage(),
+                            job.getCreated(),
+                            job.getLastModified(),
+                            job.getAttempts(),
+                            job.getRetryAt());
+        return job;
+    }
+
+    public DeletionJob retrieve(String id) {
+        return jdbcTemplate.queryForObject(RETRIEVE_SQL, mapper, id);
+    }
+
+    /**
+     * @return the ids of the jobs that are pending, running without having
+     * made progress since {@code staleBefore}, or failed and due for a retry,
+     * oldest first
+     */
+    public List<String> retrieveResumableIds(long staleBefore) {
+        return jdbcTemplate.queryForList(RESUMABLE_SQL, String.class,
+                                         Status.PENDING.name(),
+                                         Status.RUNNING.name(),
+                                         staleBefore,
+                                         Status.FAILED.name(),
+                                         System.currentTimeMillis());
+    }
+
+    /**
+     * @return true if a job that removes the data of the zone has not completed yet
+     */
+    public boolean isZoneBeingDeleted(String zoneId) {
+        return jdbcTemplate.queryForObject(UNFINISHED_ZONE_JOBS_SQL, Integer.class,
+                                           zoneId, DeletionJob.IDENTITY_ZONE, Status.COMPLETED.name()) > 0;
+    }
+
+    /**
+     * @return true if a job that removes the users of the provider has not completed yet
+     */
+    public boolean isProviderBeingDeleted(String zoneId, String originKey) {
+        return jdbcTemplate.queryForObject(UNFINISHED_PROVIDER_JOBS_SQL, Integer.class,
+                                           zoneId, DeletionJob.IDENTITY_PROVIDER, originKey, Status.COMPLETED.name()) > 0;
+    }
+
+    /**
+     * @return true if the job is now running on the given node
+     */
+    public boolean claim(String id, String nodeId, long staleBefore) {
+        long now = System.currentTimeMillis();
+        return jdbcTemplate.update(CLAIM_SQL,
+                                   Status.RUNNING.name(),
+                                   nodeId,
+                                   now,
+                                   id,
+                                   Status.PENDING.name(),
+                                   Status.RUNNING.name(),
+                                   staleBefore,
+                                   Status.FAILED.name(),
+                                   now) == 1;
+    }
+
+    /**
+     * @return false if the job is no longer running on the given node
+     */
+    public boolean updateProgress(String id, String nodeId, String step, long deletedCount) {
+        return jdbcTemplate.update(PROGRESS_SQL, step, deletedCount, System.currentTimeMillis(), id, nodeId, Status.RUNNING.name()) == 1;
+    }
+
+    public boolean finish(String id, String nodeId, Status status, String errorMessage) {
+        return finish(id, nodeId, status, errorMessage, 0);
+    }
+
+    /**
+     * @param retryAt when a failed job may be claimed again
+     */
+    public boolean finish(String id, String nodeId, Status status, String errorMessage, long retryAt) {
+        if (errorMessage != null && errorMessage.length() > MAX_ERROR_LENGTH) {
+            errorMessage = errorMessage.substring(0, MAX_ERROR_LENGTH);
+        }
+        return jdbcTemplate.update(FINISH_SQL, status.name(), errorMessage, retryAt, System.currentTimeMillis(), id, nodeId, Status.RUNNING.name()) == 1;
+    }
+
+    /**
+     * Removes the completed jobs that finished before the given time. Failed
+     * jobs are kept until a retry completes them.
+     * @return the number of jobs removed
+     */
+    public int deleteFinishedBefore(long time) {
+        return jdbcTemplate.update(COMPACT_SQL, Status.COMPLETED.name(), time);
+    }
+
+    private static final class DeletionJobRowMapper implements RowMapper<DeletionJob> {
+        @Override
+        public DeletionJob mapRow(ResultSet rs, int rowNum) throws SQLException {
+            DeletionJob job = new DeletionJob(rs.getString("entity_type"),
+                                              rs.getString("entity_id"),
+                                              rs.getString("identity_zone_id"),
+                                              rs.getString("origin_key"));
+            job.setId(rs.getString("id"));
+            job.setStatus(Status.valueOf(rs.getString("status")));
+            job.setStep(rs.getString("step"));
+            job.setDeletedCount(rs.getLong("deleted_count"));
+            job.setNodeId(rs.getString("node_id"));
+            job.setErrorMessage(rs.getString("error_message"));
+            job.setCreated(rs.getLong("created"));
+            job.setLastModified(rs.getLong("last_modified"));
+            job.setAttempts(rs.getInt("attempts"));
+            job.setRetryAt(rs.getLong("retry_at"));
+            return job;
+        }
+    }
+}
@@ -245,7 +245,17 @@ public class IdentityProviderBootstrap implements InitializingBean {
     }
 
     protected void updateDefaultZoneUaaIDP() throws JSONException {
-        IdentityProvider internalIDP = provisioning.retrieveByOrigin(OriginKeys.UAA, IdentityZone.getUaa().getId());
+        //the provisioning may return a cached instance shared with other threads
+        IdentityProvider cachedIDP = provisioning.retrieveByOrigin(OriginKeys.UAA, IdentityZone.getUaa().getId());
+        IdentityProvider internalIDP = new IdentityProvider()
+            .setId(cachedIDP.getId())
+            .setVersion(cachedIDP.getVersion())
+            .setCreated(cachedIDP.getCreated())
+            .setLastModified(cachedIDP.getLastModified())
+            .setName(cachedIDP.getName())
+            .setOriginKey(cachedIDP.getOriginKey())
+            .setType(cachedIDP.getType())
+            .setIdentityZoneId(cachedIDP.getIdentityZoneId());
         UaaIdentityProviderDefinition identityProviderDefinition = new UaaIdentityProviderDefinition(defaultPasswordPolicy, defaultLockoutPolicy, disableInternalUserManagement);
         internalIDP.setConfig(identityProviderDefinition);
         String disableInternalAuth = environment.getProperty("disableInternalAuth");
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.invitations;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * The progress of an invitation of many users that runs in the background.
+ * Once completed, the job holds the same response as a synchronous invitation.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class InvitationJob {
+
+    public enum Status {
+        PENDING,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    private String id;
+    private String identityZoneId;
+    private String clientId;
+    private Status status = Status.PENDING;
+    private int totalCount;
+    private int processedCount;
+    private InvitationsResponse result;
+    private String errorMessage;
+    private long created;
+    private long lastModified;
+
+    public InvitationJob() {
+    }
+
+    public InvitationJob(String identityZoneId, String clientId, int totalCount) {
+        this.identityZoneId = identityZoneId;
+        this.clientId = clientId;
+        this.totalCount = totalCount;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getIdentityZoneId() {
+        return identityZoneId;
+    }
+
+    public void setIdentityZoneId(String identityZoneId) {
+        this.identityZoneId = identityZoneId;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(int totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public int getProcessedCount() {
+        return processedCount;
+    }
+
+    public void setProcessedCount(int processedCount) {
+        this.processedCount = processedCount;
+    }
+
+    public InvitationsResponse getResult() {
+        return result;
+    }
+
+    public void setResult(InvitationsResponse result) {
+        this.result = result;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    @Override
+    public String toString() {
+        return "InvitationJob{" +
+            "id='" + id + '\'' +
+            ", identityZoneId='" + identityZoneId + '\'' +
+            ", status=" + status +
+            ", processedCount=" + processedCount +
+            ", totalCount=" + totalCount +
+            '}';
+    }
+}
@@ -1,17 +1,26 @@
 package org.cloudfoundry.identity.uaa.invitations;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCode;
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCodeStore;
 import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.scim.ScimUser;
 import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.scim.exception.ScimException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceConflictException;
 import org.cloudfoundry.identity.uaa.util.DomainFilter;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaUrlUtils;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
+import org.cloudfoundry.identity.uaa.invitations.InvitationsResponse.Invitee;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -21,17 +30,30 @@ import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
 
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.ORIGIN;
 import static org.springframework.security.oauth2.common.util.OAuth2Utils.CLIENT_ID;
@@ -41,11 +63,17 @@ import static org.springframework.security.oauth2.common.util.OAuth2Utils.REDIRE
 public class InvitationsEndpoint {
 
     public static final int INVITATION_EXPIRY_DAYS = 7;
+    public static final String JOB_LOCATION = "/invite_users/jobs/";
+
+    private final Log logger = LogFactory.getLog(getClass());
 
     private ScimUserProvisioning users;
     private IdentityProviderProvisioning providers;
     private ClientDetailsService clients;
     private ExpiringCodeStore expiringCodeStore;
+    private JdbcInvitationJobProvisioning jobProvisioning;
+    private TaskExecutor jobExecutor;
+    private int batchSize = 500;
 
     public InvitationsEndpoint(ScimUserProvisioning users,
                                IdentityProviderProvisioning providers,
@@ -57,73 +85,269 @@ public class InvitationsEndpoint {
         this.expiringCodeStore = expiringCodeStore;
     }
 
+    public void setJobProvisioning(JdbcInvitationJobProvisioning jobProvisioning) {
+        this.jobProvisioning = jobProvisioning;
+    }
+
+    public void setJobExecutor(TaskExecutor jobExecutor) {
+        this.jobExecutor = jobExecutor;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of email addresses of the same origin looked up, created and
+     *                  given a code together
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
     @RequestMapping(value = "/invite_users", method = RequestMethod.POST, consumes = "application/json")
     public ResponseEntity<InvitationsResponse> inviteUsers(@RequestBody InvitationsRequest invitations,
                                                            @RequestParam(value = "client_id", required = false) String clientId,
                                                            @RequestParam(value = "redirect_uri") String redirectUri) {
+        clientId = resolveClientId(clientId);
+        ClientDetails client = clients.loadClientByClientId(clientId);
+        String accountsUrl = UaaUrlUtils.getUaaUrl("/invitations/accept");
+        InvitationsResponse invitationsResponse = invite(Arrays.asList(invitations.getEmails()), client, redirectUri, accountsUrl, processed -> {});
+        return new ResponseEntity<>(invitationsResponse, HttpStatus.OK);
+    }
 
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication instanceof OAuth2Authentication) {
-            OAuth2Authentication oAuth2Authentication = (OAuth2Authentication) authentication;
+    /**
+     * Invites the users in the background. The response points to the job, which reports
+     * the progress of the invitation and, once completed, holds the invitation response.
+     */
+    @RequestMapping(value = "/invite_users", method = RequestMethod.POST, consumes = "application/json", params = "async=true")
+    public ResponseEntity<InvitationJob> inviteUsersAsync(@RequestBody InvitationsRequest invitations,
+                                                          @RequestParam(value = "client_id", required = false) String clientId,
+                                                          @RequestParam(value = "redirect_uri") String redirectUri) {
+        if (jobProvisioning == null || jobExecutor == null) {
+            throw new UaaException("Asynchronous invitations are not enabled.", HttpStatus.NOT_IMPLEMENTED.value());
+        }
+        String owner = resolveClientId(null);
+        clientId = resolveClientId(clientId);
+        ClientDetails client = clients.loadClientByClientId(clientId);
+        String accountsUrl = UaaUrlUtils.getUaaUrl("/invitations/accept");
+        IdentityZone zone = IdentityZoneHolder.get();
+        List<String> emails = Arrays.asList(invitations.getEmails());
+        InvitationJob job = jobProvisioning.create(new InvitationJob(zone.getId(), owner != null ? owner : clientId, emails.size()));
+        try {
+            jobExecutor.execute(() -> runJob(job.getId(), zone, emails, client, redirectUri, accountsUrl));
+        } catch (TaskRejectedException e) {
+            jobProvisioning.start(job.getId());
+            jobProvisioning.fail(job.getId(), 0, "Too many invitation jobs are running, try again later.");
+            job.setStatus(InvitationJob.Status.FAILED);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(URI.create(JOB_LOCATION + job.getId()));
+        return new ResponseEntity<>(job, headers, HttpStatus.ACCEPTED);
+    }
 
-            if (clientId == null) {
-                clientId = oAuth2Authentication.getOAuth2Request().getClientId();
-            }
+    /**
+     * Only the client that started the job can retrieve it, other clients get a 404.
+     */
+    @RequestMapping(value = "/invite_users/jobs/{id}", method = RequestMethod.GET)
+    public ResponseEntity<InvitationJob> retrieveInvitationJob(@PathVariable String id) {
+        if (jobProvisioning == null) {
+            throw new EmptyResultDataAccessException(1);
         }
+        InvitationJob job = jobProvisioning.retrieve(id);
+        if (!IdentityZoneHolder.get().getId().equals(job.getIdentityZoneId()) ||
+            !job.getClientId().equals(resolveClientId(null))) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        return new ResponseEntity<>(job, HttpStatus.OK);
+    }
 
-        InvitationsResponse invitationsResponse = new InvitationsResponse();
+    @ExceptionHandler(EmptyResultDataAccessException.class)
+    public ResponseEntity<String> handleJobNotFoundException() {
+        return new ResponseEntity<>("Invitation job not found.", HttpStatus.NOT_FOUND);
+    }
+
+    protected void runJob(String id, IdentityZone zone, List<String> emails, ClientDetails client, String redirectUri, String accountsUrl) {
+        if (!jobProvisioning.start(id)) {
+            return;
+        }
+        AtomicInteger processed = new AtomicInteger();
+        IdentityZoneHolder.set(zone);
+        try {
+            InvitationsResponse response = invite(emails, client, redirectUri, accountsUrl, count -> {
+                processed.set(count);
+                jobProvisioning.updateProgress(id, count);
+            });
+            jobProvisioning.complete(id, response);
+        } catch (RuntimeException e) {
+            logger.error("Invitation job " + id + " failed.", e);
+            jobProvisioning.fail(id, processed.get(), e.getMessage());
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
 
+    /**
+     * Invites the users of each identity provider in batches: the existing users of a batch
+     * are found with one query, the missing ones are created together and the invitation
+     * codes are stored together. A batch that fails, for instance because one of its email
+     * addresses is not a valid username, is retried one user at a time.
+     * @param progress called with the number of email addresses processed so far
+     */
+    protected InvitationsResponse invite(List<String> emails, ClientDetails client, String redirectUri, String accountsUrl, IntConsumer progress) {
+        Invitee[] invitees = new Invitee[emails.size()];
+        int processed = 0;
         DomainFilter filter = new DomainFilter();
         List<IdentityProvider> activeProviders = providers.retrieveActive(IdentityZoneHolder.get().getId());
-        ClientDetails client = clients.loadClientByClientId(clientId);
-        for (String email : invitations.getEmails()) {
-            try {
-                List<IdentityProvider> providers = filter.filter(activeProviders, client, email);
-                if (providers.size() == 1) {
-                    ScimUser user = findOrCreateUser(email, providers.get(0).getOriginKey());
-
-                    String accountsUrl = UaaUrlUtils.getUaaUrl("/invitations/accept");
-
-                    Map<String, String> data = new HashMap<>();
-                    data.put(InvitationConstants.USER_ID, user.getId());
-                    data.put(InvitationConstants.EMAIL, user.getPrimaryEmail());
-                    data.put(CLIENT_ID, clientId);
-                    data.put(REDIRECT_URI, redirectUri);
-                    data.put(ORIGIN, user.getOrigin());
-                    Timestamp expiry = new Timestamp(System.currentTimeMillis() + (INVITATION_EXPIRY_DAYS * 24 * 60 * 60 * 1000));
-                    ExpiringCode code = expiringCodeStore.generateCode(JsonUtils.writeValueAsString(data), expiry, null);
-
-                    String invitationLink = accountsUrl + "?code=" + code.getCode();
-                    try {
-                        URL inviteLink = new URL(invitationLink);
-                        invitationsResponse.getNewInvites().add(InvitationsResponse.success(user.getPrimaryEmail(), user.getId(), user.getOrigin(), inviteLink));
-                    } catch (MalformedURLException mue) {
-                        invitationsResponse.getFailedInvites().add(InvitationsResponse.failure(email, "invitation.exception.url", String.format("Malformed url", invitationLink)));
+        Map<String, List<Integer>> byOrigin = new LinkedHashMap<>();
+        for (int i = 0; i < emails.size(); i++) {
+            String email = emails.get(i);
+            List<IdentityProvider> providers = filter.filter(activeProviders, client, email);
+            if (providers.size() == 1) {
+                byOrigin.computeIfAbsent(providers.get(0).getOriginKey(), k -> new ArrayList<>()).add(i);
+            } else if (providers.size() == 0) {
+                invitees[i] = InvitationsResponse.failure(email, "provider.non-existent", "No authentication provider found.");
+                processed++;
+            } else {
+                invitees[i] = InvitationsResponse.failure(email, "provider.ambiguous", "Multiple authentication providers found.");
+                processed++;
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : byOrigin.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            for (int start = 0; start < indexes.size(); start += batchSize) {
+                List<Integer> batch = indexes.subList(start, Math.min(start + batchSize, indexes.size()));
+                try {
+                    inviteBatch(emails, batch, entry.getKey(), client.getClientId(), redirectUri, accountsUrl, invitees);
+                } catch (UaaException | ScimException x) {
+                    logger.debug("Batch invitation failed, inviting users one by one: " + x.getMessage());
+                    for (int i : batch) {
+                        invitees[i] = inviteUser(emails.get(i), entry.getKey(), client.getClientId(), redirectUri, accountsUrl);
                     }
-                } else if (providers.size() == 0) {
-                    invitationsResponse.getFailedInvites().add(InvitationsResponse.failure(email, "provider.non-existent", "No authentication provider found."));
-                } else {
-                    invitationsResponse.getFailedInvites().add(InvitationsResponse.failure(email, "provider.ambiguous", "Multiple authentication providers found."));
                 }
-            } catch (ScimResourceConflictException x) {
-                invitationsResponse.getFailedInvites().add(InvitationsResponse.failure(email, "user.ambiguous", "Multiple users with the same origin matched to the email address."));
-            } catch (UaaException uaae) {
-                invitationsResponse.getFailedInvites().add(InvitationsResponse.failure(email, "invitation.exception", uaae.getMessage()));
+                processed += batch.size();
+                progress.accept(processed);
             }
         }
-        return new ResponseEntity<>(invitationsResponse, HttpStatus.OK);
+
+        InvitationsResponse invitationsResponse = new InvitationsResponse();
+        for (Invitee invitee : invitees) {
+            if (invitee.isSuccess()) {
+                invitationsResponse.getNewInvites().add(invitee);
+            } else {
+                invitationsResponse.getFailedInvites().add(invitee);
+            }
+        }
+        return invitationsResponse;
+    }
+
+    private void inviteBatch(List<String> emails, List<Integer> batch, String origin, String clientId, String redirectUri, String accountsUrl, Invitee[] invitees) {
+        Set<String> addresses = new LinkedHashSet<>();
+        for (int i : batch) {
+            addresses.add(normalize(emails.get(i)));
+        }
+        Map<String, List<ScimUser>> found = findUsers(addresses, origin);
+        List<ScimUser> missing = addresses.stream()
+            .filter(email -> !found.containsKey(email))
+            .map(email -> newUser(email, origin))
+            .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            users.createUsers(missing);
+            found.putAll(findUsers(missing.stream().map(u -> u.getPrimaryEmail()).collect(Collectors.toList()), origin));
+        }
+
+        List<Integer> invited = new ArrayList<>();
+        List<ScimUser> invitedUsers = new ArrayList<>();
+        for (int i : batch) {
+            List<ScimUser> matches = found.getOrDefault(normalize(emails.get(i)), Collections.emptyList());
+            if (matches.size() == 1) {
+                invited.add(i);
+                invitedUsers.add(matches.get(0));
+            } else if (matches.isEmpty()) {
+                invitees[i] = InvitationsResponse.failure(emails.get(i), "invitation.exception", "Unable to create user.");
+            } else {
+                invitees[i] = ambiguous(emails.get(i));
+            }
+        }
+        List<String> data = invitedUsers.stream().map(user -> codeData(user, clientId, redirectUri)).collect(Collectors.toList());
+        List<ExpiringCode> codes = expiringCodeStore.generateCodes(data, expiry(), null);
+        for (int n = 0; n < invited.size(); n++) {
+            int i = invited.get(n);
+            invitees[i] = success(emails.get(i), invitedUsers.get(n), codes.get(n), accountsUrl);
+        }
+    }
+
+    private Invitee inviteUser(String email, String origin, String clientId, String redirectUri, String accountsUrl) {
+        try {
+            ScimUser user = findOrCreateUser(email, origin);
+            ExpiringCode code = expiringCodeStore.generateCode(codeData(user, clientId, redirectUri), expiry(), null);
+            return success(email, user, code, accountsUrl);
+        } catch (ScimResourceConflictException x) {
+            return ambiguous(email);
+        } catch (UaaException | ScimException x) {
+            return InvitationsResponse.failure(email, "invitation.exception", x.getMessage());
+        }
+    }
+
+    private Map<String, List<ScimUser>> findUsers(Collection<String> emails, String origin) {
+        return users.retrieveByEmailsAndOrigin(emails, origin).stream()
+            .collect(Collectors.groupingBy(user -> normalize(user.getPrimaryEmail()), HashMap::new, Collectors.toList()));
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase();
+    }
+
+    private static ScimUser newUser(String email, String origin) {
+        ScimUser user = new ScimUser(null, email, "", "");
+        user.setPrimaryEmail(email.toLowerCase());
+        user.setOrigin(origin);
+        user.setVerified(false);
+        user.setActive(true);
+        return user;
+    }
+
+    private static String codeData(ScimUser user, String clientId, String redirectUri) {
+        Map<String, String> data = new HashMap<>();
+        data.put(InvitationConstants.USER_ID, user.getId());
+        data.put(InvitationConstants.EMAIL, user.getPrimaryEmail());
+        data.put(CLIENT_ID, clientId);
+        data.put(REDIRECT_URI, redirectUri);
+        data.put(ORIGIN, user.getOrigin());
+        return JsonUtils.writeValueAsString(data);
+    }
+
+    private static Timestamp expiry() {
+        return new Timestamp(System.currentTimeMillis() + (INVITATION_EXPIRY_DAYS * 24 * 60 * 60 * 1000));
+    }
+
+    private static Invitee success(String email, ScimUser user, ExpiringCode code, String accountsUrl) {
+        String invitationLink = accountsUrl + "?code=" + code.getCode();
+        try {
+            URL inviteLink = new URL(invitationLink);
+            return InvitationsResponse.success(user.getPrimaryEmail(), user.getId(), user.getOrigin(), inviteLink);
+        } catch (MalformedURLException mue) {
+            return InvitationsResponse.failure(email, "invitation.exception.url", String.format("Malformed url", invitationLink));
+        }
+    }
+
+    private static Invitee ambiguous(String email) {
+        return InvitationsResponse.failure(email, "user.ambiguous", "Multiple users with the same origin matched to the email address.");
+    }
+
+    private static String resolveClientId(String clientId) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (clientId == null && authentication instanceof OAuth2Authentication) {
+            clientId = ((OAuth2Authentication) authentication).getOAuth2Request().getClientId();
+        }
+        return clientId;
     }
 
     protected ScimUser findOrCreateUser(String email, String origin) {
-        email = email.trim().toLowerCase();
+        email = normalize(email);
         List<ScimUser> results = users.query(String.format("email eq \"%s\" and origin eq \"%s\"", email, origin));
         if (results == null || results.size() == 0) {
-            ScimUser user = new ScimUser(null, email, "", "");
-            user.setPrimaryEmail(email.toLowerCase());
-            user.setOrigin(origin);
-            user.setVerified(false);
-            user.setActive(true);
-            return users.createUser(user, new RandomValueStringGenerator(12).generate());
+            return users.createUser(newUser(email, origin), new RandomValueStringGenerator(12).generate());
         } else if (results.size() == 1) {
             return results.get(0);
         } else {
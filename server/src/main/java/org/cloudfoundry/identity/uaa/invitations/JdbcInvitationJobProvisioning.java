@@ -0,0 +1,167 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.invitations;
+
+import org.cloudfoundry.identity.uaa.invitations.InvitationJob.Status;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores {@link InvitationJob}s in the {@code invitation_job} table. The
+ * response of a completed job is kept as JSON in the {@code result} column.
+ */
+public class JdbcInvitationJobProvisioning {
+
+    public static final String FIELDS = "id,identity_zone_id,client_id,status,total_count,processed_count,result,error_message,created,last_modified";
+    public static final String INSERT_SQL = "insert into invitation_job (" + FIELDS + ") values (?,?,?,?,?,?,?,?,?,?)";
+    public static final String RETRIEVE_SQL = "select " + FIELDS + " from invitation_job where id=?";
+    public static final String START_SQL = "update invitation_job set status=?, last_modified=? where id=? and status=?";
+    public static final String PROGRESS_SQL = "update invitation_job set processed_count=?, last_modified=? where id=? and status=?";
+    public static final String FINISH_SQL = "update invitation_job set status=?, processed_count=?, result=?, error_message=?, last_modified=? where id=? and status=?";
+    public static final String FAIL_STALE_SQL = "update invitation_job set status=?, error_message=?, last_modified=? where status in (?,?) and last_modified < ?";
+    public static final String COMPACT_SQL = "delete from invitation_job where status in (?,?) and last_modified < ?";
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RowMapper<InvitationJob> mapper = new InvitationJobRowMapper();
+    private long staleMillis = TimeUnit.MINUTES.toMillis(5);
+    private int retentionSeconds = (int) TimeUnit.DAYS.toSeconds(1);
+
+    public JdbcInvitationJobProvisioning(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public long getStaleMillis() {
+        return staleMillis;
+    }
+
+    public void setStaleMillis(long staleMillis) {
+        this.staleMillis = staleMillis;
+    }
+
+    public int getRetentionSeconds() {
+        return retentionSeconds;
+    }
+
+    public void setRetentionSeconds(int retentionSeconds) {
+        this.retentionSeconds = retentionSeconds;
+    }
+
+    public InvitationJob create(InvitationJob job) {
+        long now = System.currentTimeMillis();
+        job.setId(UUID.randomUUID().toString());
+        job.setStatus(Status.PENDING);
+        job.setCreated(now);
+        job.setLastModified(now);
+        jdbcTemplate.update(INSERT_SQL,
+                            job.getId(),
+                            job.getIdentityZoneId(),
+                            job.getClientId(),
+                            job.getStatus().name(),
+                            job.getTotalCount(),
+                            job.getProcessedCount(),
+                            null,
+                            job.getErrorMessage(),
+                            job.getCreated(),
+                            job.getLastModified());
+        return job;
+    }
+
+    public InvitationJob retrieve(String id) {
+        return jdbcTemplate.queryForObject(RETRIEVE_SQL, mapper, id);
+    }
+
+    /**
+     * @return true if the job was pending and is now running
+     */
+    public boolean start(String id) {
+        return jdbcTemplate.update(START_SQL, Status.RUNNING.name(), System.currentTimeMillis(), id, Status.PENDING.name()) == 1;
+    }
+
+    public boolean updateProgress(String id, int processedCount) {
+        return jdbcTemplate.update(PROGRESS_SQL, processedCount, System.currentTimeMillis(), id, Status.RUNNING.name()) == 1;
+    }
+
+    public boolean complete(String id, InvitationsResponse result) {
+        int processed = result.getNewInvites().size() + result.getFailedInvites().size();
+        return jdbcTemplate.update(FINISH_SQL, Status.COMPLETED.name(), processed, JsonUtils.writeValueAsString(result), null,
+                                   System.currentTimeMillis(), id, Status.RUNNING.name()) == 1;
+    }
+
+    public boolean fail(String id, int processedCount, String errorMessage) {
+        return jdbcTemplate.update(FINISH_SQL, Status.FAILED.name(), processedCount, null, truncate(errorMessage),
+                                   System.currentTimeMillis(), id, Status.RUNNING.name()) == 1;
+    }
+
+    /**
+     * Fails the pending and running jobs that have not made progress since the given time,
+     * typically because the node running them was stopped.
+     * @return the number of jobs failed
+     */
+    public int failStale(long staleBefore) {
+        return jdbcTemplate.update(FAIL_STALE_SQL, Status.FAILED.name(), "Invitation job stopped making progress.",
+                                   System.currentTimeMillis(), Status.PENDING.name(), Status.RUNNING.name(), staleBefore);
+    }
+
+    /**
+     * Removes the completed and failed jobs that finished before the given time.
+     * @return the number of jobs removed
+     */
+    public int deleteFinishedBefore(long time) {
+        return jdbcTemplate.update(COMPACT_SQL, Status.COMPLETED.name(), Status.FAILED.name(), time);
+    }
+
+    /**
+     * Fails the stale jobs and removes the finished jobs older than the retention period.
+     * @return the number of jobs removed
+     */
+    public int compact() {
+        long now = System.currentTimeMillis();
+        failStale(now - staleMillis);
+        return deleteFinishedBefore(now - TimeUnit.SECONDS.toMillis(retentionSeconds));
+    }
+
+    private static String truncate(String errorMessage) {
+        if (errorMessage != null && errorMessage.length() > MAX_ERROR_LENGTH) {
+            return errorMessage.substring(0, MAX_ERROR_LENGTH);
+        }
+        return errorMessage;
+    }
+
+    private static final class InvitationJobRowMapper implements RowMapper<InvitationJob> {
+        @Override
+        public InvitationJob mapRow(ResultSet rs, int rowNum) throws SQLException {
+            InvitationJob job = new InvitationJob(rs.getString("identity_zone_id"),
+                                                  rs.getString("client_id"),
+                                                  rs.getInt("total_count"));
+            job.setId(rs.getString("id"));
+            job.setStatus(Status.valueOf(rs.getString("status")));
+            job.setProcessedCount(rs.getInt("processed_count"));
+            String result = rs.getString("result");
+            if (result != null) {
+                job.setResult(JsonUtils.readValue(result, InvitationsResponse.class));
+            }
+            job.setErrorMessage(rs.getString("error_message"));
+            job.setCreated(rs.getLong("created"));
+            job.setLastModified(rs.getLong("last_modified"));
+            return job;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.login;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.http.MediaType;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.View;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Holds the JSON login model served by <code>/login</code> and <code>/info</code>
+ * for each zone, rendered once together with a strong ETag. Clients polling
+ * those endpoints get the same bytes until one of the zone's identity
+ * providers or the zone itself is modified.
+ */
+public class LoginInfoCache implements ApplicationListener<CacheInvalidationEvent>, MeteredCache {
+
+    private final Cache<String, Document> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentMap<String, Long> invalidated = new ConcurrentHashMap<>();
+
+    public LoginInfoCache() {
+        this(1000, 60);
+    }
+
+    public LoginInfoCache(int maxZones, int expireSeconds) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxZones)
+            .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Returns the document of the current zone, calling the generator only
+     * if there is no up to date copy.
+     * @param generator builds the model of the current zone, it must not depend on the request
+     */
+    public Document getDocument(Supplier<Map<String, ?>> generator) {
+        String zoneId = IdentityZoneHolder.get().getId();
+        Document document = cache.asMap().get(zoneId);
+        if (document != null && document.generation < invalidated.getOrDefault(zoneId, 0L)) {
+            //rendered while the zone was being invalidated
+            cache.asMap().remove(zoneId, document);
+        }
+        try {
+            return cache.get(zoneId, () -> {
+                long renderedAt = generation.get();
+                return new Document(renderedAt, JsonUtils.writeValueAsString(generator.get()));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void invalidate(String zoneId) {
+        invalidated.put(zoneId, generation.incrementAndGet());
+        cache.invalidate(zoneId);
+    }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.IDENTITY_PROVIDER) || event.isType(CacheInvalidation.ZONE)) {
+            invalidate(event.getZoneId());
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    static String sha256(byte[] value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new String(Hex.encode(digest.digest(value)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A pre-rendered JSON login model. As a {@link View} it answers requests
+     * carrying a matching If-None-Match header with 304 Not Modified.
+     */
+    public static class Document implements View {
+        private final long generation;
+        private final byte[] content;
+        private final String etag;
+
+        Document(long generation, String content) {
+            this.generation = generation;
+            this.content = content.getBytes(StandardCharsets.UTF_8);
+            this.etag = "\"" + sha256(this.content) + "\"";
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        @Override
+        public String getContentType() {
+            return MediaType.APPLICATION_JSON_VALUE + ";charset=UTF-8";
+        }
+
+        @Override
+        public void render(Map<String, ?> model, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+                return;
+            }
+            response.setContentType(getContentType());
+            response.setContentLength(content.length);
+            response.getOutputStream().write(content);
+        }
+    }
+}
@@ -46,6 +46,7 @@ import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.security.web.savedrequest.SavedRequest;
 import org.springframework.stereotype.Controller;
+import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
@@ -53,6 +54,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -136,6 +138,7 @@ public class LoginInfoEndpoint {
     private ClientDetailsService clientDetailsService;
 
     private IdentityProviderProvisioning providerProvisioning;
+    private LoginInfoCache loginInfoCache;
     private static MapCollector<IdentityProvider, String, AbstractXOAuthIdentityProviderDefinition> idpsMapCollector = new MapCollector<>(idp -> idp.getOriginKey(), idp -> (AbstractXOAuthIdentityProviderDefinition) idp.getConfig());
 
     public void setExpiringCodeStore(ExpiringCodeStore expiringCodeStore) {
@@ -182,13 +185,13 @@ public class LoginInfoEndpoint {
     }
 
     @RequestMapping(value = {"/login"}, headers = "Accept=application/json")
-    public String loginForJson(Model model, Principal principal) {
-        return login(model, principal, Collections.<String>emptyList(), true);
+    public ModelAndView loginForJson(Model model, Principal principal) {
+        return json(model, principal);
     }
 
     @RequestMapping(value = {"/info"}, headers = "Accept=application/json")
-    public String infoForJson(Model model, Principal principal) {
-        return login(model, principal, Collections.<String>emptyList(), true);
+    public ModelAndView infoForJson(Model model, Principal principal) {
+        return json(model, principal);
     }
 
     @RequestMapping(value = {"/info"}, headers = "Accept=text/html, */*")
@@ -210,6 +213,18 @@ public class LoginInfoEndpoint {
         return SamlRedirectUtils.getZonifiedEntityId(entityID);
     }
 
+    private ModelAndView json(Model model, Principal principal) {
+        if (loginInfoCache == null) {
+            return new ModelAndView(login(model, principal, Collections.<String>emptyList(), true));
+        }
+        //the JSON model only depends on the zone
+        return new ModelAndView(loginInfoCache.getDocument(() -> {
+            ExtendedModelMap zoneModel = new ExtendedModelMap();
+            login(zoneModel, null, Collections.<String>emptyList(), true);
+            return zoneModel;
+        }));
+    }
+
     private String login(Model model, Principal principal, List<String> excludedPrompts, boolean jsonResponse) {
         return login(model, principal, excludedPrompts, jsonResponse, null);
     }
@@ -658,6 +673,18 @@ public class LoginInfoEndpoint {
         this.providerProvisioning = providerProvisioning;
     }
 
+    public LoginInfoCache getLoginInfoCache() {
+        return loginInfoCache;
+    }
+
+    /**
+     * Serves the JSON responses of <code>/login</code> and <code>/info</code>
+     * from a document rendered once per zone
+     */
+    public void setLoginInfoCache(LoginInfoCache loginInfoCache) {
+        this.loginInfoCache = loginInfoCache;
+    }
+
     @ResponseStatus(value = HttpStatus.FORBIDDEN, reason = "Unknown authentication token type, unable to derive user ID.")
     public static final class UnknownPrincipalException extends RuntimeException {}
 
@@ -20,13 +20,14 @@ public class EmailService implements MessageService {
     private final Log logger = LogFactory.getLog(getClass());
 
     private JavaMailSender mailSender;
-    private final String loginUrl;
     private final String companyName;
+    private final String senderHost;
+    private MailDispatcher dispatcher;
 
     public EmailService(JavaMailSender mailSender, String loginUrl, String companyName) {
         this.mailSender = mailSender;
-        this.loginUrl = loginUrl;
         this.companyName = companyName;
+        this.senderHost = UriComponentsBuilder.fromHttpUrl(loginUrl).build().getHost();
     }
 
     public JavaMailSender getMailSender() {
@@ -37,15 +38,26 @@ public class EmailService implements MessageService {
         this.mailSender = mailSender;
     }
 
+    public MailDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @param dispatcher if set, messages are queued and sent in the background
+     *                   instead of on the calling thread
+     */
+    public void setDispatcher(MailDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     private Address[] getSenderAddresses() throws AddressException, UnsupportedEncodingException {
-        String host = UriComponentsBuilder.fromHttpUrl(loginUrl).build().getHost();
         String name = null;
         if (IdentityZoneHolder.get().equals(IdentityZone.getUaa())) {
             name = StringUtils.hasText(companyName) ? companyName : "Cloud Foundry";
         } else {
             name = IdentityZoneHolder.get().getName();
         }
-        return new Address[]{new InternetAddress("admin@" + host, name)};
+        return new Address[]{new InternetAddress("admin@" + senderHost, name)};
     }
 
     @Override
@@ -62,6 +74,10 @@ public class EmailService implements MessageService {
             logger.error("Exception raised while sending message to " + email, e);
         }
 
-        mailSender.send(message);
+        if (dispatcher != null) {
+            dispatcher.dispatch(message);
+        } else {
+            mailSender.send(message);
+        }
     }
 }
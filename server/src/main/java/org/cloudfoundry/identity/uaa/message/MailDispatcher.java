@@ -0,0 +1,316 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.message;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends mail messages in the background so that requests do not wait for the
+ * SMTP server.
+ * <p>
+ * Messages are held in a bounded queue and sent by a pool of workers. Each
+ * worker takes up to <code>batchSize</code> messages at a time and hands them
+ * to the {@link JavaMailSender} in a single call, which sends them over one
+ * SMTP connection. Messages that could not be sent are retried with an
+ * exponential backoff; once <code>maxAttempts</code> is reached, when the
+ * queue is full, or once the dispatcher has been stopped, they are written to
+ * the dead letter log.
+ * <p>
+ * The workers run on the given executor, which needs a thread for each of them.
+ */
+public class MailDispatcher {
+
+    private final Log logger = LogFactory.getLog(getClass());
+    private final Log deadLetters = LogFactory.getLog(getClass().getName() + ".DeadLetter");
+
+    private final JavaMailSender mailSender;
+    private final int capacity;
+    private final TaskExecutor executor;
+    private final int workers;
+    private final Set<Thread> workerThreads = ConcurrentHashMap.newKeySet();
+    private final DelayQueue<Delivery> queue = new DelayQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private int batchSize = 20;
+    private int maxAttempts = 5;
+    private long initialBackoffMillis = 1000;
+    private long maxBackoffMillis = 60000;
+    private long shutdownTimeoutMillis = 5000;
+    private MetricsRegistry metricsRegistry;
+    private volatile boolean running;
+    private volatile boolean stopped;
+    private CountDownLatch finished;
+
+    public MailDispatcher(JavaMailSender mailSender, int capacity, TaskExecutor executor, int workers) {
+        if (capacity < 1 || workers < 1) {
+            throw new IllegalArgumentException("Queue capacity and workers must be positive");
+        }
+        this.mailSender = mailSender;
+        this.capacity = capacity;
+        this.executor = executor;
+        this.workers = workers;
+    }
+
+    public JavaMailSender getMailSender() {
+        return mailSender;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+        if (metricsRegistry != null) {
+            metricsRegistry.gauge(MetricsRegistry.MAIL_QUEUE_DEPTH, () -> depth.get());
+            metricsRegistry.gauge(MetricsRegistry.MAIL_SENT, () -> sent.get());
+            metricsRegistry.gauge(MetricsRegistry.MAIL_RETRIED, () -> retried.get());
+            metricsRegistry.gauge(MetricsRegistry.MAIL_DEAD_LETTERED, () -> deadLettered.get());
+        }
+    }
+
+    public synchronized void start() {
+        if (running || stopped) {
+            return;
+        }
+        running = true;
+        finished = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    /**
+     * Stops the workers, waiting for the batches being sent and interrupting
+     * them after the shutdown timeout, then makes one last attempt to send
+     * whatever is left in the queue. Messages dispatched or failing after this
+     * are dead lettered.
+     */
+    public synchronized void destroy() throws InterruptedException {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        running = false;
+        if (finished != null && !finished.await(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            for (Thread worker : workerThreads) {
+                worker.interrupt();
+            }
+        }
+        List<Delivery> remaining = new ArrayList<>();
+        for (Delivery delivery : queue.toArray(new Delivery[0])) {
+            if (queue.remove(delivery)) {
+                delivery.attempts = maxAttempts - 1;
+                remaining.add(delivery);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            send(remaining);
+        }
+    }
+
+    /**
+     * Queues a message for delivery
+     * @param message a fully built message, it is not modified once queued
+     * @return false if the queue is full, or the dispatcher stopped, and the message was dead lettered
+     */
+    public boolean dispatch(MimeMessage message) {
+        if (stopped) {
+            deadLetter(new Delivery(message), "the dispatcher is stopped", null);
+            return false;
+        }
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            deadLetter(new Delivery(message), "queue is full", null);
+            return false;
+        }
+        queue.add(new Delivery(message));
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getRetryCount() {
+        return retried.get();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLettered.get();
+    }
+
+    private void work() {
+        workerThreads.add(Thread.currentThread());
+        try {
+            poll();
+        } finally {
+            workerThreads.remove(Thread.currentThread());
+            finished.countDown();
+        }
+    }
+
+    private void poll() {
+        List<Delivery> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Delivery first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                send(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Unexpected error while sending mail", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Delivery> batch) {
+        MimeMessage[] messages = new MimeMessage[batch.size()];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = batch.get(i).message;
+        }
+        long start = System.nanoTime();
+        try {
+            mailSender.send(messages);
+            for (Delivery delivery : batch) {
+                delivered(delivery);
+            }
+        } catch (MailSendException e) {
+            Map<Object, Exception> failed = e.getFailedMessages();
+            for (Delivery delivery : batch) {
+                if (failed.isEmpty() || failed.containsKey(delivery.message)) {
+                    Exception cause = failed.get(delivery.message);
+                    failed(delivery, cause != null ? cause : e);
+                } else {
+                    delivered(delivery);
+                }
+            }
+        } catch (RuntimeException e) {
+            for (Delivery delivery : batch) {
+                failed(delivery, e);
+            }
+        } finally {
+            if (metricsRegistry != null) {
+                metricsRegistry.histogram(MetricsRegistry.MAIL_SEND_LATENCY).recordNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void delivered(Delivery delivery) {
+        depth.decrementAndGet();
+        sent.incrementAndGet();
+    }
+
+    private void failed(Delivery delivery, Exception cause) {
+        delivery.attempts++;
+        if (delivery.attempts >= maxAttempts || stopped) {
+            depth.decrementAndGet();
+            deadLetter(delivery, "failed after " + delivery.attempts + " attempts", cause);
+            return;
+        }
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(delivery.attempts - 1, 30));
+        logger.debug("Unable to send mail to " + recipients(delivery.message) + ", retrying in " + backoff + "ms: " + cause.getMessage());
+        retried.incrementAndGet();
+        delivery.notBefore = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        queue.add(delivery);
+    }
+
+    private void deadLetter(Delivery delivery, String reason, Exception cause) {
+        deadLettered.incrementAndGet();
+        String subject;
+        try {
+            subject = delivery.message.getSubject();
+        } catch (MessagingException e) {
+            subject = null;
+        }
+        deadLetters.error("Mail to " + recipients(delivery.message) + " with subject '" + subject + "' was not sent, " + reason, cause);
+    }
+
+    private static String recipients(MimeMessage message) {
+        try {
+            return String.valueOf(InternetAddress.toString(message.getAllRecipients()));
+        } catch (MessagingException e) {
+            return "unknown recipients";
+        }
+    }
+
+    private static class Delivery implements Delayed {
+        private final MimeMessage message;
+        private int attempts;
+        private long notBefore = System.nanoTime();
+
+        Delivery(MimeMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(notBefore - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(notBefore, ((Delivery) other).notBefore);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Implemented by components that hold an in memory cache so that its
+ * hit ratio can be published by the {@link MetricsRegistry}.
+ */
+public interface MeteredCache {
+
+    CacheStats getCacheStats();
+
+    long getCacheSize();
+
+}
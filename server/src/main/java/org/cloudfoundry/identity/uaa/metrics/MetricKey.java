@@ -0,0 +1,77 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable identity of a metric: a name plus a sorted set of tags.
+ */
+public final class MetricKey implements Comparable<MetricKey> {
+
+    private final String name;
+    private final Map<String, String> tags;
+    private final int hashCode;
+
+    public MetricKey(String name, String... tags) {
+        if (name == null) {
+            throw new IllegalArgumentException("Metric name must not be null");
+        }
+        if (tags.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags must be given as key/value pairs");
+        }
+        TreeMap<String, String> sorted = new TreeMap<>();
+        for (int i = 0; i < tags.length; i += 2) {
+            if (tags[i + 1] != null) {
+                sorted.put(tags[i], tags[i + 1]);
+            }
+        }
+        this.name = name;
+        this.tags = Collections.unmodifiableMap(sorted);
+        this.hashCode = 31 * name.hashCode() + this.tags.hashCode();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof MetricKey)) return false;
+        MetricKey other = (MetricKey) o;
+        return hashCode == other.hashCode && name.equals(other.name) && tags.equals(other.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public int compareTo(MetricKey o) {
+        int result = name.compareTo(o.name);
+        return result != 0 ? result : tags.toString().compareTo(o.tags.toString());
+    }
+
+    @Override
+    public String toString() {
+        return name + tags;
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * Exposes the contents of the {@link MetricsRegistry} in the Prometheus
+ * text exposition format (the default) or as JSON.
+ */
+@Controller
+public class MetricsEndpoint {
+
+    public static final String PROMETHEUS_CONTENT_TYPE = "text/plain;version=0.0.4";
+
+    static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final MetricsRegistry registry;
+
+    public MetricsEndpoint(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Prometheus scrapers do not always send an Accept header, so the text
+     * format is returned unless JSON is explicitly asked for.
+     */
+    @RequestMapping(value = "/metrics", method = GET)
+    public ResponseEntity<?> getMetrics(@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        HttpHeaders headers = new HttpHeaders();
+        if (isJsonRequested(accept)) {
+            headers.setContentType(MediaType.APPLICATION_JSON);
+            return new ResponseEntity<>(getJsonMetrics(), headers, HttpStatus.OK);
+        }
+        headers.setContentType(MediaType.parseMediaType(PROMETHEUS_CONTENT_TYPE));
+        return new ResponseEntity<>(getPrometheusMetrics(), headers, HttpStatus.OK);
+    }
+
+    static boolean isJsonRequested(String accept) {
+        if (!StringUtils.hasText(accept)) {
+            return false;
+        }
+        for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+            if (mediaType.isWildcardType()) {
+                return false;
+            }
+            if (MediaType.APPLICATION_JSON.isCompatibleWith(mediaType)) {
+                return true;
+            }
+            if (MediaType.TEXT_PLAIN.isCompatibleWith(mediaType)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    public String getPrometheusMetrics() {
+        StringBuilder out = new StringBuilder(4096);
+        String previous = null;
+        for (Map.Entry<MetricKey, Counter> entry : registry.getCounters().entrySet()) {
+            String name = entry.getKey().getName() + "_total";
+            previous = writeType(out, previous, name, "counter");
+            writeSample(out, name, entry.getKey().getTags(), null, entry.getValue().getCount());
+        }
+        for (Map.Entry<MetricKey, Gauge> entry : registry.getGauges().entrySet()) {
+            String name = entry.getKey().getName();
+            previous = writeType(out, previous, name, "gauge");
+            writeSample(out, name, entry.getKey().getTags(), null, entry.getValue().getValue());
+        }
+        for (Map.Entry<MetricKey, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+            String name = entry.getKey().getName() + "_seconds";
+            previous = writeType(out, previous, name, "summary");
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            Map<String, String> tags = entry.getKey().getTags();
+            for (double quantile : QUANTILES) {
+                writeSample(out, name, tags, String.valueOf(quantile), toSeconds(snapshot.getValueAtPercentile(quantile * 100)));
+            }
+            writeSample(out, name + "_sum", tags, null, toSeconds(snapshot.getSum()));
+            writeSample(out, name + "_count", tags, null, snapshot.getCount());
+        }
+        for (Map.Entry<MetricKey, LatencyHistogram> entry : registry.getDistributions().entrySet()) {
+            String name = entry.getKey().getName();
+            previous = writeType(out, previous, name, "summary");
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            Map<String, String> tags = entry.getKey().getTags();
+            for (double quantile : QUANTILES) {
+                writeSample(out, name, tags, String.valueOf(quantile), snapshot.getValueAtPercentile(quantile * 100));
+            }
+            writeSample(out, name + "_sum", tags, null, snapshot.getSum());
+            writeSample(out, name + "_count", tags, null, snapshot.getCount());
+        }
+        return out.toString();
+    }
+
+    public Map<String, Object> getJsonMetrics() {
+        List<Map<String, Object>> counters = new ArrayList<>();
+        for (Map.Entry<MetricKey, Counter> entry : registry.getCounters().entrySet()) {
+            Map<String, Object> metric = describe(entry.getKey());
+            metric.put("count", entry.getValue().getCount());
+            counters.add(metric);
+        }
+        List<Map<String, Object>> gauges = new ArrayList<>();
+        for (Map.Entry<MetricKey, Gauge> entry : registry.getGauges().entrySet()) {
+            Map<String, Object> metric = describe(entry.getKey());
+            metric.put("value", entry.getValue().getValue());
+            gauges.add(metric);
+        }
+        List<Map<String, Object>> histograms = new ArrayList<>();
+        for (Map.Entry<MetricKey, LatencyHistogram> entry : registry.getHistograms().entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            Map<String, Object> metric = describe(entry.getKey());
+            metric.put("count", snapshot.getCount());
+            metric.put("mean_ms", toMillis(snapshot.getMean()));
+            for (double quantile : QUANTILES) {
+                metric.put("p" + Math.round(quantile * 100) + "_ms", toMillis(snapshot.getValueAtPercentile(quantile * 100)));
+            }
+            metric.put("max_ms", toMillis(snapshot.getMax()));
+            histograms.add(metric);
+        }
+        List<Map<String, Object>> distributions = new ArrayList<>();
+        for (Map.Entry<MetricKey, LatencyHistogram> entry : registry.getDistributions().entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            Map<String, Object> metric = describe(entry.getKey());
+            metric.put("count", snapshot.getCount());
+            metric.put("mean", snapshot.getMean());
+            for (double quantile : QUANTILES) {
+                metric.put("p" + Math.round(quantile * 100), snapshot.getValueAtPercentile(quantile * 100));
+            }
+            metric.put("max", snapshot.getMax());
+            distributions.add(metric);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("counters", counters);
+        result.put("gauges", gauges);
+        result.put("histograms", histograms);
+        result.put("distributions", distributions);
+        return result;
+    }
+
+    private static Map<String, Object> describe(MetricKey key) {
+        Map<String, Object> metric = new LinkedHashMap<>();
+        metric.put("name", key.getName());
+        metric.put("tags", key.getTags());
+        return metric;
+    }
+
+    private static String writeType(StringBuilder out, String previous, String name, String type) {
+        if (!name.equals(previous)) {
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+        return name;
+    }
+
+    private static void writeSample(StringBuilder out, String name, Map<String, String> tags, String quantile, double value) {
+        out.append(name);
+        if (!tags.isEmpty() || quantile != null) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                out.append(tag.getKey()).append("=\"").append(escape(tag.getValue())).append('"');
+            }
+            if (quantile != null) {
+                out.append(first ? "" : ",").append("quantile=\"").append(quantile).append('"');
+            }
+            out.append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static double toSeconds(double micros) {
+        return micros / 1000000.0;
+    }
+
+    private static double toMillis(double micros) {
+        return micros / 1000.0;
+    }
+}
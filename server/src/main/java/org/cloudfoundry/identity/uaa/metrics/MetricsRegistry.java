@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In process registry of counters, latency histograms and gauges.
+ * Metrics are created lazily on first use and live for the lifetime
+ * of the application.
+ */
+public class MetricsRegistry {
+
+    public static final String JDBC_LATENCY = "uaa_jdbc_latency";
+    public static final String TOKEN_LATENCY = "uaa_token_latency";
+    public static final String PASSWORD_MATCH_LATENCY = "uaa_password_match_latency";
+    public static final String AUTHENTICATION_LATENCY = "uaa_authentication_latency";
+    public static final String CACHE_INVALIDATION_LATENCY = "uaa_cache_invalidation_latency";
+    public static final String CHECK_TOKEN_BATCH_LATENCY = "uaa_check_token_batch_latency";
+    public static final String MAIL_SEND_LATENCY = "uaa_mail_send_latency";
+
+    public static final String CHECK_TOKEN_BATCH_SIZE = "uaa_check_token_batch_size";
+
+    public static final String CACHE_SIZE = "uaa_cache_size";
+    public static final String CACHE_HIT_RATIO = "uaa_cache_hit_ratio";
+    public static final String CACHE_HITS = "uaa_cache_hits";
+    public static final String CACHE_MISSES = "uaa_cache_misses";
+    public static final String CACHE_EVICTIONS = "uaa_cache_evictions";
+
+    public static final String MAIL_QUEUE_DEPTH = "uaa_mail_queue_depth";
+    public static final String MAIL_SENT = "uaa_mail_sent";
+    public static final String MAIL_RETRIED = "uaa_mail_retried";
+    public static final String MAIL_DEAD_LETTERED = "uaa_mail_dead_lettered";
+
+    public static final String OTHER_ZONE = "other";
+
+    private final ConcurrentMap<MetricKey, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<MetricKey, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<MetricKey, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<MetricKey, LatencyHistogram> distributions = new ConcurrentHashMap<>();
+    private final Set<String> taggedZones = ConcurrentHashMap.newKeySet();
+    private int maxZoneTags = 100;
+
+    public void setMaxZoneTags(int maxZoneTags) {
+        this.maxZoneTags = maxZoneTags;
+    }
+
+    /**
+     * The value of the <code>zone</code> tag for the given zone. Only the first
+     * {@link #setMaxZoneTags(int) maxZoneTags} zones get a tag of their own, the
+     * others share {@link #OTHER_ZONE} so the number of series stays bounded.
+     */
+    public String zoneTag(String zoneId) {
+        if (zoneId == null || taggedZones.contains(zoneId)) {
+            return zoneId;
+        }
+        synchronized (taggedZones) {
+            if (taggedZones.size() < maxZoneTags) {
+                taggedZones.add(zoneId);
+                return zoneId;
+            }
+        }
+        return OTHER_ZONE;
+    }
+
+    public Counter counter(String name, String... tags) {
+        return counters.computeIfAbsent(new MetricKey(name, tags), k -> new Counter());
+    }
+
+    public LatencyHistogram histogram(String name, String... tags) {
+        return histograms.computeIfAbsent(new MetricKey(name, tags), k -> new LatencyHistogram());
+    }
+
+    /**
+     * A histogram of plain values, such as sizes, rather than durations.
+     * Values are recorded with {@link LatencyHistogram#recordMicros(long)}
+     * and reported without a unit.
+     */
+    public LatencyHistogram distribution(String name, String... tags) {
+        return distributions.computeIfAbsent(new MetricKey(name, tags), k -> new LatencyHistogram());
+    }
+
+    public void gauge(String name, Gauge gauge, String... tags) {
+        gauges.put(new MetricKey(name, tags), gauge);
+    }
+
+    public void registerCache(String cacheName, MeteredCache cache) {
+        gauge(CACHE_SIZE, () -> cache.getCacheSize(), "cache", cacheName);
+        gauge(CACHE_HIT_RATIO, () -> cache.getCacheStats().hitRate(), "cache", cacheName);
+        gauge(CACHE_HITS, () -> cache.getCacheStats().hitCount(), "cache", cacheName);
+        gauge(CACHE_MISSES, () -> cache.getCacheStats().missCount(), "cache", cacheName);
+        gauge(CACHE_EVICTIONS, () -> cache.getCacheStats().evictionCount(), "cache", cacheName);
+    }
+
+    public void setCaches(Map<String, MeteredCache> caches) {
+        for (Map.Entry<String, MeteredCache> entry : caches.entrySet()) {
+            registerCache(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public SortedMap<MetricKey, Counter> getCounters() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(counters));
+    }
+
+    public SortedMap<MetricKey, LatencyHistogram> getHistograms() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(histograms));
+    }
+
+    public SortedMap<MetricKey, LatencyHistogram> getDistributions() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(distributions));
+    }
+
+    public SortedMap<MetricKey, Gauge> getGauges() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(gauges));
+    }
+}
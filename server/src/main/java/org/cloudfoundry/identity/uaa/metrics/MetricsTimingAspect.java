@@ -0,0 +1,125 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.util.ClassUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Around advice that records the latency of the advised method into a
+ * {@link LatencyHistogram} tagged with the target class, the method name,
+ * the current identity zone and whether the call completed normally.
+ * The zone tag is capped by {@link MetricsRegistry#zoneTag(String)} and
+ * should only be enabled where the latency differs per zone.
+ */
+public class MetricsTimingAspect {
+
+    public static final String SUCCESS = "success";
+    public static final String FAILURE = "failure";
+
+    private static final ThreadLocal<Boolean> resolvingZone = new ThreadLocal<>();
+
+    private final MetricsRegistry registry;
+    private final String metricName;
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Object, Timer>> timers = new ConcurrentHashMap<>();
+    private boolean zoneTagEnabled = true;
+
+    public MetricsTimingAspect(MetricsRegistry registry, String metricName) {
+        this.registry = registry;
+        this.metricName = metricName;
+    }
+
+    public void setZoneTagEnabled(boolean zoneTagEnabled) {
+        this.zoneTagEnabled = zoneTagEnabled;
+    }
+
+    public Object time(ProceedingJoinPoint jp) throws Throwable {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Object result = jp.proceed();
+            success = true;
+            return result;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            timer(jp).histogram(registry.zoneTag(currentZoneId()), success).recordNanos(elapsed);
+        }
+    }
+
+    private Timer timer(ProceedingJoinPoint jp) {
+        Signature signature = jp.getSignature();
+        Class<?> type = jp.getTarget() != null ? jp.getTarget().getClass() : signature.getDeclaringType();
+        Object method = signature instanceof MethodSignature ? ((MethodSignature) signature).getMethod() : signature.getName();
+        ConcurrentMap<Object, Timer> methods = timers.get(type);
+        if (methods == null) {
+            methods = timers.computeIfAbsent(type, t -> new ConcurrentHashMap<>());
+        }
+        Timer timer = methods.get(method);
+        if (timer == null) {
+            timer = methods.computeIfAbsent(method, m -> new Timer(ClassUtils.getUserClass(type).getSimpleName(), signature.getName()));
+        }
+        return timer;
+    }
+
+    /**
+     * Resolving the zone may itself go through an advised DAO the first
+     * time it is requested on a thread, so nested lookups are not tagged.
+     */
+    protected String currentZoneId() {
+        if (!zoneTagEnabled || Boolean.TRUE.equals(resolvingZone.get())) {
+            return null;
+        }
+        resolvingZone.set(Boolean.TRUE);
+        try {
+            return IdentityZoneHolder.get().getId();
+        } finally {
+            resolvingZone.remove();
+        }
+    }
+
+    /**
+     * The histograms of one advised method, keyed by zone tag, so the
+     * tags are not rebuilt on every call.
+     */
+    private final class Timer {
+        private final String component;
+        private final String method;
+        private final ConcurrentMap<String, LatencyHistogram> successes = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, LatencyHistogram> failures = new ConcurrentHashMap<>();
+
+        private Timer(String component, String method) {
+            this.component = component;
+            this.method = method;
+        }
+
+        private LatencyHistogram histogram(String zone, boolean success) {
+            ConcurrentMap<String, LatencyHistogram> histograms = success ? successes : failures;
+            String key = zone == null ? "" : zone;
+            LatencyHistogram histogram = histograms.get(key);
+            if (histogram == null) {
+                histogram = histograms.computeIfAbsent(key, k -> registry.histogram(metricName,
+                                                                                    "component", component,
+                                                                                    "method", method,
+                                                                                    "zone", zone,
+                                                                                    "outcome", success ? SUCCESS : FAILURE));
+            }
+            return histogram;
+        }
+    }
+}
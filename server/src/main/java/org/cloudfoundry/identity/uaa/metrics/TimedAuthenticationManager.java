@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Records the latency of an {@link AuthenticationManager} that is not a
+ * Spring bean, such as the per zone LDAP managers, and therefore cannot
+ * be advised by {@link MetricsTimingAspect}. Uses the same tags as the aspect.
+ */
+public class TimedAuthenticationManager implements AuthenticationManager {
+
+    private final AuthenticationManager delegate;
+    private final MetricsRegistry registry;
+    private final String metricName;
+    private final String component;
+
+    public TimedAuthenticationManager(AuthenticationManager delegate, MetricsRegistry registry, String metricName, String component) {
+        this.delegate = delegate;
+        this.registry = registry;
+        this.metricName = metricName;
+        this.component = component;
+    }
+
+    public AuthenticationManager getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        long start = System.nanoTime();
+        String outcome = MetricsTimingAspect.FAILURE;
+        try {
+            Authentication result = delegate.authenticate(authentication);
+            outcome = MetricsTimingAspect.SUCCESS;
+            return result;
+        } finally {
+            registry.histogram(metricName,
+                               "component", component,
+                               "method", "authenticate",
+                               "zone", registry.zoneTag(IdentityZoneHolder.get().getId()),
+                               "outcome", outcome).recordNanos(System.nanoTime() - start);
+        }
+    }
+}
@@ -19,7 +19,6 @@ import org.cloudfoundry.identity.uaa.approval.ApprovalStore;
 import org.cloudfoundry.identity.uaa.authentication.Origin;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
-import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
 import org.springframework.security.authentication.InsufficientAuthenticationException;
 import org.springframework.security.core.Authentication;
@@ -45,7 +44,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 
 /**
@@ -70,6 +68,8 @@ public class AccessController {
 
     private ScimGroupProvisioning groupProvisioning;
 
+    private ScopeDescriptionResolver scopeDescriptionResolver;
+
     /**
      * Explicitly requests caller to point back to an authorization endpoint on
      * "https", even if the incoming request is
@@ -100,6 +100,15 @@ public class AccessController {
         return this;
     }
 
+    public ScopeDescriptionResolver getScopeDescriptionResolver() {
+        return scopeDescriptionResolver;
+    }
+
+    public AccessController setScopeDescriptionResolver(ScopeDescriptionResolver scopeDescriptionResolver) {
+        this.scopeDescriptionResolver = scopeDescriptionResolver;
+        return this;
+    }
+
     @RequestMapping("/oauth/confirm_access")
     public String confirm(Map<String, Object> model, final HttpServletRequest request, Principal principal,
                     SessionStatus sessionStatus) throws Exception {
@@ -177,11 +186,17 @@ public class AccessController {
                 }
             }
 
-            List<Map<String, String>> approvedScopeDetails = getScopes(approvedScopes);
+            Set<String> displayedScopes = new HashSet<>();
+            displayedScopes.addAll(approvedScopes);
+            displayedScopes.addAll(undecidedScopes);
+            displayedScopes.addAll(deniedScopes);
+            Map<String, String> descriptions = getScopeDescriptions(displayedScopes);
+
+            List<Map<String, String>> approvedScopeDetails = getScopes(approvedScopes, descriptions);
             model.put("approved_scopes", approvedScopeDetails);
-            List<Map<String, String>> undecidedScopeDetails = getScopes(undecidedScopes);
+            List<Map<String, String>> undecidedScopeDetails = getScopes(undecidedScopes, descriptions);
             model.put("undecided_scopes", undecidedScopeDetails);
-            List<Map<String, String>> deniedScopeDetails = getScopes(deniedScopes);
+            List<Map<String, String>> deniedScopeDetails = getScopes(deniedScopes, descriptions);
             model.put("denied_scopes", deniedScopeDetails);
 
             List<Map<String, String>> allScopes = new ArrayList<>();
@@ -222,7 +237,17 @@ public class AccessController {
 
     }
 
-    private List<Map<String, String>> getScopes(ArrayList<String> scopes) {
+    private Map<String, String> getScopeDescriptions(Collection<String> scopes) {
+        scopes.removeIf(scope -> OriginKeys.UAA.equals(scope.split("\\.")[0]));
+        ScopeDescriptionResolver resolver = scopeDescriptionResolver;
+        if (resolver == null) {
+            //nothing is cached without a resolver
+            resolver = new ScopeDescriptionResolver(groupProvisioning, 0, 0, 1);
+        }
+        return resolver.getDescriptions(scopes);
+    }
+
+    private List<Map<String, String>> getScopes(ArrayList<String> scopes, Map<String, String> descriptions) {
 
         List<Map<String, String>> result = new ArrayList<Map<String, String>>();
         for (String scope : scopes) {
@@ -237,14 +262,7 @@ public class AccessController {
             String code = SCOPE_PREFIX + scope;
             map.put("code", code);
 
-            Optional<ScimGroup> group = groupProvisioning.query(String.format("displayName eq \"%s\"", scope)).stream().findFirst();
-            group.ifPresent(g -> {
-                String description = g.getDescription();
-                if (StringUtils.hasText(description)) {
-                    map.put("text", description);
-                }
-            });
-            map.putIfAbsent("text", scope);
+            map.put("text", descriptions.getOrDefault(scope, scope));
 
             result.add(map);
         }
@@ -14,32 +14,46 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
 import org.cloudfoundry.identity.uaa.oauth.jwt.JwtHelper;
 import org.cloudfoundry.identity.uaa.oauth.token.Claims;
 import org.cloudfoundry.identity.uaa.oauth.token.RevocableTokenProvisioning;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.jwt.Jwt;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidRequestException;
 import org.springframework.security.oauth2.common.exceptions.InvalidScopeException;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
 import org.springframework.security.oauth2.provider.error.DefaultWebResponseExceptionTranslator;
 import org.springframework.security.oauth2.provider.error.WebResponseExceptionTranslator;
 import org.springframework.security.oauth2.provider.token.ResourceServerTokenServices;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import static org.springframework.web.bind.annotation.RequestMethod.POST;
+
 /**
  * Controller which decodes access tokens for clients who are not able to do so
  * (or where opaque token values are used).
@@ -54,6 +68,9 @@ public class CheckTokenEndpoint implements InitializingBean {
     protected final Log logger = LogFactory.getLog(getClass());
     private WebResponseExceptionTranslator exceptionTranslator = new DefaultWebResponseExceptionTranslator();
     private RevocableTokenProvisioning revocableTokenProvisioning;
+    private AsyncTaskExecutor batchExecutor;
+    private int maxBatchSize = 100;
+    private MetricsRegistry metricsRegistry;
 
     public void setTokenServices(ResourceServerTokenServices resourceServerTokenServices) {
         this.resourceServerTokenServices = resourceServerTokenServices;
@@ -63,6 +80,18 @@ public class CheckTokenEndpoint implements InitializingBean {
         this.revocableTokenProvisioning = revocableTokenProvisioning;
     }
 
+    public void setBatchExecutor(AsyncTaskExecutor batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
         Assert.notNull(resourceServerTokenServices, "tokenServices must be set");
@@ -105,6 +134,99 @@ public class CheckTokenEndpoint implements InitializingBean {
         return response;
     }
 
+    /**
+     * Validates up to {@link #setMaxBatchSize(int) maxBatchSize} tokens for the
+     * calling client in one request. Each token gets the same checks as
+     * {@link #checkToken(String, List)} and results are returned in request
+     * order. Client and user lookups are shared across the batch.
+     */
+    @RequestMapping(value = "/check_token/batch", method = POST)
+    @ResponseBody
+    public List<Map<String, Object>> checkTokens(@RequestBody BatchCheckTokenRequest request) {
+        List<String> tokens = request.getTokens();
+        if (tokens == null || tokens.isEmpty()) {
+            throw new InvalidRequestException("At least one token is required");
+        }
+        if (tokens.size() > maxBatchSize) {
+            throw new InvalidRequestException("A batch may contain at most " + maxBatchSize + " tokens");
+        }
+        List<String> scopes = request.getScopes() == null ? Collections.<String>emptyList() : request.getScopes();
+
+        long start = System.nanoTime();
+        IdentityZone zone = IdentityZoneHolder.get();
+        TokenLookupScope lookups = new TokenLookupScope();
+        List<Future<Map<String, Object>>> futures = new ArrayList<>(tokens.size());
+        List<Map<String, Object>> results = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            if (batchExecutor == null) {
+                results.add(checkTokenInScope(token, scopes, lookups));
+            } else {
+                futures.add(batchExecutor.submit(() -> {
+                    //may run on the request thread when the executor is saturated
+                    IdentityZone previous = IdentityZoneHolder.get();
+                    IdentityZoneHolder.set(zone);
+                    try {
+                        return checkTokenInScope(token, scopes, lookups);
+                    } finally {
+                        IdentityZoneHolder.set(previous);
+                    }
+                }));
+            }
+        }
+        for (Future<Map<String, Object>> future : futures) {
+            results.add(get(future));
+        }
+
+        if (metricsRegistry != null) {
+            String zoneId = zone.getId();
+            metricsRegistry.histogram(MetricsRegistry.CHECK_TOKEN_BATCH_LATENCY, "zone", zoneId).recordNanos(System.nanoTime() - start);
+            metricsRegistry.distribution(MetricsRegistry.CHECK_TOKEN_BATCH_SIZE, "zone", zoneId).recordMicros(tokens.size());
+        }
+        return results;
+    }
+
+    private Map<String, Object> checkTokenInScope(String token, List<String> scopes, TokenLookupScope lookups) {
+        TokenLookupScope previous = TokenLookupScope.current();
+        lookups.bind();
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            try {
+                Claims claims = checkToken(token, scopes);
+                result.put("valid", true);
+                result.put("claims", claims);
+            } catch (OAuth2Exception e) {
+                result.put("valid", false);
+                result.put(OAuth2Exception.ERROR, e.getOAuth2ErrorCode());
+                result.put(OAuth2Exception.DESCRIPTION, e.getMessage());
+            } catch (AuthenticationException | ClientRegistrationException e) {
+                result.put("valid", false);
+                result.put(OAuth2Exception.ERROR, OAuth2Exception.INVALID_TOKEN);
+                result.put(OAuth2Exception.DESCRIPTION, e.getMessage());
+            }
+            return result;
+        } finally {
+            if (previous == null) {
+                TokenLookupScope.unbind();
+            } else {
+                previous.bind();
+            }
+        }
+    }
+
+    private Map<String, Object> get(Future<Map<String, Object>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking tokens", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
     private Claims getClaimsForToken(String token) {
         Jwt tokenJwt;
         try {
@@ -140,10 +262,30 @@ public class CheckTokenEndpoint implements InitializingBean {
         return exceptionTranslator.translate(e400);
     }
 
-    @ExceptionHandler(InvalidScopeException.class)
+    @ExceptionHandler({InvalidScopeException.class, InvalidRequestException.class})
     public ResponseEntity<OAuth2Exception> handleInvalidScopeException(Exception e) throws Exception {
         logger.info("Handling error: " + e.getClass().getSimpleName() + ", " + e.getMessage());
         return exceptionTranslator.translate(e);
     }
 
+    public static class BatchCheckTokenRequest {
+        private List<String> tokens;
+        private List<String> scopes;
+
+        public List<String> getTokens() {
+            return tokens;
+        }
+
+        public void setTokens(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        public List<String> getScopes() {
+            return scopes;
+        }
+
+        public void setScopes(List<String> scopes) {
+            this.scopes = scopes;
+        }
+    }
 }
@@ -14,15 +14,25 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.springframework.http.HttpEntity;
@@ -35,6 +45,7 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.crypto.codec.Hex;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.AuthorizationRequest;
@@ -54,11 +65,18 @@ import org.springframework.web.client.RestTemplate;
  * If the endpoint returns a 400 response, this indicates that the token is
  * invalid.
  *
+ * Responses can be cached by a hash of the token by setting a
+ * {@link #setCacheMaxTtlSeconds(int) maximum time to live}. A valid token is
+ * cached until its expiry or for that maximum, whichever comes first, and an
+ * invalid token for {@link #setNegativeCacheTtlSeconds(int)}, so a revoked
+ * token may still be accepted for up to the maximum time to live. Concurrent
+ * lookups of the same token share a single request to the endpoint.
+ *
  * @author Dave Syer
  * @author Luke Taylor
  *
  */
-public class RemoteTokenServices implements ResourceServerTokenServices {
+public class RemoteTokenServices implements ResourceServerTokenServices, MeteredCache {
 
     protected final Log logger = LogFactory.getLog(getClass());
 
@@ -72,6 +90,14 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 
     private boolean storeClaims = false;
 
+    private int cacheMaxTtlSeconds = 0;
+
+    private int negativeCacheTtlSeconds = 10;
+
+    private int cacheMaxEntries = 10000;
+
+    private volatile Cache<String, CheckTokenResult> cache;
+
     public RemoteTokenServices() {
         restTemplate = new RestTemplate();
         ((RestTemplate) restTemplate).setErrorHandler(new DefaultResponseErrorHandler() {
@@ -98,6 +124,39 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
         this.storeClaims = storeClaims;
     }
 
+    public int getCacheMaxTtlSeconds() {
+        return cacheMaxTtlSeconds;
+    }
+
+    /**
+     * Set to a positive value to cache the responses of the /check_token endpoint
+     * @param cacheMaxTtlSeconds the maximum time a response is used, 0 to disable caching
+     */
+    public void setCacheMaxTtlSeconds(int cacheMaxTtlSeconds) {
+        this.cacheMaxTtlSeconds = cacheMaxTtlSeconds;
+        this.cache = null;
+    }
+
+    public int getNegativeCacheTtlSeconds() {
+        return negativeCacheTtlSeconds;
+    }
+
+    /**
+     * @param negativeCacheTtlSeconds the time an invalid token response is used, 0 to not cache them
+     */
+    public void setNegativeCacheTtlSeconds(int negativeCacheTtlSeconds) {
+        this.negativeCacheTtlSeconds = negativeCacheTtlSeconds;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+        this.cache = null;
+    }
+
     public void setRestTemplate(RestOperations restTemplate) {
         this.restTemplate = restTemplate;
     }
@@ -117,11 +176,7 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
     @Override
     public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
 
-        MultiValueMap<String, String> formData = new LinkedMultiValueMap<String, String>();
-        formData.add("token", accessToken);
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", getAuthorizationHeader(clientId, clientSecret));
-        Map<String, Object> map = postForMap(checkTokenEndpointUrl, formData, headers);
+        Map<String, Object> map = cacheMaxTtlSeconds > 0 ? getCachedCheckTokenResult(accessToken) : checkToken(accessToken);
 
         if (map.containsKey("error")) {
             logger.debug("check_token returned error: " + map.get("error"));
@@ -214,6 +269,85 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
         return authentication;
     }
 
+    protected Map<String, Object> checkToken(String accessToken) {
+        MultiValueMap<String, String> formData = new LinkedMultiValueMap<String, String>();
+        formData.add("token", accessToken);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", getAuthorizationHeader(clientId, clientSecret));
+        return postForMap(checkTokenEndpointUrl, formData, headers);
+    }
+
+    private Map<String, Object> getCachedCheckTokenResult(String accessToken) {
+        Cache<String, CheckTokenResult> cache = getCache();
+        String key = hash(accessToken);
+        try {
+            CheckTokenResult cached = cache.asMap().get(key);
+            if (cached != null && cached.isExpired()) {
+                cache.asMap().remove(key, cached);
+            }
+            return cache.get(key, () -> newCheckTokenResult(accessToken)).map;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private CheckTokenResult newCheckTokenResult(String accessToken) {
+        Map<String, Object> map = checkToken(accessToken);
+        long now = System.currentTimeMillis();
+        long expiresAt;
+        if (map.containsKey("error")) {
+            expiresAt = now + TimeUnit.SECONDS.toMillis(negativeCacheTtlSeconds);
+        } else {
+            expiresAt = now + TimeUnit.SECONDS.toMillis(cacheMaxTtlSeconds);
+            Object exp = map.get(ClaimConstants.EXP);
+            if (exp instanceof Number) {
+                expiresAt = Math.min(expiresAt, TimeUnit.SECONDS.toMillis(((Number) exp).longValue()));
+            }
+        }
+        return new CheckTokenResult(map, expiresAt);
+    }
+
+    private Cache<String, CheckTokenResult> getCache() {
+        Cache<String, CheckTokenResult> result = cache;
+        if (result == null) {
+            synchronized (this) {
+                if (cache == null) {
+                    cache = CacheBuilder.newBuilder()
+                        .maximumSize(cacheMaxEntries)
+                        .expireAfterWrite(cacheMaxTtlSeconds, TimeUnit.SECONDS)
+                        .recordStats()
+                        .build();
+                }
+                result = cache;
+            }
+        }
+        return result;
+    }
+
+    private static String hash(String accessToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new String(Hex.encode(digest.digest(accessToken.getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        Cache<String, CheckTokenResult> result = cache;
+        return result == null ? new CacheStats(0, 0, 0, 0, 0, 0) : result.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        Cache<String, CheckTokenResult> result = cache;
+        return result == null ? 0 : result.size();
+    }
+
     @Override
     public OAuth2AccessToken readAccessToken(String accessToken) {
         throw new UnsupportedOperationException("Not supported: read access token");
@@ -248,4 +382,17 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
         return result;
     }
 
+    private static class CheckTokenResult {
+        private final Map<String, Object> map;
+        private final long expiresAt;
+
+        private CheckTokenResult(Map<String, Object> map, long expiresAt) {
+            this.map = map;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
 }
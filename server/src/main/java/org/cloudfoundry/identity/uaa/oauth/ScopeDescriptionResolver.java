@@ -0,0 +1,141 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.util.StringUtils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves scopes to the description of the group with the same display name,
+ * for pages that show scopes to users such as the OAuth consent page.
+ * <p>
+ * The descriptions of each zone are kept in a map from the lower case display
+ * name to the description, which also records the scopes that have no
+ * description. Scopes that are not in the map yet are resolved with a single
+ * query. A zone's map is dropped when one of its groups or the zone itself is
+ * modified or deleted.
+ */
+public class ScopeDescriptionResolver implements ApplicationListener<CacheInvalidationEvent>, MeteredCache {
+
+    private static final String NO_DESCRIPTION = "";
+
+    private final ScimGroupProvisioning groupProvisioning;
+    private final Cache<String, ConcurrentMap<String, String>> cache;
+    private final int maxScopesPerZone;
+
+    public ScopeDescriptionResolver(ScimGroupProvisioning groupProvisioning) {
+        this(groupProvisioning, 1000, 1000, 300);
+    }
+
+    public ScopeDescriptionResolver(ScimGroupProvisioning groupProvisioning, int maxZones, int maxScopesPerZone, int expireSeconds) {
+        this.groupProvisioning = groupProvisioning;
+        this.maxScopesPerZone = maxScopesPerZone;
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxZones)
+            .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @param scopes the scopes to resolve
+     * @return the description of each scope that matches a group with a description,
+     * scopes without a description are left out
+     */
+    public Map<String, String> getDescriptions(Collection<String> scopes) {
+        Map<String, String> result = new HashMap<>();
+        if (scopes.isEmpty()) {
+            return result;
+        }
+        ConcurrentMap<String, String> descriptions = getZoneDescriptions(IdentityZoneHolder.get().getId());
+        Map<String, String> resolved = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        for (String scope : scopes) {
+            String name = scope.toLowerCase();
+            String description = descriptions.get(name);
+            if (description == null) {
+                missing.add(name);
+            } else {
+                resolved.put(name, description);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (ScimGroup group : groupProvisioning.retrieveByDisplayNames(missing)) {
+                String description = group.getDescription();
+                resolved.put(group.getDisplayName().toLowerCase(), StringUtils.hasText(description) ? description : NO_DESCRIPTION);
+            }
+            for (String name : missing) {
+                resolved.putIfAbsent(name, NO_DESCRIPTION);
+                //if the map has been dropped in the meantime, the stale values are never read
+                if (descriptions.size() < maxScopesPerZone) {
+                    descriptions.putIfAbsent(name, resolved.get(name));
+                }
+            }
+        }
+        for (String scope : scopes) {
+            String description = resolved.get(scope.toLowerCase());
+            if (StringUtils.hasText(description)) {
+                result.put(scope, description);
+            }
+        }
+        return result;
+    }
+
+    private ConcurrentMap<String, String> getZoneDescriptions(String zoneId) {
+        try {
+            return cache.get(zoneId, ConcurrentHashMap::new);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void invalidate(String zoneId) {
+        cache.invalidate(zoneId);
+    }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.GROUP) || event.isType(CacheInvalidation.ZONE)) {
+            invalidate(event.getZoneId());
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.springframework.security.oauth2.provider.ClientDetails;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Remembers the clients, users and identity providers loaded while a group of
+ * tokens is validated, or while a single authorize or token request is served,
+ * so that they are looked up once. A scope may be bound to several threads at
+ * once. Failed lookups are not remembered.
+ * <p>
+ * The remembered objects are shared, callers must not modify them.
+ */
+public class TokenLookupScope {
+
+    private static final ThreadLocal<TokenLookupScope> CURRENT = new ThreadLocal<>();
+
+    private final ConcurrentMap<String, ClientDetails> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, UaaUser> users = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, IdentityProvider> providers = new ConcurrentHashMap<>();
+
+    public void bind() {
+        CURRENT.set(this);
+    }
+
+    public static void unbind() {
+        CURRENT.remove();
+    }
+
+    public static TokenLookupScope current() {
+        return CURRENT.get();
+    }
+
+    public static ClientDetails client(String clientId, Function<String, ClientDetails> loader) {
+        TokenLookupScope scope = CURRENT.get();
+        if (scope == null || clientId == null) {
+            return loader.apply(clientId);
+        }
+        return scope.clients.computeIfAbsent(clientId, loader);
+    }
+
+    public static UaaUser user(String userId, Function<String, UaaUser> loader) {
+        TokenLookupScope scope = CURRENT.get();
+        if (scope == null || userId == null) {
+            return loader.apply(userId);
+        }
+        return scope.users.computeIfAbsent(userId, loader);
+    }
+
+    public static IdentityProvider provider(String origin, String zoneId, BiFunction<String, String, IdentityProvider> loader) {
+        TokenLookupScope scope = CURRENT.get();
+        if (scope == null || origin == null || zoneId == null) {
+            return loader.apply(origin, zoneId);
+        }
+        return scope.providers.computeIfAbsent(Arrays.asList(origin, zoneId), key -> loader.apply(origin, zoneId));
+    }
+}
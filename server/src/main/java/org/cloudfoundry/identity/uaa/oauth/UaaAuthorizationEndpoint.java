@@ -154,7 +154,7 @@ public class UaaAuthorizationEndpoint extends AbstractEndpoint {
                     "User must be authenticated with Spring Security before authorization can be completed.");
             }
 
-            ClientDetails client = getClientDetailsService().loadClientByClientId(authorizationRequest.getClientId());
+            ClientDetails client = TokenLookupScope.client(authorizationRequest.getClientId(), getClientDetailsService()::loadClientByClientId);
 
             // The resolved redirect URI is either the redirect_uri from the parameters or the one from
             // clientDetails. Either way we need to store it on the AuthorizationRequest.
@@ -563,7 +563,7 @@ public class UaaAuthorizationEndpoint extends AbstractEndpoint {
             authorizationRequest = getAuthorizationRequestForError(webRequest);
             String requestedRedirectParam = authorizationRequest.getRequestParameters().get(OAuth2Utils.REDIRECT_URI);
             String requestedRedirect = redirectResolver.resolveRedirect(requestedRedirectParam,
-                getClientDetailsService().loadClientByClientId(authorizationRequest.getClientId()));
+                TokenLookupScope.client(authorizationRequest.getClientId(), getClientDetailsService()::loadClientByClientId));
             authorizationRequest.setRedirectUri(requestedRedirect);
             String redirect = getUnsuccessfulRedirect(authorizationRequest, translate.getBody(), authorizationRequest
                 .getResponseTypes().contains("token"));
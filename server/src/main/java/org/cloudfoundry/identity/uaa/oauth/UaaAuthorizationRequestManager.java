@@ -151,7 +151,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
     public AuthorizationRequest createAuthorizationRequest(Map<String, String> authorizationParameters) {
 
         String clientId = authorizationParameters.get("client_id");
-        BaseClientDetails clientDetails = (BaseClientDetails)clientDetailsService.loadClientByClientId(clientId);
+        BaseClientDetails clientDetails = (BaseClientDetails)TokenLookupScope.client(clientId, clientDetailsService::loadClientByClientId);
         validateParameters(authorizationParameters, clientDetails);
         Set<String> scopes = OAuth2Utils.parseParameterList(authorizationParameters.get(OAuth2Utils.SCOPE));
         Set<String> responseTypes = OAuth2Utils.parseParameterList(authorizationParameters.get(OAuth2Utils.RESPONSE_TYPE));
@@ -173,7 +173,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         Set<String> scopesFromExternalAuthorities = null;
         if (!"client_credentials".equals(grantType) && securityContextAccessor.isUser()) {
             String userId = securityContextAccessor.getUserId();
-            UaaUser uaaUser = uaaUserDatabase.retrieveUserById(userId);
+            UaaUser uaaUser = TokenLookupScope.user(userId, uaaUserDatabase::retrieveUserById);
             Collection<? extends GrantedAuthority> authorities = uaaUser.getAuthorities();
             //validate scopes
             scopes = checkUserScopes(scopes, authorities, clientDetails);
@@ -195,7 +195,6 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         }
 
         Set<String> resourceIds = getResourceIds(clientDetails, scopes);
-        clientDetails.setResourceIds(resourceIds);
         Map<String, String> actualParameters = new HashMap<>(authorizationParameters);
         if (scopesFromExternalAuthorities != null) {
             actualParameters.put("external_scopes",
@@ -219,6 +218,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         }
 
         request.setResourceIdsAndAuthoritiesFromClientDetails(clientDetails);
+        request.setResourceIds(resourceIds);
 
         return request;
     }
@@ -263,7 +263,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         }
 
         try {
-            IdentityProvider provider = providerProvisioning.retrieveByOrigin(user.getOrigin(), user.getZoneId());
+            IdentityProvider provider = TokenLookupScope.provider(user.getOrigin(), user.getZoneId(), providerProvisioning::retrieveByOrigin);
             if (provider==null || !allowedProviders.contains(provider.getOriginKey())) {
                 throw new UnauthorizedClientException ("Client is not authorized for specified user's identity provider.");
             }
@@ -413,7 +413,7 @@ public class UaaAuthorizationRequestManager implements OAuth2RequestFactory {
         if (securityContextAccessor.isUser()) {
             String userId = securityContextAccessor.getUserId();
             Collection<? extends GrantedAuthority> authorities = uaaUserDatabase != null ?
-                uaaUserDatabase.retrieveUserById(userId).getAuthorities() :
+                TokenLookupScope.user(userId, uaaUserDatabase::retrieveUserById).getAuthorities() :
                 securityContextAccessor.getAuthorities();
             for (GrantedAuthority a : authorities) {
                 scopes.add(a.getAuthority());
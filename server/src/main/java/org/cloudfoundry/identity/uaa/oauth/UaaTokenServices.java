@@ -219,8 +219,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
         // TODO: Need to add a lookup by id so that the refresh token does not
         // need to contain a name
-        UaaUser user = userDatabase.retrieveUserById(userid);
-        ClientDetails client = clientDetailsService.loadClientByClientId(clientId);
+        UaaUser user = TokenLookupScope.user(userid, userDatabase::retrieveUserById);
+        ClientDetails client = TokenLookupScope.client(clientId, clientDetailsService::loadClientByClientId);
 
         Integer refreshTokenIssuedAt = (Integer) claims.get(IAT);
         long refreshTokenIssueDate = refreshTokenIssuedAt.longValue() * 1000l;
@@ -552,17 +552,17 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         Collection<GrantedAuthority> clientScopes = null;
         // Clients should really by different kinds of users
         if (authentication.isClientOnly()) {
-            ClientDetails client = clientDetailsService.loadClientByClientId(authentication.getName());
+            ClientDetails client = TokenLookupScope.client(authentication.getName(), clientDetailsService::loadClientByClientId);
             clientScopes = client.getAuthorities();
         } else {
             userId = getUserId(authentication);
-            user = userDatabase.retrieveUserById(userId);
+            user = TokenLookupScope.user(userId, userDatabase::retrieveUserById);
             if (authentication.getUserAuthentication() instanceof UaaAuthentication) {
                 userAuthenticationTime = new Date(((UaaAuthentication)authentication.getUserAuthentication()).getAuthenticatedTime());
             }
         }
 
-        ClientDetails client = clientDetailsService.loadClientByClientId(authentication.getOAuth2Request().getClientId());
+        ClientDetails client = TokenLookupScope.client(authentication.getOAuth2Request().getClientId(), clientDetailsService::loadClientByClientId);
         String revocableHashSignature = UaaTokenUtils.getRevocableTokenSignature(client, user);
 
         String tokenId = generateUniqueTokenId();
@@ -757,7 +757,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
         String userId = getUserId(authentication);
 
-        UaaUser user = userDatabase.retrieveUserById(userId);
+        UaaUser user = TokenLookupScope.user(userId, userDatabase::retrieveUserById);
 
         String content;
         try {
@@ -866,7 +866,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
      * @return the refresh token validity period in seconds
      */
     protected int getRefreshTokenValiditySeconds(OAuth2Request authorizationRequest) {
-        ClientDetails client = clientDetailsService.loadClientByClientId(authorizationRequest.getClientId());
+        ClientDetails client = TokenLookupScope.client(authorizationRequest.getClientId(), clientDetailsService::loadClientByClientId);
         Integer validity = client.getRefreshTokenValiditySeconds();
         if (validity != null) {
             return validity;
@@ -942,7 +942,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         Authentication userAuthentication = null;
         // Is this a user token?
         if (claims.containsKey(EMAIL)) {
-            UaaUser user = userDatabase.retrieveUserById((String)claims.get(USER_ID));
+            UaaUser user = TokenLookupScope.user((String) claims.get(USER_ID), userDatabase::retrieveUserById);
             UaaPrincipal principal = new UaaPrincipal(user);
             userAuthentication = new UaaAuthentication(principal, UaaAuthority.USER_AUTHORITIES, null);
         } else {
@@ -991,7 +991,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
             token.setScope(new HashSet<String>(scopes));
         }
         String clientId = (String) claims.get(CID);
-        ClientDetails client = clientDetailsService.loadClientByClientId(clientId);
+        ClientDetails client = TokenLookupScope.client(clientId, clientDetailsService::loadClientByClientId);
         String email = (String) claims.get(EMAIL);
 
         // Only check user access tokens
@@ -1059,7 +1059,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
         UaaUser user = null;
         ClientDetails client;
         try {
-            client = clientDetailsService.loadClientByClientId(clientId);
+            client = TokenLookupScope.client(clientId, clientDetailsService::loadClientByClientId);
         } catch (NoSuchClientException x) {
             //happens if the client is deleted and token exist
             throw new UnauthorizedClientException("Invalid client ID "+clientId);
@@ -1068,7 +1068,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
         if(null != claims.get(USER_NAME)) {
             try {
-                user = userDatabase.retrieveUserById(userId);
+                user = TokenLookupScope.user(userId, userDatabase::retrieveUserById);
                 tokenValidation.checkUser(user).throwIfInvalid();
             } catch (UsernameNotFoundException x) {
             }
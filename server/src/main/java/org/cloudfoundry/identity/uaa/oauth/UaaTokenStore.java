@@ -15,7 +15,7 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
@@ -46,9 +46,11 @@ import java.sql.Types;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Set;
 
 public class UaaTokenStore implements AuthorizationCodeServices {
     public static final long EXPIRATION_TIME = 5*60*1000;
@@ -65,6 +67,21 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     public static final String OAUTH2_REQUEST_REDIRECT_URI = "oauth2Request.redirectUri";
     public static final String OAUTH2_REQUEST_RESPONSE_TYPES = "oauth2Request.responseTypes";
 
+    //compact format, a single flat JSON document with short keys and no nested JSON strings
+    public static final String FORMAT_VERSION = "v";
+    public static final int COMPACT_FORMAT_VERSION = 2;
+    public static final String COMPACT_UAA_AUTHENTICATION = "ua";
+    public static final String COMPACT_UAA_PRINCIPAL = "up";
+    public static final String COMPACT_USER_AUTHORITIES = "uau";
+    public static final String COMPACT_REQUEST_PARAMETERS = "rp";
+    public static final String COMPACT_CLIENT_ID = "cid";
+    public static final String COMPACT_AUTHORITIES = "au";
+    public static final String COMPACT_APPROVED = "ap";
+    public static final String COMPACT_SCOPE = "sc";
+    public static final String COMPACT_RESOURCE_IDS = "ri";
+    public static final String COMPACT_REDIRECT_URI = "ru";
+    public static final String COMPACT_RESPONSE_TYPES = "rt";
+
     protected static Log logger = LogFactory.getLog(UaaTokenStore.class);
 
     private static final String SQL_SELECT_STATEMENT = "select code, user_id, client_id, expiresat, created, authentication from oauth_code where code = ?";
@@ -78,8 +95,6 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     private final RandomValueStringGenerator generator = new RandomValueStringGenerator();
     private final RowMapper rowMapper = new TokenCodeRowMapper();
 
-    private final AtomicLong lastClean = new AtomicLong(0);
-
     public UaaTokenStore(DataSource dataSource) {
         this(dataSource, EXPIRATION_TIME);
     }
@@ -92,7 +107,6 @@ public class UaaTokenStore implements AuthorizationCodeServices {
     @Override
     public String createAuthorizationCode(OAuth2Authentication authentication) {
         final int max_tries = 3;
-        performExpirationClean();
         JdbcTemplate template = new JdbcTemplate(dataSource);
         int tries = 0;
         while ((tries++)<=max_tries) {
@@ -122,7 +136,6 @@ public class UaaTokenStore implements AuthorizationCodeServices {
 
     @Override
     public OAuth2Authentication consumeAuthorizationCode(String code) throws InvalidGrantException {
-        performExpirationClean();
         JdbcTemplate template = new JdbcTemplate(dataSource);
         try {
             TokenCode tokenCode = (TokenCode) template.queryForObject(SQL_SELECT_STATEMENT, rowMapper, code);
@@ -147,34 +160,104 @@ public class UaaTokenStore implements AuthorizationCodeServices {
 
     protected byte[] serializeOauth2Authentication(OAuth2Authentication auth2Authentication) {
         Authentication userAuthentication = auth2Authentication.getUserAuthentication();
-        HashMap<String, Object> data = new HashMap<>();
+        OAuth2Request request = auth2Authentication.getOAuth2Request();
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put(FORMAT_VERSION, COMPACT_FORMAT_VERSION);
         if (userAuthentication!=null) {
             if (userAuthentication instanceof UaaAuthentication) {
-                data.put(USER_AUTHENTICATION_UAA_AUTHENTICATION, JsonUtils.writeValueAsString(userAuthentication));
+                data.put(COMPACT_UAA_AUTHENTICATION, userAuthentication);
             } else {
-                data.put(USER_AUTHENTICATION_UAA_PRINCIPAL, JsonUtils.writeValueAsString(userAuthentication.getPrincipal()));
-                data.put(USER_AUTHENTICATION_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(userAuthentication.getAuthorities()));
+                data.put(COMPACT_UAA_PRINCIPAL, userAuthentication.getPrincipal());
+                putIfNotEmpty(data, COMPACT_USER_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(userAuthentication.getAuthorities()));
             }
         }
-        data.put(OAUTH2_REQUEST_PARAMETERS, auth2Authentication.getOAuth2Request().getRequestParameters());
-        data.put(OAUTH2_REQUEST_CLIENT_ID, auth2Authentication.getOAuth2Request().getClientId());
-        data.put(OAUTH2_REQUEST_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(auth2Authentication.getOAuth2Request().getAuthorities()));
-        data.put(OAUTH2_REQUEST_APPROVED, auth2Authentication.getOAuth2Request().isApproved());
-        data.put(OAUTH2_REQUEST_SCOPE, auth2Authentication.getOAuth2Request().getScope());
-        data.put(OAUTH2_REQUEST_RESOURCE_IDS, auth2Authentication.getOAuth2Request().getResourceIds());
-        data.put(OAUTH2_REQUEST_REDIRECT_URI, auth2Authentication.getOAuth2Request().getRedirectUri());
-        data.put(OAUTH2_REQUEST_RESPONSE_TYPES, auth2Authentication.getOAuth2Request().getResponseTypes());
+        putIfNotEmpty(data, COMPACT_REQUEST_PARAMETERS, request.getRequestParameters());
+        data.put(COMPACT_CLIENT_ID, request.getClientId());
+        putIfNotEmpty(data, COMPACT_AUTHORITIES, UaaStringUtils.getStringsFromAuthorities(request.getAuthorities()));
+        data.put(COMPACT_APPROVED, request.isApproved());
+        putIfNotEmpty(data, COMPACT_SCOPE, request.getScope());
+        putIfNotEmpty(data, COMPACT_RESOURCE_IDS, request.getResourceIds());
+        if (request.getRedirectUri()!=null) {
+            data.put(COMPACT_REDIRECT_URI, request.getRedirectUri());
+        }
+        putIfNotEmpty(data, COMPACT_RESPONSE_TYPES, request.getResponseTypes());
 
         //currently not serializing any of the
         //Map<String, Serializable > extensionProperties
-        if (auth2Authentication.getOAuth2Request().getExtensions() != null && auth2Authentication.getOAuth2Request().getExtensions().size()>0) {
-            logger.warn("[oauth_code] Unable to serialize extensions:"+auth2Authentication.getOAuth2Request().getExtensions());
+        if (request.getExtensions() != null && request.getExtensions().size()>0) {
+            logger.warn("[oauth_code] Unable to serialize extensions:"+request.getExtensions());
         }
         return JsonUtils.writeValueAsBytes(data);
     }
 
+    private static void putIfNotEmpty(Map<String, Object> data, String key, Collection<?> value) {
+        if (value!=null && !value.isEmpty()) {
+            data.put(key, value);
+        }
+    }
+
+    private static void putIfNotEmpty(Map<String, Object> data, String key, Map<?,?> value) {
+        if (value!=null && !value.isEmpty()) {
+            data.put(key, value);
+        }
+    }
+
     protected OAuth2Authentication deserializeOauth2Authentication(byte[] data) {
-        Map<String,Object> map = JsonUtils.readValue(data, new TypeReference<Map<String,Object>>() {});
+        JsonNode node = JsonUtils.readValue(data, JsonNode.class);
+        if (node.has(FORMAT_VERSION)) {
+            return deserializeCompactOauth2Authentication(node);
+        } else {
+            return deserializeLegacyOauth2Authentication(node);
+        }
+    }
+
+    protected OAuth2Authentication deserializeCompactOauth2Authentication(JsonNode node) {
+        Authentication userAuthentication = null;
+        if (node.hasNonNull(COMPACT_UAA_AUTHENTICATION)) {
+            userAuthentication = JsonUtils.convertValue(node.get(COMPACT_UAA_AUTHENTICATION), UaaAuthentication.class);
+        } else if (node.hasNonNull(COMPACT_UAA_PRINCIPAL)) {
+            UaaPrincipal principal = JsonUtils.convertValue(node.get(COMPACT_UAA_PRINCIPAL), UaaPrincipal.class);
+            Collection<? extends GrantedAuthority> authorities = UaaStringUtils.getAuthoritiesFromStrings(readStrings(node, COMPACT_USER_AUTHORITIES));
+            userAuthentication = new UaaAuthentication(principal, (List<? extends GrantedAuthority>) authorities, UaaAuthenticationDetails.UNKNOWN);
+        }
+
+        Map<String,String> requestParameters = new HashMap<>();
+        if (node.hasNonNull(COMPACT_REQUEST_PARAMETERS)) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.get(COMPACT_REQUEST_PARAMETERS).fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                requestParameters.put(field.getKey(), field.getValue().isNull() ? null : field.getValue().asText());
+            }
+        }
+        OAuth2Request request = new OAuth2Request(
+            requestParameters,
+            node.path(COMPACT_CLIENT_ID).asText(null),
+            UaaStringUtils.getAuthoritiesFromStrings(readStrings(node, COMPACT_AUTHORITIES)),
+            node.path(COMPACT_APPROVED).asBoolean(),
+            readStrings(node, COMPACT_SCOPE),
+            readStrings(node, COMPACT_RESOURCE_IDS),
+            node.path(COMPACT_REDIRECT_URI).asText(null),
+            readStrings(node, COMPACT_RESPONSE_TYPES),
+            new HashMap<String,Serializable>()
+        );
+
+        return new OAuth2Authentication(request, userAuthentication);
+    }
+
+    private static Set<String> readStrings(JsonNode node, String key) {
+        Set<String> result = new HashSet<>();
+        for (JsonNode value : node.path(key)) {
+            result.add(value.asText());
+        }
+        return result;
+    }
+
+    /**
+     * Reads codes written before the compact format, where the user
+     * authentication was stored as a JSON string within the JSON document.
+     */
+    protected OAuth2Authentication deserializeLegacyOauth2Authentication(JsonNode node) {
+        Map<String,Object> map = JsonUtils.convertValue(node, Map.class);
         Authentication userAuthentication = null;
         if (map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION) != null) {
             userAuthentication = JsonUtils.readValue((String)map.get(USER_AUTHENTICATION_UAA_AUTHENTICATION), UaaAuthentication.class);
@@ -209,21 +292,16 @@ public class UaaTokenStore implements AuthorizationCodeServices {
         return new OAuth2Authentication(request, userAuthentication);
     }
 
-    protected void performExpirationClean() {
-        long last = lastClean.get();
-        //check if we should expire again
-        if ((System.currentTimeMillis()-last) > getExpirationTime()) {
-            //avoid concurrent deletes from the same UAA - performance improvement
-            if (lastClean.compareAndSet(last, last+getExpirationTime())) {
-                JdbcTemplate template = new JdbcTemplate(dataSource);
-                int expired = template.update(SQL_EXPIRE_STATEMENT, System.currentTimeMillis());
-                logger.debug("[oauth_code] Removed "+expired+" expired entries.");
-                expired = template.update(SQL_CLEAN_STATEMENT, new Timestamp(System.currentTimeMillis()-LEGACY_CODE_EXPIRATION_TIME));
-                logger.debug("[oauth_code] Removed "+expired+" old entries.");
-            }
-        }
-
-
+    /**
+     * Removes expired codes. Runs on a schedule rather than while issuing or
+     * consuming a code, expired codes are rejected by {@link #consumeAuthorizationCode(String)} regardless.
+     */
+    public void performExpirationClean() {
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        int expired = template.update(SQL_EXPIRE_STATEMENT, System.currentTimeMillis());
+        logger.debug("[oauth_code] Removed "+expired+" expired entries.");
+        expired = template.update(SQL_CLEAN_STATEMENT, new Timestamp(System.currentTimeMillis()-LEGACY_CODE_EXPIRATION_TIME));
+        logger.debug("[oauth_code] Removed "+expired+" old entries.");
     }
 
     public long getExpirationTime() {
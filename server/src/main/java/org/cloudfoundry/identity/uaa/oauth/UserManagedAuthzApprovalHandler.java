@@ -80,7 +80,7 @@ public class UserManagedAuthzApprovalHandler implements UserApprovalHandler {
 
         // Factor in auto approved scopes
         Set<String> autoApprovedScopes = new HashSet<>();
-        ClientDetails client = clientDetailsService.retrieve(authorizationRequest.getClientId());
+        ClientDetails client = TokenLookupScope.client(authorizationRequest.getClientId(), clientDetailsService::retrieve);
         if (null != client) {
             if (null != requestedScopes) {
                 for (String requestedScope : requestedScopes) {
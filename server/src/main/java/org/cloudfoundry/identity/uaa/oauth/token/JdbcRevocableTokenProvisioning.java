@@ -15,6 +15,7 @@ package org.cloudfoundry.identity.uaa.oauth.token;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcChunkedDelete;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -39,6 +40,8 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
     protected final static String DELETE_QUERY = "DELETE FROM " + TABLE + " WHERE token_id=? and identity_zone_id=?";
     protected final static String DELETE_EXPIRED_QUERY = "DELETE FROM " + TABLE + " WHERE expires_at < ?";
     protected final static String DELETE_BY_ZONE_QUERY = "DELETE FROM " + TABLE + " WHERE identity_zone_id=?";
+    protected final static String TOKEN_IDS_BY_ZONE_QUERY = "SELECT token_id FROM " + TABLE + " WHERE identity_zone_id=?";
+    protected final static String DELETE_BY_TOKEN_IDS_QUERY = "DELETE FROM " + TABLE + " WHERE token_id IN (:ids) AND identity_zone_id=:zoneId";
 
 
     protected static final Log logger = LogFactory.getLog(JdbcRevocableTokenProvisioning.class);
@@ -127,6 +130,16 @@ public class JdbcRevocableTokenProvisioning implements RevocableTokenProvisionin
         return 0;
     }
 
+    @Override
+    public boolean isChunkedDeletionSupported() {
+        return true;
+    }
+
+    @Override
+    public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+        return JdbcChunkedDelete.deleteChunk(template, chunkSize, zoneId, TOKEN_IDS_BY_ZONE_QUERY, new Object[] {zoneId}, DELETE_BY_TOKEN_IDS_QUERY);
+    }
+
     @Override
     public Log getLogger() {
         return logger;
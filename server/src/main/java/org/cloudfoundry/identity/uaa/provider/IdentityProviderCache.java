@@ -0,0 +1,151 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.springframework.context.ApplicationListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Keeps a {@link Snapshot} of the identity providers of each zone, with their
+ * definitions already parsed, so that the login pages and authentication
+ * managers do not query and deserialize them on every request.
+ * <p>
+ * A zone's snapshot is dropped when one of its providers or the zone itself is
+ * modified or deleted. Snapshots are shared between threads and the providers
+ * they contain must not be modified.
+ */
+public class IdentityProviderCache implements ApplicationListener<CacheInvalidationEvent>, MeteredCache {
+
+    private final Cache<String, Snapshot> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private final ConcurrentMap<String, Long> invalidated = new ConcurrentHashMap<>();
+
+    public IdentityProviderCache() {
+        this(1000, 300);
+    }
+
+    public IdentityProviderCache(int maxZones, int expireSeconds) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxZones)
+            .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @param zoneId the zone
+     * @param loader loads all the providers of a zone, active or not
+     * @return the snapshot of the zone's providers
+     */
+    public Snapshot getSnapshot(String zoneId, Function<String, List<IdentityProvider>> loader) {
+        Snapshot snapshot = cache.asMap().get(zoneId);
+        if (snapshot != null && snapshot.generation < invalidated.getOrDefault(zoneId, 0L)) {
+            //loaded while the zone was being invalidated
+            cache.asMap().remove(zoneId, snapshot);
+        }
+        try {
+            return cache.get(zoneId, () -> {
+                long loadedAt = generation.get();
+                return new Snapshot(loadedAt, loader.apply(zoneId));
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public void invalidate(String zoneId) {
+        invalidated.put(zoneId, generation.incrementAndGet());
+        cache.invalidate(zoneId);
+    }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.IDENTITY_PROVIDER) || event.isType(CacheInvalidation.ZONE)) {
+            invalidate(event.getZoneId());
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Immutable view of the identity providers of a zone
+     */
+    public static class Snapshot {
+        private final long generation;
+        private final List<IdentityProvider> active;
+        private final Map<String, IdentityProvider> byOrigin;
+        private final Map<String, List<IdentityProvider>> activeByType;
+
+        Snapshot(long generation, List<IdentityProvider> providers) {
+            this.generation = generation;
+            List<IdentityProvider> active = new ArrayList<>();
+            Map<String, IdentityProvider> byOrigin = new HashMap<>();
+            Map<String, List<IdentityProvider>> activeByType = new HashMap<>();
+            for (IdentityProvider provider : providers) {
+                byOrigin.put(provider.getOriginKey(), provider);
+                if (provider.isActive()) {
+                    active.add(provider);
+                    activeByType.computeIfAbsent(provider.getType(), k -> new ArrayList<>()).add(provider);
+                }
+            }
+            activeByType.replaceAll((type, list) -> Collections.unmodifiableList(list));
+            this.active = Collections.unmodifiableList(active);
+            this.byOrigin = Collections.unmodifiableMap(byOrigin);
+            this.activeByType = Collections.unmodifiableMap(activeByType);
+        }
+
+        public List<IdentityProvider> getActive() {
+            return active;
+        }
+
+        /**
+         * @return the provider, active or not, or null if the zone has no such provider
+         */
+        public IdentityProvider getByOrigin(String origin) {
+            return byOrigin.get(origin);
+        }
+
+        public List<IdentityProvider> getActiveByType(String type) {
+            return activeByType.getOrDefault(type, Collections.emptyList());
+        }
+    }
+}
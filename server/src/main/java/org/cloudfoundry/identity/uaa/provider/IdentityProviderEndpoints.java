@@ -19,6 +19,9 @@ import org.cloudfoundry.identity.uaa.authentication.manager.DynamicLdapAuthentic
 import org.cloudfoundry.identity.uaa.authentication.manager.LdapLoginAuthenticationManager;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJobEndpoints;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJobService;
 import org.cloudfoundry.identity.uaa.provider.saml.SamlIdentityProviderConfigurator;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
@@ -73,12 +76,20 @@ public class IdentityProviderEndpoints implements ApplicationEventPublisherAware
     private final SamlIdentityProviderConfigurator samlConfigurator;
     private final IdentityProviderConfigValidationDelegator configValidator;
     private ApplicationEventPublisher publisher = null;
+    private DeletionJobService deletionJobService;
 
     @Override
     public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
         this.publisher = applicationEventPublisher;
     }
 
+    /**
+     * @param deletionJobService if set, the users of deleted providers are removed in the background
+     */
+    public void setDeletionJobService(DeletionJobService deletionJobService) {
+        this.deletionJobService = deletionJobService;
+    }
+
     public IdentityProviderEndpoints(
         IdentityProviderProvisioning identityProviderProvisioning,
         ScimGroupExternalMembershipManager scimGroupExternalMembershipManager,
@@ -101,6 +112,10 @@ public class IdentityProviderEndpoints implements ApplicationEventPublisherAware
         } catch (IllegalArgumentException e) {
             return new ResponseEntity<>(body, UNPROCESSABLE_ENTITY);
         }
+        if (deletionJobService!=null && deletionJobService.isProviderBeingDeleted(zoneId, body.getOriginKey())) {
+            //the users of a deleted provider with this origin are still being removed
+            return new ResponseEntity<>(body, CONFLICT);
+        }
         if (OriginKeys.SAML.equals(body.getType())) {
             SamlIdentityProviderDefinition definition = ObjectUtils.castInstance(body.getConfig(), SamlIdentityProviderDefinition.class);
             definition.setZoneId(zoneId);
@@ -123,7 +138,10 @@ public class IdentityProviderEndpoints implements ApplicationEventPublisherAware
     @Transactional
     public ResponseEntity<IdentityProvider> deleteIdentityProvider(@PathVariable String id) throws MetadataProviderException {
         IdentityProvider existing = identityProviderProvisioning.retrieve(id);
-        if (publisher!=null && existing!=null) {
+        if (deletionJobService!=null && existing!=null) {
+            DeletionJob job = deletionJobService.deleteIdentityProvider(existing, SecurityContextHolder.getContext().getAuthentication());
+            return job==null ? new ResponseEntity<>(existing, OK) : DeletionJobEndpoints.accepted(existing, job);
+        } else if (publisher!=null && existing!=null) {
             publisher.publishEvent(new EntityDeletedEvent<>(existing, SecurityContextHolder.getContext().getAuthentication()));
             return new ResponseEntity<>(existing, OK);
         } else {
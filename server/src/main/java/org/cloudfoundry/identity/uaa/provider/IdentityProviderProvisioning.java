@@ -14,6 +14,7 @@
 package org.cloudfoundry.identity.uaa.provider;
 
 import java.util.List;
+import java.util.stream.Collectors;
 
 public interface IdentityProviderProvisioning {
 
@@ -29,5 +30,9 @@ public interface IdentityProviderProvisioning {
 
     IdentityProvider retrieveByOrigin(String origin, String zoneId);
 
+    default List<IdentityProvider> retrieveActiveByType(String type, String zoneId) {
+        return retrieveActive(zoneId).stream().filter(p -> type.equals(p.getType())).collect(Collectors.toList());
+    }
+
 
 }
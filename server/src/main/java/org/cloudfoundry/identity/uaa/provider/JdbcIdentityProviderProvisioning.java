@@ -22,9 +22,12 @@ import org.cloudfoundry.identity.uaa.util.ObjectUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -64,11 +67,22 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     private final RowMapper<IdentityProvider> mapper = new IdentityProviderRowMapper();
 
+    private IdentityProviderCache cache;
+
     public JdbcIdentityProviderProvisioning(JdbcTemplate jdbcTemplate) {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
     }
 
+    /**
+     * Serves {@link #retrieveActive(String)}, {@link #retrieveActiveByType(String, String)}
+     * and {@link #retrieveByOrigin(String, String)} from a per zone snapshot.
+     * The providers returned by these methods are then shared and must not be modified.
+     */
+    public void setCache(IdentityProviderCache cache) {
+        this.cache = cache;
+    }
+
     @Override
     public IdentityProvider retrieve(String id) {
         IdentityProvider identityProvider = jdbcTemplate.queryForObject(IDENTITY_PROVIDER_BY_ID_QUERY, mapper, id, IdentityZoneHolder.get().getId());
@@ -77,9 +91,20 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public List<IdentityProvider> retrieveActive(String zoneId) {
+        if (cache != null) {
+            return getSnapshot(zoneId).getActive();
+        }
         return jdbcTemplate.query(IDENTITY_ACTIVE_PROVIDERS_QUERY, mapper, zoneId);
     }
 
+    @Override
+    public List<IdentityProvider> retrieveActiveByType(String type, String zoneId) {
+        if (cache != null) {
+            return getSnapshot(zoneId).getActiveByType(type);
+        }
+        return IdentityProviderProvisioning.super.retrieveActiveByType(type, zoneId);
+    }
+
     @Override
     public List<IdentityProvider> retrieveAll(boolean activeOnly, String zoneId) {
         if (activeOnly) {
@@ -91,10 +116,37 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public IdentityProvider retrieveByOrigin(String origin, String zoneId) {
+        if (cache != null) {
+            IdentityProvider identityProvider = getSnapshot(zoneId).getByOrigin(origin);
+            if (identityProvider == null) {
+                throw new EmptyResultDataAccessException(1);
+            }
+            return identityProvider;
+        }
         IdentityProvider identityProvider = jdbcTemplate.queryForObject(IDENTITY_PROVIDER_BY_ORIGIN_QUERY, mapper, origin, zoneId);
         return identityProvider;
     }
 
+    protected IdentityProviderCache.Snapshot getSnapshot(String zoneId) {
+        return cache.getSnapshot(zoneId, id -> jdbcTemplate.query(IDENTITY_PROVIDERS_QUERY, mapper, id));
+    }
+
+    protected void invalidate(String zoneId) {
+        if (cache == null) {
+            return;
+        }
+        cache.invalidate(zoneId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            //a snapshot loaded before the commit would not contain the change
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    cache.invalidate(zoneId);
+                }
+            });
+        }
+    }
+
     @Override
     public IdentityProvider create(final IdentityProvider identityProvider) {
         validate(identityProvider);
@@ -118,6 +170,8 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
             });
         } catch (DuplicateKeyException e) {
             throw new IdpAlreadyExistsException(e.getMostSpecificCause().getMessage());
+        } finally {
+            invalidate(identityProvider.getIdentityZoneId());
         }
         return retrieve(id);
     }
@@ -140,6 +194,7 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
             ps.setString(pos++, zoneId);
             }
         });
+        invalidate(zoneId);
         return retrieve(identityProvider.getId());
     }
 
@@ -161,12 +216,16 @@ public class JdbcIdentityProviderProvisioning implements IdentityProviderProvisi
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ZONE_SQL, zoneId);
+        int deleted = jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ZONE_SQL, zoneId);
+        invalidate(zoneId);
+        return deleted;
     }
 
     @Override
     public int deleteByOrigin(String origin, String zoneId) {
-        return jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ORIGIN_SQL, zoneId, origin);
+        int deleted = jdbcTemplate.update(DELETE_IDENTITY_PROVIDER_BY_ORIGIN_SQL, zoneId, origin);
+        invalidate(zoneId);
+        return deleted;
     }
 
     @Override
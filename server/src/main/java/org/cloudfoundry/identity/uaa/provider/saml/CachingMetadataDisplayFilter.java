@@ -0,0 +1,68 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.opensaml.saml2.metadata.provider.MetadataProviderException;
+import org.springframework.security.saml.context.SAMLMessageContext;
+import org.springframework.security.saml.metadata.MetadataDisplayFilter;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Serves metadata from a {@link SamlMetadataCache} instead of marshalling and
+ * signing it on every request, and answers conditional requests that carry
+ * a matching If-None-Match header with 304 Not Modified.
+ */
+public class CachingMetadataDisplayFilter extends MetadataDisplayFilter {
+
+    private SamlMetadataCache metadataCache;
+
+    public SamlMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    public void setMetadataCache(SamlMetadataCache metadataCache) {
+        this.metadataCache = metadataCache;
+    }
+
+    @Override
+    protected void processMetadataDisplay(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+        if (metadataCache == null) {
+            super.processMetadataDisplay(request, response);
+            return;
+        }
+        try {
+            SAMLMessageContext context = contextProvider.getLocalEntity(request, response);
+            String entityId = context.getLocalEntityId();
+            SamlMetadataCache.Document document = metadataCache.getDocument(getFilterProcessesUrl(), entityId, () -> {
+                StringWriter metadata = new StringWriter();
+                displayMetadata(entityId, new PrintWriter(metadata));
+                return metadata.toString();
+            });
+            if (new ServletWebRequest(request, response).checkNotModified(document.getEtag())) {
+                return;
+            }
+            response.setContentType("application/samlmetadata+xml");
+            response.addHeader("Content-Disposition", "attachment; filename=\"spring_saml_metadata.xml\"");
+            response.getWriter().print(document.getContent());
+        } catch (MetadataProviderException e) {
+            throw new ServletException("Error initializing metadata", e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.SamlConfig;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.saml.key.KeyManager;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps the SAML service provider {@link KeyManager} of each zone so the key
+ * and certificate are not parsed into a new key store on every request.
+ * Entries remember a fingerprint of the key, password and certificate they
+ * were built from and are rebuilt when the zone's SAML configuration changes,
+ * or dropped when the zone is modified.
+ */
+public class SamlKeyManagerCache implements ApplicationListener<CacheInvalidationEvent>, MeteredCache {
+
+    private final Cache<String, Entry> cache;
+
+    public SamlKeyManagerCache() {
+        this(1000);
+    }
+
+    public SamlKeyManagerCache(int maxZones) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxZones)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * @return the key manager for the zone's SAML configuration, or null
+     * if the zone does not have a private key
+     */
+    public KeyManager getKeyManager(IdentityZone zone) {
+        SamlConfig config = zone.getConfig() == null ? null : zone.getConfig().getSamlConfig();
+        if (config == null || !StringUtils.hasText(config.getPrivateKey())) {
+            cache.invalidate(zone.getId());
+            return null;
+        }
+        String fingerprint = fingerprint(config);
+        Entry entry = cache.getIfPresent(zone.getId());
+        if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+            entry = new Entry(fingerprint, SamlKeyManagerFactory.getKeyManager(zone.getId(), config));
+            cache.put(zone.getId(), entry);
+        }
+        return entry.keyManager;
+    }
+
+    public void invalidate(String zoneId) {
+        cache.invalidate(zoneId);
+    }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.ZONE)) {
+            invalidate(event.getZoneId());
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    static String fingerprint(SamlConfig config) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String value : new String[] {config.getPrivateKey(), config.getPrivateKeyPassword(), config.getCertificate()}) {
+                digest.update(value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return new String(Hex.encode(digest.digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final KeyManager keyManager;
+
+        private Entry(String fingerprint, KeyManager keyManager) {
+            this.fingerprint = fingerprint;
+            this.keyManager = keyManager;
+        }
+    }
+}
@@ -38,6 +38,14 @@ public final class SamlKeyManagerFactory {
     }
 
     public static KeyManager getKeyManager(String key, String password, String certificate) {
+        return getKeyManager(key, password, certificate, IdentityZoneHolder.get().getId());
+    }
+
+    public static KeyManager getKeyManager(String zoneId, SamlConfig config) {
+        return getKeyManager(config.getPrivateKey(), config.getPrivateKeyPassword(), config.getCertificate(), zoneId);
+    }
+
+    private static KeyManager getKeyManager(String key, String password, String certificate, String zoneId) {
         if(!StringUtils.hasText(key)) return null;
 
         if (null == password) {
@@ -51,7 +59,7 @@ public final class SamlKeyManagerFactory {
 
             KeyStore keystore = KeyStore.getInstance("JKS");
             keystore.load(null);
-            String alias = "service-provider-cert-" + IdentityZoneHolder.get().getId();
+            String alias = "service-provider-cert-" + zoneId;
             keystore.setCertificateEntry(alias, cert);
             keystore.setKeyEntry(alias, pkey.getPrivate(), password.toCharArray(),
                     new Certificate[] { cert });
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.security.saml.key.KeyManager;
+
+import javax.servlet.ServletException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Holds the marshalled, and when configured signed, SAML metadata documents
+ * of each zone together with a strong ETag. A document is generated again
+ * when the zone's SAML configuration, subdomain or signing key manager
+ * changes, or when the zone is modified.
+ */
+public class SamlMetadataCache implements ApplicationListener<CacheInvalidationEvent>, MeteredCache {
+
+    private static final char SEPARATOR = '|';
+
+    private final Cache<String, Document> cache;
+
+    public SamlMetadataCache() {
+        this(1000);
+    }
+
+    public SamlMetadataCache(int maxDocuments) {
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maxDocuments)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Returns the named metadata document for the current zone, calling the
+     * generator only if there is no up to date copy.
+     */
+    public Document getDocument(String name, String entityId, Generator generator) throws ServletException {
+        IdentityZone zone = IdentityZoneHolder.get();
+        KeyManager keyManager = IdentityZoneHolder.getSamlSPKeyManager();
+        String fingerprint = fingerprint(zone, entityId);
+        String key = zone.getId() + SEPARATOR + name;
+        Document document = cache.getIfPresent(key);
+        if (document == null || document.keyManager != keyManager || !document.fingerprint.equals(fingerprint)) {
+            document = new Document(generator.generate(), fingerprint, keyManager);
+            cache.put(key, document);
+        }
+        return document;
+    }
+
+    public void invalidate(String zoneId) {
+        String prefix = zoneId + SEPARATOR;
+        cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.ZONE)) {
+            invalidate(event.getZoneId());
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    protected String fingerprint(IdentityZone zone, String entityId) {
+        String samlConfig = zone.getConfig() == null ? "" : JsonUtils.writeValueAsString(zone.getConfig().getSamlConfig());
+        return sha256(zone.getId() + SEPARATOR + zone.getSubdomain() + SEPARATOR + entityId + SEPARATOR + samlConfig);
+    }
+
+    static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new String(Hex.encode(digest.digest(value.getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public interface Generator {
+        String generate() throws ServletException;
+    }
+
+    public static class Document {
+        private final String content;
+        private final String etag;
+        private final String fingerprint;
+        private final KeyManager keyManager;
+
+        Document(String content, String fingerprint, KeyManager keyManager) {
+            this.content = content;
+            this.etag = "\"" + sha256(content) + "\"";
+            this.fingerprint = fingerprint;
+            this.keyManager = keyManager;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
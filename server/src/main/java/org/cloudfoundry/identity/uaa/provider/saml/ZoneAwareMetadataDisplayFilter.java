@@ -16,13 +16,12 @@ package org.cloudfoundry.identity.uaa.provider.saml;
 
 import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.xml.io.MarshallingException;
-import org.springframework.security.saml.metadata.MetadataDisplayFilter;
 import org.springframework.security.saml.metadata.MetadataGenerator;
 
 import javax.servlet.ServletException;
 import java.io.PrintWriter;
 
-public class ZoneAwareMetadataDisplayFilter extends MetadataDisplayFilter {
+public class ZoneAwareMetadataDisplayFilter extends CachingMetadataDisplayFilter {
 
     protected final MetadataGenerator generator;
 
@@ -123,7 +123,7 @@ public class ZoneAwareMetadataManager extends MetadataManager implements Extende
 
     protected void refreshAllProviders(boolean ignoreTimestamp) throws MetadataProviderException {
         logger.debug("Running SAML IDP refresh["+getThreadNameAndId()+"] - ignoreTimestamp="+ignoreTimestamp);
-        for (IdentityZone zone : zoneDao.retrieveAll()) {
+        for (IdentityZone zone : zoneDao.retrieveAllWithoutConfig()) {
             ExtensionMetadataManager manager = getManager(zone);
             boolean hasChanges = false;
             List<SamlIdentityProviderDefinition> zoneDefinitions = new LinkedList(configurator.getIdentityProviderDefinitionsForZone(zone));
@@ -118,7 +118,7 @@ public class ZoneAwareIdpMetadataManager extends IdpMetadataManager implements E
 
     protected void refreshAllProviders(boolean ignoreTimestamp) throws MetadataProviderException {
         logger.debug("Running SAML SP refresh[" + getThreadNameAndId() + "] - ignoreTimestamp=" + ignoreTimestamp);
-        for (IdentityZone zone : zoneDao.retrieveAll()) {
+        for (IdentityZone zone : zoneDao.retrieveAllWithoutConfig()) {
             ExtensionMetadataManager manager = getManager(zone);
             boolean hasChanges = false;
             Map<String, SamlServiceProviderHolder> zoneProviderMap =
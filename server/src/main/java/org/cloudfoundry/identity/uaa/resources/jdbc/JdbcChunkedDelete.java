@@ -0,0 +1,54 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.resources.jdbc;
+
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import java.util.List;
+
+/**
+ * Deletes rows in chunks of bounded size. Each call selects at most
+ * {@code chunkSize} primary keys and then runs the delete statements,
+ * which reference the selected keys as {@code :ids} and may reference
+ * the zone as {@code :zoneId}.
+ */
+public final class JdbcChunkedDelete {
+
+    private JdbcChunkedDelete() {
+    }
+
+    /**
+     * @param selectSql selects the primary keys of the rows to delete
+     * @param args      the arguments of {@code selectSql}
+     * @return the number of primary keys selected
+     */
+    public static int deleteChunk(JdbcTemplate jdbcTemplate, int chunkSize, String zoneId, String selectSql, Object[] args, String... deleteSql) {
+        ArgumentPreparedStatementSetter setter = new ArgumentPreparedStatementSetter(args);
+        List<String> ids = jdbcTemplate.query(selectSql, ps -> {
+            ps.setMaxRows(chunkSize);
+            setter.setValues(ps);
+        }, (rs, rowNum) -> rs.getString(1));
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(jdbcTemplate);
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", ids).addValue("zoneId", zoneId);
+        for (String sql : deleteSql) {
+            template.update(sql, params);
+        }
+        return ids.size();
+    }
+}
@@ -15,5 +15,21 @@ package org.cloudfoundry.identity.uaa.scim;
 import org.cloudfoundry.identity.uaa.resources.Queryable;
 import org.cloudfoundry.identity.uaa.resources.ResourceManager;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 public interface ScimGroupProvisioning extends ResourceManager<ScimGroup>, Queryable<ScimGroup> {
+
+    /**
+     * @param displayNames the display names, compared case insensitively
+     * @return the groups of the current zone that have one of the display names
+     */
+    default List<ScimGroup> retrieveByDisplayNames(Collection<String> displayNames) {
+        List<ScimGroup> result = new ArrayList<>();
+        for (String displayName : displayNames) {
+            result.addAll(query(String.format("displayName eq \"%s\"", displayName)));
+        }
+        return result;
+    }
 }
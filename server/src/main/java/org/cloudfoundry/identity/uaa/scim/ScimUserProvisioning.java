@@ -16,7 +16,14 @@ import org.cloudfoundry.identity.uaa.resources.Queryable;
 import org.cloudfoundry.identity.uaa.resources.ResourceManager;
 import org.cloudfoundry.identity.uaa.scim.exception.InvalidPasswordException;
 import org.cloudfoundry.identity.uaa.scim.exception.InvalidScimResourceException;
+import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * @author Luke Taylor
@@ -35,5 +42,81 @@ public interface ScimUserProvisioning extends ResourceManager<ScimUser>, Queryab
 
     public boolean checkPasswordMatches(String id, String password) throws ScimResourceNotFoundException;
 
+    /**
+     * Finds the users of the current zone with one of the given email addresses
+     * and the given origin. Email addresses are compared case insensitively.
+     */
+    default List<ScimUser> retrieveByEmailsAndOrigin(Collection<String> emails, String origin) {
+        List<ScimUser> result = new ArrayList<>();
+        for (String email : emails) {
+            result.addAll(query(String.format("email eq \"%s\" and origin eq \"%s\"", email, origin)));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the user of the current zone with the given username and origin.
+     * Usernames are compared case insensitively.
+     * @return the user, or null if there is none
+     */
+    default ScimUser retrieveByUsernameAndOrigin(String username, String origin) {
+        List<ScimUser> results = query(String.format("userName eq %s and origin eq \"%s\"", JsonUtils.writeValueAsString(username), origin));
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    /**
+     * Checks whether the username is taken in the current zone, by a user of any origin.
+     * @return the id of a user with the username, or null if there is none
+     */
+    default String retrieveIdByUsername(String username) {
+        List<ScimUser> results = query("userName eq " + JsonUtils.writeValueAsString(username));
+        return results.isEmpty() ? null : results.get(0).getId();
+    }
+
+    /**
+     * Finds the users of the current zone with the given ids. Implementations
+     * may only load the id, username, origin and zone of each user.
+     */
+    default List<ScimUser> retrieveIdentitiesByIds(Collection<String> ids) {
+        List<ScimUser> result = new ArrayList<>();
+        for (String id : ids) {
+            result.addAll(query("id eq " + JsonUtils.writeValueAsString(id)));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the users of the current zone, of any origin, with one of the given
+     * usernames. Usernames are compared case insensitively. Implementations
+     * may only load the id, username, origin and zone of each user.
+     */
+    default List<ScimUser> retrieveIdentitiesByUsernames(Collection<String> usernames) {
+        List<ScimUser> result = new ArrayList<>();
+        for (String username : usernames) {
+            result.addAll(query("userName eq " + JsonUtils.writeValueAsString(username)));
+        }
+        return result;
+    }
+
+    /**
+     * Creates users without a usable password, such as invited users who choose
+     * their password later. Each user gets a different password that no one knows.
+     * Users whose username is already taken are skipped.
+     * @return the number of users created
+     */
+    default int createUsers(List<ScimUser> users) throws InvalidPasswordException,
+        InvalidScimResourceException {
+        int created = 0;
+        for (ScimUser user : users) {
+            try {
+                createUser(user, UUID.randomUUID().toString());
+                created++;
+            } catch (ScimResourceAlreadyExistsException e) {
+                //created concurrently
+            }
+        }
+        return created;
+    }
+
 }
 
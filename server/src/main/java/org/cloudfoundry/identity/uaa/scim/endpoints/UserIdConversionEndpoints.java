@@ -13,13 +13,21 @@
 
 package org.cloudfoundry.identity.uaa.scim.endpoints;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.unboundid.scim.sdk.SCIMException;
 import com.unboundid.scim.sdk.SCIMFilter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
 import org.cloudfoundry.identity.uaa.scim.ScimCore;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimException;
 import org.cloudfoundry.identity.uaa.security.DefaultSecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
@@ -27,11 +35,15 @@ import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationListener;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -40,16 +52,29 @@ import org.springframework.web.servlet.View;
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
+ * Converts user ids to usernames and back.
+ * <p>
+ * A <code>POST</code> of a JSON body with <code>ids</code> and/or
+ * <code>userNames</code> resolves up to <code>maxBulkSize</code> users with
+ * keyed queries that load only the id, username and origin of each user, and
+ * without counting or paging. Users looked up by id are kept in a small cache
+ * that is cleared when a user is modified.
+ *
  * @author Dave Syer
  * @author Luke Taylor
  *
  */
 @Controller
-public class UserIdConversionEndpoints implements InitializingBean {
+public class UserIdConversionEndpoints implements InitializingBean, ApplicationListener<CacheInvalidationEvent>, MeteredCache {
     private final Log logger = LogFactory.getLog(getClass());
 
     private SecurityContextAccessor securityContextAccessor = new DefaultSecurityContextAccessor();
@@ -58,10 +83,25 @@ public class UserIdConversionEndpoints implements InitializingBean {
 
     private IdentityProviderProvisioning provisioning;
 
+    private ScimUserProvisioning scimUserProvisioning;
+
     private boolean enabled = true;
 
+    private int maxBulkSize = 500;
+
+    private final Cache<List<String>, ScimUser> cache;
+
     public UserIdConversionEndpoints(IdentityProviderProvisioning provisioning) {
+        this(provisioning, 1000, 60);
+    }
+
+    public UserIdConversionEndpoints(IdentityProviderProvisioning provisioning, int cacheMaxUsers, int cacheExpireSeconds) {
         this.provisioning = provisioning;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(cacheExpireSeconds > 0 ? cacheMaxUsers : 0)
+            .expireAfterWrite(Math.max(1, cacheExpireSeconds), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
     }
 
     void setSecurityContextAccessor(SecurityContextAccessor securityContextAccessor) {
@@ -75,6 +115,17 @@ public class UserIdConversionEndpoints implements InitializingBean {
         this.scimUserEndpoints = scimUserEndpoints;
     }
 
+    public void setScimUserProvisioning(ScimUserProvisioning scimUserProvisioning) {
+        this.scimUserProvisioning = scimUserProvisioning;
+    }
+
+    /**
+     * The largest number of ids and usernames accepted by one bulk request
+     */
+    public void setMaxBulkSize(int maxBulkSize) {
+        this.maxBulkSize = maxBulkSize;
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -117,6 +168,63 @@ public class UserIdConversionEndpoints implements InitializingBean {
         return scimUserEndpoints.findUsers("id,userName,origin", filter, "userName", sortOrder, startIndex, count);
     }
 
+    @RequestMapping(value = "/ids/Users", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public SearchResults<Map<String, Object>> convertUsers(
+                    @RequestBody BulkRequest request,
+                    @RequestParam(required = false, defaultValue = "false") boolean includeInactive) {
+        if (!enabled) {
+            logger.warn("Request from user " + securityContextAccessor.getAuthenticationInfo() +
+                            " received at disabled Id translation endpoint");
+            throw new ScimException("Illegal operation.", HttpStatus.BAD_REQUEST);
+        }
+        List<String> ids = request.getIds() == null ? Collections.emptyList() : request.getIds();
+        List<String> userNames = request.getUserNames() == null ? Collections.emptyList() : request.getUserNames();
+        if (ids.isEmpty() && userNames.isEmpty()) {
+            throw new ScimException("'ids' or 'userNames' are required", HttpStatus.BAD_REQUEST);
+        }
+        if (ids.size() + userNames.size() > maxBulkSize) {
+            throw new ScimException("At most " + maxBulkSize + " ids and userNames may be converted at once", HttpStatus.BAD_REQUEST);
+        }
+
+        String zoneId = IdentityZoneHolder.get().getId();
+        Map<String, ScimUser> users = new LinkedHashMap<>();
+        List<String> uncached = new ArrayList<>();
+        for (String id : ids) {
+            ScimUser user = cache.getIfPresent(Arrays.asList(zoneId, id));
+            if (user != null) {
+                users.put(user.getId(), user);
+            } else {
+                uncached.add(id);
+            }
+        }
+        if (!uncached.isEmpty()) {
+            for (ScimUser user : scimUserProvisioning.retrieveIdentitiesByIds(uncached)) {
+                cache.put(Arrays.asList(zoneId, user.getId()), user);
+                users.put(user.getId(), user);
+            }
+        }
+        if (!userNames.isEmpty()) {
+            for (ScimUser user : scimUserProvisioning.retrieveIdentitiesByUsernames(userNames)) {
+                users.put(user.getId(), user);
+            }
+        }
+
+        Set<String> activeOrigins = includeInactive ? null :
+            provisioning.retrieveActive(zoneId).stream().map(IdentityProvider::getOriginKey).collect(Collectors.toSet());
+        List<Map<String, Object>> resources = new ArrayList<>();
+        for (ScimUser user : users.values()) {
+            if (activeOrigins == null || activeOrigins.contains(user.getOrigin())) {
+                Map<String, Object> resource = new LinkedHashMap<>();
+                resource.put("id", user.getId());
+                resource.put("userName", user.getUserName());
+                resource.put(OriginKeys.ORIGIN, user.getOrigin());
+                resources.add(resource);
+            }
+        }
+        return new SearchResults<>(Arrays.asList(ScimCore.SCHEMAS), resources, 1, resources.size(), resources.size());
+    }
+
     @ExceptionHandler
     public View handleException(Exception t, HttpServletRequest request) throws ScimException {
         return scimUserEndpoints.handleException(t, request);
@@ -180,4 +288,44 @@ public class UserIdConversionEndpoints implements InitializingBean {
     public void afterPropertiesSet() throws Exception {
         Assert.notNull(scimUserEndpoints, "ScimUserEndpoints must be set");
     }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.USER)) {
+            cache.invalidate(Arrays.asList(event.getZoneId(), event.getKey()));
+        } else if (event.isType(CacheInvalidation.ZONE)) {
+            cache.asMap().keySet().removeIf(key -> key.get(0).equals(event.getZoneId()));
+        }
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    public static class BulkRequest {
+        private List<String> ids;
+        private List<String> userNames;
+
+        public List<String> getIds() {
+            return ids;
+        }
+
+        public void setIds(List<String> ids) {
+            this.ids = ids;
+        }
+
+        public List<String> getUserNames() {
+            return userNames;
+        }
+
+        public void setUserNames(List<String> userNames) {
+            this.userNames = userNames;
+        }
+    }
 }
@@ -18,6 +18,7 @@ import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
 import org.cloudfoundry.identity.uaa.resources.jdbc.AbstractQueryable;
 import org.cloudfoundry.identity.uaa.resources.jdbc.DefaultLimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcChunkedDelete;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
@@ -35,6 +36,8 @@ import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -42,9 +45,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
     implements ScimGroupProvisioning, ApplicationListener<EntityDeletedEvent<?>>, SystemDeletable {
@@ -77,6 +83,8 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
 
     public static final String ALL_GROUPS = String.format("select %s from %s", GROUP_FIELDS, GROUP_TABLE);
 
+    public static final String GROUPS_BY_DISPLAY_NAMES = String.format("select %s from %s where lower(displayName) in (:names) and identity_zone_id=:zoneId", GROUP_FIELDS, GROUP_TABLE);
+
     public static final String DELETE_GROUP_SQL = String.format("delete from %s where id=? and identity_zone_id=?", GROUP_TABLE);
 
     public static final String DELETE_GROUP_BY_ZONE = String.format("delete from %s where identity_zone_id=?", GROUP_TABLE);
@@ -86,9 +94,16 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
     public static final String DELETE_ZONE_ADMIN_MEMBERSHIP_BY_ZONE = String.format("delete from %s where group_id in (select id from %s where identity_zone_id=? and displayName like ?)", GROUP_MEMBERSHIP_TABLE, GROUP_TABLE);
     public static final String DELETE_ZONE_ADMIN_GROUPS_BY_ZONE = String.format("delete from %s where identity_zone_id=? and displayName like ?", GROUP_TABLE);
 
+    public static final String GROUP_IDS_BY_ZONE = String.format("select id from %s where identity_zone_id = ?", GROUP_TABLE);
+    public static final String DELETE_EXTERNAL_GROUP_BY_GROUP_IDS = String.format("delete from %s where group_id in (:ids)", EXTERNAL_GROUP_TABLE);
+    public static final String DELETE_GROUP_MEMBERSHIP_BY_GROUP_IDS = String.format("delete from %s where group_id in (:ids)", GROUP_MEMBERSHIP_TABLE);
+    public static final String DELETE_GROUPS_BY_IDS = String.format("delete from %s where id in (:ids) and identity_zone_id = :zoneId", GROUP_TABLE);
+
     public static final String DELETE_GROUP_MEMBERSHIP_BY_PROVIDER = String.format("delete from %s where group_id in (select id from %s where identity_zone_id = ?) and origin = ?", GROUP_MEMBERSHIP_TABLE, GROUP_TABLE);
     public static final String DELETE_EXTERNAL_GROUP_BY_PROVIDER = String.format("delete from %s where group_id in (select id from %s where identity_zone_id = ?) and origin = ?", EXTERNAL_GROUP_TABLE, GROUP_TABLE);
 
+    private static final int QUERY_CHUNK_SIZE = 500;
+
     private final RowMapper<ScimGroup> rowMapper = new ScimGroupRowMapper();
 
     public JdbcScimGroupProvisioning(JdbcTemplate jdbcTemplate, JdbcPagingListFactory pagingListFactory) {
@@ -132,6 +147,19 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         return query("id pr", "created", true);
     }
 
+    @Override
+    public List<ScimGroup> retrieveByDisplayNames(Collection<String> displayNames) {
+        List<String> lowerCaseNames = displayNames.stream().map(n -> n.toLowerCase()).distinct().collect(Collectors.toList());
+        List<ScimGroup> result = new ArrayList<>();
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (int i = 0; i < lowerCaseNames.size(); i += QUERY_CHUNK_SIZE) {
+            MapSqlParameterSource params = new MapSqlParameterSource("names", lowerCaseNames.subList(i, Math.min(i + QUERY_CHUNK_SIZE, lowerCaseNames.size())))
+                .addValue("zoneId", IdentityZoneHolder.get().getId());
+            result.addAll(template.query(GROUPS_BY_DISPLAY_NAMES, params, rowMapper));
+        }
+        return result;
+    }
+
     @Override
     public ScimGroup retrieve(String id) throws ScimResourceNotFoundException {
         try {
@@ -228,6 +256,23 @@ public class JdbcScimGroupProvisioning extends AbstractQueryable<ScimGroup>
         return jdbcTemplate.update(DELETE_GROUP_MEMBERSHIP_BY_PROVIDER, zoneId, origin);
     }
 
+    @Override
+    public boolean isChunkedDeletionSupported() {
+        return true;
+    }
+
+    @Override
+    public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+        int deleted = JdbcChunkedDelete.deleteChunk(jdbcTemplate, chunkSize, zoneId, GROUP_IDS_BY_ZONE, new Object[] {zoneId},
+                                                    DELETE_EXTERNAL_GROUP_BY_GROUP_IDS, DELETE_GROUP_MEMBERSHIP_BY_GROUP_IDS, DELETE_GROUPS_BY_IDS);
+        if (deleted > 0) {
+            return deleted;
+        }
+        //the zone admin groups live in the default zone and are removed last
+        jdbcTemplate.update(DELETE_ZONE_ADMIN_MEMBERSHIP_BY_ZONE, IdentityZone.getUaa().getId(), "zones." + zoneId + ".%");
+        return jdbcTemplate.update(DELETE_ZONE_ADMIN_GROUPS_BY_ZONE, IdentityZone.getUaa().getId(), "zones." + zoneId + ".%");
+    }
+
     protected void validateGroup(ScimGroup group) throws ScimResourceConstraintFailedException {
         if (!StringUtils.hasText(group.getZoneId())) {
             throw new ScimResourceConstraintFailedException("zoneId is a required field");
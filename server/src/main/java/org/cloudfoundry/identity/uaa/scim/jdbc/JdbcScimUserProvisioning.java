@@ -18,6 +18,7 @@ import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
 import org.cloudfoundry.identity.uaa.resources.jdbc.AbstractQueryable;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcChunkedDelete;
 import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.scim.ScimMeta;
 import org.cloudfoundry.identity.uaa.scim.ScimUser;
@@ -33,9 +34,12 @@ import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -46,14 +50,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static java.sql.Types.VARCHAR;
 
@@ -92,6 +100,18 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     public static final String ALL_USERS = "select " + USER_FIELDS + " from users";
 
+    public static final String USERS_BY_EMAILS_AND_ORIGIN_QUERY = "select " + USER_FIELDS + " from users where lower(email) in (:emails) and origin=:origin and identity_zone_id=:zoneId";
+
+    public static final String USER_BY_USERNAME_AND_ORIGIN_QUERY = "select " + USER_FIELDS + " from users where %s=? and origin=? and identity_zone_id=?";
+
+    public static final String USER_IDENTITY_FIELDS = "id,username,origin,identity_zone_id";
+
+    public static final String USER_IDENTITIES_BY_IDS_QUERY = "select " + USER_IDENTITY_FIELDS + " from users where id in (:ids) and identity_zone_id=:zoneId";
+
+    public static final String USER_IDENTITIES_BY_USERNAMES_QUERY = "select " + USER_IDENTITY_FIELDS + " from users where %s in (:usernames) and identity_zone_id=:zoneId";
+
+    public static final String USER_ID_BY_USERNAME_QUERY = "select id from users where %s=? and identity_zone_id=?";
+
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_ZONE = "delete from group_membership where member_type='USER' and member_id in (select id from users where identity_zone_id = ?)";
 
     public static final String HARD_DELETE_OF_GROUP_MEMBERS_BY_PROVIDER = "delete from group_membership where member_type='USER' and member_id in (select id from users where identity_zone_id = ? and origin = ?)";
@@ -104,14 +124,37 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
 
     public static final String HARD_DELETE_BY_PROVIDER = "delete from users where identity_zone_id = ? and origin = ?";
 
+    public static final String USER_IDS_BY_ZONE = "select id from users where identity_zone_id = ?";
+
+    public static final String USER_IDS_BY_PROVIDER = "select id from users where identity_zone_id = ? and origin = ?";
+
+    public static final String DELETE_GROUP_MEMBERS_BY_USER_IDS = "delete from group_membership where member_type='USER' and member_id in (:ids)";
+
+    public static final String DELETE_USER_APPROVALS_BY_USER_IDS = "delete from authz_approvals where user_id in (:ids)";
+
+    public static final String DELETE_USERS_BY_IDS = "delete from users where id in (:ids) and identity_zone_id = :zoneId";
+
+    private static final int QUERY_CHUNK_SIZE = 500;
+
     protected final JdbcTemplate jdbcTemplate;
 
+    private static final String UNUSABLE_PASSWORD_PREFIX = "{unusable}";
+
     private PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
 
     private boolean deactivateOnDelete = true;
 
+    private boolean dbCaseInsensitive = false;
+
     private final RowMapper<ScimUser> mapper = new ScimUserRowMapper();
 
+    private final RowMapper<ScimUser> identityMapper = (rs, rowNum) -> {
+        ScimUser user = new ScimUser(rs.getString(1), rs.getString(2), null, null);
+        user.setOrigin(rs.getString(3));
+        user.setZoneId(rs.getString(4));
+        return user;
+    };
+
     private Pattern usernamePattern = Pattern.compile("[a-zA-Z0-9+\\-_.@'!]+");
 
     public JdbcScimUserProvisioning(JdbcTemplate jdbcTemplate, JdbcPagingListFactory pagingListFactory) {
@@ -168,37 +211,7 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         final String origin = StringUtils.hasText(user.getOrigin()) ? user.getOrigin() : OriginKeys.UAA;
 
         try {
-            jdbcTemplate.update(CREATE_USER_SQL, new PreparedStatementSetter() {
-                @Override
-                public void setValues(PreparedStatement ps) throws SQLException {
-                    Timestamp t = new Timestamp(new Date().getTime());
-                    ps.setString(1, id);
-                    ps.setInt(2, user.getVersion());
-                    ps.setTimestamp(3, t);
-                    ps.setTimestamp(4, t);
-                    ps.setString(5, user.getUserName());
-                    ps.setString(6, user.getPrimaryEmail());
-                    if (user.getName() == null) {
-                        ps.setString(7, null);
-                        ps.setString(8, null);
-                    }
-                    else {
-                        ps.setString(7, user.getName().getGivenName());
-                        ps.setString(8, user.getName().getFamilyName());
-                    }
-                    ps.setBoolean(9, user.isActive());
-                    String phoneNumber = extractPhoneNumber(user);
-                    ps.setString(10, phoneNumber);
-                    ps.setBoolean(11, user.isVerified());
-                    ps.setString(12, origin);
-                    ps.setString(13, StringUtils.hasText(user.getExternalId())?user.getExternalId():null);
-                    ps.setString(14, identityZoneId);
-                    ps.setString(15, user.getSalt());
-                    ps.setTimestamp(16, getPasswordLastModifiedTimestamp(t));
-                    ps.setString(17, user.getPassword());
-                }
-
-            });
+            jdbcTemplate.update(CREATE_USER_SQL, ps -> setCreateValues(ps, user, id, identityZoneId, origin));
         } catch (DuplicateKeyException e) {
             ScimUser existingUser = query("userName eq \"" + user.getUserName() + "\" and origin eq \"" + (StringUtils.hasText(user.getOrigin())? user.getOrigin() : OriginKeys.UAA) + "\"").get(0);
             Map<String,Object> userDetails = new HashMap<>();
@@ -210,6 +223,34 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         return retrieve(id);
     }
 
+    private void setCreateValues(PreparedStatement ps, ScimUser user, String id, String identityZoneId, String origin) throws SQLException {
+        Timestamp t = new Timestamp(new Date().getTime());
+        ps.setString(1, id);
+        ps.setInt(2, user.getVersion());
+        ps.setTimestamp(3, t);
+        ps.setTimestamp(4, t);
+        ps.setString(5, user.getUserName());
+        ps.setString(6, user.getPrimaryEmail());
+        if (user.getName() == null) {
+            ps.setString(7, null);
+            ps.setString(8, null);
+        }
+        else {
+            ps.setString(7, user.getName().getGivenName());
+            ps.setString(8, user.getName().getFamilyName());
+        }
+        ps.setBoolean(9, user.isActive());
+        String phoneNumber = extractPhoneNumber(user);
+        ps.setString(10, phoneNumber);
+        ps.setBoolean(11, user.isVerified());
+        ps.setString(12, origin);
+        ps.setString(13, StringUtils.hasText(user.getExternalId())?user.getExternalId():null);
+        ps.setString(14, identityZoneId);
+        ps.setString(15, user.getSalt());
+        ps.setTimestamp(16, getPasswordLastModifiedTimestamp(t));
+        ps.setString(17, user.getPassword());
+    }
+
     protected Timestamp getPasswordLastModifiedTimestamp(Timestamp t) {
         Calendar cal = new GregorianCalendar();
         cal.set(Calendar.MILLISECOND, 0);
@@ -223,6 +264,123 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         return create(user);
     }
 
+    @Override
+    public List<ScimUser> retrieveByEmailsAndOrigin(Collection<String> emails, String origin) {
+        List<String> lowerCaseEmails = emails.stream().map(e -> e.toLowerCase()).distinct().collect(Collectors.toList());
+        List<ScimUser> result = new ArrayList<>();
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (int i = 0; i < lowerCaseEmails.size(); i += QUERY_CHUNK_SIZE) {
+            MapSqlParameterSource params = new MapSqlParameterSource("emails", lowerCaseEmails.subList(i, Math.min(i + QUERY_CHUNK_SIZE, lowerCaseEmails.size())))
+                .addValue("origin", origin)
+                .addValue("zoneId", IdentityZoneHolder.get().getId());
+            result.addAll(template.query(USERS_BY_EMAILS_AND_ORIGIN_QUERY, params, mapper));
+        }
+        return result;
+    }
+
+    @Override
+    public ScimUser retrieveByUsernameAndOrigin(String username, String origin) {
+        List<ScimUser> results = jdbcTemplate.query(String.format(USER_BY_USERNAME_AND_ORIGIN_QUERY, getUsernameColumn()),
+                                                    mapper,
+                                                    getUsernameValue(username),
+                                                    origin,
+                                                    IdentityZoneHolder.get().getId());
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    @Override
+    public String retrieveIdByUsername(String username) {
+        List<String> results = jdbcTemplate.queryForList(String.format(USER_ID_BY_USERNAME_QUERY, getUsernameColumn()),
+                                                         String.class,
+                                                         getUsernameValue(username),
+                                                         IdentityZoneHolder.get().getId());
+        return results.isEmpty() ? null : results.get(0);
+    }
+
+    @Override
+    public List<ScimUser> retrieveIdentitiesByIds(Collection<String> ids) {
+        return queryIdentities(USER_IDENTITIES_BY_IDS_QUERY, "ids", ids.stream().distinct().collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<ScimUser> retrieveIdentitiesByUsernames(Collection<String> usernames) {
+        List<String> values = usernames.stream().map(this::getUsernameValue).distinct().collect(Collectors.toList());
+        return queryIdentities(String.format(USER_IDENTITIES_BY_USERNAMES_QUERY, getUsernameColumn()), "usernames", values);
+    }
+
+    private List<ScimUser> queryIdentities(String sql, String name, List<String> values) {
+        List<ScimUser> result = new ArrayList<>();
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (int i = 0; i < values.size(); i += QUERY_CHUNK_SIZE) {
+            MapSqlParameterSource params = new MapSqlParameterSource(name, values.subList(i, Math.min(i + QUERY_CHUNK_SIZE, values.size())))
+                .addValue("zoneId", IdentityZoneHolder.get().getId());
+            result.addAll(template.query(sql, params, identityMapper));
+        }
+        return result;
+    }
+
+    /**
+     * Case insensitive databases compare the username column directly, so that the
+     * users_unique_key index can be used. Otherwise the lower case username is
+     * compared, which matches the index on postgresql.
+     */
+    private String getUsernameColumn() {
+        return dbCaseInsensitive ? "username" : "lower(username)";
+    }
+
+    private String getUsernameValue(String username) {
+        return dbCaseInsensitive ? username : username.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Inserts the users in a single batch. If any of the usernames is taken the
+     * users are created one by one instead. Rather than encoding a password per
+     * user, each user gets a random value that is not a password hash, so no
+     * password can match it.
+     */
+    @Override
+    public int createUsers(List<ScimUser> users) throws InvalidPasswordException,
+        InvalidScimResourceException {
+        if (users.isEmpty()) {
+            return 0;
+        }
+        List<String> ids = new ArrayList<>(users.size());
+        for (ScimUser user : users) {
+            validate(user);
+            user.setPassword(UNUSABLE_PASSWORD_PREFIX + UUID.randomUUID());
+            ids.add(UUID.randomUUID().toString());
+        }
+        final String identityZoneId = IdentityZoneHolder.get().getId();
+        try {
+            jdbcTemplate.batchUpdate(CREATE_USER_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ScimUser user = users.get(i);
+                    String origin = StringUtils.hasText(user.getOrigin()) ? user.getOrigin() : OriginKeys.UAA;
+                    setCreateValues(ps, user, ids.get(i), identityZoneId, origin);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return users.size();
+                }
+            });
+            return users.size();
+        } catch (DuplicateKeyException e) {
+            logger.debug("Batch user creation failed, creating users one by one: " + e.getMessage());
+            int created = 0;
+            for (ScimUser user : users) {
+                try {
+                    create(user);
+                    created++;
+                } catch (ScimResourceAlreadyExistsException x) {
+                    //created by the batch, or concurrently
+                }
+            }
+            return created;
+        }
+    }
+
     private void validate(final ScimUser user) throws InvalidScimResourceException {
         if (!usernamePattern.matcher(user.getUserName()).matches()) {
             throw new InvalidScimResourceException("Username must match pattern: " + usernamePattern.pattern());
@@ -401,6 +559,14 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         this.deactivateOnDelete = deactivateOnDelete;
     }
 
+    /**
+     * Set when the database compares the username column case insensitively,
+     * as mysql does by default.
+     */
+    public void setDbCaseInsensitive(boolean dbCaseInsensitive) {
+        this.dbCaseInsensitive = dbCaseInsensitive;
+    }
+
     /**
      * The encoder used to hash passwords before storing them in the database.
      *
@@ -431,6 +597,23 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser>
         return jdbcTemplate.update(HARD_DELETE_BY_PROVIDER, zoneId, origin);
     }
 
+    @Override
+    public boolean isChunkedDeletionSupported() {
+        return true;
+    }
+
+    @Override
+    public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+        return JdbcChunkedDelete.deleteChunk(jdbcTemplate, chunkSize, zoneId, USER_IDS_BY_ZONE, new Object[] {zoneId},
+                                             DELETE_GROUP_MEMBERS_BY_USER_IDS, DELETE_USER_APPROVALS_BY_USER_IDS, DELETE_USERS_BY_IDS);
+    }
+
+    @Override
+    public int deleteChunkByOrigin(String origin, String zoneId, int chunkSize) {
+        return JdbcChunkedDelete.deleteChunk(jdbcTemplate, chunkSize, zoneId, USER_IDS_BY_PROVIDER, new Object[] {zoneId, origin},
+                                             DELETE_GROUP_MEMBERS_BY_USER_IDS, DELETE_USER_APPROVALS_BY_USER_IDS, DELETE_USERS_BY_IDS);
+    }
+
     private static final class ScimUserRowMapper implements RowMapper<ScimUser> {
         @Override
         public ScimUser mapRow(ResultSet rs, int rowNum) throws SQLException {
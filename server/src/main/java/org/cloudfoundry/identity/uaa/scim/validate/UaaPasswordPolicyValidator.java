@@ -1,5 +1,10 @@
 package org.cloudfoundry.identity.uaa.scim.validate;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.cloudfoundry.identity.uaa.provider.PasswordPolicy;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.scim.exception.InvalidPasswordException;
@@ -17,8 +22,10 @@ import org.passay.SpecialCharacterRule;
 import org.passay.UppercaseCharacterRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 /**
  * ****************************************************************************
@@ -34,10 +41,23 @@ import java.util.List;
  * subcomponent's license, as noted in the LICENSE file.
  * *****************************************************************************
  */
-public class UaaPasswordPolicyValidator implements PasswordValidator {
+
+/**
+ * Validates passwords against the policy of the UAA identity provider of the
+ * current zone, or the global default policy.
+ * <p>
+ * The passay validator of a policy is built once and shared, keyed by the
+ * values of the policy, so zones with the same policy share a validator and a
+ * modified policy gets a new one.
+ */
+public class UaaPasswordPolicyValidator implements PasswordValidator, MeteredCache {
 
     private final IdentityProviderProvisioning provisioning;
     private final PasswordPolicy globalDefaultPolicy;
+    private final Cache<List<Integer>, org.passay.PasswordValidator> validators = CacheBuilder.newBuilder()
+        .maximumSize(1000)
+        .recordStats()
+        .build();
 
     public UaaPasswordPolicyValidator(PasswordPolicy globalDefaultPolicy, IdentityProviderProvisioning provisioning) {
         this.globalDefaultPolicy = globalDefaultPolicy;
@@ -76,7 +96,27 @@ public class UaaPasswordPolicyValidator implements PasswordValidator {
         }
     }
 
+    /**
+     * @return the shared, immutable validator of the policy
+     */
     public org.passay.PasswordValidator getPasswordValidator(PasswordPolicy policy) {
+        List<Integer> key = Arrays.asList(policy.getMinLength(),
+                                          policy.getMaxLength(),
+                                          policy.getRequireUpperCaseCharacter(),
+                                          policy.getRequireLowerCaseCharacter(),
+                                          policy.getRequireDigit(),
+                                          policy.getRequireSpecialCharacter());
+        try {
+            return validators.get(key, () -> buildPasswordValidator(policy));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    protected org.passay.PasswordValidator buildPasswordValidator(PasswordPolicy policy) {
         List<Rule> rules = new ArrayList<>();
         if (policy.getMinLength()>=0 && policy.getMaxLength()>0) {
             rules.add(new LengthRule(policy.getMinLength(), policy.getMaxLength()));
@@ -95,4 +135,14 @@ public class UaaPasswordPolicyValidator implements PasswordValidator {
         }
         return new org.passay.PasswordValidator(rules);
     }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return validators.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return validators.size();
+    }
 }
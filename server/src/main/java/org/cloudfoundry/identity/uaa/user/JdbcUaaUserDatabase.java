@@ -27,6 +27,7 @@ import org.springframework.util.StringUtils;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
@@ -51,12 +52,19 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
     public static final String DEFAULT_USER_BY_EMAIL_AND_ORIGIN_QUERY = "select " + USER_FIELDS + "from users "
             + "where lower(email)=? and active=? and origin=? and identity_zone_id=?";
 
+    public static final String USER_PROFILE_FIELDS = "id,username,email,givenName,familyName,created,lastModified,origin,external_id,verified,identity_zone_id,phoneNumber ";
+
+    public static final String USER_PROFILE_BY_ID_QUERY = "select " + USER_PROFILE_FIELDS + "from users "
+        + "where id = ? and active=? and identity_zone_id=?";
+
     private String AUTHORITIES_QUERY = "select g.id,g.displayName from groups g, group_membership m where g.id = m.group_id and m.member_id = ? and g.identity_zone_id=?";
 
     private JdbcTemplate jdbcTemplate;
 
     private final RowMapper<UaaUser> mapper = new UaaUserRowMapper();
 
+    private final RowMapper<UaaUser> profileMapper = new UaaUserProfileRowMapper();
+
     private Set<String> defaultAuthorities = new HashSet<String>();
 
     public void setDefaultAuthorities(Set<String> defaultAuthorities) {
@@ -86,6 +94,18 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         }
     }
 
+    /**
+     * Reads the user row only. The user has no authorities and no password.
+     */
+    @Override
+    public UaaUser retrieveUserProfileById(String id) throws UsernameNotFoundException {
+        try {
+            return jdbcTemplate.queryForObject(USER_PROFILE_BY_ID_QUERY, profileMapper, id, true, IdentityZoneHolder.get().getId());
+        } catch (EmptyResultDataAccessException e) {
+            throw new UsernameNotFoundException(id);
+        }
+    }
+
     @Override
     public UaaUser retrieveUserByEmail(String email, String origin) throws UsernameNotFoundException {
         List<UaaUser> results = jdbcTemplate.query(DEFAULT_USER_BY_EMAIL_AND_ORIGIN_QUERY, mapper, email.toLowerCase(Locale.US), true, origin, IdentityZoneHolder.get().getId());
@@ -100,6 +120,25 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
         }
     }
 
+    private static final class UaaUserProfileRowMapper implements RowMapper<UaaUser> {
+        @Override
+        public UaaUser mapRow(ResultSet rs, int rowNum) throws SQLException {
+            return new UaaUser(new UaaUserPrototype().withId(rs.getString(1))
+                                   .withUsername(rs.getString(2))
+                                   .withEmail(rs.getString(3))
+                                   .withGivenName(rs.getString(4))
+                                   .withFamilyName(rs.getString(5))
+                                   .withCreated(rs.getTimestamp(6))
+                                   .withModified(rs.getTimestamp(7))
+                                   .withAuthorities(Collections.emptyList())
+                                   .withOrigin(rs.getString(8))
+                                   .withExternalId(rs.getString(9))
+                                   .withVerified(rs.getBoolean(10))
+                                   .withZoneId(rs.getString(11))
+                                   .withPhoneNumber(rs.getString(12)));
+        }
+    }
+
     private final class UaaUserRowMapper implements RowMapper<UaaUser> {
         @Override
         public UaaUser mapRow(ResultSet rs, int rowNum) throws SQLException {
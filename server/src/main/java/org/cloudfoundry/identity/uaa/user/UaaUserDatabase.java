@@ -23,4 +23,12 @@ public interface UaaUserDatabase {
     UaaUser retrieveUserById(String id) throws UsernameNotFoundException;
 
     UaaUser retrieveUserByEmail(String email, String origin) throws UsernameNotFoundException;
+
+    /**
+     * Loads the profile of a user, for callers that do not need the user's
+     * authorities. Implementations may leave the authorities and the password out.
+     */
+    default UaaUser retrieveUserProfileById(String id) throws UsernameNotFoundException {
+        return retrieveUserById(id);
+    }
 }
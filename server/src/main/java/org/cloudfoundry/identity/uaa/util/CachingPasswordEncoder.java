@@ -14,6 +14,8 @@ package org.cloudfoundry.identity.uaa.util;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.codec.Hex;
@@ -39,7 +41,7 @@ import static org.springframework.security.crypto.util.EncodingUtils.concatenate
  * Wrapper around a slow password encoder that does a fast translation in memory only
  * This uses a hash to as a key to store a list of
  */
-public class CachingPasswordEncoder implements PasswordEncoder {
+public class CachingPasswordEncoder implements PasswordEncoder, MeteredCache {
 
     private final MessageDigest messageDigest;
     private final byte[] secret;
@@ -98,14 +100,20 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     }
 
     protected Set<String> getOrCreateHashList(String cacheKey) {
-        Set<String> result = cache.getIfPresent(cacheKey);
+        //use the map view so that only the lookup in matches() counts towards the hit ratio
+        ConcurrentMap<CharSequence, Set<String>> map = cache.asMap();
+        Set<String> result = map.get(cacheKey);
         if (result==null) {
             if (cache.size()>=getMaxKeys()) {
                 cache.invalidateAll();
             }
-            cache.put(cacheKey, Collections.synchronizedSet(new LinkedHashSet<>()));
+            result = Collections.synchronizedSet(new LinkedHashSet<>());
+            Set<String> existing = map.putIfAbsent(cacheKey, result);
+            if (existing!=null) {
+                result = existing;
+            }
         }
-        return cache.getIfPresent(cacheKey);
+        return result;
     }
 
     private boolean internalMatches(String cacheKey, CharSequence rawPassword, String encodedPassword) {
@@ -193,6 +201,16 @@ public class CachingPasswordEncoder implements PasswordEncoder {
         return cache.size();
     }
 
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
     public ConcurrentMap<CharSequence, Set<String>> asMap() {
         return cache.asMap();
     }
@@ -209,6 +227,7 @@ public class CachingPasswordEncoder implements PasswordEncoder {
     protected void buildCache() {
         cache = CacheBuilder.newBuilder()
             .expireAfterWrite(expiryInSeconds, TimeUnit.SECONDS)
+            .recordStats()
             .build();
     }
 }
@@ -0,0 +1,272 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.cache.JdbcCacheInvalidationBus;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.springframework.context.ApplicationListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores sessions in the {@code uaa_session} and {@code uaa_session_attribute}
+ * tables.
+ * <p>
+ * Sessions read from the database are cached for <code>cacheExpireSeconds</code>.
+ * Every save gives the session a new version, and a cached session is only
+ * served after a keyed select has confirmed that its version is still the
+ * stored one, so the changes made by another server are seen at once and
+ * only the join with the attributes is saved. Deleted sessions are published on the cache invalidation bus, so that other
+ * servers stop serving them as soon as they poll it.
+ * Expired sessions are removed by {@link #deleteExpiredSessions()}, which is
+ * meant to be scheduled.
+ */
+public class JdbcSessionRepository implements SessionRepository, MeteredCache, ApplicationListener<CacheInvalidationEvent> {
+
+    private static final Log logger = LogFactory.getLog(JdbcSessionRepository.class);
+
+    public static final String SESSION_FIELDS = "id,creation_time,last_accessed_time,max_inactive_interval,expires_at,version";
+    public static final String GET_SESSION_SQL = "select s.id, s.creation_time, s.last_accessed_time, s.max_inactive_interval, a.attribute_name, a.attribute_value, s.version " +
+        "from uaa_session s left outer join uaa_session_attribute a on a.session_id = s.id where s.id=?";
+    public static final String GET_VERSION_SQL = "select version from uaa_session where id=?";
+    public static final String INSERT_SESSION_SQL = "insert into uaa_session (" + SESSION_FIELDS + ") values (?,?,?,?,?,?)";
+    public static final String UPDATE_SESSION_SQL = "update uaa_session set last_accessed_time=?, max_inactive_interval=?, expires_at=?, version=? where id=?";
+    public static final String DELETE_SESSION_SQL = "delete from uaa_session where id=?";
+    public static final String INSERT_ATTRIBUTE_SQL = "insert into uaa_session_attribute (session_id,attribute_name,attribute_value) values (?,?,?)";
+    public static final String UPDATE_ATTRIBUTE_SQL = "update uaa_session_attribute set attribute_value=? where session_id=? and attribute_name=?";
+    public static final String DELETE_ATTRIBUTE_SQL = "delete from uaa_session_attribute where session_id=? and attribute_name=?";
+    public static final String DELETE_ATTRIBUTES_SQL = "delete from uaa_session_attribute where session_id=?";
+    public static final String DELETE_EXPIRED_ATTRIBUTES_SQL = "delete from uaa_session_attribute where session_id in (select id from uaa_session where expires_at < ?)";
+    public static final String DELETE_EXPIRED_SESSIONS_SQL = "delete from uaa_session where expires_at < ?";
+
+    private static final Map<String, String> UPSERT_ATTRIBUTE_SQL;
+
+    static {
+        Map<String, String> upserts = new HashMap<>();
+        upserts.put("hsqldb", "merge into uaa_session_attribute a using (values(cast(? as varchar(36)),cast(? as varchar(128)),cast(? as longvarbinary))) " +
+                              "as v(session_id,attribute_name,attribute_value) on a.session_id=v.session_id and a.attribute_name=v.attribute_name " +
+                              "when matched then update set a.attribute_value=v.attribute_value " +
+                              "when not matched then insert (session_id,attribute_name,attribute_value) values (v.session_id,v.attribute_name,v.attribute_value)");
+        upserts.put("mysql", INSERT_ATTRIBUTE_SQL + " on duplicate key update attribute_value=values(attribute_value)");
+        upserts.put("postgresql", INSERT_ATTRIBUTE_SQL + " on conflict (session_id, attribute_name) do update set attribute_value=excluded.attribute_value");
+        UPSERT_ATTRIBUTE_SQL = Collections.unmodifiableMap(upserts);
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Cache<String, VersionedSession> cache;
+    private JdbcCacheInvalidationBus invalidationBus;
+    private String upsertAttributeSql;
+
+    public JdbcSessionRepository(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, 10000, 5);
+    }
+
+    public JdbcSessionRepository(JdbcTemplate jdbcTemplate, int maxCachedSessions, int cacheExpireSeconds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(cacheExpireSeconds > 0 ? maxCachedSessions : 0)
+            .expireAfterWrite(Math.max(1, cacheExpireSeconds), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+    }
+
+    public void setInvalidationBus(JdbcCacheInvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
+
+    /**
+     * @param platform the database platform, as in the <code>platform</code> bean,
+     *                 used to pick the upsert statement for session attributes
+     */
+    public void setPlatform(String platform) {
+        this.upsertAttributeSql = platform == null ? null : UPSERT_ATTRIBUTE_SQL.get(platform);
+    }
+
+    @Override
+    public StoredSession getSession(String id) {
+        VersionedSession cached = cache.getIfPresent(id);
+        if (cached != null) {
+            List<Long> versions = jdbcTemplate.queryForList(GET_VERSION_SQL, Long.class, id);
+            if (versions.isEmpty() || versions.get(0) != cached.version) {
+                //deleted, or saved by another server
+                cache.invalidate(id);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            cached = jdbcTemplate.query(GET_SESSION_SQL, extractor, id);
+            if (cached == null) {
+                return null;
+            }
+            cache.put(id, cached);
+        }
+        return cached.session.isExpired(System.currentTimeMillis()) ? null : cached.session;
+    }
+
+    @Override
+    @Transactional
+    public void saveSession(StoredSession session, boolean created, Collection<String> changedAttributes) {
+        String id = session.getId();
+        long version = ThreadLocalRandom.current().nextLong();
+        if (created) {
+            jdbcTemplate.update(INSERT_SESSION_SQL, id, session.getCreationTime(), session.getLastAccessedTime(), session.getMaxInactiveInterval(), session.getExpiresAt(), version);
+        } else if (jdbcTemplate.update(UPDATE_SESSION_SQL, session.getLastAccessedTime(), session.getMaxInactiveInterval(), session.getExpiresAt(), version, id) == 0) {
+            //deleted or expired since it was loaded, it must not come back
+            logger.debug("Session " + id + " no longer exists and was not saved");
+            cache.invalidate(id);
+            return;
+        }
+        List<Object[]> deletes = new ArrayList<>();
+        List<Object[]> inserts = new ArrayList<>();
+        for (String name : changedAttributes) {
+            byte[] value = session.getAttributes().get(name);
+            if (value != null) {
+                inserts.add(new Object[] {id, name, value});
+            } else if (!created) {
+                deletes.add(new Object[] {id, name});
+            }
+        }
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_ATTRIBUTE_SQL, deletes);
+        }
+        if (!inserts.isEmpty()) {
+            if (created) {
+                jdbcTemplate.batchUpdate(INSERT_ATTRIBUTE_SQL, inserts);
+            } else {
+                writeAttributes(inserts);
+            }
+        }
+        cache.put(id, new VersionedSession(session, version));
+    }
+
+    /**
+     * Writes attributes that may already exist. Concurrent requests on the same
+     * session can set the same attribute, so the rows are upserted where the
+     * platform supports it, and otherwise updated, then inserted if missing.
+     */
+    private void writeAttributes(List<Object[]> attributes) {
+        if (upsertAttributeSql != null) {
+            jdbcTemplate.batchUpdate(upsertAttributeSql, attributes);
+            return;
+        }
+        List<Object[]> updates = new ArrayList<>(attributes.size());
+        for (Object[] attribute : attributes) {
+            updates.add(new Object[] {attribute[2], attribute[0], attribute[1]});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(UPDATE_ATTRIBUTE_SQL, updates);
+        for (int i = 0; i < attributes.size(); i++) {
+            if (updated[i] != 0) {
+                continue;
+            }
+            try {
+                jdbcTemplate.update(INSERT_ATTRIBUTE_SQL, attributes.get(i));
+            } catch (DuplicateKeyException e) {
+                //inserted by a concurrent request
+                jdbcTemplate.update(UPDATE_ATTRIBUTE_SQL, updates.get(i));
+            }
+        }
+    }
+
+    @Override
+    @Transactional
+    public void deleteSession(String id) {
+        cache.invalidate(id);
+        jdbcTemplate.update(DELETE_ATTRIBUTES_SQL, id);
+        jdbcTemplate.update(DELETE_SESSION_SQL, id);
+        if (invalidationBus != null) {
+            invalidationBus.publish(CacheInvalidation.SESSION, IdentityZoneHolder.get().getId(), id);
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(CacheInvalidationEvent event) {
+        if (event.isType(CacheInvalidation.SESSION)) {
+            cache.invalidate(event.getKey());
+        }
+    }
+
+    @Override
+    @Transactional
+    public int deleteExpiredSessions() {
+        long now = System.currentTimeMillis();
+        jdbcTemplate.update(DELETE_EXPIRED_ATTRIBUTES_SQL, now);
+        int deleted = jdbcTemplate.update(DELETE_EXPIRED_SESSIONS_SQL, now);
+        if (deleted > 0) {
+            logger.debug("Removed " + deleted + " expired sessions");
+        }
+        return deleted;
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    private final ResultSetExtractor<VersionedSession> extractor = rs -> {
+        String id = null;
+        long version = 0;
+        long creationTime = 0;
+        long lastAccessedTime = 0;
+        int maxInactiveInterval = 0;
+        Map<String, byte[]> attributes = new LinkedHashMap<>();
+        while (rs.next()) {
+            if (id == null) {
+                id = rs.getString(1);
+                creationTime = rs.getLong(2);
+                lastAccessedTime = rs.getLong(3);
+                maxInactiveInterval = rs.getInt(4);
+                version = rs.getLong(7);
+            }
+            String name = rs.getString(5);
+            if (name != null) {
+                attributes.put(name, rs.getBytes(6));
+            }
+        }
+        return id == null ? null : new VersionedSession(new StoredSession(id, creationTime, lastAccessedTime, maxInactiveInterval, attributes), version);
+    };
+
+    private static class VersionedSession {
+        private final StoredSession session;
+        private final long version;
+
+        private VersionedSession(StoredSession session, long version) {
+            this.session = session;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.savedrequest.DefaultSavedRequest;
+import org.springframework.util.ClassUtils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Encodes the session attributes stored by a {@link SessionRepository}.
+ * <p>
+ * Strings, {@link UaaAuthentication}s, the security contexts holding them and
+ * saved requests are written field by field, which is several times smaller
+ * than Java serialization. Like the JSON form of {@link UaaAuthentication},
+ * the binary form leaves out the credentials and the SAML message context.
+ * Any other attribute must be {@link Serializable}.
+ */
+public class SessionAttributeCodec {
+
+    private static final byte SERIALIZED = 0;
+    private static final byte STRING = 1;
+    private static final byte AUTHENTICATION = 2;
+    private static final byte SECURITY_CONTEXT = 3;
+    private static final byte SAVED_REQUEST = 4;
+
+    public byte[] encode(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString(out, (String) value);
+            } else if (value instanceof UaaAuthentication) {
+                out.writeByte(AUTHENTICATION);
+                writeAuthentication(out, (UaaAuthentication) value);
+            } else if (value.getClass() == SecurityContextImpl.class && ((SecurityContextImpl) value).getAuthentication() instanceof UaaAuthentication) {
+                out.writeByte(SECURITY_CONTEXT);
+                writeAuthentication(out, (UaaAuthentication) ((SecurityContextImpl) value).getAuthentication());
+            } else if (value.getClass() == DefaultSavedRequest.class) {
+                out.writeByte(SAVED_REQUEST);
+                writeSavedRequest(out, (DefaultSavedRequest) value);
+            } else if (value instanceof Serializable) {
+                out.writeByte(SERIALIZED);
+                ObjectOutputStream objects = new ObjectOutputStream(out);
+                objects.writeObject(value);
+                objects.flush();
+            } else {
+                throw new IllegalArgumentException("Session attribute of type " + value.getClass().getName() + " is not serializable");
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to encode session attribute", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public Object decode(byte[] value) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(value))) {
+            byte type = in.readByte();
+            switch (type) {
+                case STRING:
+                    return readString(in);
+                case AUTHENTICATION:
+                    return readAuthentication(in);
+                case SECURITY_CONTEXT:
+                    SecurityContextImpl context = new SecurityContextImpl();
+                    context.setAuthentication(readAuthentication(in));
+                    return context;
+                case SAVED_REQUEST:
+                    return readSavedRequest(in);
+                case SERIALIZED:
+                    ObjectInputStream objects = new ConfigurableObjectInputStream(in, ClassUtils.getDefaultClassLoader());
+                    return objects.readObject();
+                default:
+                    throw new IllegalArgumentException("Unknown session attribute type " + type);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unable to decode session attribute", e);
+        }
+    }
+
+    private void writeAuthentication(DataOutputStream out, UaaAuthentication authentication) throws IOException {
+        UaaPrincipal principal = authentication.getPrincipal();
+        writeString(out, principal.getId());
+        writeString(out, principal.getName());
+        writeString(out, principal.getEmail());
+        writeString(out, principal.getOrigin());
+        writeString(out, principal.getExternalId());
+        writeString(out, principal.getZoneId());
+        Collection<? extends GrantedAuthority> authorities = authentication.getAuthorities();
+        out.writeInt(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            writeString(out, authority.getAuthority());
+        }
+        Object details = authentication.getDetails();
+        out.writeBoolean(details instanceof UaaAuthenticationDetails);
+        if (details instanceof UaaAuthenticationDetails) {
+            UaaAuthenticationDetails uaaDetails = (UaaAuthenticationDetails) details;
+            out.writeBoolean(uaaDetails.isAddNew());
+            writeString(out, uaaDetails.getClientId());
+            writeString(out, uaaDetails.getOrigin());
+            writeString(out, uaaDetails.getSessionId());
+        }
+        writeStrings(out, authentication.getExternalGroups());
+        Map<String, List<String>> userAttributes = authentication.getUserAttributesAsMap();
+        out.writeInt(userAttributes.size());
+        for (Map.Entry<String, List<String>> entry : userAttributes.entrySet()) {
+            writeString(out, entry.getKey());
+            writeStrings(out, entry.getValue());
+        }
+        out.writeBoolean(authentication.isAuthenticated());
+        out.writeLong(authentication.getAuthenticatedTime());
+        out.writeLong(authentication.getExpiresAt());
+    }
+
+    private UaaAuthentication readAuthentication(DataInputStream in) throws IOException {
+        UaaPrincipal principal = new UaaPrincipal(readString(in), readString(in), readString(in), readString(in), readString(in), readString(in));
+        List<String> authorities = readStrings(in);
+        UaaAuthenticationDetails details = null;
+        if (in.readBoolean()) {
+            details = new UaaAuthenticationDetails(in.readBoolean(), readString(in), readString(in), readString(in));
+        }
+        List<String> externalGroups = readStrings(in);
+        int count = in.readInt();
+        Map<String, List<String>> userAttributes = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            userAttributes.put(readString(in), readStrings(in));
+        }
+        boolean authenticated = in.readBoolean();
+        long authenticatedTime = in.readLong();
+        long expiresAt = in.readLong();
+        return new UaaAuthentication(principal,
+                                     null,
+                                     UaaStringUtils.getAuthoritiesFromStrings(authorities),
+                                     externalGroups == null ? null : new LinkedHashSet<>(externalGroups),
+                                     userAttributes,
+                                     details,
+                                     authenticated,
+                                     authenticatedTime,
+                                     expiresAt);
+    }
+
+    private void writeSavedRequest(DataOutputStream out, DefaultSavedRequest request) throws IOException {
+        List<Cookie> cookies = request.getCookies();
+        out.writeInt(cookies.size());
+        for (Cookie cookie : cookies) {
+            writeString(out, cookie.getName());
+            writeString(out, cookie.getValue());
+            writeString(out, cookie.getComment());
+            writeString(out, cookie.getDomain());
+            out.writeInt(cookie.getMaxAge());
+            writeString(out, cookie.getPath());
+            out.writeBoolean(cookie.getSecure());
+            out.writeInt(cookie.getVersion());
+        }
+        Collection<String> headerNames = request.getHeaderNames();
+        out.writeInt(headerNames.size());
+        for (String name : headerNames) {
+            writeString(out, name);
+            writeStrings(out, request.getHeaderValues(name));
+        }
+        List<Locale> locales = request.getLocales();
+        out.writeInt(locales.size());
+        for (Locale locale : locales) {
+            writeString(out, locale.toLanguageTag());
+        }
+        Map<String, String[]> parameters = request.getParameterMap();
+        out.writeInt(parameters.size());
+        for (Map.Entry<String, String[]> entry : parameters.entrySet()) {
+            writeString(out, entry.getKey());
+            writeStrings(out, entry.getValue() == null ? null : Arrays.asList(entry.getValue()));
+        }
+        writeString(out, request.getMethod());
+        writeString(out, request.getPathInfo());
+        writeString(out, request.getQueryString());
+        writeString(out, request.getRequestURI());
+        writeString(out, request.getRequestURL());
+        writeString(out, request.getScheme());
+        writeString(out, request.getServerName());
+        out.writeInt(request.getServerPort());
+        writeString(out, request.getContextPath());
+        writeString(out, request.getServletPath());
+    }
+
+    private DefaultSavedRequest readSavedRequest(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Cookie[] cookies = new Cookie[count];
+        for (int i = 0; i < count; i++) {
+            Cookie cookie = new Cookie(readString(in), readString(in));
+            cookie.setComment(readString(in));
+            String domain = readString(in);
+            if (domain != null) {
+                cookie.setDomain(domain);
+            }
+            cookie.setMaxAge(in.readInt());
+            cookie.setPath(readString(in));
+            cookie.setSecure(in.readBoolean());
+            cookie.setVersion(in.readInt());
+            cookies[i] = cookie;
+        }
+        count = in.readInt();
+        Map<String, List<String>> headers = new LinkedHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            headers.put(readString(in), readStrings(in));
+        }
+        count = in.readInt();
+        List<Locale> locales = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            locales.add(Locale.forLanguageTag(readString(in)));
+        }
+        count = in.readInt();
+        Map<String, String[]> parameters = new LinkedHashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            List<String> values = readStrings(in);
+            parameters.put(name, values == null ? null : values.toArray(new String[values.size()]));
+        }
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("getCookies", cookies.length == 0 ? null : cookies);
+        properties.put("getHeaderNames", Collections.enumeration(headers.keySet()));
+        properties.put("getLocales", Collections.enumeration(locales));
+        properties.put("getParameterMap", parameters);
+        properties.put("getMethod", readString(in));
+        properties.put("getPathInfo", readString(in));
+        properties.put("getQueryString", readString(in));
+        properties.put("getRequestURI", readString(in));
+        String requestUrl = readString(in);
+        properties.put("getRequestURL", requestUrl == null ? null : new StringBuffer(requestUrl));
+        properties.put("getScheme", readString(in));
+        properties.put("getServerName", readString(in));
+        int serverPort = in.readInt();
+        properties.put("getContextPath", readString(in));
+        properties.put("getServletPath", readString(in));
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] {HttpServletRequest.class},
+            (proxy, method, args) -> {
+                if ("getHeaders".equals(method.getName())) {
+                    List<String> values = headers.get(args[0]);
+                    return Collections.enumeration(values == null ? Collections.<String>emptyList() : values);
+                }
+                if (!properties.containsKey(method.getName()) || method.getParameterCount() > 0) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                return properties.get(method.getName());
+            });
+        return new DefaultSavedRequest(request, r -> serverPort);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
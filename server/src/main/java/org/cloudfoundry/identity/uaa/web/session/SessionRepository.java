@@ -0,0 +1,45 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import java.util.Collection;
+
+/**
+ * Stores the HTTP sessions served by the {@link SessionRepositoryFilter}
+ * outside of the servlet container, so that they survive a restart and can
+ * be shared by several servers.
+ */
+public interface SessionRepository {
+
+    /**
+     * @return the session, or null if it does not exist or has expired
+     */
+    StoredSession getSession(String id);
+
+    /**
+     * Saves the session. Only the named attributes are written, those
+     * missing from the session are removed. A session that was loaded but
+     * has since been deleted, by another server for instance, is not saved.
+     * @param session the current state of the session
+     * @param created true if the session is new and has never been saved
+     * @param changedAttributes the names of the attributes set or removed since the session was loaded
+     */
+    void saveSession(StoredSession session, boolean created, Collection<String> changedAttributes);
+
+    void deleteSession(String id);
+
+    /**
+     * @return the number of expired sessions removed
+     */
+    int deleteExpiredSessions();
+}
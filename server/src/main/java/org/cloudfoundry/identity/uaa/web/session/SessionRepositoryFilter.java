@@ -0,0 +1,501 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.SessionCookieConfig;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionContext;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.springframework.util.StringUtils.hasText;
+
+/**
+ * Replaces the sessions of the servlet container with sessions kept in a
+ * {@link SessionRepository}, so that users stay logged in when a server is
+ * restarted and requests do not need to stick to one server.
+ * <p>
+ * A session is only read when the request asks for it. Its attributes are
+ * decoded when first read, and at the end of the request, or before a
+ * redirect or an error is sent, the attributes that were set or removed are
+ * written in one batch. An attribute that is modified without being set again
+ * is not saved. The last access time is only written every
+ * <code>accessResolutionSeconds</code>, so a session may expire that much early.
+ * <p>
+ * When disabled the container sessions are used. Otherwise, if a
+ * <code>sweepScheduler</code> is set, expired sessions are removed from the
+ * repository every <code>sweepIntervalMillis</code>.
+ */
+public class SessionRepositoryFilter extends OncePerRequestFilter {
+
+    public static final String DEFAULT_COOKIE_NAME = "JSESSIONID";
+
+    private static final Log logger = LogFactory.getLog(SessionRepositoryFilter.class);
+
+    private final SessionRepository sessionRepository;
+    private final SessionAttributeCodec codec = new SessionAttributeCodec();
+    private boolean enabled = true;
+    private int maxInactiveInterval = 1800;
+    private int accessResolutionSeconds = 60;
+    private SessionCookieConfig cookieConfig;
+    private TaskScheduler sweepScheduler;
+    private long sweepIntervalMillis = 60000;
+    private ScheduledFuture<?> sweep;
+
+    public SessionRepositoryFilter(SessionRepository sessionRepository) {
+        this.sessionRepository = sessionRepository;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMaxInactiveInterval(int maxInactiveInterval) {
+        this.maxInactiveInterval = maxInactiveInterval;
+    }
+
+    public void setAccessResolutionSeconds(int accessResolutionSeconds) {
+        this.accessResolutionSeconds = Math.max(0, accessResolutionSeconds);
+    }
+
+    public void setCookieConfig(SessionCookieConfig cookieConfig) {
+        this.cookieConfig = cookieConfig;
+    }
+
+    public void setSweepScheduler(TaskScheduler sweepScheduler) {
+        this.sweepScheduler = sweepScheduler;
+    }
+
+    public void setSweepIntervalMillis(long sweepIntervalMillis) {
+        this.sweepIntervalMillis = sweepIntervalMillis;
+    }
+
+    @Override
+    protected void initFilterBean() throws ServletException {
+        if (enabled && sweepScheduler != null && sweep == null) {
+            sweep = sweepScheduler.scheduleWithFixedDelay(sessionRepository::deleteExpiredSessions, sweepIntervalMillis);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (sweep != null) {
+            sweep.cancel(false);
+            sweep = null;
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!enabled) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        SessionRequest sessionRequest = new SessionRequest(request, response);
+        try {
+            filterChain.doFilter(sessionRequest, new SessionResponse(response, sessionRequest));
+        } catch (Throwable t) {
+            try {
+                sessionRequest.commit();
+            } catch (RuntimeException e) {
+                //do not hide the failure of the request
+                logger.warn("Unable to save the session of a failed request", e);
+            }
+            throw t;
+        }
+        sessionRequest.commit();
+    }
+
+    protected String getCookieName() {
+        return cookieConfig != null && hasText(cookieConfig.getName()) ? cookieConfig.getName() : DEFAULT_COOKIE_NAME;
+    }
+
+    private void writeCookie(HttpServletRequest request, HttpServletResponse response, String value, boolean expire) {
+        Cookie cookie = new Cookie(getCookieName(), value);
+        String path = cookieConfig != null ? cookieConfig.getPath() : null;
+        cookie.setPath(path != null ? path : hasText(request.getContextPath()) ? request.getContextPath() : "/");
+        cookie.setSecure(request.isSecure() || (cookieConfig != null && cookieConfig.isSecure()));
+        cookie.setHttpOnly(cookieConfig == null || cookieConfig.isHttpOnly());
+        if (cookieConfig != null) {
+            if (hasText(cookieConfig.getDomain())) {
+                cookie.setDomain(cookieConfig.getDomain());
+            }
+            if (hasText(cookieConfig.getComment())) {
+                cookie.setComment(cookieConfig.getComment());
+            }
+            if (cookieConfig.getMaxAge() > Integer.MIN_VALUE) {
+                cookie.setMaxAge(cookieConfig.getMaxAge());
+            }
+        }
+        if (expire) {
+            cookie.setMaxAge(0);
+        }
+        response.addCookie(cookie);
+    }
+
+    private class SessionRequest extends HttpServletRequestWrapper {
+        private final HttpServletResponse response;
+        private final String requestedSessionId;
+        private final Set<String> deletedSessionIds = new LinkedHashSet<>();
+        private boolean requestedSessionLoaded;
+        private RepositorySession session;
+
+        SessionRequest(HttpServletRequest request, HttpServletResponse response) {
+            super(request);
+            this.response = response;
+            String id = null;
+            Cookie[] cookies = request.getCookies();
+            if (cookies != null) {
+                for (Cookie cookie : cookies) {
+                    if (getCookieName().equals(cookie.getName()) && hasText(cookie.getValue())) {
+                        id = cookie.getValue();
+                        break;
+                    }
+                }
+            }
+            this.requestedSessionId = id;
+        }
+
+        @Override
+        public HttpSession getSession() {
+            return getSession(true);
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            if (session != null && !session.invalidated) {
+                return session;
+            }
+            if (!requestedSessionLoaded) {
+                requestedSessionLoaded = true;
+                StoredSession stored = requestedSessionId == null ? null : sessionRepository.getSession(requestedSessionId);
+                if (stored != null) {
+                    session = new RepositorySession(this, stored, true);
+                    return session;
+                }
+            }
+            if (!create) {
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            session = new RepositorySession(this, new StoredSession(newSessionId(), now, now, maxInactiveInterval, Collections.emptyMap()), false);
+            writeCookie(this, response, session.id, false);
+            return session;
+        }
+
+        @Override
+        public String changeSessionId() {
+            if (getSession(false) == null) {
+                throw new IllegalStateException("There is no session to change the id of");
+            }
+            if (session.stored) {
+                deletedSessionIds.add(session.id);
+            }
+            session.changeId(newSessionId());
+            writeCookie(this, response, session.id, false);
+            return session.id;
+        }
+
+        @Override
+        public String getRequestedSessionId() {
+            return requestedSessionId;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdValid() {
+            HttpSession current = getSession(false);
+            return current != null && current.getId().equals(requestedSessionId);
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromCookie() {
+            return requestedSessionId != null;
+        }
+
+        @Override
+        public boolean isRequestedSessionIdFromURL() {
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean isRequestedSessionIdFromUrl() {
+            return false;
+        }
+
+        void invalidated(RepositorySession invalidated) {
+            if (invalidated.stored) {
+                deletedSessionIds.add(invalidated.id);
+            }
+            writeCookie(this, response, "", true);
+        }
+
+        void commit() {
+            for (String id : deletedSessionIds) {
+                sessionRepository.deleteSession(id);
+            }
+            deletedSessionIds.clear();
+            if (session != null && !session.invalidated) {
+                session.save();
+            }
+        }
+    }
+
+    private class SessionResponse extends HttpServletResponseWrapper {
+        private final SessionRequest request;
+
+        SessionResponse(HttpServletResponse response, SessionRequest request) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            request.commit();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            request.commit();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            request.commit();
+            super.sendError(sc, msg);
+        }
+    }
+
+    private class RepositorySession implements HttpSession {
+        private final SessionRequest request;
+        private String id;
+        private final long creationTime;
+        private final long lastAccessedTime;
+        private long savedAccessTime;
+        private int maxInactiveInterval;
+        private final boolean created;
+        private boolean stored;
+        private boolean modified;
+        private boolean invalidated;
+        private Map<String, byte[]> encoded;
+        private final Map<String, Object> decoded = new HashMap<>();
+        private final Set<String> changed = new LinkedHashSet<>();
+
+        RepositorySession(SessionRequest request, StoredSession session, boolean stored) {
+            this.request = request;
+            this.id = session.getId();
+            this.creationTime = session.getCreationTime();
+            this.lastAccessedTime = session.getLastAccessedTime();
+            this.savedAccessTime = session.getLastAccessedTime();
+            this.maxInactiveInterval = session.getMaxInactiveInterval();
+            this.encoded = new LinkedHashMap<>(session.getAttributes());
+            this.stored = stored;
+            this.created = !stored;
+        }
+
+        void changeId(String newId) {
+            id = newId;
+            stored = false;
+        }
+
+        void save() {
+            long now = System.currentTimeMillis();
+            boolean touch = now - savedAccessTime >= accessResolutionSeconds * 1000L;
+            if (stored && changed.isEmpty() && !modified && !touch) {
+                return;
+            }
+            for (String name : changed) {
+                Object value = decoded.get(name);
+                if (value == null) {
+                    encoded.remove(name);
+                    continue;
+                }
+                try {
+                    encoded.put(name, codec.encode(value));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Session attribute " + name + " was not saved: " + e.getMessage());
+                    encoded.remove(name);
+                }
+            }
+            if (touch || !stored) {
+                savedAccessTime = now;
+            }
+            StoredSession session = new StoredSession(id, creationTime, savedAccessTime, maxInactiveInterval, encoded);
+            sessionRepository.saveSession(session, !stored, stored ? changed : encoded.keySet());
+            stored = true;
+            modified = false;
+            changed.clear();
+        }
+
+        private void checkValid() {
+            if (invalidated) {
+                throw new IllegalStateException("The session has been invalidated");
+            }
+        }
+
+        @Override
+        public long getCreationTime() {
+            checkValid();
+            return creationTime;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            checkValid();
+            return lastAccessedTime;
+        }
+
+        @Override
+        public ServletContext getServletContext() {
+            return SessionRepositoryFilter.this.getServletContext();
+        }
+
+        @Override
+        public void setMaxInactiveInterval(int interval) {
+            maxInactiveInterval = interval;
+            modified = true;
+        }
+
+        @Override
+        public int getMaxInactiveInterval() {
+            return maxInactiveInterval;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public HttpSessionContext getSessionContext() {
+            return null;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            checkValid();
+            Object value = decoded.get(name);
+            if (value == null && !changed.contains(name) && encoded.containsKey(name)) {
+                try {
+                    value = codec.decode(encoded.get(name));
+                    decoded.put(name, value);
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Session attribute " + name + " could not be read and was dropped: " + e.getMessage());
+                    removeAttribute(name);
+                }
+            }
+            return value;
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public Object getValue(String name) {
+            return getAttribute(name);
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames() {
+            checkValid();
+            Set<String> names = new LinkedHashSet<>(encoded.keySet());
+            for (String name : changed) {
+                if (decoded.get(name) == null) {
+                    names.remove(name);
+                } else {
+                    names.add(name);
+                }
+            }
+            return Collections.enumeration(names);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public String[] getValueNames() {
+            return Collections.list(getAttributeNames()).toArray(new String[0]);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            checkValid();
+            if (value == null) {
+                removeAttribute(name);
+                return;
+            }
+            decoded.put(name, value);
+            changed.add(name);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void putValue(String name, Object value) {
+            setAttribute(name, value);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            checkValid();
+            decoded.remove(name);
+            changed.add(name);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void removeValue(String name) {
+            removeAttribute(name);
+        }
+
+        @Override
+        public void invalidate() {
+            checkValid();
+            invalidated = true;
+            request.invalidated(this);
+        }
+
+        @Override
+        public boolean isNew() {
+            checkValid();
+            return created;
+        }
+    }
+
+    private static String newSessionId() {
+        return UUID.randomUUID().toString();
+    }
+}
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable copy of a session as held by a {@link SessionRepository}. The
+ * attribute values are kept encoded by the {@link SessionAttributeCodec}.
+ */
+public class StoredSession {
+
+    private final String id;
+    private final long creationTime;
+    private final long lastAccessedTime;
+    private final int maxInactiveInterval;
+    private final Map<String, byte[]> attributes;
+
+    public StoredSession(String id, long creationTime, long lastAccessedTime, int maxInactiveInterval, Map<String, byte[]> attributes) {
+        this.id = id;
+        this.creationTime = creationTime;
+        this.lastAccessedTime = lastAccessedTime;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.attributes = Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getLastAccessedTime() {
+        return lastAccessedTime;
+    }
+
+    /**
+     * @return the idle time in seconds after which the session expires, negative if it never does
+     */
+    public int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    public Map<String, byte[]> getAttributes() {
+        return attributes;
+    }
+
+    public long getExpiresAt() {
+        if (maxInactiveInterval < 0) {
+            return Long.MAX_VALUE;
+        }
+        return lastAccessedTime + maxInactiveInterval * 1000L;
+    }
+
+    public boolean isExpired(long now) {
+        return getExpiresAt() <= now;
+    }
+}
@@ -16,6 +16,9 @@ import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.client.InvalidClientDetailsException;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJobEndpoints;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJobService;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
@@ -82,6 +85,8 @@ public class IdentityZoneEndpoints implements ApplicationEventPublisherAware {
     @Autowired
     private IdentityZoneValidator validator;
 
+    private DeletionJobService deletionJobService;
+
     public IdentityZoneEndpoints(IdentityZoneProvisioning zoneDao, IdentityProviderProvisioning idpDao,
             IdentityZoneEndpointClientRegistrationService clientRegistrationService) {
         super();
@@ -95,6 +100,13 @@ public class IdentityZoneEndpoints implements ApplicationEventPublisherAware {
         this.publisher = applicationEventPublisher;
     }
 
+    /**
+     * @param deletionJobService if set, the data of deleted zones is removed in the background
+     */
+    public void setDeletionJobService(DeletionJobService deletionJobService) {
+        this.deletionJobService = deletionJobService;
+    }
+
 
     @RequestMapping(value = "{id}", method = GET)
     public IdentityZone getIdentityZone(@PathVariable String id) {
@@ -171,6 +183,8 @@ public class IdentityZoneEndpoints implements ApplicationEventPublisherAware {
 
         if (!StringUtils.hasText(body.getId())) {
             body.setId(UUID.randomUUID().toString());
+        } else if (deletionJobService!=null && deletionJobService.isZoneBeingDeleted(body.getId())) {
+            throw new ZoneAlreadyExistsException("The data of a deleted zone with id "+body.getId()+" is still being removed.");
         }
         IdentityZone previous = IdentityZoneHolder.get();
         try {
@@ -249,7 +263,14 @@ public class IdentityZoneEndpoints implements ApplicationEventPublisherAware {
             IdentityZone zone = zoneDao.retrieve(id);
             // ignore the id in the body, the id in the path is the only one that matters
             IdentityZoneHolder.set(zone);
-            if (publisher!=null && zone!=null) {
+            if (deletionJobService!=null && zone!=null) {
+                DeletionJob job = deletionJobService.deleteIdentityZone(zone, SecurityContextHolder.getContext().getAuthentication());
+                if (job==null) {
+                    return new ResponseEntity<>(zone, OK);
+                }
+                logger.debug("Zone - deleted id[" + zone.getId() + "], removing its data in job[" + job.getId() + "]");
+                return DeletionJobEndpoints.accepted(zone, job);
+            } else if (publisher!=null && zone!=null) {
                 publisher.publishEvent(new EntityDeletedEvent<>(zone, SecurityContextHolder.getContext().getAuthentication()));
                 logger.debug("Zone - deleted id[" + zone.getId() + "]");
                 return new ResponseEntity<>(zone, OK);
@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.zone;
 
+import org.cloudfoundry.identity.uaa.provider.saml.SamlKeyManagerCache;
 import org.cloudfoundry.identity.uaa.provider.saml.SamlKeyManagerFactory;
 import org.springframework.security.saml.key.KeyManager;
 
@@ -19,10 +20,16 @@ public class IdentityZoneHolder {
 
     private static IdentityZoneProvisioning provisioning;
 
+    private static SamlKeyManagerCache samlKeyManagerCache;
+
     public static void setProvisioning(IdentityZoneProvisioning provisioning) {
         IdentityZoneHolder.provisioning = provisioning;
     }
 
+    public static void setSamlKeyManagerCache(SamlKeyManagerCache samlKeyManagerCache) {
+        IdentityZoneHolder.samlKeyManagerCache = samlKeyManagerCache;
+    }
+
     private static final ThreadLocal<IdentityZoneWithKeyManager> THREADLOCAL = new InheritableThreadLocal<IdentityZoneWithKeyManager>() {
         @Override
         protected IdentityZoneWithKeyManager initialValue() {
@@ -41,9 +48,17 @@ public class IdentityZoneHolder {
     public static KeyManager getSamlSPKeyManager() {
         IdentityZoneWithKeyManager withKeyManager = THREADLOCAL.get();
         if (withKeyManager.getManager()==null) {
-            KeyManager keyManager = SamlKeyManagerFactory.getKeyManager(withKeyManager.getZone().getConfig().getSamlConfig());
-            if (keyManager==null) {
-                keyManager = SamlKeyManagerFactory.getKeyManager(getUaaZone().getConfig().getSamlConfig());
+            KeyManager keyManager;
+            if (samlKeyManagerCache!=null) {
+                keyManager = samlKeyManagerCache.getKeyManager(withKeyManager.getZone());
+                if (keyManager==null) {
+                    keyManager = samlKeyManagerCache.getKeyManager(getUaaZone());
+                }
+            } else {
+                keyManager = SamlKeyManagerFactory.getKeyManager(withKeyManager.getZone().getConfig().getSamlConfig());
+                if (keyManager==null) {
+                    keyManager = SamlKeyManagerFactory.getKeyManager(getUaaZone().getConfig().getSamlConfig());
+                }
             }
             withKeyManager.setManager(keyManager);
         }
@@ -73,6 +88,16 @@ public class IdentityZoneHolder {
         public Initializer(IdentityZoneProvisioning provisioning) {
             IdentityZoneHolder.setProvisioning(provisioning);
         }
+
+        public Initializer(IdentityZoneProvisioning provisioning, SamlKeyManagerCache samlKeyManagerCache) {
+            this(provisioning);
+            IdentityZoneHolder.setSamlKeyManagerCache(samlKeyManagerCache);
+        }
+
+        public void reset() {
+            IdentityZoneHolder.setProvisioning(null);
+            IdentityZoneHolder.setSamlKeyManagerCache(null);
+        }
     }
 
     public static class IdentityZoneWithKeyManager {
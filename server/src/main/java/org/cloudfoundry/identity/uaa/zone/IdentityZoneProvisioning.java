@@ -25,6 +25,13 @@ public interface IdentityZoneProvisioning {
     public IdentityZone retrieveBySubdomain(String subdomain);
 
     List<IdentityZone> retrieveAll();
+
+    /**
+     * @return all zones, each with a default configuration instead of its own
+     */
+    default List<IdentityZone> retrieveAllWithoutConfig() {
+        return retrieveAll();
+    }
     
     
 }
@@ -12,9 +12,14 @@
  *******************************************************************************/
 package org.cloudfoundry.identity.uaa.zone;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
+import org.cloudfoundry.identity.uaa.metrics.MeteredCache;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
@@ -22,22 +27,37 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, SystemDeletable {
+/**
+ * Stores identity zones in the <code>identity_zone</code> table.
+ * <p>
+ * Each zone's configuration is stored with an MD5 hash of its JSON in
+ * <code>config_hash</code>. The parsed JSON of recently read configurations is
+ * cached by zone id and hash, so that a configuration is only parsed again
+ * once it has changed. Every zone returned still gets its own
+ * {@link IdentityZoneConfiguration}, which callers may modify.
+ */
+public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, SystemDeletable, MeteredCache {
 
-    public static final String ID_ZONE_FIELDS = "id,version,created,lastmodified,name,subdomain,description,config";
+    public static final String ID_ZONE_SUMMARY_FIELDS = "id,version,created,lastmodified,name,subdomain,description";
 
-    public static final String ID_ZONE_UPDATE_FIELDS = "version,lastmodified,name,subdomain,description,config".replace(",","=?,")+"=?";
+    public static final String ID_ZONE_FIELDS = ID_ZONE_SUMMARY_FIELDS + ",config,config_hash";
 
-    public static final String CREATE_IDENTITY_ZONE_SQL = "insert into identity_zone(" + ID_ZONE_FIELDS + ") values (?,?,?,?,?,?,?,?)";
+    public static final String ID_ZONE_UPDATE_FIELDS = "version,lastmodified,name,subdomain,description,config,config_hash".replace(",","=?,")+"=?";
+
+    public static final String CREATE_IDENTITY_ZONE_SQL = "insert into identity_zone(" + ID_ZONE_FIELDS + ") values (?,?,?,?,?,?,?,?,?)";
 
     public static final String UPDATE_IDENTITY_ZONE_SQL = "update identity_zone set " + ID_ZONE_UPDATE_FIELDS + " where id=?";
 
@@ -45,6 +65,8 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
     public static final String IDENTITY_ZONES_QUERY = "select " + ID_ZONE_FIELDS + " from identity_zone ";
 
+    public static final String IDENTITY_ZONE_SUMMARIES_QUERY = "select " + ID_ZONE_SUMMARY_FIELDS + " from identity_zone ";
+
     public static final String IDENTITY_ZONE_BY_ID_QUERY = IDENTITY_ZONES_QUERY + "where id=?";
 
     public static final String IDENTITY_ZONE_BY_SUBDOMAIN_QUERY = "select " + ID_ZONE_FIELDS + " from identity_zone " + "where subdomain=?";
@@ -53,11 +75,30 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
     protected final JdbcTemplate jdbcTemplate;
 
-    private final RowMapper<IdentityZone> mapper = new IdentityZoneRowMapper();
+    private final Cache<List<String>, JsonNode> configs;
+
+    private final RowMapper<IdentityZone> mapper;
+
+    private final RowMapper<IdentityZone> summaryMapper;
 
     public JdbcIdentityZoneProvisioning(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, 1000, 3600);
+    }
+
+    /**
+     * @param maxCachedConfigs the number of parsed zone configurations to keep
+     * @param cacheExpireSeconds how long an unused configuration is kept, 0 disables the cache
+     */
+    public JdbcIdentityZoneProvisioning(JdbcTemplate jdbcTemplate, int maxCachedConfigs, int cacheExpireSeconds) {
         Assert.notNull(jdbcTemplate);
         this.jdbcTemplate = jdbcTemplate;
+        this.configs = CacheBuilder.newBuilder()
+            .maximumSize(cacheExpireSeconds > 0 ? maxCachedConfigs : 0)
+            .expireAfterAccess(Math.max(1, cacheExpireSeconds), TimeUnit.SECONDS)
+            .recordStats()
+            .build();
+        this.mapper = new IdentityZoneRowMapper(configs, true);
+        this.summaryMapper = new IdentityZoneRowMapper(configs, false);
     }
 
     @Override
@@ -75,6 +116,11 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
         return jdbcTemplate.query(IDENTITY_ZONES_QUERY, mapper);
     }
 
+    @Override
+    public List<IdentityZone> retrieveAllWithoutConfig() {
+        return jdbcTemplate.query(IDENTITY_ZONE_SUMMARIES_QUERY, summaryMapper);
+    }
+
     @Override
     public IdentityZone retrieveBySubdomain(String subdomain) {
         if (subdomain==null) {
@@ -86,7 +132,7 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
     @Override
     public IdentityZone create(final IdentityZone identityZone) {
-
+        final String config = identityZone.getConfig() != null ? JsonUtils.writeValueAsString(identityZone.getConfig()) : null;
         try {
             jdbcTemplate.update(CREATE_IDENTITY_ZONE_SQL, new PreparedStatementSetter() {
                 @Override
@@ -98,11 +144,8 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
                     ps.setString(5, identityZone.getName());
                     ps.setString(6, identityZone.getSubdomain().toLowerCase());
                     ps.setString(7, identityZone.getDescription());
-                    ps.setString(8,
-                                 identityZone.getConfig() != null ?
-                                     JsonUtils.writeValueAsString(identityZone.getConfig()) :
-                                     null
-                    );
+                    ps.setString(8, config);
+                    ps.setString(9, hash(config));
                 }
             });
         } catch (DuplicateKeyException e) {
@@ -114,7 +157,7 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
     @Override
     public IdentityZone update(final IdentityZone identityZone) {
-
+        final String config = identityZone.getConfig() != null ? JsonUtils.writeValueAsString(identityZone.getConfig()) : null;
         try {
             jdbcTemplate.update(UPDATE_IDENTITY_ZONE_SQL, new PreparedStatementSetter() {
                 @Override
@@ -124,12 +167,9 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
                     ps.setString(3, identityZone.getName());
                     ps.setString(4, identityZone.getSubdomain().toLowerCase());
                     ps.setString(5, identityZone.getDescription());
-                    ps.setString(6,
-                                 identityZone.getConfig() != null ?
-                                     JsonUtils.writeValueAsString(identityZone.getConfig()) :
-                                     null
-                    );
-                    ps.setString(7, identityZone.getId().trim());
+                    ps.setString(6, config);
+                    ps.setString(7, hash(config));
+                    ps.setString(8, identityZone.getId().trim());
                 }
             });
         } catch (DuplicateKeyException e) {
@@ -141,6 +181,7 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
     @Override
     public int deleteByIdentityZone(String zoneId) {
+        configs.asMap().keySet().removeIf(key -> key.get(0).equals(zoneId));
         return jdbcTemplate.update(DELETE_IDENTITY_ZONE_SQL, zoneId);
     }
 
@@ -154,7 +195,39 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
         return logger;
     }
 
+    @Override
+    public CacheStats getCacheStats() {
+        return configs.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return configs.size();
+    }
+
+    protected static String hash(String config) {
+        return config != null ? DigestUtils.md5DigestAsHex(config.getBytes(StandardCharsets.UTF_8)) : null;
+    }
+
     public static final class IdentityZoneRowMapper implements RowMapper<IdentityZone> {
+
+        private final Cache<List<String>, JsonNode> configs;
+
+        private final boolean withConfig;
+
+        public IdentityZoneRowMapper() {
+            this(null, true);
+        }
+
+        /**
+         * @param configs parsed configurations by zone id and hash, or null to always parse
+         * @param withConfig whether the config columns were selected
+         */
+        public IdentityZoneRowMapper(Cache<List<String>, JsonNode> configs, boolean withConfig) {
+            this.configs = configs;
+            this.withConfig = withConfig;
+        }
+
         @Override
         public IdentityZone mapRow(ResultSet rs, int rowNum) throws SQLException {
 
@@ -167,10 +240,14 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
             identityZone.setName(rs.getString(5));
             identityZone.setSubdomain(rs.getString(6));
             identityZone.setDescription(rs.getString(7));
+            if (!withConfig) {
+                return identityZone;
+            }
             String config = rs.getString(8);
             if (StringUtils.hasText(config)) {
                 try {
-                    identityZone.setConfig(JsonUtils.readValue(config, IdentityZoneConfiguration.class));
+                    JsonNode tree = parse(identityZone.getId(), config, rs.getString(9));
+                    identityZone.setConfig(JsonUtils.convertValue(tree, IdentityZoneConfiguration.class));
                 } catch (JsonUtils.JsonUtilException e) {
                     logger.error("Invalid zone configuration found for zone id:"+identityZone.getId(), e);
                     identityZone.setConfig(new IdentityZoneConfiguration());
@@ -180,6 +257,20 @@ public class JdbcIdentityZoneProvisioning implements IdentityZoneProvisioning, S
 
             return identityZone;
         }
+
+        private JsonNode parse(String zoneId, String config, String hash) {
+            if (configs == null || hash == null) {
+                //written before config_hash was added
+                return JsonUtils.readTree(config);
+            }
+            List<String> key = Arrays.asList(zoneId, hash);
+            JsonNode tree = configs.getIfPresent(key);
+            if (tree == null) {
+                tree = JsonUtils.readTree(config);
+                configs.put(key, tree);
+            }
+            return tree;
+        }
     }
 
 }
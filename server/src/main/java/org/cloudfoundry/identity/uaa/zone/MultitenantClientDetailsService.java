@@ -0,0 +1,54 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.zone;
+
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
+import org.springframework.security.oauth2.provider.ClientRegistrationException;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link ClientDetailsService} that can load many clients of a zone at once.
+ */
+public interface MultitenantClientDetailsService extends ClientDetailsService {
+
+    /**
+     * @param zoneId the zone of the clients
+     * @param clientIds the ids of the clients to load
+     * @return the clients by id, clients that do not exist are left out
+     */
+    Map<String, ClientDetails> loadClientsByClientIds(String zoneId, Collection<String> clientIds);
+
+    /**
+     * Loads the clients of the current zone with a single call if the service
+     * supports it, and one client at a time otherwise.
+     * @return the clients by id, clients that do not exist are left out
+     */
+    static Map<String, ClientDetails> loadClients(ClientDetailsService clientDetailsService, Collection<String> clientIds) {
+        if (clientDetailsService instanceof MultitenantClientDetailsService) {
+            return ((MultitenantClientDetailsService) clientDetailsService).loadClientsByClientIds(IdentityZoneHolder.get().getId(), clientIds);
+        }
+        Map<String, ClientDetails> clients = new LinkedHashMap<>();
+        for (String clientId : clientIds) {
+            try {
+                clients.put(clientId, clientDetailsService.loadClientByClientId(clientId));
+            } catch (ClientRegistrationException e) {
+                //left out
+            }
+        }
+        return clients;
+    }
+}
@@ -16,12 +16,14 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.audit.event.SystemDeletable;
 import org.cloudfoundry.identity.uaa.resources.ResourceMonitor;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcChunkedDelete;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.InvalidDataAccessResourceUsageException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.security.crypto.password.NoOpPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -30,7 +32,6 @@ import org.springframework.security.oauth2.common.util.DefaultJdbcListFactory;
 import org.springframework.security.oauth2.common.util.JdbcListFactory;
 import org.springframework.security.oauth2.provider.ClientAlreadyExistsException;
 import org.springframework.security.oauth2.provider.ClientDetails;
-import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.ClientRegistrationService;
 import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.security.oauth2.provider.client.BaseClientDetails;
@@ -42,8 +43,12 @@ import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,7 +56,7 @@ import java.util.Set;
 /**
  * A copy of JdbcClientDetailsService but with IdentityZone awareness
  */
-public class MultitenantJdbcClientDetailsService extends JdbcClientDetailsService implements ClientDetailsService,
+public class MultitenantJdbcClientDetailsService extends JdbcClientDetailsService implements MultitenantClientDetailsService,
     ClientRegistrationService, ResourceMonitor<ClientDetails>, SystemDeletable {
 
     private static final Log logger = LogFactory.getLog(MultitenantJdbcClientDetailsService.class);
@@ -69,6 +74,10 @@ public class MultitenantJdbcClientDetailsService extends JdbcClientDetailsServic
 
     private static final String DEFAULT_SELECT_STATEMENT = BASE_FIND_STATEMENT + " where client_id = ? and identity_zone_id = ?";
 
+    private static final String SELECT_BY_CLIENT_IDS_STATEMENT = BASE_FIND_STATEMENT + " where client_id in (:ids) and identity_zone_id = :zoneId";
+
+    private static final int QUERY_CHUNK_SIZE = 500;
+
     private static final String DEFAULT_INSERT_STATEMENT = "insert into oauth_client_details (" + CLIENT_FIELDS
             + ", client_id, identity_zone_id) values (?,?,?,?,?,?,?,?,?,?,?,?,?)";
 
@@ -83,6 +92,12 @@ public class MultitenantJdbcClientDetailsService extends JdbcClientDetailsServic
     private static final String DELETE_CLIENTS_BY_ZONE = "delete from oauth_client_details where identity_zone_id = ?";
     private static final String DELETE_CLIENT_APPROVALS_BY_ZONE = "delete from authz_approvals where client_id in (select client_id from oauth_client_details where identity_zone_id = ?)";
 
+    private static final String CLIENT_IDS_BY_ZONE = "select client_id from oauth_client_details where identity_zone_id = ?";
+
+    private static final String DELETE_CLIENT_APPROVALS_BY_CLIENT_IDS = "delete from authz_approvals where client_id in (:ids)";
+
+    private static final String DELETE_CLIENTS_BY_CLIENT_IDS = "delete from oauth_client_details where client_id in (:ids) and identity_zone_id = :zoneId";
+
     private RowMapper<ClientDetails> rowMapper = new ClientDetailsRowMapper();
 
     private String deleteClientDetailsSql = DEFAULT_DELETE_STATEMENT;
@@ -129,6 +144,21 @@ public class MultitenantJdbcClientDetailsService extends JdbcClientDetailsServic
         return details;
     }
 
+    @Override
+    public Map<String, ClientDetails> loadClientsByClientIds(String zoneId, Collection<String> clientIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(clientIds));
+        Map<String, ClientDetails> clients = new LinkedHashMap<>();
+        NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(jdbcTemplate);
+        for (int i = 0; i < ids.size(); i += QUERY_CHUNK_SIZE) {
+            MapSqlParameterSource params = new MapSqlParameterSource("ids", ids.subList(i, Math.min(i + QUERY_CHUNK_SIZE, ids.size())))
+                .addValue("zoneId", zoneId);
+            for (ClientDetails client : template.query(SELECT_BY_CLIENT_IDS_STATEMENT, params, rowMapper)) {
+                clients.put(client.getClientId(), client);
+            }
+        }
+        return clients;
+    }
+
     public void addClientDetails(ClientDetails clientDetails) throws ClientAlreadyExistsException {
         try {
             jdbcTemplate.update(insertClientDetailsSql, getFields(clientDetails));
@@ -259,6 +289,17 @@ public class MultitenantJdbcClientDetailsService extends JdbcClientDetailsServic
         return 0;
     }
 
+    @Override
+    public boolean isChunkedDeletionSupported() {
+        return true;
+    }
+
+    @Override
+    public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+        return JdbcChunkedDelete.deleteChunk(jdbcTemplate, chunkSize, zoneId, CLIENT_IDS_BY_ZONE, new Object[] {zoneId},
+                                             DELETE_CLIENT_APPROVALS_BY_CLIENT_IDS, DELETE_CLIENTS_BY_CLIENT_IDS);
+    }
+
     @Override
     public Log getLogger() {
         return logger;
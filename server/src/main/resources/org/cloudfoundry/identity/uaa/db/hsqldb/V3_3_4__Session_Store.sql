@@ -0,0 +1,29 @@
+--
+-- Cloud Foundry
+-- Copyright (c) [2016] Pivotal Software, Inc. All Rights Reserved.
+--
+-- This product is licensed to you under the Apache License, Version 2.0 (the "License").
+-- You may not use this product except in compliance with the License.
+--
+-- This product includes a number of subcomponents with
+-- separate copyright notices and license terms. Your use of these
+-- subcomponents is subject to the terms and conditions of the
+-- subcomponent's license, as noted in the LICENSE file.
+--
+
+CREATE TABLE uaa_session (
+  id VARCHAR(36) NOT NULL PRIMARY KEY,
+  creation_time BIGINT NOT NULL,
+  last_accessed_time BIGINT NOT NULL,
+  max_inactive_interval INTEGER NOT NULL,
+  expires_at BIGINT NOT NULL
+);
+
+CREATE INDEX idx_uaa_session_expires_at ON uaa_session(expires_at);
+
+CREATE TABLE uaa_session_attribute (
+  session_id VARCHAR(36) NOT NULL,
+  attribute_name VARCHAR(128) NOT NULL,
+  attribute_value LONGVARBINARY NOT NULL,
+  PRIMARY KEY (session_id, attribute_name)
+);
@@ -0,0 +1,16 @@
+--
+-- Cloud Foundry
+-- Copyright (c) [2016] Pivotal Software, Inc. All Rights Reserved.
+--
+-- This product is licensed to you under the Apache License, Version 2.0 (the "License").
+-- You may not use this product except in compliance with the License.
+--
+-- This product includes a number of subcomponents with
+-- separate copyright notices and license terms. Your use of these
+-- subcomponents is subject to the terms and conditions of the
+-- subcomponent's license, as noted in the LICENSE file.
+--
+
+ALTER TABLE deletion_job ADD COLUMN attempts INTEGER DEFAULT 0 NOT NULL;
+ALTER TABLE deletion_job ADD COLUMN retry_at BIGINT DEFAULT 0 NOT NULL;
+CREATE INDEX idx_deletion_job_zone ON deletion_job(identity_zone_id);
@@ -0,0 +1,27 @@
+--
+-- Cloud Foundry
+-- Copyright (c) [2016] Pivotal Software, Inc. All Rights Reserved.
+--
+-- This product is licensed to you under the Apache License, Version 2.0 (the "License").
+-- You may not use this product except in compliance with the License.
+--
+-- This product includes a number of subcomponents with
+-- separate copyright notices and license terms. Your use of these
+-- subcomponents is subject to the terms and conditions of the
+-- subcomponent's license, as noted in the LICENSE file.
+--
+
+CREATE TABLE invitation_job (
+  id VARCHAR(36) NOT NULL PRIMARY KEY,
+  identity_zone_id VARCHAR(36) NOT NULL,
+  client_id VARCHAR(255),
+  status VARCHAR(16) NOT NULL,
+  total_count INTEGER NOT NULL,
+  processed_count INTEGER NOT NULL,
+  result TEXT,
+  error_message VARCHAR(1024),
+  created BIGINT NOT NULL,
+  last_modified BIGINT NOT NULL
+);
+
+CREATE INDEX idx_invitation_job_status ON invitation_job(status);
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.cache;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.client.event.ClientUpdateEvent;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.scim.event.UserModifiedEvent;
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityProviderModifiedEvent;
+import org.cloudfoundry.identity.uaa.zone.event.IdentityZoneModifiedEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JdbcCacheInvalidationBusTests extends JdbcTestBase {
+
+    private JdbcCacheInvalidationBus node1;
+    private JdbcCacheInvalidationBus node2;
+    private List<CacheInvalidationEvent> node1Events = new ArrayList<>();
+    private List<CacheInvalidationEvent> node2Events = new ArrayList<>();
+    private MetricsRegistry registry = new MetricsRegistry();
+
+    @Before
+    public void createNodes() {
+        node1 = createNode("node1", node1Events);
+        node2 = createNode("node2", node2Events);
+        node2.setMetricsRegistry(registry);
+    }
+
+    @After
+    public void clearZone() {
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    public void zone_changes_are_published_locally_and_to_other_nodes() {
+        IdentityZone zone = IdentityZone.getUaa();
+        node1.onApplicationEvent(IdentityZoneModifiedEvent.identityZoneModified(zone));
+        assertEquals(1, node1Events.size());
+        assertInvalidation(node1Events.get(0), CacheInvalidation.ZONE, "uaa", "uaa");
+
+        assertEquals(0, node1.poll());
+        assertEquals(1, node2.poll());
+        assertEquals(1, node2Events.size());
+        assertInvalidation(node2Events.get(0), CacheInvalidation.ZONE, "uaa", "uaa");
+        assertEquals(1, registry.histogram(MetricsRegistry.CACHE_INVALIDATION_LATENCY, "type", CacheInvalidation.ZONE).getCount());
+    }
+
+    @Test
+    public void entries_are_only_republished_once() {
+        node1.publish(CacheInvalidation.USER, "uaa", "user-id");
+        assertEquals(1, node2.poll());
+        assertEquals(0, node2.poll());
+        assertEquals(1, node2Events.size());
+    }
+
+    @Test
+    public void identity_provider_and_deleted_entities() {
+        IdentityProvider provider = new IdentityProvider();
+        provider.setOriginKey("ldap");
+        provider.setIdentityZoneId("zone-id");
+        node1.onApplicationEvent(IdentityProviderModifiedEvent.identityProviderModified(provider));
+        node1.onApplicationEvent(new EntityDeletedEvent<>(provider, null));
+        node2.poll();
+        assertEquals(2, node2Events.size());
+        assertInvalidation(node2Events.get(0), CacheInvalidation.IDENTITY_PROVIDER, "zone-id", "ldap");
+        assertInvalidation(node2Events.get(1), CacheInvalidation.IDENTITY_PROVIDER, "zone-id", "ldap");
+    }
+
+    @Test
+    public void client_and_user_changes_use_the_current_zone() {
+        IdentityZone zone = IdentityZone.getUaa();
+        zone.setId("other-zone");
+        IdentityZoneHolder.set(zone);
+        node1.onApplicationEvent(new ClientUpdateEvent(new BaseClientDetails("client-id", null, null, null, null), new UsernamePasswordAuthenticationToken("admin", null)));
+        node1.onApplicationEvent(UserModifiedEvent.userModified("user-id", "marissa"));
+        node2.poll();
+        assertEquals(2, node2Events.size());
+        assertInvalidation(node2Events.get(0), CacheInvalidation.CLIENT, "other-zone", "client-id");
+        assertInvalidation(node2Events.get(1), CacheInvalidation.USER, "other-zone", "user-id");
+    }
+
+    @Test
+    public void old_entries_are_compacted() {
+        node1.publish(CacheInvalidation.GROUP, "uaa", "group-id");
+        jdbcTemplate.update("update cache_invalidation set created = ?", System.currentTimeMillis() - 7200 * 1000);
+        node1.publish(CacheInvalidation.GROUP, "uaa", "other-group-id");
+        assertEquals(1, node1.compact());
+        assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from cache_invalidation", Integer.class));
+    }
+
+    private JdbcCacheInvalidationBus createNode(String nodeId, List<CacheInvalidationEvent> events) {
+        JdbcCacheInvalidationBus bus = new JdbcCacheInvalidationBus(jdbcTemplate);
+        bus.setNodeId(nodeId);
+        bus.setApplicationEventPublisher(new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+                events.add((CacheInvalidationEvent) event);
+            }
+
+            @Override
+            public void publishEvent(Object event) {
+                publishEvent((ApplicationEvent) event);
+            }
+        });
+        return bus;
+    }
+
+    private static void assertInvalidation(CacheInvalidationEvent event, String type, String zoneId, String key) {
+        assertEquals(type, event.getType());
+        assertEquals(zoneId, event.getZoneId());
+        assertEquals(key, event.getKey());
+    }
+}
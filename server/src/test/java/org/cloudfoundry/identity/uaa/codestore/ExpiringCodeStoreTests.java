@@ -30,6 +30,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 @RunWith(Parameterized.class)
 public class ExpiringCodeStoreTests extends JdbcTestBase {
@@ -112,6 +113,26 @@ public class ExpiringCodeStoreTests extends JdbcTestBase {
         expiringCodeStore.generateCode(data, expiresAt, null);
     }
 
+    @Test
+    public void testGenerateCodes() throws Exception {
+        Timestamp expiresAt = new Timestamp(System.currentTimeMillis() + 60000);
+        List<ExpiringCode> codes = expiringCodeStore.generateCodes(Arrays.asList("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"), expiresAt, "intent");
+
+        Assert.assertEquals(3, codes.size());
+        Assert.assertEquals(3, codes.stream().map(ExpiringCode::getCode).distinct().count());
+        for (int i = 0; i < codes.size(); i++) {
+            ExpiringCode retrieved = expiringCodeStore.retrieveCode(codes.get(i).getCode());
+            Assert.assertEquals("{\"n\":" + (i + 1) + "}", retrieved.getData());
+            Assert.assertEquals("intent", retrieved.getIntent());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGenerateCodesWithExpiresAtInThePast() throws Exception {
+        Timestamp expiresAt = new Timestamp(System.currentTimeMillis() - 60000);
+        expiringCodeStore.generateCodes(Arrays.asList("{}", "{}"), expiresAt, null);
+    }
+
     @Test
     public void testRetrieveCode() throws Exception {
         String data = "{}";
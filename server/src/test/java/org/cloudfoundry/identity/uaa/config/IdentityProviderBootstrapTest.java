@@ -18,6 +18,7 @@ import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.impl.config.IdentityProviderBootstrap;
 import org.cloudfoundry.identity.uaa.provider.AbstractXOAuthIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderCache;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.JdbcIdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.KeystoneIdentityProviderDefinition;
@@ -58,6 +59,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -566,6 +568,23 @@ public class IdentityProviderBootstrapTest extends JdbcTestBase {
         assertTrue(internalIdp.isActive());
     }
 
+    @Test
+    public void cached_InternalIDP_Is_Not_Modified() throws Exception {
+        JdbcIdentityProviderProvisioning provisioning = new JdbcIdentityProviderProvisioning(jdbcTemplate);
+        provisioning.setCache(new IdentityProviderCache());
+        IdentityProvider cached = provisioning.retrieveByOrigin(OriginKeys.UAA, IdentityZone.getUaa().getId());
+        boolean active = cached.isActive();
+        Object config = cached.getConfig();
+
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("disableInternalAuth", String.valueOf(active));
+        new IdentityProviderBootstrap(provisioning, environment).afterPropertiesSet();
+
+        assertEquals(active, cached.isActive());
+        assertSame(config, cached.getConfig());
+        assertEquals(!active, provisioning.retrieveByOrigin(OriginKeys.UAA, IdentityZone.getUaa().getId()).isActive());
+    }
+
     @Test
     public void defaultActiveFlagOnInternalIDP() throws Exception {
         MockEnvironment environment = new MockEnvironment();
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.db;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplicaRoutingDataSourceTests {
+
+    private ReplicaRoutingDataSource routingDataSource;
+    private ReplicaRoutingAspect aspect;
+    private JdbcTemplate template;
+    private DriverManagerDataSource primary;
+    private DriverManagerDataSource replica;
+
+    @Before
+    public void setUp() {
+        primary = createDatabase("primary");
+        replica = createDatabase("replica");
+        routingDataSource = new ReplicaRoutingDataSource(primary, replica);
+        routingDataSource.setReplicaEnabled(true);
+        aspect = new ReplicaRoutingAspect(routingDataSource);
+        template = new JdbcTemplate(new LazyConnectionDataSourceProxy(routingDataSource));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+        SecurityContextHolder.clearContext();
+        new JdbcTemplate(primary).execute("drop table routing_test if exists");
+        new JdbcTemplate(replica).execute("drop table routing_test if exists");
+    }
+
+    @Test
+    public void unmarked_calls_use_the_primary() {
+        assertEquals("primary", whereAmI());
+    }
+
+    @Test
+    public void read_only_calls_use_the_replica() throws Throwable {
+        assertEquals("replica", aspect.readOnly(joinPoint()));
+        assertFalse(ReplicaRoutingDataSource.isReadOnly());
+    }
+
+    @Test
+    public void disabled_replica_is_never_used() throws Throwable {
+        routingDataSource.setReplicaEnabled(false);
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void read_only_transactions_use_the_replica() {
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(template.getDataSource());
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(true);
+        assertEquals("replica", transaction.execute(status -> whereAmI()));
+        transaction.setReadOnly(false);
+        assertEquals("primary", transaction.execute(status -> whereAmI()));
+    }
+
+    @Test
+    public void read_write_transactions_ignore_the_read_only_marker() throws Throwable {
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(template.getDataSource());
+        ProceedingJoinPoint jp = joinPoint();
+        assertEquals("primary", new TransactionTemplate(transactionManager).execute(status -> {
+            try {
+                return aspect.readOnly(jp);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }));
+    }
+
+    @Test
+    public void reads_inside_a_write_use_the_primary() throws Throwable {
+        ProceedingJoinPoint read = joinPoint();
+        ProceedingJoinPoint write = mock(ProceedingJoinPoint.class);
+        when(write.proceed()).thenAnswer(invocation -> aspect.readOnly(read));
+        assertEquals("primary", aspect.write(write));
+    }
+
+    @Test
+    public void reads_after_a_write_in_the_same_request_use_the_primary() throws Throwable {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        aspect.write(mock(ProceedingJoinPoint.class));
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void reads_after_a_write_in_the_same_session_use_the_primary() throws Throwable {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.getSession(true);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        aspect.write(mock(ProceedingJoinPoint.class));
+
+        MockHttpServletRequest next = new MockHttpServletRequest();
+        next.setSession(request.getSession());
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(next));
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        assertEquals("replica", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void reads_after_a_write_by_the_same_principal_use_the_primary() throws Throwable {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("marissa", null, Collections.emptyList()));
+        aspect.write(mock(ProceedingJoinPoint.class));
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+        SecurityContextHolder.clearContext();
+        assertEquals("replica", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void sticky_window_expires() throws Throwable {
+        routingDataSource.setStickyWindowSeconds(0);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("marissa", null, Collections.emptyList()));
+        aspect.write(mock(ProceedingJoinPoint.class));
+        assertEquals("replica", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void falls_back_to_the_primary_when_the_replica_is_down() throws Throwable {
+        DataSource broken = mock(DataSource.class);
+        when(broken.getConnection()).thenThrow(new SQLException("down"));
+        routingDataSource = new ReplicaRoutingDataSource(primary, broken);
+        routingDataSource.setReplicaEnabled(true);
+        aspect = new ReplicaRoutingAspect(routingDataSource);
+        template = new JdbcTemplate(new LazyConnectionDataSourceProxy(routingDataSource));
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void failed_reads_are_retried_on_the_primary() throws Throwable {
+        AtomicInteger attempts = new AtomicInteger();
+        Signature signature = mock(Signature.class);
+        ProceedingJoinPoint jp = mock(ProceedingJoinPoint.class);
+        when(jp.getSignature()).thenReturn(signature);
+        when(jp.proceed()).thenAnswer(invocation -> {
+            String database = whereAmI();
+            if (attempts.incrementAndGet() == 1) {
+                assertEquals("replica", database);
+                throw new DataAccessResourceFailureException("replica went away");
+            }
+            return database;
+        });
+        assertEquals("primary", aspect.readOnly(jp));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void failed_reads_that_did_not_use_the_replica_are_not_retried() throws Throwable {
+        AtomicInteger attempts = new AtomicInteger();
+        ProceedingJoinPoint jp = mock(ProceedingJoinPoint.class);
+        DataAccessResourceFailureException failure = new DataAccessResourceFailureException("primary went away");
+        when(jp.proceed()).thenAnswer(invocation -> {
+            attempts.incrementAndGet();
+            throw failure;
+        });
+        try {
+            aspect.readOnly(jp);
+            fail();
+        } catch (DataAccessResourceFailureException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(1, attempts.get());
+        assertEquals("replica", aspect.readOnly(joinPoint()));
+    }
+
+    @Test
+    public void read_write_transactions_are_not_sticky() {
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("marissa", null, Collections.emptyList()));
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(template.getDataSource());
+        assertEquals("primary", new TransactionTemplate(transactionManager).execute(status -> whereAmI()));
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        assertEquals("replica", readOnly.execute(status -> whereAmI()));
+    }
+
+    @Test
+    public void sticky_entries_are_bounded() throws Throwable {
+        routingDataSource.setMaxStickyEntries(1);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("marissa", null, Collections.emptyList()));
+        aspect.write(mock(ProceedingJoinPoint.class));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("joe", null, Collections.emptyList()));
+        aspect.write(mock(ProceedingJoinPoint.class));
+        assertEquals("primary", aspect.readOnly(joinPoint()));
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("marissa", null, Collections.emptyList()));
+        assertEquals("replica", aspect.readOnly(joinPoint()));
+    }
+
+    private ProceedingJoinPoint joinPoint() throws Throwable {
+        ProceedingJoinPoint jp = mock(ProceedingJoinPoint.class);
+        when(jp.proceed()).thenAnswer(invocation -> whereAmI());
+        return jp;
+    }
+
+    private String whereAmI() {
+        return template.queryForObject("select name from routing_test", String.class);
+    }
+
+    private static DriverManagerDataSource createDatabase(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:hsqldb:mem:routing_" + name, "sa", "");
+        dataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("create table routing_test (name varchar(32))");
+        template.update("insert into routing_test values (?)", name);
+        return dataSource;
+    }
+}
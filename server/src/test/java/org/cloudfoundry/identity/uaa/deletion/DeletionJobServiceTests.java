@@ -0,0 +1,282 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.deletion;
+
+import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob.Status;
+import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.JdbcScimUserProvisioning;
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeletionJobServiceTests extends JdbcTestBase {
+
+    private JdbcDeletionJobProvisioning provisioning;
+    private JdbcScimUserProvisioning userProvisioning;
+    private DeletionJobService service;
+    private List<ApplicationEvent> events = new ArrayList<>();
+    private Authentication authentication = new UsernamePasswordAuthenticationToken("admin", null);
+    private IdentityZone zone;
+
+    @Before
+    public void setUpService() {
+        provisioning = new JdbcDeletionJobProvisioning(jdbcTemplate);
+        userProvisioning = new JdbcScimUserProvisioning(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter));
+        service = createService(new SyncTaskExecutor());
+        zone = MultitenancyFixture.identityZone("deletion-zone", "deletion-zone");
+    }
+
+    private DeletionJobService createService(TaskExecutor executor) {
+        DeletionJobService service = new DeletionJobService(provisioning, executor);
+        service.setApplicationEventPublisher(new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+                events.add(event);
+            }
+
+            @Override
+            public void publishEvent(Object event) {
+                publishEvent((ApplicationEvent) event);
+            }
+        });
+        service.setDeletables(Collections.singletonList(userProvisioning));
+        service.setNodeId("node1");
+        service.setChunkSize(2);
+        return service;
+    }
+
+    @After
+    public void clearZone() {
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    public void zone_data_is_deleted_in_chunks() {
+        createUsers(zone, OriginKeys.UAA, 5);
+        createUsers(IdentityZone.getUaa(), OriginKeys.UAA, 1);
+        int uaaUsers = countUsers(IdentityZone.getUaa().getId(), null);
+
+        DeletionJob job = service.deleteIdentityZone(zone, authentication);
+
+        EntityDeletedEvent<?> event = (EntityDeletedEvent<?>) events.get(0);
+        assertTrue(event.isDeferred());
+        DeletionJob completed = provisioning.retrieve(job.getId());
+        assertEquals(Status.COMPLETED, completed.getStatus());
+        assertEquals(5, completed.getDeletedCount());
+        assertEquals("JdbcScimUserProvisioning", completed.getStep());
+        assertEquals(0, countUsers(zone.getId(), null));
+        assertEquals(uaaUsers, countUsers(IdentityZone.getUaa().getId(), null));
+    }
+
+    @Test
+    public void deferred_events_are_ignored_by_chunked_deletables() {
+        createUsers(zone, OriginKeys.UAA, 1);
+        userProvisioning.onApplicationEvent(new EntityDeletedEvent<>(zone, authentication, true));
+        assertEquals(1, countUsers(zone.getId(), null));
+        userProvisioning.onApplicationEvent(new EntityDeletedEvent<>(zone, authentication));
+        assertEquals(0, countUsers(zone.getId(), null));
+    }
+
+    @Test
+    public void provider_users_are_deleted() {
+        createUsers(zone, OriginKeys.UAA, 2);
+        createUsers(zone, OriginKeys.LDAP, 3);
+        IdentityProvider provider = new IdentityProvider().setOriginKey(OriginKeys.LDAP).setIdentityZoneId(zone.getId());
+        provider.setId("ldap-id");
+
+        DeletionJob job = service.deleteIdentityProvider(provider, authentication);
+
+        assertEquals(Status.COMPLETED, provisioning.retrieve(job.getId()).getStatus());
+        assertEquals(0, countUsers(zone.getId(), OriginKeys.LDAP));
+        assertEquals(2, countUsers(zone.getId(), OriginKeys.UAA));
+    }
+
+    @Test
+    public void default_zone_is_never_deleted() {
+        assertNull(service.deleteIdentityZone(IdentityZone.getUaa(), authentication));
+        assertFalse(((EntityDeletedEvent<?>) events.get(0)).isDeferred());
+
+        DeletionJob job = provisioning.create(new DeletionJob(DeletionJob.IDENTITY_ZONE, "uaa", "uaa", null));
+        int uaaUsers = countUsers(IdentityZone.getUaa().getId(), null);
+        assertTrue(service.run(job.getId()));
+        assertEquals(Status.COMPLETED, provisioning.retrieve(job.getId()).getStatus());
+        assertEquals(uaaUsers, countUsers(IdentityZone.getUaa().getId(), null));
+    }
+
+    @Test
+    public void stale_jobs_are_resumed() {
+        createUsers(zone, OriginKeys.UAA, 3);
+        DeletionJob job = provisioning.create(new DeletionJob(DeletionJob.IDENTITY_ZONE, zone.getId(), zone.getId(), null));
+        assertTrue(provisioning.claim(job.getId(), "node2", 0));
+
+        assertEquals(0, service.resume());
+        assertFalse(service.run(job.getId()));
+        assertEquals(3, countUsers(zone.getId(), null));
+
+        service.setStaleMillis(-1000);
+        assertEquals(1, service.resume());
+        DeletionJob completed = provisioning.retrieve(job.getId());
+        assertEquals(Status.COMPLETED, completed.getStatus());
+        assertEquals("node1", completed.getNodeId());
+        assertEquals(0, countUsers(zone.getId(), null));
+    }
+
+    @Test
+    public void rejected_jobs_are_resumed() {
+        createUsers(zone, OriginKeys.UAA, 3);
+        AtomicBoolean busy = new AtomicBoolean(true);
+        service = createService(task -> {
+            if (busy.get()) {
+                throw new TaskRejectedException("queue is full");
+            }
+            task.run();
+        });
+
+        DeletionJob job = service.deleteIdentityZone(zone, authentication);
+        assertEquals(Status.PENDING, provisioning.retrieve(job.getId()).getStatus());
+        assertEquals(3, countUsers(zone.getId(), null));
+
+        busy.set(false);
+        assertEquals(1, service.resume());
+        assertEquals(Status.COMPLETED, provisioning.retrieve(job.getId()).getStatus());
+        assertEquals(0, countUsers(zone.getId(), null));
+    }
+
+    @Test
+    public void failed_jobs_record_the_error() {
+        service.setDeletables(Collections.singletonList(new JdbcScimUserProvisioning(jdbcTemplate, null) {
+            @Override
+            public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+                throw new IllegalStateException("database unavailable");
+            }
+        }));
+        DeletionJob job = service.deleteIdentityZone(zone, authentication);
+        DeletionJob failed = provisioning.retrieve(job.getId());
+        assertEquals(Status.FAILED, failed.getStatus());
+        assertEquals("database unavailable", failed.getErrorMessage());
+        assertEquals(0, service.resume());
+    }
+
+    @Test
+    public void failed_jobs_are_retried_with_backoff() {
+        createUsers(zone, OriginKeys.UAA, 3);
+        List<RuntimeException> failures = new ArrayList<>(Collections.singletonList(new IllegalStateException("database unavailable")));
+        service.setDeletables(Collections.singletonList(new JdbcScimUserProvisioning(jdbcTemplate, null) {
+            @Override
+            public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+                if (!failures.isEmpty()) {
+                    throw failures.remove(0);
+                }
+                return userProvisioning.deleteChunkByIdentityZone(zoneId, chunkSize);
+            }
+        }));
+        service.setRetryMillis(60000);
+        DeletionJob job = service.deleteIdentityZone(zone, authentication);
+        DeletionJob failed = provisioning.retrieve(job.getId());
+        assertEquals(1, failed.getAttempts());
+        assertTrue(failed.getRetryAt() > failed.getLastModified() + 50000);
+        assertFalse(service.run(job.getId()));
+
+        jdbcTemplate.update("update deletion_job set retry_at=? where id=?", System.currentTimeMillis() - 1, job.getId());
+        assertEquals(1, service.resume());
+        DeletionJob completed = provisioning.retrieve(job.getId());
+        assertEquals(Status.COMPLETED, completed.getStatus());
+        assertEquals(2, completed.getAttempts());
+        assertEquals(0, countUsers(zone.getId(), null));
+    }
+
+    @Test
+    public void failed_jobs_are_not_compacted() {
+        service.setDeletables(Collections.singletonList(new JdbcScimUserProvisioning(jdbcTemplate, null) {
+            @Override
+            public int deleteChunkByIdentityZone(String zoneId, int chunkSize) {
+                throw new IllegalStateException("database unavailable");
+            }
+        }));
+        DeletionJob job = service.deleteIdentityZone(zone, authentication);
+        service.setRetentionSeconds(-1);
+        assertEquals(0, service.compact());
+        assertEquals(Status.FAILED, provisioning.retrieve(job.getId()).getStatus());
+    }
+
+    @Test
+    public void zones_and_providers_are_deleting_until_their_job_completes() {
+        DeletionJob job = provisioning.create(new DeletionJob(DeletionJob.IDENTITY_PROVIDER, "ldap-id", zone.getId(), OriginKeys.LDAP));
+        assertTrue(service.isProviderBeingDeleted(zone.getId(), OriginKeys.LDAP));
+        assertFalse(service.isProviderBeingDeleted(zone.getId(), OriginKeys.UAA));
+        assertFalse(service.isZoneBeingDeleted(zone.getId()));
+        assertTrue(service.run(job.getId()));
+        assertFalse(service.isProviderBeingDeleted(zone.getId(), OriginKeys.LDAP));
+
+        job = provisioning.create(new DeletionJob(DeletionJob.IDENTITY_ZONE, zone.getId(), zone.getId(), null));
+        assertTrue(service.isZoneBeingDeleted(zone.getId()));
+        assertTrue(service.isProviderBeingDeleted(zone.getId(), OriginKeys.UAA));
+        assertTrue(service.run(job.getId()));
+        assertFalse(service.isZoneBeingDeleted(zone.getId()));
+    }
+
+    @Test
+    public void finished_jobs_are_compacted() {
+        DeletionJob job = service.deleteIdentityZone(zone, authentication);
+        assertEquals(0, service.compact());
+        service.setRetentionSeconds(-1);
+        assertEquals(1, service.compact());
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from deletion_job where id=?", Integer.class, job.getId()));
+    }
+
+    private void createUsers(IdentityZone zone, String origin, int count) {
+        IdentityZoneHolder.set(zone);
+        try {
+            for (int i = 0; i < count; i++) {
+                ScimUser user = new ScimUser(null, origin + "-user-" + i + "@test.org", "Jo", "User");
+                user.addEmail(user.getUserName());
+                user.setOrigin(origin);
+                userProvisioning.createUser(user, "password");
+            }
+        } finally {
+            IdentityZoneHolder.clear();
+        }
+    }
+
+    private int countUsers(String zoneId, String origin) {
+        if (origin == null) {
+            return jdbcTemplate.queryForObject("select count(*) from users where identity_zone_id=?", Integer.class, zoneId);
+        }
+        return jdbcTemplate.queryForObject("select count(*) from users where identity_zone_id=? and origin=?", Integer.class, zoneId, origin);
+    }
+}
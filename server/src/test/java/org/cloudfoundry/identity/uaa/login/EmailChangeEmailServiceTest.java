@@ -27,6 +27,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCode;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCodeStore;
 import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.login.test.ThymeleafConfig;
@@ -62,7 +63,6 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 import org.thymeleaf.spring4.SpringTemplateEngine;
 
 import java.sql.Timestamp;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -120,7 +120,7 @@ public class EmailChangeEmailServiceTest {
         ScimUser user = new ScimUser("user-001", "user@example.com", "test-name", "test-name");
         user.setPrimaryEmail("user@example.com");
         when(scimUserProvisioning.retrieve(anyString())).thenReturn(user);
-        when(scimUserProvisioning.query(anyString())).thenReturn(Collections.singletonList(new ScimUser()));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("new@example.com", OriginKeys.UAA)).thenReturn(new ScimUser());
 
         emailChangeEmailService.beginEmailChange("user-001", "user@example.com", "new@example.com", null, null);
     }
@@ -271,7 +271,7 @@ public class EmailChangeEmailServiceTest {
         codeData.put("email", "new@example.com");
 
         when(scimUserProvisioning.retrieve("user-001")).thenReturn(user);
-        when(scimUserProvisioning.query(anyString())).thenReturn(Collections.singletonList(new ScimUser()));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("new@example.com", OriginKeys.UAA)).thenReturn(new ScimUser());
         String data = JsonUtils.writeValueAsString(codeData);
         when(codeStore.generateCode(eq(data), any(Timestamp.class), eq(null))).thenReturn(new ExpiringCode("the_secret_code", new Timestamp(System.currentTimeMillis()), data, null));
 
@@ -1,8 +1,11 @@
 package org.cloudfoundry.identity.uaa.login;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCodeStore;
 import org.cloudfoundry.identity.uaa.codestore.InMemoryExpiringCodeStore;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
@@ -16,6 +19,7 @@ import org.cloudfoundry.identity.uaa.provider.UaaIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.XOIDCIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.saml.LoginSamlAuthenticationToken;
 import org.cloudfoundry.identity.uaa.provider.saml.SamlIdentityProviderConfigurator;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneConfiguration;
 import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
@@ -25,6 +29,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockHttpSession;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.oauth2.provider.ClientDetailsService;
@@ -33,6 +38,7 @@ import org.springframework.security.providers.ExpiringUsernameAuthenticationToke
 import org.springframework.security.web.savedrequest.DefaultSavedRequest;
 import org.springframework.security.web.savedrequest.SavedRequest;
 import org.springframework.ui.ExtendedModelMap;
+import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpSession;
 import java.net.URL;
@@ -51,7 +57,9 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
@@ -61,6 +69,7 @@ import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -575,6 +584,42 @@ public class LoginInfoEndpointTests {
         assertEquals(2, endpoint.getOauthIdentityProviderDefinitions().size());
     }
 
+    @Test
+    public void json_is_rendered_once_per_zone_when_cached() throws Exception {
+        LoginInfoCache cache = new LoginInfoCache();
+        LoginInfoEndpoint endpoint = getEndpoint();
+        endpoint.setLoginInfoCache(cache);
+
+        ModelAndView info = endpoint.infoForJson(model, null);
+        ModelAndView login = endpoint.loginForJson(model, null);
+        assertSame(info.getView(), login.getView());
+        assertTrue(model.isEmpty());
+        verify(identityProviderProvisioning, times(1)).retrieveAll(anyBoolean(), anyString());
+
+        LoginInfoCache.Document document = (LoginInfoCache.Document) info.getView();
+        Map<String, Object> json = JsonUtils.readValue(new String(document.getContent(), "UTF-8"), new TypeReference<Map<String, Object>>() {});
+        assertEquals(OriginKeys.UAA, json.get(LoginInfoEndpoint.ZONE_NAME));
+        assertEquals("/create_account", ((Map<String, Object>) json.get(LoginInfoEndpoint.LINKS)).get("register"));
+        assertNotNull(((Map<String, Object>) json.get("prompts")).get("username"));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        document.render(null, new MockHttpServletRequest("GET", "/info"), response);
+        assertEquals(200, response.getStatus());
+        assertEquals(document.getEtag(), response.getHeader("ETag"));
+        assertEquals(new String(document.getContent(), "UTF-8"), response.getContentAsString());
+
+        MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/info");
+        conditional.addHeader("If-None-Match", document.getEtag());
+        response = new MockHttpServletResponse();
+        document.render(null, conditional, response);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentLength());
+
+        cache.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation("1", CacheInvalidation.IDENTITY_PROVIDER, IdentityZone.getUaa().getId(), OriginKeys.LDAP, "node", 0)));
+        assertNotSame(document, endpoint.infoForJson(model, null).getView());
+        verify(identityProviderProvisioning, times(2)).retrieveAll(anyBoolean(), anyString());
+    }
+
     @Test
     public void xoauthCallback_redirectsToHomeIfNoSavedRequest() throws Exception {
         HttpSession session = new MockHttpSession();
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.login;
+
+import org.cloudfoundry.identity.uaa.message.EmailService;
+import org.cloudfoundry.identity.uaa.message.MailDispatcher;
+import org.cloudfoundry.identity.uaa.message.MessageType;
+import org.cloudfoundry.identity.uaa.message.util.FakeJavaMailSender;
+import org.cloudfoundry.identity.uaa.metrics.MetricKey;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.mail.Message;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MailDispatcherTests {
+
+    private FlakyMailSender mailSender;
+    private MailDispatcher dispatcher;
+    private ThreadPoolTaskExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        mailSender = new FlakyMailSender();
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.initialize();
+        dispatcher = new MailDispatcher(mailSender, 10, executor, 1);
+        dispatcher.setInitialBackoffMillis(10);
+        dispatcher.setMaxBackoffMillis(20);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mailSender.release();
+        dispatcher.destroy();
+        executor.shutdown();
+    }
+
+    private MimeMessage message(String subject) throws Exception {
+        MimeMessage message = mailSender.createMimeMessage();
+        message.setSubject(subject);
+        message.setRecipients(Message.RecipientType.TO, "user@example.com");
+        return message;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for the mail dispatcher");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void email_service_returns_before_the_message_is_sent() throws Exception {
+        mailSender.block();
+        dispatcher.start();
+        EmailService emailService = new EmailService(mailSender, "http://login.example.com/login", "");
+        emailService.setDispatcher(dispatcher);
+
+        emailService.sendMessage("user@example.com", MessageType.CHANGE_EMAIL, "Test Message", "<html><body>hi</body></html>");
+        assertEquals(0, mailSender.getSentMessages().size());
+
+        mailSender.release();
+        await(() -> dispatcher.getSentCount() == 1);
+        assertEquals(1, mailSender.getSentMessages().size());
+        assertEquals("Test Message", mailSender.getSentMessages().get(0).getMessage().getSubject());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void queued_messages_are_sent_in_batches() throws Exception {
+        dispatcher.setBatchSize(5);
+        for (int i = 0; i < 7; i++) {
+            dispatcher.dispatch(message("message " + i));
+        }
+        dispatcher.start();
+        await(() -> dispatcher.getSentCount() == 7);
+        assertEquals(7, mailSender.getSentMessages().size());
+        assertEquals(2, mailSender.batches.size());
+        assertEquals(5, (int) mailSender.batches.get(0));
+        assertEquals(2, (int) mailSender.batches.get(1));
+    }
+
+    @Test
+    public void failed_messages_are_retried() throws Exception {
+        mailSender.failures = 2;
+        dispatcher.start();
+        dispatcher.dispatch(message("retried"));
+        await(() -> dispatcher.getSentCount() == 1);
+        assertEquals(2, dispatcher.getRetryCount());
+        assertEquals(0, dispatcher.getDeadLetterCount());
+        assertEquals(1, mailSender.getSentMessages().size());
+    }
+
+    @Test
+    public void only_the_failed_messages_of_a_batch_are_retried() throws Exception {
+        MimeMessage rejected = message("rejected");
+        mailSender.rejected = rejected;
+        dispatcher.setMaxAttempts(2);
+        dispatcher.dispatch(message("accepted"));
+        dispatcher.dispatch(rejected);
+        dispatcher.start();
+        await(() -> dispatcher.getDeadLetterCount() == 1);
+        assertEquals(1, dispatcher.getSentCount());
+        assertEquals(1, dispatcher.getRetryCount());
+        assertEquals(1, mailSender.getSentMessages().size());
+        assertEquals("accepted", mailSender.getSentMessages().get(0).getMessage().getSubject());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void messages_are_dead_lettered_after_max_attempts() throws Exception {
+        mailSender.failures = Integer.MAX_VALUE;
+        dispatcher.setMaxAttempts(3);
+        dispatcher.start();
+        dispatcher.dispatch(message("lost"));
+        await(() -> dispatcher.getDeadLetterCount() == 1);
+        assertEquals(2, dispatcher.getRetryCount());
+        assertEquals(0, dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void full_queue_rejects_messages() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(dispatcher.dispatch(message("message " + i)));
+        }
+        assertFalse(dispatcher.dispatch(message("overflow")));
+        assertEquals(1, dispatcher.getDeadLetterCount());
+        assertEquals(10, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void queued_messages_are_sent_on_shutdown() throws Exception {
+        dispatcher.start();
+        mailSender.block();
+        dispatcher.dispatch(message("first"));
+        await(() -> mailSender.sending);
+        dispatcher.dispatch(message("second"));
+        mailSender.release();
+        dispatcher.destroy();
+        assertEquals(2, mailSender.getSentMessages().size());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void messages_dispatched_after_shutdown_are_dead_lettered() throws Exception {
+        dispatcher.start();
+        dispatcher.destroy();
+        assertFalse(dispatcher.dispatch(message("late")));
+        assertEquals(1, dispatcher.getDeadLetterCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void sends_interrupted_by_shutdown_are_dead_lettered() throws Exception {
+        dispatcher.setShutdownTimeoutMillis(10);
+        mailSender.failures = 1;
+        mailSender.block();
+        dispatcher.start();
+        dispatcher.dispatch(message("interrupted"));
+        await(() -> mailSender.sending);
+        dispatcher.destroy();
+        await(() -> dispatcher.getDeadLetterCount() == 1);
+        assertEquals(0, dispatcher.getRetryCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void queue_depth_and_latency_are_metered() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        dispatcher.setMetricsRegistry(metrics);
+        dispatcher.dispatch(message("metered"));
+        assertEquals(1.0, metrics.getGauges().get(new MetricKey(MetricsRegistry.MAIL_QUEUE_DEPTH)).getValue(), 0.0);
+        dispatcher.start();
+        await(() -> metrics.histogram(MetricsRegistry.MAIL_SEND_LATENCY).getCount() == 1);
+        assertEquals(0.0, metrics.getGauges().get(new MetricKey(MetricsRegistry.MAIL_QUEUE_DEPTH)).getValue(), 0.0);
+        assertEquals(1.0, metrics.getGauges().get(new MetricKey(MetricsRegistry.MAIL_SENT)).getValue(), 0.0);
+    }
+
+    private static class FlakyMailSender extends FakeJavaMailSender {
+        private final List<Integer> batches = new ArrayList<>();
+        private volatile int failures;
+        private volatile MimeMessage rejected;
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private volatile boolean sending;
+
+        void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        @Override
+        public void send(MimeMessage[] mimeMessages) throws MailException {
+            sending = true;
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                batches.add(mimeMessages.length);
+                if (failures > 0) {
+                    failures--;
+                    throw new MailSendException("Mail server connection failed");
+                }
+                List<MimeMessage> accepted = new ArrayList<>();
+                for (MimeMessage message : mimeMessages) {
+                    if (message != rejected) {
+                        accepted.add(message);
+                    }
+                }
+                super.send(accepted.toArray(new MimeMessage[0]));
+                if (accepted.size() < mimeMessages.length) {
+                    Map<Object, Exception> failed = new LinkedHashMap<>();
+                    failed.put(rejected, new IllegalStateException("Recipient rejected"));
+                    throw new MailSendException(failed);
+                }
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.uaa.login;
 
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCode;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.codestore.ExpiringCodeStore;
 import org.cloudfoundry.identity.uaa.authentication.InvalidCodeException;
 import org.cloudfoundry.identity.uaa.account.ConflictException;
@@ -42,7 +43,6 @@ import org.springframework.security.oauth2.provider.NoSuchClientException;
 import org.springframework.security.oauth2.provider.client.BaseClientDetails;
 
 import java.sql.Timestamp;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 
@@ -53,7 +53,6 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -90,7 +89,7 @@ public class UaaResetPasswordServiceTests {
         ScimUser user = new ScimUser("user-id-001","user@example.com","firstName","lastName");
         user.setPasswordLastModified(new Date(1234));
         user.setPrimaryEmail("user@example.com");
-        when(scimUserProvisioning.query(contains("origin"))).thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user@example.com", OriginKeys.UAA)).thenReturn(user);
         Timestamp expiresAt = new Timestamp(System.currentTimeMillis());
 
         when(codeStore.generateCode(eq("{\"user_id\":\"user-id-001\",\"username\":\"user@example.com\",\"passwordModifiedTime\":1234,\"client_id\":\"example\",\"redirect_uri\":\"redirect.example.com\"}"),
@@ -113,7 +112,7 @@ public class UaaResetPasswordServiceTests {
         SecurityContextHolder.getContext().setAuthentication(authentication);
         ScimUser user = new ScimUser("user-id-001", "user@example.com", "firstName", "lastName");
         user.setPrimaryEmail("user@example.com");
-        when(scimUserProvisioning.query(contains("origin"))).thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user@example.com", OriginKeys.UAA)).thenReturn(user);
         Timestamp expiresAt = new Timestamp(System.currentTimeMillis());
         when(codeStore.generateCode(anyString(), any(Timestamp.class), eq(null))).thenReturn(new ExpiringCode("code", expiresAt, "user-id-001", null));
 
@@ -130,8 +129,8 @@ public class UaaResetPasswordServiceTests {
     public void forgotPassword_ThrowsConflictException() throws Exception {
         ScimUser user = new ScimUser("user-id-001","user@example.com","firstName","lastName");
         user.setPrimaryEmail("user@example.com");
-        when(scimUserProvisioning.query(contains("origin"))).thenReturn(Arrays.asList(new ScimUser[]{}));
-        when(scimUserProvisioning.query(eq("userName eq \"user@example.com\""))).thenReturn(Arrays.asList(new ScimUser[]{user}));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user@example.com", OriginKeys.UAA)).thenReturn(null);
+        when(scimUserProvisioning.retrieveIdByUsername("user@example.com")).thenReturn(user.getId());
         when(codeStore.generateCode(anyString(), any(Timestamp.class), eq(null))).thenReturn(new ExpiringCode("code", new Timestamp(System.currentTimeMillis()), "user-id-001", null));
         when(codeStore.retrieveCode(anyString())).thenReturn(new ExpiringCode("code", new Timestamp(System.currentTimeMillis()),"user-id-001", null));
 
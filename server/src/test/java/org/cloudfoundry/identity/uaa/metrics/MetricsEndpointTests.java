@@ -0,0 +1,112 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import com.google.common.cache.CacheStats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsEndpointTests {
+
+    private MetricsRegistry registry;
+    private MetricsEndpoint endpoint;
+
+    @Before
+    public void setUp() {
+        registry = new MetricsRegistry();
+        endpoint = new MetricsEndpoint(registry);
+    }
+
+    @Test
+    public void counters_are_shared_by_key() {
+        registry.counter("uaa_test", "zone", "uaa").increment();
+        registry.counter("uaa_test", "zone", "uaa").add(2);
+        registry.counter("uaa_test", "zone", "other").increment();
+        assertEquals(3, registry.counter("uaa_test", "zone", "uaa").getCount());
+        assertEquals(2, registry.getCounters().size());
+    }
+
+    @Test
+    public void prometheus_format() {
+        registry.counter("uaa_test", "zone", "uaa").add(5);
+        registry.gauge("uaa_gauge", () -> 0.25);
+        registry.histogram("uaa_latency", "method", "retrieve", "zone", "z\"1").recordMicros(1500);
+
+        String text = endpoint.getPrometheusMetrics();
+        assertThat(text, containsString("# TYPE uaa_test_total counter\nuaa_test_total{zone=\"uaa\"} 5\n"));
+        assertThat(text, containsString("# TYPE uaa_gauge gauge\nuaa_gauge 0.25\n"));
+        assertThat(text, containsString("# TYPE uaa_latency_seconds summary\n"));
+        assertThat(text, containsString("uaa_latency_seconds{method=\"retrieve\",zone=\"z\\\"1\",quantile=\"0.99\"} 0.0015\n"));
+        assertThat(text, containsString("uaa_latency_seconds_sum{method=\"retrieve\",zone=\"z\\\"1\"} 0.0015\n"));
+        assertThat(text, containsString("uaa_latency_seconds_count{method=\"retrieve\",zone=\"z\\\"1\"} 1\n"));
+    }
+
+    @Test
+    public void json_format() {
+        registry.histogram("uaa_latency", "zone", "uaa").recordMicros(2000);
+        Map<String, Object> json = endpoint.getJsonMetrics();
+        List<Map<String, Object>> histograms = (List<Map<String, Object>>) json.get("histograms");
+        assertEquals(1, histograms.size());
+        assertEquals("uaa_latency", histograms.get(0).get("name"));
+        assertEquals(1L, histograms.get(0).get("count"));
+        assertEquals(2.0, (Double) histograms.get(0).get("p99_ms"), 0.0001);
+    }
+
+    @Test
+    public void distributions_are_reported_without_a_unit() {
+        registry.distribution("uaa_batch_size").recordMicros(25);
+        String text = endpoint.getPrometheusMetrics();
+        assertThat(text, containsString("# TYPE uaa_batch_size summary\n"));
+        assertThat(text, containsString("uaa_batch_size{quantile=\"0.5\"} 25\n"));
+        assertThat(text, containsString("uaa_batch_size_sum 25\n"));
+
+        List<Map<String, Object>> distributions = (List<Map<String, Object>>) endpoint.getJsonMetrics().get("distributions");
+        assertEquals(25L, distributions.get(0).get("max"));
+    }
+
+    @Test
+    public void caches_publish_hit_ratio() {
+        registry.registerCache("test", new MeteredCache() {
+            @Override
+            public CacheStats getCacheStats() {
+                return new CacheStats(3, 1, 0, 0, 0, 0);
+            }
+
+            @Override
+            public long getCacheSize() {
+                return 7;
+            }
+        });
+        String text = endpoint.getPrometheusMetrics();
+        assertThat(text, containsString("uaa_cache_hit_ratio{cache=\"test\"} 0.75\n"));
+        assertThat(text, containsString("uaa_cache_size{cache=\"test\"} 7\n"));
+    }
+
+    @Test
+    public void json_only_when_explicitly_requested() {
+        assertFalse(MetricsEndpoint.isJsonRequested(null));
+        assertFalse(MetricsEndpoint.isJsonRequested("*/*"));
+        assertFalse(MetricsEndpoint.isJsonRequested("text/plain;version=0.0.4, application/json"));
+        assertTrue(MetricsEndpoint.isJsonRequested("application/json"));
+        assertTrue(MetricsEndpoint.isJsonRequested("application/json, */*"));
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetricsTimingAspectTests {
+
+    private MetricsRegistry registry;
+    private MetricsTimingAspect aspect;
+    private ProceedingJoinPoint jp;
+
+    @Before
+    public void setUp() {
+        registry = new MetricsRegistry();
+        aspect = new MetricsTimingAspect(registry, "uaa_test_latency");
+        jp = mock(ProceedingJoinPoint.class);
+        Signature signature = mock(Signature.class);
+        when(signature.getName()).thenReturn("retrieve");
+        when(jp.getSignature()).thenReturn(signature);
+        when(jp.getTarget()).thenReturn(this);
+        IdentityZone zone = IdentityZone.getUaa();
+        zone.setId("test-zone");
+        IdentityZoneHolder.set(zone);
+    }
+
+    @After
+    public void tearDown() {
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    public void records_success() throws Throwable {
+        when(jp.proceed()).thenReturn("result");
+        assertEquals("result", aspect.time(jp));
+        assertEquals(1, registry.histogram("uaa_test_latency",
+                                           "component", "MetricsTimingAspectTests",
+                                           "method", "retrieve",
+                                           "zone", "test-zone",
+                                           "outcome", "success").getCount());
+    }
+
+    @Test
+    public void records_failure() throws Throwable {
+        when(jp.proceed()).thenThrow(new IllegalStateException());
+        try {
+            aspect.time(jp);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, registry.histogram("uaa_test_latency",
+                                           "component", "MetricsTimingAspectTests",
+                                           "method", "retrieve",
+                                           "zone", "test-zone",
+                                           "outcome", "failure").getCount());
+    }
+
+    @Test
+    public void zones_beyond_the_limit_share_one_series() throws Throwable {
+        registry.setMaxZoneTags(2);
+        for (String id : new String[] {"zone-1", "zone-2", "zone-3", "zone-4", "zone-1"}) {
+            IdentityZone zone = IdentityZone.getUaa();
+            zone.setId(id);
+            IdentityZoneHolder.set(zone);
+            aspect.time(jp);
+        }
+        assertEquals(2, histogram("zone-1").getCount());
+        assertEquals(1, histogram("zone-2").getCount());
+        assertEquals(2, histogram(MetricsRegistry.OTHER_ZONE).getCount());
+        assertEquals(3, registry.getHistograms().size());
+    }
+
+    private LatencyHistogram histogram(String zone) {
+        return registry.histogram("uaa_test_latency",
+                                  "component", "MetricsTimingAspectTests",
+                                  "method", "retrieve",
+                                  "zone", zone,
+                                  "outcome", "success");
+    }
+
+    @Test
+    public void zone_tag_can_be_disabled() throws Throwable {
+        aspect.setZoneTagEnabled(false);
+        aspect.time(jp);
+        assertEquals(1, registry.histogram("uaa_test_latency",
+                                           "component", "MetricsTimingAspectTests",
+                                           "method", "retrieve",
+                                           "outcome", "success").getCount());
+    }
+}
@@ -13,13 +13,26 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.approval.ApprovalStore;
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.mock.web.MockHttpServletRequest;
@@ -88,4 +101,41 @@ public class AccessControllerTests {
 
         assertEquals("The Client Name", model.get("client_display_name"));
     }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testScopeDescriptionsAreResolvedTogether() throws Exception {
+        InMemoryClientDetailsService clientDetailsService = new InMemoryClientDetailsService();
+        clientDetailsService.setClientDetailsStore(Collections.singletonMap("client", new BaseClientDetails()));
+        controller.setClientDetailsService(clientDetailsService);
+        controller.setApprovalStore(Mockito.mock(ApprovalStore.class));
+        ScimGroupProvisioning groups = Mockito.mock(ScimGroupProvisioning.class);
+        ScimGroup described = new ScimGroup("id1", "scim.read", IdentityZone.getUaa().getId());
+        described.setDescription("Read users and groups");
+        ScimGroup undescribed = new ScimGroup("id2", "openid", IdentityZone.getUaa().getId());
+        when(groups.retrieveByDisplayNames(any(Collection.class))).thenReturn(Arrays.asList(described, undescribed));
+        ScopeDescriptionResolver resolver = new ScopeDescriptionResolver(groups);
+        controller.setScopeDescriptionResolver(resolver);
+
+        Authentication auth = UaaAuthenticationTestFactory.getAuthentication("foo@bar.com", "Foo Bar", "foo@bar.com");
+        for (int i = 0; i < 2; i++) {
+            ModelMap model = new ModelMap();
+            model.put("authorizationRequest", new AuthorizationRequest("client", new HashSet<>(Arrays.asList("scim.read", "openid", "cloud_controller.read", "uaa.user"))));
+            controller.confirm(model, new MockHttpServletRequest(), auth, new SimpleSessionStatus());
+
+            List<Map<String, String>> scopes = (List<Map<String, String>>) model.get("scopes");
+            assertEquals(3, scopes.size());
+            assertEquals("scope.openid", scopes.get(0).get("code"));
+            assertEquals("openid", scopes.get(0).get("text"));
+            assertEquals("scope.cloud_controller.read", scopes.get(1).get("code"));
+            assertEquals("cloud_controller.read", scopes.get(1).get("text"));
+            assertEquals("scope.scim.read", scopes.get(2).get("code"));
+            assertEquals("Read users and groups", scopes.get(2).get("text"));
+        }
+        verify(groups, times(1)).retrieveByDisplayNames(any(Collection.class));
+
+        resolver.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation(null, CacheInvalidation.GROUP, IdentityZone.getUaa().getId(), "id1", null, 0)));
+        assertEquals("Read users and groups", resolver.getDescriptions(Arrays.asList("scim.read")).get("scim.read"));
+        verify(groups, times(2)).retrieveByDisplayNames(any(Collection.class));
+    }
 }
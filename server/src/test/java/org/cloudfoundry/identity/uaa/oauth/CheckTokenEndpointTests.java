@@ -17,6 +17,7 @@ import org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus;
 import org.cloudfoundry.identity.uaa.approval.ApprovalStore;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
 import org.cloudfoundry.identity.uaa.oauth.approval.InMemoryApprovalStore;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.oauth.token.Claims;
@@ -42,6 +43,8 @@ import org.mockito.stubbing.Answer;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.security.oauth2.common.exceptions.InvalidRequestException;
 import org.springframework.security.oauth2.common.exceptions.InvalidScopeException;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.AuthorizationRequest;
@@ -59,14 +62,20 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(Parameterized.class)
@@ -848,4 +857,95 @@ public class CheckTokenEndpointTests {
         assertNull(result.getUserId());
     }
 
+    @Test
+    public void testBatchReturnsResultsInRequestOrder() {
+        accessToken = tokenServices.createAccessToken(authentication);
+        CheckTokenEndpoint.BatchCheckTokenRequest request = new CheckTokenEndpoint.BatchCheckTokenRequest();
+        request.setTokens(Arrays.asList(accessToken.getValue(), "this-is-not-a-jwt-and-not-a-revocable-token-id", accessToken.getValue()));
+
+        List<Map<String, Object>> results = endpoint.checkTokens(request);
+        assertEquals(3, results.size());
+        assertEquals(true, results.get(0).get("valid"));
+        assertEquals(userId, ((Claims) results.get(0).get("claims")).getUserId());
+        assertEquals(false, results.get(1).get("valid"));
+        assertEquals("invalid_token", results.get(1).get("error"));
+        assertEquals(true, results.get(2).get("valid"));
+    }
+
+    @Test
+    public void testBatchSharesUserLookups() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+        endpoint.setBatchExecutor(executor);
+        MetricsRegistry registry = new MetricsRegistry();
+        endpoint.setMetricsRegistry(registry);
+        try {
+            List<String> tokens = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                tokens.add(tokenServices.createAccessToken(authentication).getValue());
+            }
+            reset(userDatabase);
+            when(userDatabase.retrieveUserById(userId)).thenReturn(user);
+            CheckTokenEndpoint.BatchCheckTokenRequest request = new CheckTokenEndpoint.BatchCheckTokenRequest();
+            request.setTokens(tokens);
+            request.setScopes(Collections.singletonList("read"));
+
+            for (Map<String, Object> result : endpoint.checkTokens(request)) {
+                assertEquals(result.toString(), true, result.get("valid"));
+            }
+            verify(userDatabase, times(1)).retrieveUserById(userId);
+            assertEquals(1, registry.histogram(MetricsRegistry.CHECK_TOKEN_BATCH_LATENCY, "zone", "uaa").getCount());
+            assertEquals(10, registry.distribution(MetricsRegistry.CHECK_TOKEN_BATCH_SIZE, "zone", "uaa").snapshot().getMax());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchTasksOnTheCallerThreadRestoreItsContext() throws Exception {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        //occupy the only thread, so that every batch task runs on the caller thread
+        executor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        endpoint.setBatchExecutor(executor);
+        accessToken = tokenServices.createAccessToken(authentication);
+        IdentityZone callerZone = IdentityZone.getUaa();
+        TokenLookupScope callerScope = new TokenLookupScope();
+        IdentityZoneHolder.set(callerZone);
+        callerScope.bind();
+        try {
+            CheckTokenEndpoint.BatchCheckTokenRequest request = new CheckTokenEndpoint.BatchCheckTokenRequest();
+            request.setTokens(Arrays.asList(accessToken.getValue(), accessToken.getValue()));
+            List<Map<String, Object>> results = endpoint.checkTokens(request);
+            assertEquals(true, results.get(0).get("valid"));
+            assertEquals(true, results.get(1).get("valid"));
+            assertSame(callerZone, IdentityZoneHolder.get());
+            assertSame(callerScope, TokenLookupScope.current());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            TokenLookupScope.unbind();
+            IdentityZoneHolder.clear();
+        }
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testBatchSizeIsLimited() {
+        endpoint.setMaxBatchSize(1);
+        CheckTokenEndpoint.BatchCheckTokenRequest request = new CheckTokenEndpoint.BatchCheckTokenRequest();
+        request.setTokens(Arrays.asList("a", "b"));
+        endpoint.checkTokens(request);
+    }
 }
@@ -15,10 +15,17 @@ package org.cloudfoundry.identity.uaa.oauth;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cloudfoundry.identity.uaa.oauth.token.ClaimConstants;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
@@ -28,6 +35,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
@@ -46,6 +54,10 @@ public class RemoteTokenServicesTests {
 
     private HttpStatus status = HttpStatus.OK;
 
+    private AtomicInteger calls = new AtomicInteger();
+
+    private CountDownLatch release = new CountDownLatch(0);
+
     public RemoteTokenServicesTests() {
         services.setClientId("client");
         services.setClientSecret("secret");
@@ -59,7 +71,13 @@ public class RemoteTokenServicesTests {
             @Override
             public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
                             Class<T> responseType, Object... uriVariables) throws RestClientException {
-                return new ResponseEntity<T>((T) body, headers, status);
+                calls.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ResponseEntity<T>((T) new HashMap<>(body), headers, status);
             }
         });
     }
@@ -114,4 +132,82 @@ public class RemoteTokenServicesTests {
         assertEquals(JsonUtils.writeValueAsString(additionalAuthorizationAttributesMap), result.getOAuth2Request()
                         .getRequestParameters().get(ClaimConstants.ADDITIONAL_AZ_ATTR));
     }
+
+    @Test
+    public void testResponsesAreNotCachedByDefault() throws Exception {
+        services.loadAuthentication("FOO");
+        services.loadAuthentication("FOO");
+        assertEquals(2, calls.get());
+        assertEquals(0, services.getCacheSize());
+    }
+
+    @Test
+    public void testResponsesAreCachedByToken() throws Exception {
+        services.setCacheMaxTtlSeconds(60);
+        body.put(ClaimConstants.EXP, System.currentTimeMillis() / 1000 + 600);
+        OAuth2Authentication first = services.loadAuthentication("FOO");
+        OAuth2Authentication second = services.loadAuthentication("FOO");
+        assertEquals("olds", second.getUserAuthentication().getName());
+        assertEquals(first.getOAuth2Request().getClientId(), second.getOAuth2Request().getClientId());
+        assertEquals(1, calls.get());
+
+        services.loadAuthentication("BAR");
+        assertEquals(2, calls.get());
+        assertEquals(2, services.getCacheSize());
+        assertEquals(1, services.getCacheStats().hitCount());
+        assertEquals(2, services.getCacheStats().missCount());
+    }
+
+    @Test
+    public void testCachedResponsesRespectTokenExpiry() throws Exception {
+        services.setCacheMaxTtlSeconds(60);
+        body.put(ClaimConstants.EXP, System.currentTimeMillis() / 1000);
+        services.loadAuthentication("FOO");
+        services.loadAuthentication("FOO");
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testInvalidTokensAreNegativelyCached() throws Exception {
+        services.setCacheMaxTtlSeconds(60);
+        body.clear();
+        body.put("error", "invalid_token");
+        status = HttpStatus.BAD_REQUEST;
+        for (int i = 0; i < 2; i++) {
+            try {
+                services.loadAuthentication("FOO");
+                fail("Expected invalid token");
+            } catch (InvalidTokenException expected) {
+            }
+        }
+        assertEquals(1, calls.get());
+
+        services.setNegativeCacheTtlSeconds(0);
+        services.setCacheMaxTtlSeconds(60);
+        for (int i = 0; i < 2; i++) {
+            try {
+                services.loadAuthentication("FOO");
+                fail("Expected invalid token");
+            } catch (InvalidTokenException expected) {
+            }
+        }
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testConcurrentLookupsShareOneRequest() throws Exception {
+        services.setCacheMaxTtlSeconds(60);
+        release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<OAuth2Authentication> first = executor.submit(() -> services.loadAuthentication("FOO"));
+            Future<OAuth2Authentication> second = executor.submit(() -> services.loadAuthentication("FOO"));
+            Thread.sleep(200);
+            release.countDown();
+            assertEquals(first.get(10, TimeUnit.SECONDS).getName(), second.get(10, TimeUnit.SECONDS).getName());
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 }
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.oauth;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TokenLookupScopeFilterTests {
+
+    @After
+    public void unbind() {
+        TokenLookupScope.unbind();
+    }
+
+    @Test
+    public void lookups_are_shared_during_the_request() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        new TokenLookupScopeFilter().doFilter(new MockHttpServletRequest("POST", "/oauth/token"), new MockHttpServletResponse(), (request, response) -> {
+            assertNotNull(TokenLookupScope.current());
+            ClientDetails first = TokenLookupScope.client("app", id -> { loads.incrementAndGet(); return new BaseClientDetails(id, null, null, null, null); });
+            ClientDetails second = TokenLookupScope.client("app", id -> { loads.incrementAndGet(); return new BaseClientDetails(id, null, null, null, null); });
+            assertSame(first, second);
+        });
+        assertEquals(1, loads.get());
+        assertNull(TokenLookupScope.current());
+    }
+
+    @Test
+    public void lookups_are_not_shared_between_requests() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            new TokenLookupScopeFilter().doFilter(new MockHttpServletRequest("POST", "/oauth/token"), new MockHttpServletResponse(), (request, response) ->
+                TokenLookupScope.client("app", id -> { loads.incrementAndGet(); return new BaseClientDetails(id, null, null, null, null); })
+            );
+        }
+        assertEquals(2, loads.get());
+    }
+}
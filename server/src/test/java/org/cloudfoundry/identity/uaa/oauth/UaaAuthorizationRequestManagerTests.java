@@ -52,6 +52,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class UaaAuthorizationRequestManagerTests {
@@ -83,6 +85,7 @@ public class UaaAuthorizationRequestManagerTests {
     @After
     public void clearZoneContext() {
         IdentityZoneHolder.clear();
+        TokenLookupScope.unbind();
     }
 
     @Test
@@ -270,6 +273,37 @@ public class UaaAuthorizationRequestManagerTests {
         }
     }
 
+    @Test
+    public void testClientUserAndProviderAreLoadedOncePerRequest() {
+        SecurityContextAccessor securityContextAccessor = new StubSecurityContextAccessor() {
+            @Override
+            public boolean isUser() {
+                return true;
+            }
+
+            @Override
+            public String getUserId() {
+                return user.getId();
+            }
+        };
+        factory.setSecurityContextAccessor(securityContextAccessor);
+        when(providerProvisioning.retrieveByOrigin(anyString(), anyString())).thenReturn(MultitenancyFixture.identityProvider(OriginKeys.UAA, IdentityZone.getUaa().getId()));
+        client.addAdditionalInformation(ClientConstants.ALLOWED_PROVIDERS, Arrays.asList(OriginKeys.UAA));
+        client.setScope(StringUtils.commaDelimitedListToSet("foo.bar,spam.baz"));
+        client.setResourceIds(StringUtils.commaDelimitedListToSet("none"));
+        new TokenLookupScope().bind();
+
+        factory.createAuthorizationRequest(parameters);
+        AuthorizationRequest request = factory.createAuthorizationRequest(parameters);
+        factory.getUserScopes();
+
+        assertEquals(StringUtils.commaDelimitedListToSet("foo,spam"), new TreeSet<>(request.getResourceIds()));
+        assertEquals(StringUtils.commaDelimitedListToSet("none"), client.getResourceIds());
+        verify(clientDetailsService, times(1)).loadClientByClientId("foo");
+        verify(uaaUserDatabase, times(1)).retrieveUserById(user.getId());
+        verify(providerProvisioning, times(1)).retrieveByOrigin(anyString(), anyString());
+    }
+
     @Test
     public void testResourecIdsExtracted() {
         client.setAuthorities(AuthorityUtils.commaSeparatedStringToAuthorityList("foo.bar,spam.baz"));
@@ -14,12 +14,14 @@
 
 package org.cloudfoundry.identity.uaa.oauth;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.oauth.UaaTokenStore;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.util.UaaStringUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.junit.Before;
@@ -165,6 +167,40 @@ public class UaaTokenStoreTests extends JdbcTestBase {
         assertNotNull(code);
     }
 
+    @Test
+    public void authorization_codes_use_the_compact_format() throws Exception {
+        for (OAuth2Authentication original : Arrays.asList(clientAuthentication, usernamePasswordAuthentication, uaaAuthentication)) {
+            byte[] data = store.serializeOauth2Authentication(original);
+            Map<String, Object> map = JsonUtils.readValue(data, new TypeReference<Map<String, Object>>() {});
+            assertEquals(UaaTokenStore.COMPACT_FORMAT_VERSION, map.get(UaaTokenStore.FORMAT_VERSION));
+            for (Object value : map.values()) {
+                assertFalse("nested JSON string in " + map, value instanceof String && ((String) value).startsWith("{"));
+            }
+
+            OAuth2Authentication authentication = store.deserializeOauth2Authentication(data);
+            assertEquals(original.getOAuth2Request().getClientId(), authentication.getOAuth2Request().getClientId());
+            assertEquals(original.getOAuth2Request().getRequestParameters(), authentication.getOAuth2Request().getRequestParameters());
+            assertEquals(original.getOAuth2Request().getScope(), authentication.getOAuth2Request().getScope());
+            assertEquals(original.getOAuth2Request().getResourceIds(), authentication.getOAuth2Request().getResourceIds());
+            assertEquals(original.getOAuth2Request().getResponseTypes(), authentication.getOAuth2Request().getResponseTypes());
+            assertEquals(original.getOAuth2Request().getRedirectUri(), authentication.getOAuth2Request().getRedirectUri());
+            assertEquals(original.getOAuth2Request().isApproved(), authentication.getOAuth2Request().isApproved());
+            assertEquals(original.getOAuth2Request().getAuthorities(), authentication.getOAuth2Request().getAuthorities());
+            if (original.isClientOnly()) {
+                assertTrue(authentication.isClientOnly());
+            } else {
+                assertEquals(principal, authentication.getUserAuthentication().getPrincipal());
+                assertEquals(new HashSet<>(original.getUserAuthentication().getAuthorities()), new HashSet<>(authentication.getUserAuthentication().getAuthorities()));
+            }
+        }
+    }
+
+    @Test
+    public void compact_format_is_smaller_than_the_legacy_json_format() throws Exception {
+        byte[] compact = store.serializeOauth2Authentication(usernamePasswordAuthentication);
+        assertTrue(compact.length + " vs " + UAA_AUTHENTICATION_DATA_OLD_STYLE.length, compact.length < UAA_AUTHENTICATION_DATA_OLD_STYLE.length);
+    }
+
     @Test
     public void deserialize_from_old_format() throws Exception {
         OAuth2Authentication authentication = store.deserializeOauth2Authentication(UAA_AUTHENTICATION_DATA_OLD_STYLE);
@@ -224,6 +260,8 @@ public class UaaTokenStoreTests extends JdbcTestBase {
             fail();
         } catch (InvalidGrantException e) {
         }
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(count-1));
+        store.performExpirationClean();
         assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
 
     }
@@ -241,12 +279,14 @@ public class UaaTokenStoreTests extends JdbcTestBase {
             store.consumeAuthorizationCode("non-existent");
             fail();
         } catch (InvalidGrantException e) {}
+        store.performExpirationClean();
         assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(count));
         jdbcTemplate.update("UPDATE oauth_code SET created = ?", new Timestamp(System.currentTimeMillis() - (4 * oneday)));
         try {
             store.consumeAuthorizationCode("non-existent");
             fail();
         } catch (InvalidGrantException e) {}
+        store.performExpirationClean();
         assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(0));
     }
 
@@ -303,6 +343,7 @@ public class UaaTokenStoreTests extends JdbcTestBase {
 
             assertThat(template.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(count));
             try { store.consumeAuthorizationCode(lastCode); } catch (Exception ignore) {}
+            store.performExpirationClean();
             assertThat(template.queryForObject("SELECT count(*) FROM oauth_code", Integer.class), is(count-1));
         } finally {
             con.close();
@@ -32,6 +32,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import org.cloudfoundry.identity.uaa.approval.Approval;
 import org.cloudfoundry.identity.uaa.approval.ApprovalsAdminEndpoints;
 import org.cloudfoundry.identity.uaa.approval.JdbcApprovalStore;
+import org.cloudfoundry.identity.uaa.audit.event.ApprovalsUpdatedEvent;
 import org.cloudfoundry.identity.uaa.oauth.client.ClientConstants;
 import org.cloudfoundry.identity.uaa.error.UaaException;
 import org.cloudfoundry.identity.uaa.approval.Approval.ApprovalStatus;
@@ -39,6 +40,7 @@ import org.cloudfoundry.identity.uaa.resources.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.resources.jdbc.SimpleSearchQueryConverter;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
 import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.cloudfoundry.identity.uaa.test.TestApplicationEventPublisher;
 import org.cloudfoundry.identity.uaa.test.TestUtils;
 import org.cloudfoundry.identity.uaa.test.UaaTestAccounts;
 import org.cloudfoundry.identity.uaa.user.MockUaaUserDatabase;
@@ -63,6 +65,8 @@ public class ApprovalsAdminEndpointsTests extends JdbcTestBase {
 
     private ApprovalsAdminEndpoints endpoints;
 
+    private TestApplicationEventPublisher<ApprovalsUpdatedEvent> eventPublisher;
+
     @Before
     public void initApprovalsAdminEndpointsTests() {
         testAccounts = UaaTestAccounts.standard(null);
@@ -74,6 +78,9 @@ public class ApprovalsAdminEndpointsTests extends JdbcTestBase {
 
         dao = new JdbcApprovalStore(jdbcTemplate, new JdbcPagingListFactory(jdbcTemplate, limitSqlAdapter),
                         new SimpleSearchQueryConverter());
+        dao.setPlatform(webApplicationContext.getBean("platform", String.class));
+        eventPublisher = TestApplicationEventPublisher.forEventClass(ApprovalsUpdatedEvent.class);
+        dao.setApplicationEventPublisher(eventPublisher);
         endpoints = new ApprovalsAdminEndpoints();
         endpoints.setApprovalStore(dao);
         endpoints.setUaaUserDatabase(userDao);
@@ -237,6 +244,75 @@ public class ApprovalsAdminEndpointsTests extends JdbcTestBase {
             .setStatus(APPROVED)));
     }
 
+    @Test
+    public void canUpdateApprovalsWithoutUpsert() {
+        dao.setPlatform(null);
+        canUpdateApprovals();
+    }
+
+    @Test
+    public void updatingClientApprovalsLeavesOtherClientsAlone() {
+        addApproval(marissa.getId(), "c1", "uaa.user", 6000, APPROVED);
+        addApproval(marissa.getId(), "c1", "openid", 6000, APPROVED);
+        addApproval(marissa.getId(), "c2", "openid", 6000, APPROVED);
+
+        List<Approval> response = endpoints.updateClientApprovals("c1", new Approval[] {new Approval()
+            .setClientId("c1")
+            .setScope("openid")
+            .setExpiresAt(Approval.timeFromNow(2000))
+            .setStatus(DENIED)});
+        assertEquals(1, response.size());
+        assertEquals("openid", response.get(0).getScope());
+        assertEquals(DENIED, response.get(0).getStatus());
+        assertEquals(marissa.getId(), response.get(0).getUserId());
+        assertEquals(1, dao.getApprovals(marissa.getId(), "c2").size());
+
+        assertEquals(1, eventPublisher.getEventCount());
+        ApprovalsUpdatedEvent event = eventPublisher.getLatestEvent();
+        assertEquals(marissa.getId(), event.getUserId());
+        assertEquals("c1", event.getClientId());
+        assertEquals(1, event.getRevoked().size());
+        assertEquals("uaa.user", event.getRevoked().get(0).getScope());
+        assertEquals("{\"clientId\":\"c1\",\"approvals\":[{\"clientId\":\"c1\",\"scope\":\"openid\",\"status\":\"DENIED\"}]," +
+                         "\"revoked\":[{\"clientId\":\"c1\",\"scope\":\"uaa.user\"}]}", event.getAuditEvent().getData());
+    }
+
+    @Test
+    public void updatingClientApprovalsCanUpdateApprovalsOfOtherClients() {
+        addApproval(marissa.getId(), "c2", "openid", 6000, APPROVED);
+
+        endpoints.updateClientApprovals("c1", new Approval[] {new Approval()
+            .setClientId("c2")
+            .setScope("openid")
+            .setExpiresAt(Approval.timeFromNow(2000))
+            .setStatus(DENIED)});
+        List<Approval> approvals = dao.getApprovals(marissa.getId(), "c2");
+        assertEquals(1, approvals.size());
+        assertEquals(DENIED, approvals.get(0).getStatus());
+    }
+
+    @Test
+    public void updatingClientApprovalsCanUpdateApprovalsOfOtherClientsWithoutUpsert() {
+        dao.setPlatform(null);
+        updatingClientApprovalsCanUpdateApprovalsOfOtherClients();
+    }
+
+    @Test
+    public void updatingApprovalsCanExpireRevokedApprovals() {
+        dao.setHandleRevocationsAsExpiry(true);
+        addApproval(marissa.getId(), "c1", "uaa.user", 6000, APPROVED);
+
+        List<Approval> response = endpoints.updateApprovals(new Approval[] {new Approval()
+            .setClientId("c1")
+            .setScope("openid")
+            .setExpiresAt(Approval.timeFromNow(2000))
+            .setStatus(APPROVED)});
+        assertEquals(2, response.size());
+        for (Approval approval : response) {
+            assertEquals("openid".equals(approval.getScope()), approval.isCurrentlyActive());
+        }
+    }
+
     public void attemptingToCreateDuplicateApprovalsExtendsValidity() {
         addApproval(marissa.getId(), "c1", "uaa.user", 6000, APPROVED);
         addApproval(marissa.getId(), "c1", "uaa.admin", 12000, DENIED);
@@ -214,6 +214,17 @@ public class JdbcRevocableTokenProvisioningTest extends JdbcTestBase {
         } catch (EmptyResultDataAccessException x) {}
     }
 
+    @Test
+    public void testDeleteChunkByIdentityZone() throws Exception {
+        IdentityZone zone = MultitenancyFixture.identityZone("test-zone","test-zone");
+        IdentityZoneHolder.set(zone);
+        insertToken();
+        IdentityZoneHolder.clear();
+        assertEquals(1, dao.deleteChunkByIdentityZone(zone.getId(), 10));
+        assertEquals(0, dao.deleteChunkByIdentityZone(zone.getId(), 10));
+        assertEquals(0, (int)jdbcTemplate.queryForObject("select count(1) from revocable_tokens where identity_zone_id=?", Integer.class, zone.getId()));
+    }
+
     @Test
     public void testDeleteByOrigin() throws Exception {
         //no op - doesn't affect tokens
@@ -13,20 +13,29 @@
 package org.cloudfoundry.identity.uaa.openid;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.util.Collections;
 
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.account.UserInfoEndpoint;
 import org.cloudfoundry.identity.uaa.account.UserInfoResponse;
 import org.cloudfoundry.identity.uaa.user.InMemoryUaaUserDatabase;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserTestFactory;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.context.request.ServletWebRequest;
 
 /**
  * @author Dave Syer
@@ -47,7 +56,7 @@ public class UserInfoEndpointTests {
         UaaUser user = userDatabase.retrieveUserByName("olds", OriginKeys.UAA);
         UaaAuthentication authentication = UaaAuthenticationTestFactory.getAuthentication(user.getId(), "olds",
                         "olds@vmware.com");
-        UserInfoResponse map = endpoint.loginInfo(new OAuth2Authentication(null, authentication));
+        UserInfoResponse map = endpoint.loginInfo(new OAuth2Authentication(null, authentication), null);
         assertEquals("olds", map.getUsername());
         assertEquals("Dale Olds", map.getFullName());
         assertEquals("olds@vmware.com", map.getEmail());
@@ -57,7 +66,35 @@ public class UserInfoEndpointTests {
     public void testMissingUser() {
         UaaAuthentication authentication = UaaAuthenticationTestFactory.getAuthentication("nonexist-id", "Dale",
                         "olds@vmware.com");
-        UserInfoResponse map = endpoint.loginInfo(new OAuth2Authentication(null, authentication));
+        UserInfoResponse map = endpoint.loginInfo(new OAuth2Authentication(null, authentication), null);
     }
 
+    @Test
+    public void responsesAreCachedUntilTheUserIsModified() {
+        UaaUser user = userDatabase.retrieveUserByName("olds", OriginKeys.UAA);
+        OAuth2Authentication authentication = new OAuth2Authentication(null, UaaAuthenticationTestFactory.getAuthentication(user.getId(), "olds", "olds@vmware.com"));
+        UserInfoResponse first = endpoint.loginInfo(authentication, null);
+        assertSame(first, endpoint.loginInfo(authentication, null));
+        assertEquals(1, endpoint.getCacheSize());
+
+        endpoint.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation("1", CacheInvalidation.USER, IdentityZone.getUaa().getId(), user.getId(), "node", System.currentTimeMillis())));
+        assertEquals(0, endpoint.getCacheSize());
+        assertEquals("olds", endpoint.loginInfo(authentication, null).getUsername());
+    }
+
+    @Test
+    public void unchangedResponsesAreNotSentAgain() {
+        UaaUser user = userDatabase.retrieveUserByName("olds", OriginKeys.UAA);
+        OAuth2Authentication authentication = new OAuth2Authentication(null, UaaAuthenticationTestFactory.getAuthentication(user.getId(), "olds", "olds@vmware.com"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertNotNull(endpoint.loginInfo(authentication, new ServletWebRequest(new MockHttpServletRequest("GET", "/userinfo"), response)));
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/userinfo");
+        request.addHeader("If-None-Match", etag);
+        response = new MockHttpServletResponse();
+        assertNull(endpoint.loginInfo(authentication, new ServletWebRequest(request, response)));
+        assertEquals(304, response.getStatus());
+    }
 }
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
+import org.cloudfoundry.identity.uaa.zone.SamlConfig;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.security.saml.key.KeyManager;
+
+import java.security.Security;
+
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlTestUtils.PROVIDER_CERTIFICATE;
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlTestUtils.PROVIDER_PRIVATE_KEY;
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlTestUtils.PROVIDER_PRIVATE_KEY_PASSWORD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SamlKeyManagerCacheTests {
+
+    private SamlKeyManagerCache cache;
+    private IdentityZone zone;
+
+    @BeforeClass
+    public static void addProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Before
+    public void setUp() {
+        cache = new SamlKeyManagerCache();
+        zone = MultitenancyFixture.identityZone("zone-id", "zone");
+        zone.getConfig().setSamlConfig(samlConfig(PROVIDER_CERTIFICATE));
+    }
+
+    @Test
+    public void key_manager_is_reused() {
+        KeyManager keyManager = cache.getKeyManager(zone);
+        assertSame(keyManager, cache.getKeyManager(zone));
+        assertEquals("service-provider-cert-zone-id", keyManager.getDefaultCredentialName());
+        assertEquals(1, cache.getCacheStats().hitCount());
+    }
+
+    @Test
+    public void zones_do_not_share_key_managers() {
+        IdentityZone other = MultitenancyFixture.identityZone("other-id", "other");
+        other.getConfig().setSamlConfig(samlConfig(PROVIDER_CERTIFICATE));
+        assertNotSame(cache.getKeyManager(zone), cache.getKeyManager(other));
+        assertEquals(2, cache.getCacheSize());
+    }
+
+    @Test
+    public void config_change_rebuilds_key_manager() {
+        KeyManager keyManager = cache.getKeyManager(zone);
+        zone.getConfig().setSamlConfig(samlConfig(PROVIDER_CERTIFICATE + "\n"));
+        assertNotSame(keyManager, cache.getKeyManager(zone));
+    }
+
+    @Test
+    public void zone_invalidation_drops_key_manager() {
+        KeyManager keyManager = cache.getKeyManager(zone);
+        cache.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation(null, CacheInvalidation.ZONE, zone.getId(), zone.getId(), "node", 0)));
+        assertEquals(0, cache.getCacheSize());
+        assertNotSame(keyManager, cache.getKeyManager(zone));
+    }
+
+    @Test
+    public void zone_without_key_has_no_key_manager() {
+        zone.getConfig().setSamlConfig(new SamlConfig());
+        assertNull(cache.getKeyManager(zone));
+    }
+
+    private SamlConfig samlConfig(String certificate) {
+        SamlConfig config = new SamlConfig();
+        config.setPrivateKey(PROVIDER_PRIVATE_KEY);
+        config.setPrivateKeyPassword(PROVIDER_PRIVATE_KEY_PASSWORD);
+        config.setCertificate(certificate);
+        return config;
+    }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.provider.saml;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
+import org.cloudfoundry.identity.uaa.zone.IdentityZoneHolder;
+import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.Security;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlTestUtils.PROVIDER_CERTIFICATE;
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlTestUtils.PROVIDER_PRIVATE_KEY;
+import static org.cloudfoundry.identity.uaa.provider.saml.idp.SamlTestUtils.PROVIDER_PRIVATE_KEY_PASSWORD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class SamlMetadataCacheTests {
+
+    private SamlMetadataCache cache;
+    private IdentityZone zone;
+    private AtomicInteger generated;
+    private SamlMetadataCache.Generator generator;
+
+    @BeforeClass
+    public static void addProvider() {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Before
+    public void setUp() {
+        cache = new SamlMetadataCache();
+        zone = MultitenancyFixture.identityZone("zone-id", "zone");
+        zone.getConfig().getSamlConfig().setPrivateKey(PROVIDER_PRIVATE_KEY);
+        zone.getConfig().getSamlConfig().setPrivateKeyPassword(PROVIDER_PRIVATE_KEY_PASSWORD);
+        zone.getConfig().getSamlConfig().setCertificate(PROVIDER_CERTIFICATE);
+        IdentityZoneHolder.setSamlKeyManagerCache(new SamlKeyManagerCache());
+        IdentityZoneHolder.set(zone);
+        generated = new AtomicInteger();
+        generator = () -> "<metadata generation=\"" + generated.incrementAndGet() + "\"/>";
+    }
+
+    @After
+    public void tearDown() {
+        IdentityZoneHolder.setSamlKeyManagerCache(null);
+        IdentityZoneHolder.clear();
+    }
+
+    @Test
+    public void document_is_generated_once() throws Exception {
+        SamlMetadataCache.Document document = cache.getDocument("/saml/metadata", "entity", generator);
+        IdentityZoneHolder.set(zone);
+        assertSame(document, cache.getDocument("/saml/metadata", "entity", generator));
+        assertEquals(1, generated.get());
+        assertEquals("\"" + SamlMetadataCache.sha256(document.getContent()) + "\"", document.getEtag());
+    }
+
+    @Test
+    public void documents_are_kept_per_name() throws Exception {
+        cache.getDocument("/saml/metadata", "entity", generator);
+        cache.getDocument("/saml/idp/metadata", "entity", generator);
+        assertEquals(2, generated.get());
+        assertEquals(2, cache.getCacheSize());
+    }
+
+    @Test
+    public void saml_config_change_regenerates_document() throws Exception {
+        SamlMetadataCache.Document document = cache.getDocument("/saml/metadata", "entity", generator);
+        zone.getConfig().getSamlConfig().setWantAssertionSigned(!zone.getConfig().getSamlConfig().isWantAssertionSigned());
+        IdentityZoneHolder.set(zone);
+        assertNotEquals(document.getEtag(), cache.getDocument("/saml/metadata", "entity", generator).getEtag());
+        assertEquals(2, generated.get());
+    }
+
+    @Test
+    public void zone_invalidation_drops_documents() throws Exception {
+        cache.getDocument("/saml/metadata", "entity", generator);
+        cache.getDocument("/saml/idp/metadata", "entity", generator);
+        cache.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation(null, CacheInvalidation.ZONE, zone.getId(), zone.getId(), "node", 0)));
+        assertEquals(0, cache.getCacheSize());
+    }
+}
@@ -42,7 +42,7 @@ public class ZoneAwareIdpMetadataManagerTest {
         configurator.addSamlServiceProvider(mockSamlServiceProvider());
         when(providerDao.retrieveAll(false, IdentityZone.getUaa().getId()))
                 .thenReturn(Arrays.asList(new SamlServiceProvider[] { mockSamlServiceProvider() }));
-        when(zoneDao.retrieveAll()).thenReturn(Arrays.asList(new IdentityZone[] { IdentityZone.getUaa() }));
+        when(zoneDao.retrieveAllWithoutConfig()).thenReturn(Arrays.asList(new IdentityZone[] { IdentityZone.getUaa() }));
         this.metadataManager.refreshAllProviders();
 
         assertEquals(1, configurator.getSamlServiceProvidersForZone(IdentityZoneHolder.get()).size());
@@ -64,7 +64,7 @@ public class ZoneAwareIdpMetadataManagerTest {
         configurator.addSamlServiceProvider(mockSamlServiceProvider("non-persisted-saml-sp"));
         when(providerDao.retrieveAll(false, IdentityZone.getUaa().getId()))
                 .thenReturn(Arrays.asList(new SamlServiceProvider[] { mockSamlServiceProvider() }));
-        when(zoneDao.retrieveAll()).thenReturn(Arrays.asList(new IdentityZone[] { IdentityZone.getUaa() }));
+        when(zoneDao.retrieveAllWithoutConfig()).thenReturn(Arrays.asList(new IdentityZone[] { IdentityZone.getUaa() }));
         this.metadataManager.refreshAllProviders();
 
         assertEquals(1, configurator.getSamlServiceProvidersForZone(IdentityZoneHolder.get()).size());
@@ -85,7 +85,7 @@ public class ZoneAwareIdpMetadataManagerTest {
         configurator.addSamlServiceProvider(mockSamlServiceProvider());
         when(providerDao.retrieveAll(false, IdentityZone.getUaa().getId()))
                 .thenReturn(Arrays.asList(new SamlServiceProvider[] { mockSamlServiceProvider().setActive(false) }));
-        when(zoneDao.retrieveAll()).thenReturn(Arrays.asList(new IdentityZone[] { IdentityZone.getUaa() }));
+        when(zoneDao.retrieveAllWithoutConfig()).thenReturn(Arrays.asList(new IdentityZone[] { IdentityZone.getUaa() }));
         this.metadataManager.refreshAllProviders();
 
         assertEquals(0, configurator.getSamlServiceProvidersForZone(IdentityZoneHolder.get()).size());
@@ -40,7 +40,6 @@ import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilde
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.sql.Timestamp;
-import java.util.Arrays;
 import java.util.Date;
 
 import static org.hamcrest.Matchers.containsString;
@@ -96,8 +95,8 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
         ScimUser user = new ScimUser("id001", email, null, null);
         user.setPasswordLastModified(yesterday);
 
-        when(scimUserProvisioning.query("userName eq \"" + email + "\" and origin eq \"" + OriginKeys.UAA + "\""))
-                .thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin(email, OriginKeys.UAA))
+                .thenReturn(user);
 
         PasswordChange change = new PasswordChange("id001", email, yesterday, clientId, redirectUri);
         when(expiringCodeStore.generateCode(anyString(), any(Timestamp.class), eq(null)))
@@ -122,8 +121,8 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
         ScimUser user = new ScimUser("id001", email, null, null);
         user.setPasswordLastModified(yesterday);
 
-        when(scimUserProvisioning.query("userName eq \"" + email + "\" and origin eq \"" + OriginKeys.UAA + "\""))
-                .thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin(email, OriginKeys.UAA))
+                .thenReturn(user);
 
         PasswordChange change = new PasswordChange("id001", email, yesterday, null, null);
         when(expiringCodeStore.generateCode(anyString(), any(Timestamp.class), eq(null)))
@@ -146,8 +145,8 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
         user.setMeta(new ScimMeta(yesterday, yesterday, 0));
         user.addEmail("user@example.com");
         user.setPasswordLastModified(yesterday);
-        when(scimUserProvisioning.query("userName eq \"user@example.com\" and origin eq \"" + OriginKeys.UAA + "\""))
-                .thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user@example.com", OriginKeys.UAA))
+                .thenReturn(user);
 
         MockHttpServletRequestBuilder post = post("/password_resets")
                 .contentType(APPLICATION_JSON)
@@ -162,8 +161,8 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
 
     @Test
     public void testCreatingAPasswordResetWhenTheUserDoesNotExist() throws Exception {
-        when(scimUserProvisioning.query("userName eq \"user@example.com\" and origin eq \"" + OriginKeys.UAA + "\""))
-                .thenReturn(Arrays.<ScimUser>asList());
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user@example.com", OriginKeys.UAA))
+                .thenReturn(null);
 
         MockHttpServletRequestBuilder post = post("/password_resets")
                 .contentType(APPLICATION_JSON)
@@ -176,15 +175,15 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
 
     @Test
     public void testCreatingAPasswordResetWhenTheUserHasNonUaaOrigin() throws Exception {
-        when(scimUserProvisioning.query("userName eq \"user@example.com\" and origin eq \"" + OriginKeys.UAA + "\""))
-            .thenReturn(Arrays.<ScimUser>asList());
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user@example.com", OriginKeys.UAA))
+            .thenReturn(null);
 
         ScimUser user = new ScimUser("id001", "user@example.com", null, null);
         user.setMeta(new ScimMeta(new Date(System.currentTimeMillis()-(1000*60*60*24)), new Date(System.currentTimeMillis()-(1000*60*60*24)), 0));
         user.addEmail("user@example.com");
         user.setOrigin(OriginKeys.LDAP);
-        when(scimUserProvisioning.query("userName eq \"user@example.com\""))
-            .thenReturn(Arrays.<ScimUser>asList(user));
+        when(scimUserProvisioning.retrieveIdByUsername("user@example.com"))
+            .thenReturn(user.getId());
 
         MockHttpServletRequestBuilder post = post("/password_resets")
             .contentType(APPLICATION_JSON)
@@ -202,8 +201,8 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
         user.setMeta(new ScimMeta(yesterday, yesterday, 0));
         user.setPasswordLastModified(yesterday);
         user.addEmail("user\"'@example.com");
-        when(scimUserProvisioning.query("userName eq \"user\\\"'@example.com\" and origin eq \"" + OriginKeys.UAA + "\""))
-            .thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user\"'@example.com", OriginKeys.UAA))
+            .thenReturn(user);
 
         PasswordChange change = new PasswordChange("id001", "user\"'@example.com", yesterday, null, null);
         when(expiringCodeStore.generateCode(eq(JsonUtils.writeValueAsString(change)), any(Timestamp.class), eq(null)))
@@ -219,11 +218,11 @@ public class PasswordResetEndpointTest extends TestClassNullifier {
             .andExpect(content().string(containsString("\"code\":\"secret_code\"")))
             .andExpect(content().string(containsString("\"user_id\":\"id001\"")));
 
-        when(scimUserProvisioning.query("userName eq \"user\\\"'@example.com\" and origin eq \"" + OriginKeys.UAA + "\""))
-            .thenReturn(Arrays.<ScimUser>asList());
+        when(scimUserProvisioning.retrieveByUsernameAndOrigin("user\"'@example.com", OriginKeys.UAA))
+            .thenReturn(null);
         user.setOrigin(OriginKeys.LDAP);
-        when(scimUserProvisioning.query("userName eq \"user\\\"'@example.com\""))
-            .thenReturn(Arrays.asList(user));
+        when(scimUserProvisioning.retrieveIdByUsername("user\"'@example.com"))
+            .thenReturn(user.getId());
 
         post = post("/password_resets")
             .contentType(APPLICATION_JSON)
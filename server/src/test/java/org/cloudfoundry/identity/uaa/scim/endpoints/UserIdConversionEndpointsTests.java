@@ -13,10 +13,15 @@
 
 package org.cloudfoundry.identity.uaa.scim.endpoints;
 
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.resources.SearchResults;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimException;
 import org.cloudfoundry.identity.uaa.security.SecurityContextAccessor;
+import org.cloudfoundry.identity.uaa.zone.IdentityZone;
 import org.cloudfoundry.identity.uaa.zone.MultitenancyFixture;
 import org.junit.Before;
 import org.junit.Rule;
@@ -25,12 +30,19 @@ import org.junit.rules.ExpectedException;
 import org.mockito.Mockito;
 import org.springframework.security.core.authority.AuthorityUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static junit.framework.Assert.assertTrue;
 import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -51,6 +63,8 @@ public class UserIdConversionEndpointsTests {
 
     private ScimUserEndpoints scimUserEndpoints = Mockito.mock(ScimUserEndpoints.class);
 
+    private ScimUserProvisioning scimUserProvisioning = Mockito.mock(ScimUserProvisioning.class);
+
     @SuppressWarnings("rawtypes")
     private Collection authorities = AuthorityUtils
                     .commaSeparatedStringToAuthorityList("orgs.foo,uaa.user");
@@ -59,6 +73,7 @@ public class UserIdConversionEndpointsTests {
     @Before
     public void init() {
         endpoints.setScimUserEndpoints(scimUserEndpoints);
+        endpoints.setScimUserProvisioning(scimUserProvisioning);
         endpoints.setEnabled(true);
         when(securityContextAccessor.getAuthorities()).thenReturn(authorities);
         when(securityContextAccessor.getAuthenticationInfo()).thenReturn("mock object");
@@ -164,4 +179,74 @@ public class UserIdConversionEndpointsTests {
         SearchResults<?> searchResults = endpoints.findUsers("username eq \"foo\"", "ascending", 0, 100, false);
         assertTrue(searchResults.getResources().isEmpty());
     }
+
+    private static ScimUser user(String id, String username, String origin) {
+        ScimUser user = new ScimUser(id, username, null, null);
+        user.setOrigin(origin);
+        return user;
+    }
+
+    private static UserIdConversionEndpoints.BulkRequest bulkRequest(List<String> ids, List<String> userNames) {
+        UserIdConversionEndpoints.BulkRequest request = new UserIdConversionEndpoints.BulkRequest();
+        request.setIds(ids);
+        request.setUserNames(userNames);
+        return request;
+    }
+
+    @Test
+    public void bulkConversion_ReturnsIdsUsernamesAndOrigins() {
+        when(scimUserProvisioning.retrieveIdentitiesByIds(Arrays.asList("id1"))).thenReturn(Arrays.asList(user("id1", "marissa", "test-origin")));
+        when(scimUserProvisioning.retrieveIdentitiesByUsernames(Arrays.asList("joe"))).thenReturn(Arrays.asList(user("id2", "joe", "test-origin")));
+        SearchResults<Map<String, Object>> results = endpoints.convertUsers(bulkRequest(Arrays.asList("id1"), Arrays.asList("joe")), false);
+        assertEquals(2, results.getTotalResults());
+        List<Map<String, Object>> resources = new ArrayList<>(results.getResources());
+        assertEquals("marissa", resources.get(0).get("userName"));
+        assertEquals("id2", resources.get(1).get("id"));
+        assertEquals("test-origin", resources.get(1).get("origin"));
+    }
+
+    @Test
+    public void bulkConversion_CachesUsersById() {
+        when(scimUserProvisioning.retrieveIdentitiesByIds(Arrays.asList("id1"))).thenReturn(Arrays.asList(user("id1", "marissa", "test-origin")));
+        endpoints.convertUsers(bulkRequest(Arrays.asList("id1"), null), false);
+        SearchResults<Map<String, Object>> results = endpoints.convertUsers(bulkRequest(Arrays.asList("id1"), null), false);
+        assertEquals("marissa", results.getResources().iterator().next().get("userName"));
+        verify(scimUserProvisioning, times(1)).retrieveIdentitiesByIds(Arrays.asList("id1"));
+        assertEquals(1, endpoints.getCacheSize());
+
+        endpoints.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation(null, CacheInvalidation.USER, IdentityZone.getUaa().getId(), "id1", null, 0)));
+        assertEquals(0, endpoints.getCacheSize());
+        endpoints.convertUsers(bulkRequest(Arrays.asList("id1"), null), false);
+        verify(scimUserProvisioning, times(2)).retrieveIdentitiesByIds(Arrays.asList("id1"));
+    }
+
+    @Test
+    public void bulkConversion_SkipsInactiveOrigins() {
+        when(scimUserProvisioning.retrieveIdentitiesByIds(Arrays.asList("id1", "id2"))).thenReturn(Arrays.asList(user("id1", "marissa", "test-origin"), user("id2", "joe", "inactive-origin")));
+        assertEquals(1, endpoints.convertUsers(bulkRequest(Arrays.asList("id1", "id2"), null), false).getTotalResults());
+        assertEquals(2, endpoints.convertUsers(bulkRequest(Arrays.asList("id1", "id2"), null), true).getTotalResults());
+    }
+
+    @Test
+    public void bulkConversion_RequiresIdsOrUserNames() {
+        expected.expect(ScimException.class);
+        expected.expectMessage(containsString("are required"));
+        endpoints.convertUsers(bulkRequest(null, Collections.emptyList()), false);
+    }
+
+    @Test
+    public void bulkConversion_IsLimited() {
+        endpoints.setMaxBulkSize(2);
+        expected.expect(ScimException.class);
+        expected.expectMessage(containsString("At most 2"));
+        endpoints.convertUsers(bulkRequest(Arrays.asList("id1", "id2"), Arrays.asList("joe")), false);
+    }
+
+    @Test
+    public void bulkConversion_Disabled() {
+        endpoints.setEnabled(false);
+        expected.expect(ScimException.class);
+        expected.expectMessage(containsString("Illegal operation."));
+        endpoints.convertUsers(bulkRequest(Arrays.asList("id1"), null), false);
+    }
 }
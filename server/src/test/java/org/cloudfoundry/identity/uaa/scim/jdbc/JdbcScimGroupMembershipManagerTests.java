@@ -273,6 +273,25 @@ public class JdbcScimGroupMembershipManagerTests extends JdbcTestBase {
         assertThat(jdbcTemplate.queryForObject("select count(*) from groups where identity_zone_id=? and displayName like ?", new Object[]{IdentityZone.getUaa().getId(), "zones." + IdentityZoneHolder.get().getId() + ".%"}, Integer.class), is(0));
     }
 
+    @Test
+    public void test_zone_deleted_in_chunks() {
+        String zoneAdminId = generator.generate();
+        addGroup(zoneAdminId, "zones." + zone.getId() + ".admin", IdentityZone.getUaa().getId());
+        addMember(zoneAdminId, "m1", "USER", "MEMBER", OriginKeys.UAA);
+
+        IdentityZoneHolder.set(zone);
+        addMembers();
+        assertThat(gdao.deleteChunkByIdentityZone(zone.getId(), 2), is(2));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from groups where identity_zone_id=?", new Object[]{zone.getId()}, Integer.class), is(1));
+        assertThat(gdao.deleteChunkByIdentityZone(zone.getId(), 2), is(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from groups where identity_zone_id=?", new Object[]{zone.getId()}, Integer.class), is(0));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from group_membership where group_id in (select id from groups where identity_zone_id=?)", new Object[]{zone.getId()}, Integer.class), is(0));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from groups where identity_zone_id=? and displayName like ?", new Object[]{IdentityZone.getUaa().getId(), "zones." + zone.getId() + ".%"}, Integer.class), is(1));
+        assertThat(gdao.deleteChunkByIdentityZone(zone.getId(), 2), is(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from groups where identity_zone_id=? and displayName like ?", new Object[]{IdentityZone.getUaa().getId(), "zones." + zone.getId() + ".%"}, Integer.class), is(0));
+        assertThat(gdao.deleteChunkByIdentityZone(zone.getId(), 2), is(0));
+    }
+
     @Test
     public void test_provider_deleted() {
         IdentityZoneHolder.set(zone);
@@ -31,6 +31,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 
+import static org.hamcrest.core.AnyOf.anyOf;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -151,6 +152,16 @@ public class JdbcScimGroupProvisioningTests extends JdbcTestBase {
         validateGroup(group, "uaa.user", IdentityZoneHolder.get().getId());
     }
 
+    @Test
+    public void canRetrieveGroupsByDisplayNames() throws Exception {
+        List<ScimGroup> groups = dao.retrieveByDisplayNames(Arrays.asList("UAA.user", "openid", "unknown"));
+        assertEquals(2, groups.size());
+        for (ScimGroup g : groups) {
+            assertThat(g.getId(), anyOf(is("g1"), is("g3")));
+        }
+        assertEquals(0, dao.retrieveByDisplayNames(Arrays.asList()).size());
+    }
+
     @Test(expected = ScimResourceNotFoundException.class)
     public void cannotRetrieveNonExistentGroup() {
         dao.retrieve("invalidgroup");
@@ -49,8 +49,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.LOGIN_SERVER;
@@ -142,6 +144,7 @@ public class JdbcScimUserProvisioningTests extends JdbcTestBase {
         jdbcTemplate.execute("delete from users where upper(userName) = 'JONAH@FOO.COM'");
         jdbcTemplate.execute("delete from users where upper(userName) = 'RO''GALLAGHER@EXAMPLE.COM'");
         jdbcTemplate.execute("delete from users where upper(userName) = 'USER@EXAMPLE.COM'");
+        jdbcTemplate.execute("delete from users where userName like 'batch%@example.com'");
         jdbcTemplate.execute("delete from identity_provider where identity_zone_id = 'my-zone-id'");
         jdbcTemplate.execute("delete from identity_zone where id = 'my-zone-id'");
         IdentityZoneHolder.clear();
@@ -156,6 +159,91 @@ public class JdbcScimUserProvisioningTests extends JdbcTestBase {
         assertEquals(userName, created.getUserName());
     }
 
+    @Test
+    public void canRetrieveUsersByEmailsAndOrigin() {
+        List<ScimUser> users = db.retrieveByEmailsAndOrigin(Arrays.asList("JOE@joe.com", "mabel@mabel.com", "nobody@example.com"), UAA);
+        assertEquals(2, users.size());
+        assertTrue(users.stream().anyMatch(u -> JOE_ID.equals(u.getId())));
+        assertTrue(users.stream().anyMatch(u -> MABEL_ID.equals(u.getId())));
+
+        assertEquals(0, db.retrieveByEmailsAndOrigin(Collections.singletonList("joe@joe.com"), LOGIN_SERVER).size());
+    }
+
+    @Test
+    public void canRetrieveUsersByUsername() {
+        assertEquals(JOE_ID, db.retrieveByUsernameAndOrigin("JOE", UAA).getId());
+        assertNull(db.retrieveByUsernameAndOrigin("joe", LOGIN_SERVER));
+        assertEquals(MABEL_ID, db.retrieveIdByUsername("Mabel"));
+        assertNull(db.retrieveIdByUsername("nobody"));
+
+        //the database compares usernames as stored, which is case sensitive on postgresql
+        db.setDbCaseInsensitive(true);
+        assertEquals(JOE_ID, db.retrieveByUsernameAndOrigin("joe", UAA).getId());
+        assertEquals(MABEL_ID, db.retrieveIdByUsername("mabel"));
+
+        IdentityZoneHolder.set(MultitenancyFixture.identityZone("my-zone-id", "myzone"));
+        assertNull(db.retrieveByUsernameAndOrigin("joe", UAA));
+        assertNull(db.retrieveIdByUsername("mabel"));
+    }
+
+    @Test
+    public void canRetrieveUserIdentitiesInBulk() {
+        List<ScimUser> users = db.retrieveIdentitiesByIds(Arrays.asList(JOE_ID, MABEL_ID, "nobody"));
+        assertEquals(2, users.size());
+        ScimUser joe = users.stream().filter(u -> JOE_ID.equals(u.getId())).findFirst().get();
+        assertEquals("joe", joe.getUserName());
+        assertEquals(UAA, joe.getOrigin());
+        assertEquals("uaa", joe.getZoneId());
+
+        assertEquals(1, db.retrieveIdentitiesByUsernames(Arrays.asList("JOE", "nobody")).size());
+        db.setDbCaseInsensitive(true);
+        assertEquals(2, db.retrieveIdentitiesByUsernames(Arrays.asList("joe", "mabel")).size());
+
+        IdentityZoneHolder.set(MultitenancyFixture.identityZone("my-zone-id", "myzone"));
+        assertTrue(db.retrieveIdentitiesByIds(Arrays.asList(JOE_ID)).isEmpty());
+        assertTrue(db.retrieveIdentitiesByUsernames(Arrays.asList("joe")).isEmpty());
+    }
+
+    @Test
+    public void canCreateUsersInBatch() {
+        List<ScimUser> users = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ScimUser user = new ScimUser(null, "batch" + i + "@example.com", "", "");
+            user.setPrimaryEmail(user.getUserName());
+            users.add(user);
+        }
+        assertEquals(3, db.createUsers(users));
+
+        List<ScimUser> created = db.retrieveByEmailsAndOrigin(Arrays.asList("batch0@example.com", "batch1@example.com", "batch2@example.com"), UAA);
+        assertEquals(3, created.size());
+        Set<String> passwords = new HashSet<>();
+        for (ScimUser user : created) {
+            String stored = jdbcTemplate.queryForObject("select password from users where id=?", String.class, user.getId());
+            assertTrue(passwords.add(stored));
+            assertFalse(db.checkPasswordMatches(user.getId(), stored));
+            assertFalse(db.checkPasswordMatches(user.getId(), ""));
+        }
+
+        db.changePassword(created.get(0).getId(), null, "newpassword");
+        assertTrue(db.checkPasswordMatches(created.get(0).getId(), "newpassword"));
+    }
+
+    @Test
+    public void createUsersSkipsExistingUsernames() {
+        ScimUser existing = new ScimUser(null, "batch0@example.com", "", "");
+        existing.setPrimaryEmail(existing.getUserName());
+        db.createUser(existing, "password");
+
+        List<ScimUser> users = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            ScimUser user = new ScimUser(null, "batch" + i + "@example.com", "", "");
+            user.setPrimaryEmail(user.getUserName());
+            users.add(user);
+        }
+        assertEquals(1, db.createUsers(users));
+        assertEquals(2, db.retrieveByEmailsAndOrigin(Arrays.asList("batch0@example.com", "batch1@example.com"), UAA).size());
+    }
+
     protected void addApprovalAndMembership(String userId, String origin) {
         Timestamp timestamp = new Timestamp(System.currentTimeMillis());
         jdbcTemplate.update(INSERT_APPROVAL, userId, userId, "uaa.user", "APPROVED", timestamp, timestamp);
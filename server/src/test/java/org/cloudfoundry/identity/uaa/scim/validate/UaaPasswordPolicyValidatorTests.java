@@ -31,6 +31,9 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -115,6 +118,23 @@ public class UaaPasswordPolicyValidatorTests {
         validatePassword("Password123 ", "Password must contain at least 1 special characters.");
     }
 
+    @Test
+    public void validatorsAreBuiltOncePerPolicy() {
+        validatePassword("Password2&");
+        validatePassword("Pas1", "Password must be at least 10 characters in length.");
+        assertEquals(1, validator.getCacheSize());
+        assertEquals(1, validator.getCacheStats().missCount());
+
+        PasswordPolicy samePolicy = new PasswordPolicy(10, 23, 1, 1, 1, 1, 12);
+        assertSame(validator.getPasswordValidator(samePolicy), validator.getPasswordValidator(new PasswordPolicy(10, 23, 1, 1, 1, 1, 6)));
+
+        PasswordPolicy modified = new PasswordPolicy(12, 23, 1, 1, 1, 1, 6);
+        internalIDP.setConfig(new UaaIdentityProviderDefinition(modified, null));
+        validatePassword("Password2&", "Password must be at least 12 characters in length.");
+        assertNotSame(validator.getPasswordValidator(samePolicy), validator.getPasswordValidator(modified));
+        assertEquals(2, validator.getCacheSize());
+    }
+
     private void validatePassword(String password, String ... expectedErrors) {
         ScimUser user = new ScimUser();
         user.setOrigin(OriginKeys.UAA);
@@ -127,6 +127,24 @@ public class JdbcUaaUserDatabaseTests extends JdbcTestBase {
         assertEquals(joe.getCreated(), joe.getPasswordLastModified());
     }
 
+    @Test
+    public void getUserProfileWithoutAuthorities() {
+        UaaUser joe = db.retrieveUserProfileById(JOE_ID);
+        assertEquals("Joe", joe.getUsername());
+        assertEquals("joe@test.org", joe.getEmail());
+        assertEquals("Joe", joe.getGivenName());
+        assertEquals(OriginKeys.UAA, joe.getOrigin());
+        assertNotNull(joe.getModified());
+        assertNull(joe.getPassword());
+        assertTrue(joe.getAuthorities().isEmpty());
+    }
+
+    @Test(expected = UsernameNotFoundException.class)
+    public void getUserProfileInOtherZoneFails() {
+        IdentityZoneHolder.set(otherIdentityZone);
+        db.retrieveUserProfileById(JOE_ID);
+    }
+
     @Test
     public void getSaltValueWorks() {
         UaaUser joe = db.retrieveUserByName("joe", OriginKeys.UAA);
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
+import org.cloudfoundry.identity.uaa.cache.JdbcCacheInvalidationBus;
+import org.cloudfoundry.identity.uaa.test.JdbcTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class JdbcSessionRepositoryTests extends JdbcTestBase {
+
+    private JdbcSessionRepository repository;
+
+    @Before
+    public void createRepository() {
+        repository = new JdbcSessionRepository(jdbcTemplate, 100, 0);
+    }
+
+    @After
+    public void clearSessions() {
+        jdbcTemplate.update("delete from uaa_session_attribute");
+        jdbcTemplate.update("delete from uaa_session");
+        jdbcTemplate.update("delete from cache_invalidation");
+    }
+
+    private static Map<String, byte[]> attributes(String... namesAndValues) {
+        Map<String, byte[]> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            attributes.put(namesAndValues[i], namesAndValues[i + 1].getBytes());
+        }
+        return attributes;
+    }
+
+    @Test
+    public void can_save_and_read_a_session() {
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1", "b", "2"));
+        repository.saveSession(session, true, session.getAttributes().keySet());
+
+        StoredSession stored = repository.getSession("session-1");
+        assertNotNull(stored);
+        assertEquals(now, stored.getCreationTime());
+        assertEquals(1800, stored.getMaxInactiveInterval());
+        assertEquals(2, stored.getAttributes().size());
+        assertArrayEquals("2".getBytes(), stored.getAttributes().get("b"));
+        assertNull(repository.getSession("session-2"));
+    }
+
+    @Test
+    public void only_changed_attributes_are_written() {
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1", "b", "2", "c", "3"));
+        repository.saveSession(session, true, session.getAttributes().keySet());
+
+        StoredSession updated = new StoredSession("session-1", now, now + 1000, 1800, attributes("a", "10", "b", "2", "c", "30"));
+        repository.saveSession(updated, false, Arrays.asList("a"));
+        StoredSession removed = new StoredSession("session-1", now, now + 1000, 1800, attributes("a", "10"));
+        repository.saveSession(removed, false, Collections.singletonList("b"));
+
+        Map<String, Object> columns = jdbcTemplate.queryForMap("select last_accessed_time, expires_at from uaa_session where id=?", "session-1");
+        assertEquals(now + 1000, ((Number) columns.get("last_accessed_time")).longValue());
+        assertEquals(now + 1000 + 1800 * 1000L, ((Number) columns.get("expires_at")).longValue());
+        StoredSession stored = repository.getSession("session-1");
+        assertEquals(2, stored.getAttributes().size());
+        assertArrayEquals("10".getBytes(), stored.getAttributes().get("a"));
+        assertArrayEquals("3".getBytes(), stored.getAttributes().get("c"));
+    }
+
+    @Test
+    public void attributes_are_upserted_on_the_platform() {
+        repository.setPlatform("hsqldb");
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1"));
+        repository.saveSession(session, true, session.getAttributes().keySet());
+
+        StoredSession updated = new StoredSession("session-1", now, now + 1000, 1800, attributes("a", "10", "b", "2"));
+        repository.saveSession(updated, false, Arrays.asList("a", "b"));
+        StoredSession stored = repository.getSession("session-1");
+        assertEquals(2, stored.getAttributes().size());
+        assertArrayEquals("10".getBytes(), stored.getAttributes().get("a"));
+        assertArrayEquals("2".getBytes(), stored.getAttributes().get("b"));
+    }
+
+    @Test
+    public void attributes_inserted_by_a_concurrent_request_are_updated() {
+        JdbcTemplate concurrent = new JdbcTemplate(jdbcTemplate.getDataSource()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                int[] updated = super.batchUpdate(sql, batchArgs);
+                if (JdbcSessionRepository.UPDATE_ATTRIBUTE_SQL.equals(sql)) {
+                    update(JdbcSessionRepository.INSERT_ATTRIBUTE_SQL, "session-1", "b", "1".getBytes());
+                }
+                return updated;
+            }
+        };
+        repository = new JdbcSessionRepository(concurrent, 100, 0);
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1"));
+        repository.saveSession(session, true, session.getAttributes().keySet());
+
+        StoredSession updated = new StoredSession("session-1", now, now + 1000, 1800, attributes("a", "1", "b", "2"));
+        repository.saveSession(updated, false, Collections.singletonList("b"));
+        assertArrayEquals("2".getBytes(), repository.getSession("session-1").getAttributes().get("b"));
+    }
+
+    @Test
+    public void expired_sessions_are_not_read_and_are_swept() {
+        long now = System.currentTimeMillis();
+        StoredSession expired = new StoredSession("expired", now - 10000, now - 10000, 5, attributes("a", "1"));
+        StoredSession active = new StoredSession("active", now, now, 5, attributes("a", "1"));
+        StoredSession eternal = new StoredSession("eternal", now - 10000, now - 10000, -1, attributes());
+        repository.saveSession(expired, true, expired.getAttributes().keySet());
+        repository.saveSession(active, true, active.getAttributes().keySet());
+        repository.saveSession(eternal, true, eternal.getAttributes().keySet());
+
+        assertNull(repository.getSession("expired"));
+        assertEquals(1, repository.deleteExpiredSessions());
+        assertEquals(2, (int) jdbcTemplate.queryForObject("select count(*) from uaa_session", Integer.class));
+        assertEquals(1, (int) jdbcTemplate.queryForObject("select count(*) from uaa_session_attribute", Integer.class));
+        assertNotNull(repository.getSession("eternal"));
+    }
+
+    @Test
+    public void deleted_sessions_are_not_read_from_the_cache() {
+        repository = new JdbcSessionRepository(jdbcTemplate, 100, 60);
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1"));
+        repository.saveSession(session, true, session.getAttributes().keySet());
+        assertNotNull(repository.getSession("session-1"));
+        assertEquals(1, repository.getCacheSize());
+
+        repository.deleteSession("session-1");
+        assertNull(repository.getSession("session-1"));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from uaa_session_attribute", Integer.class));
+    }
+
+    @Test
+    public void sessions_deleted_by_another_server_are_not_saved_again() {
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1"));
+        repository.saveSession(session, true, session.getAttributes().keySet());
+        new JdbcSessionRepository(jdbcTemplate, 100, 0).deleteSession("session-1");
+
+        StoredSession updated = new StoredSession("session-1", now, now + 1000, 1800, attributes("a", "2"));
+        repository.saveSession(updated, false, Collections.singletonList("a"));
+        assertNull(repository.getSession("session-1"));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from uaa_session", Integer.class));
+        assertEquals(0, (int) jdbcTemplate.queryForObject("select count(*) from uaa_session_attribute", Integer.class));
+    }
+
+    @Test
+    public void deleted_sessions_are_evicted_from_the_cache_of_other_servers() {
+        JdbcSessionRepository server1 = new JdbcSessionRepository(jdbcTemplate, 100, 60);
+        JdbcSessionRepository server2 = new JdbcSessionRepository(jdbcTemplate, 100, 60);
+        server1.setInvalidationBus(createBus("node-1", server1));
+        JdbcCacheInvalidationBus bus2 = createBus("node-2", server2);
+        server2.setInvalidationBus(bus2);
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1"));
+        server1.saveSession(session, true, session.getAttributes().keySet());
+        assertNotNull(server2.getSession("session-1"));
+
+        assertEquals(1, server2.getCacheSize());
+
+        server1.deleteSession("session-1");
+        assertEquals(1, bus2.poll());
+        assertEquals(0, server2.getCacheSize());
+        assertNull(server2.getSession("session-1"));
+    }
+
+    @Test
+    public void sessions_saved_by_another_server_are_not_read_stale_from_the_cache() {
+        JdbcSessionRepository server1 = new JdbcSessionRepository(jdbcTemplate, 100, 60);
+        JdbcSessionRepository server2 = new JdbcSessionRepository(jdbcTemplate, 100, 60);
+        long now = System.currentTimeMillis();
+        StoredSession session = new StoredSession("session-1", now, now, 1800, attributes("a", "1"));
+        server1.saveSession(session, true, session.getAttributes().keySet());
+        assertArrayEquals("1".getBytes(), server2.getSession("session-1").getAttributes().get("a"));
+        assertArrayEquals("1".getBytes(), server2.getSession("session-1").getAttributes().get("a"));
+
+        StoredSession updated = new StoredSession("session-1", now, now, 1800, attributes("a", "1", "b", "2"));
+        server1.saveSession(updated, false, Collections.singletonList("b"));
+        assertArrayEquals("2".getBytes(), server2.getSession("session-1").getAttributes().get("b"));
+
+        jdbcTemplate.update("delete from uaa_session_attribute");
+        jdbcTemplate.update("delete from uaa_session");
+        assertNull(server2.getSession("session-1"));
+    }
+
+    private JdbcCacheInvalidationBus createBus(String nodeId, JdbcSessionRepository listener) {
+        JdbcCacheInvalidationBus bus = new JdbcCacheInvalidationBus(jdbcTemplate);
+        bus.setNodeId(nodeId);
+        bus.setApplicationEventPublisher(new ApplicationEventPublisher() {
+            @Override
+            public void publishEvent(ApplicationEvent event) {
+                listener.onApplicationEvent((CacheInvalidationEvent) event);
+            }
+
+            @Override
+            public void publishEvent(Object event) {
+                publishEvent((ApplicationEvent) event);
+            }
+        });
+        return bus;
+    }
+}
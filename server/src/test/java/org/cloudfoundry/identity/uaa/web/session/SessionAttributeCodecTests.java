@@ -0,0 +1,126 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
+import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.PortResolverImpl;
+import org.springframework.security.web.savedrequest.DefaultSavedRequest;
+import org.springframework.util.SerializationUtils;
+
+import javax.servlet.http.Cookie;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionAttributeCodecTests {
+
+    private final SessionAttributeCodec codec = new SessionAttributeCodec();
+
+    private UaaAuthentication authentication() {
+        UaaPrincipal principal = new UaaPrincipal("user-id", "marissa", "marissa@test.org", OriginKeys.UAA, "external-id", "uaa");
+        return new UaaAuthentication(principal,
+                                     null,
+                                     AuthorityUtils.createAuthorityList("uaa.user", "openid"),
+                                     new HashSet<>(Arrays.asList("admins")),
+                                     Collections.singletonMap("cost_center", Arrays.asList("1", "2")),
+                                     new UaaAuthenticationDetails(false, "app", "127.0.0.1", "session-id"),
+                                     true,
+                                     System.currentTimeMillis(),
+                                     System.currentTimeMillis() + 60000);
+    }
+
+    @Test
+    public void authentications_are_encoded_compactly() {
+        UaaAuthentication authentication = authentication();
+        byte[] encoded = codec.encode(authentication);
+        assertTrue(encoded.length * 3 < SerializationUtils.serialize(authentication).length);
+
+        UaaAuthentication decoded = (UaaAuthentication) codec.decode(encoded);
+        assertEquals(authentication, decoded);
+        assertEquals("marissa@test.org", decoded.getPrincipal().getEmail());
+        assertEquals("external-id", decoded.getPrincipal().getExternalId());
+        assertEquals(authentication.getAuthorities().size(), decoded.getAuthorities().size());
+        assertEquals(authentication.getExternalGroups(), decoded.getExternalGroups());
+        assertEquals(authentication.getUserAttributesAsMap(), decoded.getUserAttributesAsMap());
+        assertEquals("app", ((UaaAuthenticationDetails) decoded.getDetails()).getClientId());
+        assertEquals(authentication.getAuthenticatedTime(), decoded.getAuthenticatedTime());
+        assertEquals(authentication.getExpiresAt(), decoded.getExpiresAt());
+        assertTrue(decoded.isAuthenticated());
+        assertNull(decoded.getCredentials());
+    }
+
+    @Test
+    public void security_contexts_are_encoded_with_their_authentication() {
+        SecurityContextImpl context = new SecurityContextImpl();
+        context.setAuthentication(authentication());
+        SecurityContextImpl decoded = (SecurityContextImpl) codec.decode(codec.encode(context));
+        assertEquals(context.getAuthentication(), decoded.getAuthentication());
+    }
+
+    @Test
+    public void saved_requests_are_encoded() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uaa/oauth/authorize");
+        request.setScheme("https");
+        request.setServerName("login.example.com");
+        request.setServerPort(8443);
+        request.setContextPath("/uaa");
+        request.setServletPath("/oauth/authorize");
+        request.setQueryString("client_id=app&response_type=code");
+        request.addParameter("client_id", "app");
+        request.addParameter("response_type", "code");
+        request.addHeader("Accept", "text/html");
+        request.addHeader("Accept-Language", "de");
+        request.addPreferredLocale(Locale.GERMAN);
+        request.setCookies(new Cookie("current-user", "marissa"));
+        DefaultSavedRequest saved = new DefaultSavedRequest(request, new PortResolverImpl());
+
+        byte[] encoded = codec.encode(saved);
+        assertTrue(encoded.length * 2 < SerializationUtils.serialize(saved).length);
+
+        DefaultSavedRequest decoded = (DefaultSavedRequest) codec.decode(encoded);
+        assertEquals(saved.getRedirectUrl(), decoded.getRedirectUrl());
+        assertEquals("GET", decoded.getMethod());
+        assertEquals(8443, decoded.getServerPort());
+        assertArrayEquals(new String[] {"app"}, decoded.getParameterValues("client_id"));
+        assertEquals(saved.getHeaderValues("Accept"), decoded.getHeaderValues("Accept"));
+        assertEquals(saved.getLocales(), decoded.getLocales());
+        assertEquals("marissa", decoded.getCookies().get(0).getValue());
+        assertTrue(decoded.doesRequestMatch(request, new PortResolverImpl()));
+    }
+
+    @Test
+    public void other_attributes_are_serialized() {
+        assertEquals("value", codec.decode(codec.encode("value")));
+        Date date = new Date();
+        assertEquals(date, codec.decode(codec.encode(date)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void attributes_must_be_serializable() {
+        codec.encode(new Object());
+    }
+}
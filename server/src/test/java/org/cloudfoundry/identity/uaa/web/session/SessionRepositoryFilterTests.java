@@ -0,0 +1,226 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.web.session;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SessionRepositoryFilterTests {
+
+    private final Map<String, StoredSession> sessions = new HashMap<>();
+    private final List<Set<String>> savedAttributes = new ArrayList<>();
+    private final List<String> deleted = new ArrayList<>();
+    private final AtomicInteger sweeps = new AtomicInteger();
+    private RuntimeException saveFailure;
+    private SessionRepositoryFilter filter;
+
+    private final SessionRepository repository = new SessionRepository() {
+        @Override
+        public StoredSession getSession(String id) {
+            return sessions.get(id);
+        }
+
+        @Override
+        public void saveSession(StoredSession session, boolean created, Collection<String> changedAttributes) {
+            if (saveFailure != null) {
+                throw saveFailure;
+            }
+            sessions.put(session.getId(), session);
+            savedAttributes.add(new LinkedHashSet<>(changedAttributes));
+        }
+
+        @Override
+        public void deleteSession(String id) {
+            sessions.remove(id);
+            deleted.add(id);
+        }
+
+        @Override
+        public int deleteExpiredSessions() {
+            sweeps.incrementAndGet();
+            return 0;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        filter = new SessionRepositoryFilter(repository);
+    }
+
+    private MockHttpServletResponse doFilter(String sessionId, FilterChain chain) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uaa/login");
+        request.setContextPath("/uaa");
+        if (sessionId != null) {
+            request.setCookies(new Cookie(SessionRepositoryFilter.DEFAULT_COOKIE_NAME, sessionId));
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private String createSession() throws Exception {
+        MockHttpServletResponse response = doFilter(null, (req, res) -> {
+            HttpSession session = ((HttpServletRequest) req).getSession();
+            assertTrue(session.isNew());
+            session.setAttribute("a", "1");
+            session.setAttribute("b", "2");
+        });
+        Cookie cookie = response.getCookie(SessionRepositoryFilter.DEFAULT_COOKIE_NAME);
+        assertNotNull(cookie);
+        assertEquals("/uaa", cookie.getPath());
+        assertTrue(cookie.isHttpOnly());
+        return cookie.getValue();
+    }
+
+    @Test
+    public void sessions_are_stored_and_read_back() throws Exception {
+        String id = createSession();
+        assertTrue(sessions.containsKey(id));
+
+        doFilter(id, (req, res) -> {
+            HttpServletRequest request = (HttpServletRequest) req;
+            assertTrue(request.isRequestedSessionIdValid());
+            HttpSession session = request.getSession(false);
+            assertFalse(session.isNew());
+            assertEquals(id, session.getId());
+            assertEquals("1", session.getAttribute("a"));
+            assertEquals("2", session.getAttribute("b"));
+        });
+    }
+
+    @Test
+    public void requests_without_a_session_do_not_create_one() throws Exception {
+        MockHttpServletResponse response = doFilter("unknown", (req, res) -> assertNull(((HttpServletRequest) req).getSession(false)));
+        assertTrue(sessions.isEmpty());
+        assertNull(response.getCookie(SessionRepositoryFilter.DEFAULT_COOKIE_NAME));
+    }
+
+    @Test
+    public void only_changed_attributes_are_saved() throws Exception {
+        String id = createSession();
+        savedAttributes.clear();
+
+        doFilter(id, (req, res) -> ((HttpServletRequest) req).getSession().getAttribute("a"));
+        assertTrue(savedAttributes.isEmpty());
+
+        doFilter(id, (req, res) -> {
+            HttpSession session = ((HttpServletRequest) req).getSession();
+            session.setAttribute("a", "10");
+            session.removeAttribute("b");
+        });
+        assertEquals(1, savedAttributes.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a", "b")), savedAttributes.get(0));
+        assertEquals(1, sessions.get(id).getAttributes().size());
+    }
+
+    @Test
+    public void failures_to_save_the_session_do_not_hide_the_failure_of_the_request() throws Exception {
+        String id = createSession();
+        saveFailure = new IllegalStateException("save failed");
+        IllegalArgumentException failure = new IllegalArgumentException("request failed");
+        try {
+            doFilter(id, (req, res) -> {
+                ((HttpServletRequest) req).getSession().setAttribute("a", "10");
+                throw failure;
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertSame(failure, e);
+        }
+
+        try {
+            doFilter(id, (req, res) -> ((HttpServletRequest) req).getSession().setAttribute("a", "10"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(saveFailure, e);
+        }
+    }
+
+    @Test
+    public void invalidated_sessions_are_deleted() throws Exception {
+        String id = createSession();
+        MockHttpServletResponse response = doFilter(id, (req, res) -> ((HttpServletRequest) req).getSession().invalidate());
+        assertFalse(sessions.containsKey(id));
+        assertEquals(0, response.getCookie(SessionRepositoryFilter.DEFAULT_COOKIE_NAME).getMaxAge());
+    }
+
+    @Test
+    public void changing_the_session_id_keeps_the_attributes() throws Exception {
+        String id = createSession();
+        MockHttpServletResponse response = doFilter(id, (req, res) -> ((HttpServletRequest) req).changeSessionId());
+        String newId = response.getCookie(SessionRepositoryFilter.DEFAULT_COOKIE_NAME).getValue();
+        assertNotEquals(id, newId);
+        assertEquals(Collections.singletonList(id), deleted);
+        assertEquals(2, sessions.get(newId).getAttributes().size());
+    }
+
+    @Test
+    public void container_sessions_are_used_when_disabled() throws Exception {
+        filter.setEnabled(false);
+        doFilter(null, (req, res) -> ((HttpServletRequest) req).getSession().setAttribute("a", "1"));
+        assertTrue(sessions.isEmpty());
+    }
+
+    @Test
+    public void expired_sessions_are_only_swept_when_enabled() throws Exception {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+        try {
+            filter.setSweepScheduler(scheduler);
+            filter.setSweepIntervalMillis(10);
+            filter.setEnabled(false);
+            filter.afterPropertiesSet();
+            assertTrue(scheduler.getScheduledThreadPoolExecutor().getQueue().isEmpty());
+
+            filter = new SessionRepositoryFilter(repository);
+            filter.setSweepScheduler(scheduler);
+            filter.setSweepIntervalMillis(10);
+            filter.afterPropertiesSet();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sweeps.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(sweeps.get() > 0);
+            filter.destroy();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -2,9 +2,12 @@ package org.cloudfoundry.identity.uaa.zone;
 
 import org.apache.commons.lang.RandomStringUtils;
 import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidation;
+import org.cloudfoundry.identity.uaa.cache.CacheInvalidationEvent;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.provider.AbstractIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderCache;
 import org.cloudfoundry.identity.uaa.provider.IdpAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.provider.JdbcIdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.LdapIdentityProviderDefinition;
@@ -27,6 +30,8 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 public class JdbcIdentityProviderProvisioningTests extends JdbcTestBase {
 
@@ -293,4 +298,55 @@ public class JdbcIdentityProviderProvisioningTests extends JdbcTestBase {
         IdentityProvider idp1 = db.create(idp);
         db.retrieveByOrigin(idp1.getOriginKey(), identityZone2.getId());
     }
+
+    @Test
+    public void cached_providers_are_served_from_a_zone_snapshot() {
+        IdentityProviderCache cache = new IdentityProviderCache();
+        db.setCache(cache);
+        String zoneId = generator.generate();
+        IdentityZoneHolder.set(MultitenancyFixture.identityZone(zoneId, zoneId));
+        IdentityProvider active = db.create(MultitenancyFixture.identityProvider("active-" + generator.generate(), zoneId));
+        IdentityProvider inactive = MultitenancyFixture.identityProvider("inactive-" + generator.generate(), zoneId);
+        inactive.setActive(false);
+        inactive = db.create(inactive);
+
+        List<IdentityProvider> providers = db.retrieveActive(zoneId);
+        assertEquals(1, providers.size());
+        assertEquals(active.getId(), providers.get(0).getId());
+        assertSame(providers, db.retrieveAll(true, zoneId));
+        assertSame(providers.get(0), db.retrieveByOrigin(active.getOriginKey(), zoneId));
+        assertEquals(inactive.getId(), db.retrieveByOrigin(inactive.getOriginKey(), zoneId).getId());
+        assertEquals(1, db.retrieveActiveByType(active.getType(), zoneId).size());
+        assertEquals(0, db.retrieveActiveByType(OriginKeys.SAML, zoneId).size());
+        assertEquals(1, cache.getCacheStats().missCount());
+
+        try {
+            db.retrieveByOrigin("unknown", zoneId);
+            fail("Expected EmptyResultDataAccessException");
+        } catch (EmptyResultDataAccessException expected) {
+        }
+    }
+
+    @Test
+    public void cached_snapshot_is_invalidated_by_changes() {
+        IdentityProviderCache cache = new IdentityProviderCache();
+        db.setCache(cache);
+        String zoneId = generator.generate();
+        IdentityZoneHolder.set(MultitenancyFixture.identityZone(zoneId, zoneId));
+        IdentityProvider provider = db.create(MultitenancyFixture.identityProvider("idp-" + generator.generate(), zoneId));
+        assertEquals(1, db.retrieveActive(zoneId).size());
+
+        provider.setActive(false);
+        db.update(provider);
+        assertEquals(0, db.retrieveActive(zoneId).size());
+
+        //changes made by another node arrive as cache invalidations
+        jdbcTemplate.update("update identity_provider set active=? where id=?", true, provider.getId());
+        assertEquals(0, db.retrieveActive(zoneId).size());
+        cache.onApplicationEvent(new CacheInvalidationEvent(new CacheInvalidation("1", CacheInvalidation.IDENTITY_PROVIDER, zoneId, provider.getOriginKey(), "other-node", 0)));
+        assertEquals(1, db.retrieveActive(zoneId).size());
+
+        db.deleteByOrigin(provider.getOriginKey(), zoneId);
+        assertEquals(0, db.retrieveActive(zoneId).size());
+    }
 }
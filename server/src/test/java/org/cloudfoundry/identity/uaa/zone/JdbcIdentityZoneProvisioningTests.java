@@ -9,6 +9,8 @@ import org.springframework.security.oauth2.common.util.RandomValueStringGenerato
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -158,4 +160,50 @@ public class JdbcIdentityZoneProvisioningTests extends JdbcTestBase {
         }
     }
 
+    @Test
+    public void configs_are_parsed_once_per_hash() {
+        IdentityZone identityZone = MultitenancyFixture.identityZone(generator.generate(), generator.generate());
+        identityZone.setConfig(new IdentityZoneConfiguration(new TokenPolicy(3600, 7200)));
+        IdentityZone created = db.create(identityZone);
+        String hash = jdbcTemplate.queryForObject("select config_hash from identity_zone where id=?", String.class, created.getId());
+        assertEquals(32, hash.length());
+        assertEquals(1, db.getCacheSize());
+
+        IdentityZone retrieved = db.retrieve(created.getId());
+        assertNotSame(created.getConfig(), retrieved.getConfig());
+        retrieved.getConfig().getTokenPolicy().setAccessTokenValidity(1200);
+        assertEquals(3600, db.retrieve(created.getId()).getConfig().getTokenPolicy().getAccessTokenValidity());
+        assertEquals(2, db.getCacheStats().hitCount());
+
+        IdentityZone updated = db.update(retrieved);
+        assertEquals(1200, updated.getConfig().getTokenPolicy().getAccessTokenValidity());
+        assertNotEquals(hash, jdbcTemplate.queryForObject("select config_hash from identity_zone where id=?", String.class, created.getId()));
+
+        db.deleteByIdentityZone(created.getId());
+        assertEquals(0, db.getCacheSize());
+    }
+
+    @Test
+    public void configs_without_hash_are_parsed() {
+        IdentityZone identityZone = MultitenancyFixture.identityZone(generator.generate(), generator.generate());
+        identityZone.setConfig(new IdentityZoneConfiguration(new TokenPolicy(3600, 7200)));
+        IdentityZone created = db.create(identityZone);
+        jdbcTemplate.update("update identity_zone set config_hash=null where id=?", created.getId());
+        db = new JdbcIdentityZoneProvisioning(jdbcTemplate);
+
+        assertEquals(7200, db.retrieve(created.getId()).getConfig().getTokenPolicy().getRefreshTokenValidity());
+        assertEquals(0, db.getCacheSize());
+    }
+
+    @Test
+    public void zones_can_be_retrieved_without_config() {
+        IdentityZone identityZone = MultitenancyFixture.identityZone(generator.generate(), generator.generate());
+        identityZone.setConfig(new IdentityZoneConfiguration(new TokenPolicy(3600, 7200)));
+        IdentityZone created = db.create(identityZone);
+
+        IdentityZone summary = db.retrieveAllWithoutConfig().stream().filter(z -> z.getId().equals(created.getId())).findFirst().get();
+        assertEquals(created.getSubdomain(), summary.getSubdomain());
+        assertEquals(created.getVersion(), summary.getVersion());
+        assertEquals(-1, summary.getConfig().getTokenPolicy().getAccessTokenValidity());
+    }
 }
@@ -100,6 +100,26 @@ public class MultitenantJdbcClientDetailsServiceTests {
         assertThat(jdbcTemplate.queryForObject("select count(*) from authz_approvals where client_id=?", new Object[] {id}, Integer.class), is(0));
     }
 
+    @Test
+    public void test_can_delete_zone_clients_in_chunks() throws Exception {
+        String id = generate.generate();
+        IdentityZone zone = MultitenancyFixture.identityZone(id,id);
+        IdentityZoneHolder.set(zone);
+        for (int i = 0; i < 3; i++) {
+            BaseClientDetails clientDetails = new BaseClientDetails();
+            clientDetails.setClientId(id + i);
+            clientDetails.setClientSecret("secret");
+            service.addClientDetails(clientDetails);
+            addApproval(id + i);
+        }
+
+        assertThat(service.deleteChunkByIdentityZone(zone.getId(), 2), is(2));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from oauth_client_details where identity_zone_id=?", new Object[] {zone.getId()}, Integer.class), is(1));
+        assertThat(service.deleteChunkByIdentityZone(zone.getId(), 2), is(1));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from oauth_client_details where identity_zone_id=?", new Object[] {zone.getId()}, Integer.class), is(0));
+        assertThat(jdbcTemplate.queryForObject("select count(*) from authz_approvals where client_id like ?", new Object[] {id + "%"}, Integer.class), is(0));
+    }
+
     @Test
     public void test_cannot_delete_uaa_zone_clients() throws Exception {
         String id = generate.generate();
@@ -146,6 +166,27 @@ public class MultitenantJdbcClientDetailsServiceTests {
         assertEquals(null, clientDetails.getAccessTokenValiditySeconds());
     }
 
+    @Test
+    public void testLoadingClientsByClientIds() {
+        Timestamp lastModifiedDate = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.update(INSERT_SQL, "multiClient1", null, null,
+            null, null, null, null, null, null, null, IdentityZoneHolder.get().getId(), lastModifiedDate);
+        jdbcTemplate.update(INSERT_SQL, "multiClient2", null, null,
+            null, null, null, null, null, null, null, IdentityZoneHolder.get().getId(), lastModifiedDate);
+        jdbcTemplate.update(INSERT_SQL, "multiClient3", null, null,
+            null, null, null, null, null, null, null, "other-zone", lastModifiedDate);
+        jdbcTemplate.update("update oauth_client_details set additional_information=? where client_id=?",
+                            "{\"name\":\"Client Two\"}", "multiClient2");
+
+        Map<String, ClientDetails> clients = service.loadClientsByClientIds(IdentityZoneHolder.get().getId(),
+                                                                           Arrays.asList("multiClient1", "multiClient2", "multiClient3", "nonExistingClientId"));
+
+        assertEquals(2, clients.size());
+        assertEquals("multiClient1", clients.get("multiClient1").getClientId());
+        assertEquals("Client Two", clients.get("multiClient2").getAdditionalInformation().get("name"));
+        assertEquals(0, service.loadClientsByClientIds(IdentityZoneHolder.get().getId(), Arrays.asList()).size());
+    }
+
     @Test
     public void testLoadingClientIdWithAdditionalInformation() {
 
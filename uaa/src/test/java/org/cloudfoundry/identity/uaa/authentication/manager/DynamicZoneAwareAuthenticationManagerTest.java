@@ -3,6 +3,8 @@ package org.cloudfoundry.identity.uaa.authentication.manager;
 import org.cloudfoundry.identity.uaa.authentication.AccountNotVerifiedException;
 import org.cloudfoundry.identity.uaa.authentication.AuthenticationPolicyRejectionException;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.metrics.LatencyHistogram;
+import org.cloudfoundry.identity.uaa.metrics.MetricsRegistry;
 import org.cloudfoundry.identity.uaa.provider.LdapIdentityProviderDefinition;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
@@ -19,6 +21,7 @@ import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.ProviderNotFoundException;
 import org.springframework.security.core.Authentication;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
@@ -196,6 +199,25 @@ public class DynamicZoneAwareAuthenticationManagerTest {
         verifyZeroInteractions(mockManager);
     }
 
+    @Test
+    public void testLdapAuthenticationLatencyIsRecordedOnce() throws Exception {
+        IdentityZoneHolder.set(ZONE);
+        when(providerProvisioning.retrieveByOrigin(OriginKeys.LDAP, ZONE.getId())).thenReturn(ldapActive);
+        when(providerProvisioning.retrieveByOrigin(OriginKeys.UAA, ZONE.getId())).thenReturn(uaaInactive);
+        DynamicZoneAwareAuthenticationManager manager = getDynamicZoneAwareAuthenticationManager(true);
+        MetricsRegistry registry = new MetricsRegistry();
+        manager.setMetricsRegistry(registry);
+        DynamicLdapAuthenticationManager mockManager = manager.getLdapAuthenticationManager(null, null);
+        when(mockManager.authenticate(any(Authentication.class))).thenReturn(success);
+
+        assertSame(success, manager.authenticate(success));
+        assertSame(success, manager.authenticate(success));
+        assertSame(manager.getTimedLdapAuthenticationManager(ZONE, ldapActive), manager.getTimedLdapAuthenticationManager(ZONE, ldapActive));
+        assertEquals(1, registry.getHistograms().size());
+        LatencyHistogram histogram = registry.getHistograms().values().iterator().next();
+        assertEquals(2, histogram.getCount());
+    }
+
     protected DynamicZoneAwareAuthenticationManager getDynamicZoneAwareAuthenticationManager() {
         return getDynamicZoneAwareAuthenticationManager(false);
     }
@@ -23,6 +23,7 @@ import org.springframework.mock.env.MockEnvironment;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.security.oauth2.provider.ClientDetails;
 import org.springframework.security.oauth2.provider.client.BaseClientDetails;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
 import java.util.Arrays;
@@ -44,8 +45,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.springframework.security.oauth2.common.util.OAuth2Utils.CLIENT_ID;
 import static org.springframework.security.oauth2.common.util.OAuth2Utils.REDIRECT_URI;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class InvitationsEndpointMockMvcTests extends InjectedMockContextTest {
@@ -150,6 +154,90 @@ public class InvitationsEndpointMockMvcTests extends InjectedMockContextTest {
         assertEquals("user.ambiguous", response.getFailedInvites().get(0).getErrorCode());
     }
 
+    @Test
+    public void invite_Users_In_Batches() throws Exception {
+        InvitationsEndpoint endpoint = getWebApplicationContext().getBean(InvitationsEndpoint.class);
+        int batchSize = endpoint.getBatchSize();
+        endpoint.setBatchSize(2);
+        try {
+            String existing = generator.generate().toLowerCase() + "@" + domain;
+            ScimUser user = new ScimUser(null, existing, "givenName", "familyName");
+            user.setPrimaryEmail(existing);
+            user.setOrigin(UAA);
+            user = utils().createUser(getMockMvc(), adminToken, user);
+
+            String[] emails = new String[5];
+            for (int i = 0; i < emails.length; i++) {
+                emails[i] = generator.generate().toLowerCase() + "@" + domain;
+            }
+            emails[2] = existing;
+            InvitationsResponse response = sendRequestWithTokenAndReturnResponse(scimInviteToken, null, clientId, "example.com", emails);
+            assertResponseAndCodeCorrect(emails, "example.com", null, response, clientDetails);
+            assertEquals(user.getId(), response.getNewInvites().get(2).getUserId());
+        } finally {
+            endpoint.setBatchSize(batchSize);
+        }
+    }
+
+    @Test
+    public void invalid_Email_Does_Not_Fail_The_Other_Invitations() throws Exception {
+        String[] emails = new String[] {"user1@"+domain, "not valid@"+domain, "user2@"+domain};
+        InvitationsResponse response = sendRequestWithTokenAndReturnResponse(scimInviteToken, null, clientId, "example.com", emails);
+        assertEquals(1, response.getFailedInvites().size());
+        assertEquals(emails[1], response.getFailedInvites().get(0).getEmail());
+        assertEquals("invitation.exception", response.getFailedInvites().get(0).getErrorCode());
+        response.setFailedInvites(Collections.emptyList());
+        assertResponseAndCodeCorrect(new String[] {emails[0], emails[2]}, "example.com", null, response, clientDetails);
+    }
+
+    @Test
+    public void invite_Users_Asynchronously() throws Exception {
+        String[] emails = new String[] {"user1@"+domain, "user2@"+domain, "user3@nowhere.org"};
+        MvcResult result = getMockMvc().perform(post("/invite_users")
+                .param(CLIENT_ID, clientId)
+                .param(REDIRECT_URI, "example.com")
+                .param("async", "true")
+                .header("Authorization", "Bearer " + scimInviteToken)
+                .contentType(APPLICATION_JSON)
+                .content(JsonUtils.writeValueAsString(new InvitationsRequest(emails))))
+            .andExpect(status().isAccepted())
+            .andExpect(header().string("Location", startsWith(InvitationsEndpoint.JOB_LOCATION)))
+            .andReturn();
+
+        InvitationJob job;
+        long deadline = System.currentTimeMillis() + 10000;
+        do {
+            Thread.sleep(50);
+            job = JsonUtils.readValue(getMockMvc().perform(get(result.getResponse().getHeader("Location"))
+                    .header("Authorization", "Bearer " + scimInviteToken))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString(), InvitationJob.class);
+        } while (!job.isFinished() && System.currentTimeMillis() < deadline);
+
+        assertEquals(InvitationJob.Status.COMPLETED, job.getStatus());
+        assertEquals(3, job.getTotalCount());
+        assertEquals(3, job.getProcessedCount());
+        assertEquals(1, job.getResult().getFailedInvites().size());
+        assertEquals("provider.non-existent", job.getResult().getFailedInvites().get(0).getErrorCode());
+        InvitationsResponse response = job.getResult();
+        response.setFailedInvites(Collections.emptyList());
+        assertResponseAndCodeCorrect(Arrays.copyOf(emails, 2), "example.com", null, response, clientDetails);
+
+        String otherClientId = generator.generate().toLowerCase();
+        utils().createClient(this.getMockMvc(), adminToken, otherClientId, clientSecret, Collections.singleton("oauth"), Arrays.asList("scim.read","scim.invite"), Arrays.asList(new String[]{"client_credentials"}), authorities);
+        String otherToken = utils().getClientCredentialsOAuthAccessToken(getMockMvc(), otherClientId, clientSecret, "scim.read scim.invite", null);
+        getMockMvc().perform(get(result.getResponse().getHeader("Location"))
+                .header("Authorization", "Bearer " + otherToken))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void unknown_Invitation_Job_Is_Not_Found() throws Exception {
+        getMockMvc().perform(get(InvitationsEndpoint.JOB_LOCATION + "unknown")
+                .header("Authorization", "Bearer " + scimInviteToken))
+            .andExpect(status().isNotFound());
+    }
+
     @Test
     public void accept_Invitation_Email_With_Default_CompanyName() throws Exception {
         ((MockEnvironment) getWebApplicationContext().getEnvironment()).setProperty("login.branding.companyName", "");
@@ -87,6 +87,7 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasEntry;
 import static org.hamcrest.Matchers.hasKey;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -102,6 +103,8 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.forwardedUrl;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
@@ -699,10 +702,9 @@ public class LoginMockMvcTests extends InjectedMockContextTest {
             getMockMvc().perform(get("/login")
                 .accept(APPLICATION_JSON))
                 .andExpect(status().isOk())
-                .andExpect(view().name("login"))
-                .andExpect(model().attribute("prompts", hasKey("how")))
-                .andExpect(model().attribute("prompts", hasKey("where")))
-                .andExpect(model().attribute("prompts", not(hasKey("password"))));
+                .andExpect(jsonPath("$.prompts.how").exists())
+                .andExpect(jsonPath("$.prompts.where").exists())
+                .andExpect(jsonPath("$.prompts.password").doesNotExist());
         } finally {
             setPrompts(original);
         }
@@ -725,9 +727,9 @@ public class LoginMockMvcTests extends InjectedMockContextTest {
         getMockMvc().perform(get("/login")
             .accept(APPLICATION_JSON))
             .andExpect(status().isOk())
-            .andExpect(view().name("login"))
-            .andExpect(model().attribute("prompts", hasKey("username")))
-            .andExpect(model().attribute("prompts", hasKey("password")));
+            .andExpect(header().string("ETag", notNullValue()))
+            .andExpect(jsonPath("$.prompts.username").exists())
+            .andExpect(jsonPath("$.prompts.password").exists());
     }
 
     @Test
@@ -735,9 +737,34 @@ public class LoginMockMvcTests extends InjectedMockContextTest {
         getMockMvc().perform(get("/info")
             .accept(APPLICATION_JSON))
             .andExpect(status().isOk())
-            .andExpect(view().name("login"))
-            .andExpect(model().attribute("prompts", hasKey("username")))
-            .andExpect(model().attribute("prompts", hasKey("password")));
+            .andExpect(header().string("ETag", notNullValue()))
+            .andExpect(jsonPath("$.prompts.username").exists())
+            .andExpect(jsonPath("$.prompts.password").exists());
+    }
+
+    @Test
+    public void info_json_is_served_with_etag() throws Exception {
+        String etag = getMockMvc().perform(get("/info")
+            .accept(APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader("ETag");
+
+        getMockMvc().perform(get("/info")
+            .accept(APPLICATION_JSON)
+            .header("If-None-Match", etag))
+            .andExpect(status().isNotModified());
+
+        List<Prompt> original = getPrompts();
+        try {
+            setPrompts(Arrays.asList(new Prompt("how", "text", "How did I get here?")));
+            getMockMvc().perform(get("/info")
+                .accept(APPLICATION_JSON)
+                .header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.prompts.how").exists());
+        } finally {
+            setPrompts(original);
+        }
     }
 
     @Test
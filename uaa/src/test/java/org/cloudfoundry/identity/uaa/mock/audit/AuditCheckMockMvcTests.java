@@ -24,7 +24,7 @@ import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.cloudfoundry.identity.uaa.audit.JdbcAuditService;
 import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
 import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
-import org.cloudfoundry.identity.uaa.audit.event.ApprovalModifiedEvent;
+import org.cloudfoundry.identity.uaa.audit.event.ApprovalsUpdatedEvent;
 import org.cloudfoundry.identity.uaa.audit.event.TokenIssuedEvent;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.event.ClientAuthenticationFailureEvent;
@@ -548,8 +548,9 @@ public class AuditCheckMockMvcTests extends InjectedMockContextTest {
 
         assertEquals(1, testListener.getEventCount());
 
-        ApprovalModifiedEvent approvalModifiedEvent = (ApprovalModifiedEvent) testListener.getLatestEvent();
-        assertEquals(testUser.getUserName(), approvalModifiedEvent.getAuthentication().getName());
+        ApprovalsUpdatedEvent approvalsUpdatedEvent = (ApprovalsUpdatedEvent) testListener.getLatestEvent();
+        assertEquals(testUser.getUserName(), approvalsUpdatedEvent.getAuthentication().getName());
+        assertEquals(1, approvalsUpdatedEvent.getApprovals().size());
     }
 
     @Test
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ *     Cloud Foundry
+ *     Copyright (c) [2009-2016] Pivotal Software, Inc. All Rights Reserved.
+ *
+ *     This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ *     You may not use this product except in compliance with the License.
+ *
+ *     This product includes a number of subcomponents with
+ *     separate copyright notices and license terms. Your use of these
+ *     subcomponents is subject to the terms and conditions of the
+ *     subcomponent's license, as noted in the LICENSE file.
+ *******************************************************************************/
+package org.cloudfoundry.identity.uaa.mock.metrics;
+
+import org.cloudfoundry.identity.uaa.mock.InjectedMockContextTest;
+import org.cloudfoundry.identity.uaa.test.TestClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class MetricsEndpointMockMvcTests extends InjectedMockContextTest {
+
+    private TestClient testClient;
+
+    @Before
+    public void setUp() throws Exception {
+        testClient = new TestClient(getMockMvc());
+    }
+
+    @Test
+    public void metrics_require_a_token() throws Exception {
+        getMockMvc().perform(get("/metrics"))
+            .andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    public void metrics_require_uaa_admin() throws Exception {
+        String token = testClient.getClientCredentialsOAuthAccessToken("admin", "adminsecret", "scim.read");
+        getMockMvc().perform(get("/metrics").header("Authorization", "Bearer " + token))
+            .andExpect(status().isForbidden());
+    }
+
+    @Test
+    public void prometheus_is_the_default_format() throws Exception {
+        String token = testClient.getClientCredentialsOAuthAccessToken("admin", "adminsecret", "uaa.admin");
+        getMockMvc().perform(get("/metrics").header("Authorization", "Bearer " + token))
+            .andExpect(status().isOk())
+            .andExpect(content().string(containsString("# TYPE uaa_token_latency_seconds summary")))
+            .andExpect(content().string(containsString("uaa_password_match_latency_seconds_count{component=\"CachingPasswordEncoder\",method=\"matches\",outcome=\"success\"}")))
+            .andExpect(content().string(containsString("uaa_jdbc_latency_seconds_count{component=\"MultitenantJdbcClientDetailsService\",method=\"loadClientByClientId\"")))
+            .andExpect(content().string(containsString("uaa_cache_hit_ratio{cache=\"client_secret\"}")));
+    }
+
+    @Test
+    public void json_format() throws Exception {
+        String token = testClient.getClientCredentialsOAuthAccessToken("admin", "adminsecret", "uaa.admin");
+        getMockMvc().perform(get("/metrics")
+                                 .header("Authorization", "Bearer " + token)
+                                 .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.histograms").isArray())
+            .andExpect(jsonPath("$.gauges").isArray())
+            .andExpect(jsonPath("$.counters").isArray());
+    }
+}
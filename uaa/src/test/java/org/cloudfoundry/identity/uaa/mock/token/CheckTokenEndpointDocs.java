@@ -4,10 +4,17 @@ import org.apache.commons.ssl.Base64;
 import org.cloudfoundry.identity.uaa.mock.InjectedMockContextTest;
 import org.cloudfoundry.identity.uaa.test.TestClient;
 import org.cloudfoundry.identity.uaa.test.UaaTestAccounts;
+import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.MediaType;
 import org.springframework.restdocs.snippet.Snippet;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils.utils;
 import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
 import static org.springframework.restdocs.headers.HeaderDocumentation.requestHeaders;
@@ -16,13 +23,17 @@ import static org.springframework.restdocs.mockmvc.RestDocumentationRequestBuild
 import static org.springframework.restdocs.operation.preprocess.Preprocessors.preprocessResponse;
 import static org.springframework.restdocs.operation.preprocess.Preprocessors.prettyPrint;
 import static org.springframework.restdocs.payload.JsonFieldType.ARRAY;
+import static org.springframework.restdocs.payload.JsonFieldType.BOOLEAN;
 import static org.springframework.restdocs.payload.JsonFieldType.NUMBER;
+import static org.springframework.restdocs.payload.JsonFieldType.OBJECT;
 import static org.springframework.restdocs.payload.JsonFieldType.STRING;
 import static org.springframework.restdocs.payload.PayloadDocumentation.fieldWithPath;
+import static org.springframework.restdocs.payload.PayloadDocumentation.requestFields;
 import static org.springframework.restdocs.payload.PayloadDocumentation.responseFields;
 import static org.springframework.restdocs.request.RequestDocumentation.parameterWithName;
 import static org.springframework.restdocs.request.RequestDocumentation.requestParameters;
 import static org.springframework.restdocs.snippet.Attributes.key;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 public class CheckTokenEndpointDocs extends InjectedMockContextTest {
@@ -86,4 +97,47 @@ public class CheckTokenEndpointDocs extends InjectedMockContextTest {
             ), requestParameters, responseFields));
     }
 
+    @Test
+    public void checkTokenBatch() throws Exception {
+        String identityClientAuthorizationWithUaaResource = new String(Base64.encodeBase64("app:appclientsecret".getBytes()));
+
+        String identityAccessToken = utils().getUserOAuthAccessToken(
+            getMockMvc(),
+            "app",
+            "appclientsecret",
+            UaaTestAccounts.DEFAULT_USERNAME,
+            UaaTestAccounts.DEFAULT_PASSWORD,
+            ""
+        );
+
+        Snippet requestFields = requestFields(
+            fieldWithPath("tokens").type(ARRAY).description("The tokens to validate").attributes(key("constraints").value("Required")),
+            fieldWithPath("scopes").type(ARRAY).description("Scopes that every token must contain").attributes(key("constraints").value("Optional")).optional()
+        );
+
+        Snippet responseFields = responseFields(
+            fieldWithPath("[].valid").type(BOOLEAN).description("Whether the token passed validation"),
+            fieldWithPath("[].claims").type(OBJECT).description("The same claims returned by `/check_token`, only present for valid tokens").optional(),
+            fieldWithPath("[].error").type(STRING).description("OAuth2 error code, only present for invalid tokens").optional(),
+            fieldWithPath("[].error_description").type(STRING).description("Reason the token was rejected").optional()
+        );
+
+        Map<String, Object> batch = new HashMap<>();
+        batch.put("tokens", Arrays.asList(identityAccessToken, identityAccessToken + "x"));
+        batch.put("scopes", Collections.singletonList("scim.userids"));
+
+        getMockMvc().perform(post("/check_token/batch")
+            .header("Authorization", "Basic " + identityClientAuthorizationWithUaaResource)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(JsonUtils.writeValueAsString(batch)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].valid").value(true))
+            .andExpect(jsonPath("$[0].claims.user_name").value(UaaTestAccounts.DEFAULT_USERNAME))
+            .andExpect(jsonPath("$[1].valid").value(false))
+            .andExpect(jsonPath("$[1].error").value("invalid_token"))
+            .andDo(document("{ClassName}/{methodName}", preprocessResponse(prettyPrint()), requestHeaders(
+                headerWithName("Authorization").description("Uses basic authorization with base64(resource_server:shared_secret) assuming the caller (a resource server) is actually also a registered client and has `uaa.resource` authority")
+            ), requestFields, responseFields));
+    }
+
 }
@@ -21,6 +21,7 @@ import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationDetails;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob;
 import org.cloudfoundry.identity.uaa.invitations.InvitationsRequest;
 import org.cloudfoundry.identity.uaa.invitations.InvitationsResponse;
 import org.cloudfoundry.identity.uaa.login.Prompt;
@@ -387,6 +388,27 @@ public class MockMvcUtils {
         return JsonUtils.readValue(result.getResponse().getContentAsString(), IdentityZone.class);
     }
 
+    /**
+     * Polls the deletion job returned in the {@code Location} header of a
+     * zone or identity provider deletion until it has completed.
+     */
+    public static DeletionJob waitForDeletionJob(MockMvc mockMvc, String location, String accessToken) throws Exception {
+        DeletionJob job = null;
+        for (int i = 0; i < 100; i++) {
+            MvcResult result = mockMvc.perform(get(location)
+                    .header("Authorization", "Bearer " + accessToken)
+                    .accept(APPLICATION_JSON))
+                    .andExpect(status().isOk()).andReturn();
+            job = JsonUtils.readValue(result.getResponse().getContentAsString(), DeletionJob.class);
+            if (job.getStatus() == DeletionJob.Status.COMPLETED) {
+                return job;
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(DeletionJob.Status.COMPLETED, job.getStatus());
+        return job;
+    }
+
     public static class IdentityZoneCreationResult {
         private final IdentityZone identityZone;
         private final UaaPrincipal zoneAdmin;
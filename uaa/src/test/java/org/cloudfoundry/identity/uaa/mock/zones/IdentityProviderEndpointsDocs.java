@@ -45,6 +45,7 @@ import static org.cloudfoundry.identity.uaa.constants.OriginKeys.SAML;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
 import static org.springframework.restdocs.headers.HeaderDocumentation.requestHeaders;
+import static org.springframework.restdocs.headers.HeaderDocumentation.responseHeaders;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
 import static org.springframework.restdocs.mockmvc.RestDocumentationRequestBuilders.delete;
 import static org.springframework.restdocs.mockmvc.RestDocumentationRequestBuilders.get;
@@ -422,6 +423,9 @@ public class IdentityProviderEndpointsDocs extends InjectedMockContextTest {
                     headerWithName("Authorization").description("Bearer token containing `zones.<zone id>.admin` or `uaa.admin` or `idps.write` (only in the same zone that you are a user of)"),
                     headerWithName("X-Identity-Zone-Id").description("May include this header to administer another zone if using `zones.<zone id>.admin` or `uaa.admin` scope against the default UAA zone.").optional()
                 ),
+                responseHeaders(
+                    headerWithName("Location").description("The deletion job that removes the users of the identity provider in the background")
+                ),
                 responseFields(getCommonFieldDescriptors())));
     }
 
@@ -429,7 +433,7 @@ public class IdentityProviderEndpointsDocs extends InjectedMockContextTest {
         return getMockMvc().perform(delete("/identity-providers/{id}", id)
             .header("Authorization", "Bearer " + adminToken)
             .contentType(APPLICATION_JSON))
-            .andExpect(status().isOk());
+            .andExpect(status().isAccepted());
     }
 
     private ResultActions createIdentityProviderHelper(IdentityProvider identityProvider) throws Exception {
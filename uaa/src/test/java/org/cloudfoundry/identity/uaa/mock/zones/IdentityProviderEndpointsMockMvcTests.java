@@ -16,6 +16,9 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.commons.lang.RandomStringUtils;
 import org.cloudfoundry.identity.uaa.audit.AuditEventType;
 import org.cloudfoundry.identity.uaa.constants.OriginKeys;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJobService;
+import org.cloudfoundry.identity.uaa.deletion.JdbcDeletionJobProvisioning;
 import org.cloudfoundry.identity.uaa.mock.InjectedMockContextTest;
 import org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils;
 import org.cloudfoundry.identity.uaa.provider.AbstractXOAuthIdentityProviderDefinition;
@@ -151,16 +154,34 @@ public class IdentityProviderEndpointsMockMvcTests extends InjectedMockContextTe
             delete("/identity-providers/{id}", created.getId())
         ).andExpect(status().isUnauthorized());
 
-        getMockMvc().perform(
+        String location = getMockMvc().perform(
             delete("/identity-providers/{id}", created.getId())
                 .header("Authorization", "Bearer" + accessToken)
-        ).andExpect(status().isOk());
+        ).andExpect(status().isAccepted())
+            .andReturn().getResponse().getHeader("Location");
 
         getMockMvc().perform(
             get("/identity-providers/{id}", created.getId())
                 .header("Authorization", "Bearer" + accessToken)
         ).andExpect(status().isNotFound());
 
+        DeletionJob job = MockMvcUtils.waitForDeletionJob(getMockMvc(), location, accessToken);
+        assertEquals(created.getOriginKey(), job.getOriginKey());
+
+    }
+
+    @Test
+    public void test_create_while_users_are_being_deleted_returns_409() throws Exception {
+        String accessToken = setUpAccessToken();
+        String origin = new RandomValueStringGenerator().generate();
+        JdbcDeletionJobProvisioning deletionJobs = getWebApplicationContext().getBean(JdbcDeletionJobProvisioning.class);
+        DeletionJob job = deletionJobs.create(new DeletionJob(DeletionJob.IDENTITY_PROVIDER, "deleted-id", IdentityZone.getUaa().getId(), origin));
+
+        IdentityProvider identityProvider = MultitenancyFixture.identityProvider(origin, IdentityZone.getUaa().getId());
+        createIdentityProvider(null, identityProvider, accessToken, status().isConflict());
+
+        getWebApplicationContext().getBean(DeletionJobService.class).run(job.getId());
+        createIdentityProvider(null, identityProvider, accessToken, status().isCreated());
     }
 
     @Test
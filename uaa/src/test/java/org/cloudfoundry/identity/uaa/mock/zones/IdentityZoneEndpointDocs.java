@@ -1,6 +1,7 @@
 package org.cloudfoundry.identity.uaa.mock.zones;
 
 import org.cloudfoundry.identity.uaa.mock.InjectedMockContextTest;
+import org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils;
 import org.cloudfoundry.identity.uaa.test.TestClient;
 import org.cloudfoundry.identity.uaa.util.JsonUtils;
 import org.cloudfoundry.identity.uaa.zone.IdentityZone;
@@ -18,6 +19,7 @@ import java.util.Map;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
 import static org.springframework.restdocs.headers.HeaderDocumentation.requestHeaders;
+import static org.springframework.restdocs.headers.HeaderDocumentation.responseHeaders;
 import static org.springframework.restdocs.mockmvc.MockMvcRestDocumentation.document;
 import static org.springframework.restdocs.mockmvc.RestDocumentationRequestBuilders.delete;
 import static org.springframework.restdocs.mockmvc.RestDocumentationRequestBuilders.get;
@@ -326,11 +328,11 @@ public class IdentityZoneEndpointDocs extends InjectedMockContextTest {
             "identitysecret",
             "zones.write");
 
-        getMockMvc().perform(
+        String location = getMockMvc().perform(
             delete("/identity-zones/{id}", id)
                 .header("Authorization", "Bearer " + identityClientWriteToken)
                 .contentType(APPLICATION_JSON))
-            .andExpect(status().is(HttpStatus.OK.value()))
+            .andExpect(status().is(HttpStatus.ACCEPTED.value()))
             .andDo(document("{ClassName}/{methodName}",
                 preprocessResponse(prettyPrint()),
                 pathParameters(
@@ -339,7 +341,41 @@ public class IdentityZoneEndpointDocs extends InjectedMockContextTest {
                 requestHeaders(
                     headerWithName("Authorization").description("Bearer token containing `zones.write`")
                 ),
+                responseHeaders(
+                    headerWithName("Location").description("The deletion job that removes the users, groups, clients and tokens of the zone in the background")
+                ),
                 getResponseFields()
+            ))
+            .andReturn().getResponse().getHeader("Location");
+
+        MockMvcUtils.waitForDeletionJob(getMockMvc(), location, identityClientWriteToken);
+        getMockMvc().perform(
+            get("/deletion-jobs/{jobId}", location.substring(location.lastIndexOf('/') + 1))
+                .header("Authorization", "Bearer " + identityClientWriteToken)
+                .accept(APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andDo(document("{ClassName}/getDeletionJob",
+                preprocessResponse(prettyPrint()),
+                pathParameters(
+                    parameterWithName("jobId").description("Unique ID of the deletion job")
+                ),
+                requestHeaders(
+                    headerWithName("Authorization").description("Bearer token containing `zones.read`, `zones.write`, `idps.read` or `idps.write`")
+                ),
+                responseFields(
+                    fieldWithPath("id").description("Unique ID of the deletion job"),
+                    fieldWithPath("entityType").description("`identity_zone` or `identity_provider`"),
+                    fieldWithPath("entityId").description("ID of the deleted identity zone or identity provider"),
+                    fieldWithPath("identityZoneId").description("ID of the identity zone the deleted entity belonged to"),
+                    fieldWithPath("originKey").type(STRING).description("Origin key of the deleted identity provider").optional(),
+                    fieldWithPath("status").description("`PENDING`, `RUNNING`, `COMPLETED` or `FAILED`"),
+                    fieldWithPath("step").type(STRING).description("The kind of data the job is, or was last, deleting").optional(),
+                    fieldWithPath("deletedCount").description("Number of entities deleted so far"),
+                    fieldWithPath("nodeId").type(STRING).description("The UAA instance running the job").optional(),
+                    fieldWithPath("errorMessage").type(STRING).description("Why the job failed").optional(),
+                    fieldWithPath("created").description("Epoch timestamp, in milliseconds, of when the job was created"),
+                    fieldWithPath("lastModified").description("Epoch timestamp, in milliseconds, of the job's latest progress")
+                )
             ));
     }
 
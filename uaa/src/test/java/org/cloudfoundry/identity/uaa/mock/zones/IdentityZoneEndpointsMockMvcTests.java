@@ -9,6 +9,9 @@ import org.cloudfoundry.identity.uaa.audit.event.AbstractUaaEvent;
 import org.cloudfoundry.identity.uaa.audit.event.EntityDeletedEvent;
 import org.cloudfoundry.identity.uaa.client.event.ClientCreateEvent;
 import org.cloudfoundry.identity.uaa.client.event.ClientDeleteEvent;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJob;
+import org.cloudfoundry.identity.uaa.deletion.DeletionJobService;
+import org.cloudfoundry.identity.uaa.deletion.JdbcDeletionJobProvisioning;
 import org.cloudfoundry.identity.uaa.mock.InjectedMockContextTest;
 import org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils;
 import org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils.IdentityZoneCreationResult;
@@ -61,6 +64,7 @@ import static org.cloudfoundry.identity.uaa.constants.OriginKeys.LOGIN_SERVER;
 import static org.cloudfoundry.identity.uaa.constants.OriginKeys.UAA;
 import static org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils.CookieCsrfPostProcessor.cookieCsrf;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
@@ -524,6 +528,18 @@ public class IdentityZoneEndpointsMockMvcTests extends InjectedMockContextTest {
         assertEquals(1, zoneModifiedEventListener.getEventCount());
     }
 
+    @Test
+    public void testCreateZoneWhileItsDataIsBeingDeletedReturns409() throws Exception {
+        String id = generator.generate();
+        JdbcDeletionJobProvisioning deletionJobs = getWebApplicationContext().getBean(JdbcDeletionJobProvisioning.class);
+        DeletionJob job = deletionJobs.create(new DeletionJob(DeletionJob.IDENTITY_ZONE, id, id, null));
+
+        createZone(id, HttpStatus.CONFLICT, identityClientToken);
+
+        getWebApplicationContext().getBean(DeletionJobService.class).run(job.getId());
+        createZone(id, HttpStatus.CREATED, identityClientToken);
+    }
+
     @Test
     public void testCreateZoneAndIdentityProvider() throws Exception {
         String id = UUID.randomUUID().toString();
@@ -835,11 +851,12 @@ public class IdentityZoneEndpointsMockMvcTests extends InjectedMockContextTest {
         assertEquals(1, approvalStore.getApprovals(user.getId(), client.getClientId()).size());
 
         //perform zone delete
-        getMockMvc().perform(
+        String location = getMockMvc().perform(
             delete("/identity-zones/{id}", zone.getId())
                 .header("Authorization", "Bearer " + identityClientToken)
                 .accept(APPLICATION_JSON))
-            .andExpect(status().isOk());
+            .andExpect(status().isAccepted())
+            .andReturn().getResponse().getHeader("Location");
 
         getMockMvc().perform(
             delete("/identity-zones/{id}", zone.getId())
@@ -847,6 +864,10 @@ public class IdentityZoneEndpointsMockMvcTests extends InjectedMockContextTest {
                 .accept(APPLICATION_JSON))
             .andExpect(status().isNotFound());
 
+        DeletionJob job = MockMvcUtils.waitForDeletionJob(getMockMvc(), location, identityClientToken);
+        assertEquals(zone.getId(), job.getIdentityZoneId());
+        assertThat(job.getDeletedCount(), greaterThan(0L));
+
         assertThat(template.queryForObject("select count(*) from identity_zone where id=?", new Object[] {zone.getId()}, Integer.class), is(0));
 
         assertThat(template.queryForObject("select count(*) from oauth_client_details where identity_zone_id=?", new Object[] {zone.getId()}, Integer.class), is(0));
@@ -882,7 +903,7 @@ public class IdentityZoneEndpointsMockMvcTests extends InjectedMockContextTest {
             delete("/identity-zones/{id}", zone.getId())
                 .header("Authorization", "Bearer " + identityClientToken)
                 .accept(APPLICATION_JSON))
-            .andExpect(status().isOk());
+            .andExpect(status().isAccepted());
 
         assertThat(uaaEventListener.getEventCount(), is(1));
         AbstractUaaEvent event = uaaEventListener.getLatestEvent();
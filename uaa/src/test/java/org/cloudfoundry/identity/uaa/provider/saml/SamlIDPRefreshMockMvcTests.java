@@ -17,6 +17,7 @@ import org.cloudfoundry.identity.uaa.constants.OriginKeys;
 import org.cloudfoundry.identity.uaa.mock.InjectedMockContextTest;
 import org.cloudfoundry.identity.uaa.mock.util.MockMvcUtils;
 import org.cloudfoundry.identity.uaa.provider.IdentityProvider;
+import org.cloudfoundry.identity.uaa.provider.IdentityProviderCache;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderEndpoints;
 import org.cloudfoundry.identity.uaa.provider.IdentityProviderProvisioning;
 import org.cloudfoundry.identity.uaa.provider.SamlIdentityProviderDefinition;
@@ -35,6 +36,7 @@ import org.junit.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.oauth2.common.util.RandomValueStringGenerator;
 import org.springframework.security.saml.metadata.ExtendedMetadataDelegate;
@@ -43,6 +45,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -51,6 +54,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.redirectedUrl;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.xpath;
@@ -136,6 +140,7 @@ public class SamlIDPRefreshMockMvcTests extends InjectedMockContextTest {
     @After
     public void cleanSamlProviders() throws Exception {
         jdbcTemplate.update("UPDATE identity_provider SET active=? WHERE type=?", false, OriginKeys.SAML);
+        invalidateProviderCache();
         for (SamlIdentityProviderDefinition definition : configurator.getIdentityProviderDefinitions()) {
             configurator.removeIdentityProviderDefinition(definition);
         }
@@ -158,10 +163,18 @@ public class SamlIDPRefreshMockMvcTests extends InjectedMockContextTest {
             assertEquals(1, zoneAwareMetadataManager.getAvailableProviders().size());
         }
         jdbcTemplate.update("delete from identity_provider where type=?", OriginKeys.SAML);
+        invalidateProviderCache();
         SecurityContextHolder.clearContext();
         IdentityZoneHolder.clear();
     }
 
+    private void invalidateProviderCache() {
+        IdentityProviderCache cache = getWebApplicationContext().getBean(IdentityProviderCache.class);
+        for (IdentityZone zone : zoneProvisioning.retrieveAll()) {
+            cache.invalidate(zone.getId());
+        }
+    }
+
     @Test
     public void testFallbackIDP_shows_Error_Message_Instead_Of_Default() throws Exception {
         String nonExistentIDPDiscovery = "/saml/discovery?returnIDParam=idp&entityID=cloudfoundry-saml-login&idp=NON-EXISTENT-ALIAS&isPassive=true";
@@ -435,6 +448,27 @@ public class SamlIDPRefreshMockMvcTests extends InjectedMockContextTest {
 
     }
 
+    @Test
+    public void metadata_is_served_with_etag() throws Exception {
+        for (String path : new String[] {"/saml/metadata", "/saml/idp/metadata"}) {
+            MvcResult result = getMockMvc().perform(get(path))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("entityID=")))
+                .andReturn();
+            String etag = result.getResponse().getHeader("ETag");
+            assertNotNull(path, etag);
+
+            getMockMvc().perform(get(path).header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().string(""));
+
+            getMockMvc().perform(get(path).header("If-None-Match", "\"other\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string(result.getResponse().getContentAsString()));
+        }
+    }
+
     @Test
     public void metadataInZoneContainsCorrectCertificate() throws Exception {
         String zoneName = new RandomValueStringGenerator().generate();
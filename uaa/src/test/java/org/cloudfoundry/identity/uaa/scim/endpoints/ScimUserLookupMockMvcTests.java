@@ -30,6 +30,7 @@ import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilde
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -243,6 +244,30 @@ public class ScimUserLookupMockMvcTests extends InjectedMockContextTest {
 
     }
 
+    @Test
+    public void testLookupIdsAndUsernamesInBulk() throws Exception {
+        ScimUser inactiveUser = createInactiveIdp(new RandomValueStringGenerator().generate() + "test-origin");
+        String[][] users = createUsers(adminToken, 2);
+        Map<String, Object> request = new HashMap<>();
+        request.put("ids", Arrays.asList(users[0][0], inactiveUser.getId()));
+        request.put("userNames", Arrays.asList(users[1][1]));
+
+        MockHttpServletRequestBuilder post = post("/ids/Users")
+            .header("Authorization", "Bearer " + scimLookupIdUserToken)
+            .contentType(APPLICATION_JSON)
+            .accept(APPLICATION_JSON)
+            .content(JsonUtils.writeValueAsBytes(request));
+        String body = getMockMvc().perform(post)
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+        validateLookupResults(new String[] {users[0][1], users[1][1]}, body);
+
+        body = getMockMvc().perform(post.param("includeInactive", "true"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getContentAsString();
+        validateLookupResults(new String[] {users[0][1], users[1][1], inactiveUser.getUserName()}, body);
+    }
+
     private MockHttpServletRequestBuilder getIdLookupRequest(String token, String username, String operator) {
         if (operator==null) {
             operator = "eq";